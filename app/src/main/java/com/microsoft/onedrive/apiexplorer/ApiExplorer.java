@@ -26,6 +26,7 @@ import android.app.Activity;
 import android.os.Bundle;
 import android.view.Menu;
 import android.view.MenuItem;
+import android.widget.Toast;
 
 /**
  * OneDrive Api Explorer
@@ -44,14 +45,16 @@ public class ApiExplorer extends Activity implements ItemFragment.OnFragmentInte
 
         setContentView(R.layout.activity_api_explorer);
 
-        application.goToWifiSettingsIfDisconnected();
+        if (application.getConnectivityMonitor().getNetworkClass() == ConnectivityMonitor.NetworkClass.Offline) {
+            Toast.makeText(this, R.string.offline_message, Toast.LENGTH_LONG).show();
+        }
     }
 
     @Override
-    public void onFragmentInteraction(final DisplayItem item) {
+    public void onFragmentInteraction(final String itemId) {
         getFragmentManager()
                 .beginTransaction()
-                .replace(R.id.fragment, ItemFragment.newInstance(item.getId()))
+                .replace(R.id.fragment, ItemFragment.newInstance(itemId))
                 .addToBackStack(null)
                 .commit();
     }
@@ -68,6 +71,15 @@ public class ApiExplorer extends Activity implements ItemFragment.OnFragmentInte
         return true;
     }
 
+    @Override
+    public boolean onPrepareOptionsMenu(final Menu menu) {
+        final MenuItem waitForUnmetered = menu.findItem(R.id.action_wait_for_unmetered);
+        if (waitForUnmetered != null) {
+            waitForUnmetered.setChecked(((BaseApplication) getApplication()).isWaitingForUnmeteredNetwork());
+        }
+        return super.onPrepareOptionsMenu(menu);
+    }
+
     /**
      * Handle options menu selection
      * @param item The menu item that was selected
@@ -88,6 +100,22 @@ public class ApiExplorer extends Activity implements ItemFragment.OnFragmentInte
             return true;
         }
 
+        if (id == R.id.action_wait_for_unmetered) {
+            final boolean wait = !item.isChecked();
+            item.setChecked(wait);
+            ((BaseApplication) getApplication()).setWaitingForUnmeteredNetwork(wait);
+            return true;
+        }
+
+        if (id == R.id.action_diagnostics) {
+            getFragmentManager()
+                    .beginTransaction()
+                    .replace(R.id.fragment, new DiagnosticsFragment())
+                    .addToBackStack(null)
+                    .commit();
+            return true;
+        }
+
         return super.onOptionsItemSelected(item);
     }
 
@@ -0,0 +1,434 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.concurrency.AsyncMonitor;
+import com.onedrive.sdk.concurrency.AsyncOperationStatus;
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.core.OneDriveErrorCodes;
+import com.onedrive.sdk.extensions.Item;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Watches every long running operation of the application from one scheduler thread. Each job is polled on its own
+ * backoff, estimated from how fast its reported progress moves and spread out with jitter, so short jobs finish
+ * promptly and long ones do not hammer the monitor endpoint
+ */
+class AsyncJobMonitor {
+
+    /**
+     * The shortest wait between polls of a job, in milliseconds
+     */
+    private static final long MIN_DELAY_MS = 250;
+
+    /**
+     * The longest wait between polls of a job, in milliseconds
+     */
+    private static final long MAX_DELAY_MS = 30 * 1000;
+
+    /**
+     * The fraction of the delay that is randomized in either direction
+     */
+    private static final double JITTER = 0.2;
+
+    /**
+     * The fraction of the estimated remaining time to wait before polling again
+     */
+    private static final double ESTIMATE_FRACTION = 0.5;
+
+    /**
+     * The percentage reported by a finished job
+     */
+    private static final double COMPLETE_PERCENTAGE = 100;
+
+    /**
+     * The status of a finished job
+     */
+    private static final String STATUS_COMPLETED = "completed";
+
+    /**
+     * The status of a failed job
+     */
+    private static final String STATUS_FAILED = "failed";
+
+    /**
+     * Polls the jobs
+     */
+    private final ScheduledExecutorService mScheduler = Executors.newSingleThreadScheduledExecutor();
+
+    /**
+     * The jobs being watched
+     */
+    private final Set<Job> mJobs = new HashSet<>();
+
+    /**
+     * Spreads out the polls, only used on the scheduler thread
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Used to deliver results on the ui thread
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Starts watching a job
+     * @param name The name shown for the job
+     * @param monitor The monitor of the job
+     * @param listener The listener notified on the ui thread, or null until a screen takes the job over
+     * @return The job
+     */
+    Job watch(final String name, final AsyncMonitor<Item> monitor, final Listener listener) {
+        final Job job = new Job(name, monitor, listener);
+        synchronized (mJobs) {
+            mJobs.add(job);
+        }
+        schedule(job, MIN_DELAY_MS);
+        return job;
+    }
+
+    /**
+     * Stops watching a job, the service carries on with it regardless
+     * @param job The job
+     * @return If the job was still being watched, if so its listener will not be called again
+     */
+    boolean stop(final Job job) {
+        synchronized (mJobs) {
+            return mJobs.remove(job);
+        }
+    }
+
+    /**
+     * Gets the jobs being watched, and the finished jobs whose outcome no screen has picked up yet, so that a new
+     * screen can take them over with {@link Job#setListener(Listener)}
+     * @return The jobs
+     */
+    List<Job> getJobs() {
+        synchronized (mJobs) {
+            return new ArrayList<>(mJobs);
+        }
+    }
+
+    /**
+     * Schedules the next poll of a job
+     * @param job The job
+     * @param delay The delay before the poll, in milliseconds
+     */
+    private void schedule(final Job job, final long delay) {
+        mScheduler.schedule(new Runnable() {
+            @Override
+            public void run() {
+                poll(job);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Polls a job and either reports its outcome or schedules the next poll, any failure finishes the job
+     * @param job The job
+     */
+    private void poll(final Job job) {
+        if (!isWatched(job)) {
+            return;
+        }
+        try {
+            check(job);
+        } catch (final ClientException e) {
+            finish(job, null, e);
+        } catch (final RuntimeException e) {
+            // The scheduler would swallow it, leaving the job watched with no poll to come and its listener untold
+            finish(job, null, new ClientException(job.mName + " could not be polled",
+                                                  e,
+                                                  OneDriveErrorCodes.GeneralException));
+        }
+    }
+
+    /**
+     * Reads the status of a job and either reports its outcome or schedules the next poll
+     * @param job The job
+     * @throws ClientException If the status or result could not be read
+     */
+    private void check(final Job job) throws ClientException {
+        final AsyncOperationStatus status = job.mMonitor.getStatus();
+        if (STATUS_COMPLETED.equalsIgnoreCase(status.status)) {
+            finish(job, job.mMonitor.getResult(), null);
+            return;
+        }
+        if (STATUS_FAILED.equalsIgnoreCase(status.status)) {
+            finish(job, null, new ClientException(job.mName + " failed", null, OneDriveErrorCodes.GeneralException));
+            return;
+        }
+
+        final long now = SystemClock.elapsedRealtime();
+        double percentage = job.mPercentage;
+        if (status.percentageComplete != null) {
+            percentage = status.percentageComplete;
+        }
+        job.mDelay = nextDelay(job, percentage, now);
+        job.mPercentage = percentage;
+        job.mPolledAt = now;
+        deliverProgress(job);
+        schedule(job, job.mDelay);
+    }
+
+    /**
+     * Works out how long to wait before polling a job again. While the job reports progress the wait is a fraction
+     * of its estimated remaining time, otherwise the previous wait is doubled
+     * @param job The job
+     * @param percentage The percentage the job just reported
+     * @param now The time of the poll
+     * @return The delay, in milliseconds
+     */
+    private long nextDelay(final Job job, final double percentage, final long now) {
+        final double rate = (percentage - job.mPercentage) / Math.max(1, now - job.mPolledAt);
+        double delay;
+        if (rate > 0) {
+            delay = (COMPLETE_PERCENTAGE - percentage) / rate * ESTIMATE_FRACTION;
+        } else {
+            delay = job.mDelay * 2;
+        }
+        delay *= 1 + JITTER * (mRandom.nextDouble() * 2 - 1);
+        return Math.max(MIN_DELAY_MS, Math.min(MAX_DELAY_MS, (long) delay));
+    }
+
+    /**
+     * Gets if a job is still being watched
+     * @param job The job
+     * @return If the job is being watched
+     */
+    private boolean isWatched(final Job job) {
+        synchronized (mJobs) {
+            return mJobs.contains(job);
+        }
+    }
+
+    /**
+     * Records the outcome of a job and reports it on the ui thread, if no screen has the job its outcome is kept
+     * until one takes it over
+     * @param job The job
+     * @param result The resulting item, if the job succeeded
+     * @param error The failure, if the job failed
+     */
+    private void finish(final Job job, final Item result, final ClientException error) {
+        job.mResult = result;
+        job.mError = error;
+        job.mFinished = true;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                deliverOutcome(job);
+            }
+        });
+    }
+
+    /**
+     * Reports the outcome of a finished job to its listener and stops watching it, this must be called on the ui
+     * thread
+     * @param job The job
+     */
+    private void deliverOutcome(final Job job) {
+        final Listener listener = job.mListener;
+        if (listener == null || !stop(job)) {
+            return;
+        }
+        if (job.mError == null) {
+            listener.onComplete(job, job.mResult);
+        } else {
+            listener.onFailure(job, job.mError);
+        }
+    }
+
+    /**
+     * Reports the progress of a job
+     * @param job The job
+     */
+    private void deliverProgress(final Job job) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final Listener listener = job.mListener;
+                if (listener != null && isWatched(job)) {
+                    listener.onProgress(job);
+                }
+            }
+        });
+    }
+
+    /**
+     * Notified on the ui thread about a job
+     */
+    interface Listener {
+
+        /**
+         * Called after each poll of a job that is still running
+         * @param job The job
+         */
+        void onProgress(final Job job);
+
+        /**
+         * Called once the job has finished
+         * @param job The job
+         * @param result The resulting item
+         */
+        void onComplete(final Job job, final Item result);
+
+        /**
+         * Called if the job failed or could not be polled
+         * @param job The job
+         * @param error The failure
+         */
+        void onFailure(final Job job, final ClientException error);
+    }
+
+    /**
+     * A job being watched
+     */
+    final class Job {
+
+        /**
+         * The name shown for the job
+         */
+        private final String mName;
+
+        /**
+         * The monitor of the job
+         */
+        private final AsyncMonitor<Item> mMonitor;
+
+        /**
+         * The listener, replaced when a new screen takes over the job, or null while no screen has it
+         */
+        private volatile Listener mListener;
+
+        /**
+         * If the job has finished, its outcome is then in {@link #mResult} or {@link #mError}
+         */
+        private volatile boolean mFinished;
+
+        /**
+         * The resulting item, once the job has succeeded
+         */
+        private volatile Item mResult;
+
+        /**
+         * The failure, once the job has failed
+         */
+        private volatile ClientException mError;
+
+        /**
+         * If the user chose to stop seeing the progress of the job
+         */
+        private volatile boolean mHidden;
+
+        /**
+         * The last reported percentage, written on the scheduler thread
+         */
+        private volatile double mPercentage;
+
+        /**
+         * When the job was last polled, only used on the scheduler thread
+         */
+        private long mPolledAt = SystemClock.elapsedRealtime();
+
+        /**
+         * The last wait between polls, only used on the scheduler thread
+         */
+        private long mDelay = MIN_DELAY_MS;
+
+        /**
+         * Default constructor
+         * @param name The name shown for the job
+         * @param monitor The monitor of the job
+         * @param listener The listener
+         */
+        private Job(final String name, final AsyncMonitor<Item> monitor, final Listener listener) {
+            mName = name;
+            mMonitor = monitor;
+            mListener = listener;
+        }
+
+        /**
+         * The name shown for the job
+         * @return The name
+         */
+        String getName() {
+            return mName;
+        }
+
+        /**
+         * The last reported progress
+         * @return The percentage complete
+         */
+        double getPercentage() {
+            return mPercentage;
+        }
+
+        /**
+         * If the user chose to stop seeing the progress of the job
+         * @return If the job is hidden
+         */
+        boolean isHidden() {
+            return mHidden;
+        }
+
+        /**
+         * Stops showing the progress of the job, its outcome is still reported
+         */
+        void hide() {
+            mHidden = true;
+        }
+
+        /**
+         * The listener of the job
+         * @return The listener, or null while no screen has the job
+         */
+        Listener getListener() {
+            return mListener;
+        }
+
+        /**
+         * Hands the job over to a new listener, this must be called on the ui thread. If the job finished while no
+         * screen had it the listener is told its outcome straight away
+         * @param listener The listener, or null while no screen has the job
+         */
+        void setListener(final Listener listener) {
+            mListener = listener;
+            if (mFinished) {
+                deliverOutcome(this);
+            }
+        }
+    }
+}
@@ -26,13 +26,11 @@ import android.app.Activity;
 import android.app.Application;
 import android.content.Context;
 import android.content.Intent;
-import android.graphics.Bitmap;
-import android.net.ConnectivityManager;
-import android.net.NetworkInfo;
-import android.provider.Settings;
-import android.util.LruCache;
+import android.content.SharedPreferences;
+import android.view.WindowManager;
 import android.widget.Toast;
 
+import com.onedrive.sdk.authentication.IAuthenticator;
 import com.onedrive.sdk.authentication.MSAAuthenticator;
 import com.onedrive.sdk.concurrency.ICallback;
 import com.onedrive.sdk.core.ClientException;
@@ -42,6 +40,7 @@ import com.onedrive.sdk.extensions.IOneDriveClient;
 import com.onedrive.sdk.extensions.OneDriveClient;
 import com.onedrive.sdk.logger.LoggerLevel;
 
+import java.io.File;
 import java.util.concurrent.atomic.AtomicReference;
 
 /**
@@ -50,14 +49,109 @@ import java.util.concurrent.atomic.AtomicReference;
 public class BaseApplication extends Application {
 
     /**
-     * The number of thumbnails to cache
+     * The fraction of the heap that thumbnails may use, as a divisor
      */
-    private static final int MAX_IMAGE_CACHE_SIZE = 300;
+    private static final int IMAGE_CACHE_HEAP_DIVISOR = 8;
+
+    /**
+     * The number of bytes of thumbnails to keep on disk
+     */
+    private static final long MAX_IMAGE_DISK_CACHE_SIZE = 20 * 1024 * 1024;
+
+    /**
+     * The directory within the cache directory for thumbnails
+     */
+    private static final String IMAGE_CACHE_DIRECTORY = "thumbnails";
+
+    /**
+     * The maximum number of bytes of bitmaps kept for reuse
+     */
+    private static final long MAX_BITMAP_POOL_SIZE = 4 * 1024 * 1024;
+
+    /**
+     * The preferences file holding the transfer settings
+     */
+    private static final String TRANSFER_SETTINGS_PREFERENCES = "transfer_settings";
+
+    /**
+     * The preference for waiting for an unmetered network before transferring files
+     */
+    private static final String WAIT_FOR_UNMETERED_PREF_KEY = "wait_for_unmetered";
+
+    /**
+     * The class in the mock build type that starts the stand-in for the service
+     */
+    private static final String MOCK_SERVICE_CLASS = "com.microsoft.onedrive.apiexplorer.MockService";
 
     /**
      * Thumbnail cache
      */
-    private LruCache<String, Bitmap> mImageCache;
+    private ThumbnailCache mImageCache;
+
+    /**
+     * The uploader for large files
+     */
+    private ChunkedUploader mChunkedUploader;
+
+    /**
+     * The scheduler for thumbnail downloads
+     */
+    private ThumbnailScheduler mThumbnailScheduler;
+
+    /**
+     * The local item metadata store
+     */
+    private ItemStore mItemStore;
+
+    /**
+     * The pool of reusable bitmaps
+     */
+    private BitmapPool mBitmapPool;
+
+    /**
+     * The thumbnail decoder
+     */
+    private ThumbnailDecoder mThumbnailDecoder;
+
+    /**
+     * Batches ui updates into frames
+     */
+    private FrameCoalescer mFrameCoalescer;
+
+    /**
+     * The item request coalescer
+     */
+    private ItemRequestCoalescer mItemRequestCoalescer;
+
+    /**
+     * Measures frame intervals
+     */
+    private FrameMonitor mFrameMonitor;
+
+    /**
+     * The request timings
+     */
+    private RequestMetrics mRequestMetrics;
+
+    /**
+     * The monitor of long running jobs
+     */
+    private AsyncJobMonitor mAsyncJobMonitor;
+
+    /**
+     * The bulk operation executor
+     */
+    private BulkOperationExecutor mBulkOperationExecutor;
+
+    /**
+     * The download engine
+     */
+    private DownloadEngine mDownloadEngine;
+
+    /**
+     * The delta sync engine
+     */
+    private DeltaSyncEngine mDeltaSyncEngine;
 
     /**
      * The service instance
@@ -65,9 +159,34 @@ public class BaseApplication extends Application {
     private final AtomicReference<IOneDriveClient> mClient = new AtomicReference<>();
 
     /**
-     * The system connectivity manager
+     * Signs in to the stand-in for the service in mock builds, kept so that every client uses the same stand-in
+     */
+    private IAuthenticator mMockAuthenticator;
+
+    /**
+     * The connectivity monitor
      */
-    private ConnectivityManager mConnectivityManager;
+    private ConnectivityMonitor mConnectivityMonitor;
+
+    /**
+     * The durable queue of uploads and downloads
+     */
+    private TransferQueue mTransferQueue;
+
+    /**
+     * The index of the names of the items seen so far
+     */
+    private SearchIndex mSearchIndex;
+
+    /**
+     * The metadata of the items seen so far
+     */
+    private ItemTree mItemTree;
+
+    /**
+     * The subtree totals of the item tree
+     */
+    private StorageAggregator mStorageAggregator;
 
     /**
      * What to do when the application starts
@@ -75,15 +194,51 @@ public class BaseApplication extends Application {
     @Override
     public void onCreate() {
         super.onCreate();
-        mConnectivityManager = (ConnectivityManager)getSystemService(Context.CONNECTIVITY_SERVICE);
+        getConnectivityMonitor().addListener(getTransferQueue());
     }
 
     /**
-     * Create the client configuration
+     * Create the client configuration, mock builds sign in to a local stand-in for the service instead of a
+     * Microsoft account
      * @return the newly created configuration
      */
     private IClientConfig createConfig() {
-        final MSAAuthenticator msaAuthenticator = new MSAAuthenticator() {
+        final IAuthenticator authenticator;
+        if (BuildConfig.USE_MOCK_SERVICE) {
+            authenticator = getMockAuthenticator();
+        } else {
+            authenticator = createMsaAuthenticator();
+        }
+
+        final IClientConfig config = DefaultClientConfig.createWithAuthenticator(authenticator);
+        config.getLogger().setLoggingLevel(LoggerLevel.Debug);
+        return new InstrumentedClientConfig(config, getRequestMetrics());
+    }
+
+    /**
+     * Gets the authenticator for the stand-in for the service, starting the stand-in the first time. The stand-in
+     * lives in the mock build type's source set, so it is reached by name
+     * @return the authenticator
+     */
+    private synchronized IAuthenticator getMockAuthenticator() {
+        if (mMockAuthenticator == null) {
+            try {
+                mMockAuthenticator = (IAuthenticator) Class.forName(MOCK_SERVICE_CLASS)
+                    .getDeclaredMethod("createAuthenticator")
+                    .invoke(null);
+            } catch (final ReflectiveOperationException e) {
+                throw new IllegalStateException("Unable to start the mock service", e);
+            }
+        }
+        return mMockAuthenticator;
+    }
+
+    /**
+     * Create the authenticator for Microsoft accounts
+     * @return the authenticator
+     */
+    private IAuthenticator createMsaAuthenticator() {
+        return new MSAAuthenticator() {
             @Override
             public String getClientId() {
                 return "000000004C146A60";
@@ -94,31 +249,72 @@ public class BaseApplication extends Application {
                 return new String[] {"onedrive.readwrite", "onedrive.appfolder", "wl.offline_access"};
             }
         };
+    }
 
-        final IClientConfig config = DefaultClientConfig.createWithAuthenticator(msaAuthenticator);
-        config.getLogger().setLoggingLevel(LoggerLevel.Debug);
-        return config;
+    /**
+     * Gets the connectivity monitor for this application
+     *
+     * @return the connectivity monitor
+     */
+    synchronized ConnectivityMonitor getConnectivityMonitor() {
+        if (mConnectivityMonitor == null) {
+            mConnectivityMonitor = new ConnectivityMonitor(this);
+        }
+        return mConnectivityMonitor;
     }
 
     /**
-     * Navigates the user to the wifi settings if there is a connection problem
+     * Gets the durable queue of uploads and downloads
      *
-     * @return if the wifi activity was navigated to
+     * @return the transfer queue
      */
-    synchronized boolean goToWifiSettingsIfDisconnected() {
-        final NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
-        if (info == null || !info.isConnected()) {
-            Toast.makeText(this, getString(R.string.wifi_unavailable_error_message), Toast.LENGTH_LONG).show();
-            final Intent intent = new Intent(Settings.ACTION_WIFI_SETTINGS);
-            intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
-            startActivity(intent);
-            return true;
+    synchronized TransferQueue getTransferQueue() {
+        if (mTransferQueue == null) {
+            mTransferQueue = new TransferQueue(this, getChunkedUploader().getPendingSessions());
         }
-        return false;
+        return mTransferQueue;
+    }
+
+    /**
+     * Gets how transfers should behave on the current network
+     *
+     * @return the transfer policy
+     */
+    TransferPolicy getTransferPolicy() {
+        return new TransferPolicy(getConnectivityMonitor().getNetworkClass(), isWaitingForUnmeteredNetwork());
+    }
+
+    /**
+     * If uploads and downloads wait for an unmetered network
+     *
+     * @return if transfers wait for an unmetered network
+     */
+    boolean isWaitingForUnmeteredNetwork() {
+        return getTransferSettings().getBoolean(WAIT_FOR_UNMETERED_PREF_KEY, false);
+    }
+
+    /**
+     * Sets if uploads and downloads wait for an unmetered network, queued transfers start if they no longer need to
+     * wait
+     *
+     * @param wait if transfers wait for an unmetered network
+     */
+    void setWaitingForUnmeteredNetwork(final boolean wait) {
+        getTransferSettings().edit().putBoolean(WAIT_FOR_UNMETERED_PREF_KEY, wait).commit();
+        getTransferQueue().startIfAllowed();
     }
 
     /**
-     * Clears out the auth token from the application store
+     * Gets the preferences holding the transfer settings
+     *
+     * @return the transfer settings
+     */
+    private SharedPreferences getTransferSettings() {
+        return getSharedPreferences(TRANSFER_SETTINGS_PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Clears out the auth token from the application store, along with everything stored for the account
      */
     void signOut() {
         if (mClient.get() == null) {
@@ -127,7 +323,17 @@ public class BaseApplication extends Application {
         mClient.get().getAuthenticator().logout(new ICallback<Void>() {
             @Override
             public void success(final Void result) {
+                // Stop the running transfer before the client goes, so it ends as cancelled rather than failing
+                getTransferQueue().cancelAll();
+                getChunkedUploader().abortUploads();
                 mClient.set(null);
+                // Nothing the account left behind may show up for the next account to sign in
+                getChunkedUploader().forgetSessions();
+                getSearchIndex().clear();
+                getItemTree().clear();
+                getItemStore().clear();
+                getDeltaSyncEngine().resetAll();
+                getImageCache().clear();
                 final Intent intent = new Intent(getBaseContext(), ApiExplorer.class);
                 intent.setFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
                 startActivity(intent);
@@ -140,6 +346,15 @@ public class BaseApplication extends Application {
         });
     }
 
+    /**
+     * If the service has been created
+     *
+     * @return if there is an instance of the service
+     */
+    boolean hasOneDriveClient() {
+        return mClient.get() != null;
+    }
+
     /**
      * Get an instance of the service
      *
@@ -163,6 +378,7 @@ public class BaseApplication extends Application {
             public void success(final IOneDriveClient result) {
                 mClient.set(result);
                 serviceCreated.success(null);
+                getTransferQueue().startIfAllowed();
             }
 
             @Override
@@ -176,14 +392,215 @@ public class BaseApplication extends Application {
             .loginAndBuildClient(activity, callback);
     }
 
+    /**
+     * Gets the uploader for this application
+     *
+     * @return the chunked uploader
+     */
+    synchronized ChunkedUploader getChunkedUploader() {
+        if (mChunkedUploader == null) {
+            mChunkedUploader = new ChunkedUploader(this);
+        }
+        return mChunkedUploader;
+    }
+
+    /**
+     * Gets the local item metadata store for this application
+     *
+     * @return the item store
+     */
+    synchronized ItemStore getItemStore() {
+        if (mItemStore == null) {
+            mItemStore = new ItemStore(this);
+        }
+        return mItemStore;
+    }
+
+    /**
+     * Gets the frame coalescer for this application
+     *
+     * @return the frame coalescer
+     */
+    synchronized FrameCoalescer getFrameCoalescer() {
+        if (mFrameCoalescer == null) {
+            mFrameCoalescer = new FrameCoalescer();
+        }
+        return mFrameCoalescer;
+    }
+
+    /**
+     * Gets the frame monitor for this application
+     *
+     * @return the frame monitor
+     */
+    synchronized FrameMonitor getFrameMonitor() {
+        if (mFrameMonitor == null) {
+            final WindowManager windowManager = (WindowManager) getSystemService(Context.WINDOW_SERVICE);
+            mFrameMonitor = new FrameMonitor(windowManager.getDefaultDisplay().getRefreshRate());
+        }
+        return mFrameMonitor;
+    }
+
+    /**
+     * Gets the request timings for this application
+     *
+     * @return the request metrics
+     */
+    synchronized RequestMetrics getRequestMetrics() {
+        if (mRequestMetrics == null) {
+            mRequestMetrics = new RequestMetrics();
+        }
+        return mRequestMetrics;
+    }
+
+    /**
+     * Gets the item request coalescer for this application
+     *
+     * @return the item request coalescer
+     */
+    synchronized ItemRequestCoalescer getItemRequestCoalescer() {
+        if (mItemRequestCoalescer == null) {
+            mItemRequestCoalescer = new ItemRequestCoalescer(getRequestMetrics());
+        }
+        return mItemRequestCoalescer;
+    }
+
+    /**
+     * Gets the monitor of long running jobs for this application
+     *
+     * @return the job monitor
+     */
+    synchronized AsyncJobMonitor getAsyncJobMonitor() {
+        if (mAsyncJobMonitor == null) {
+            mAsyncJobMonitor = new AsyncJobMonitor();
+        }
+        return mAsyncJobMonitor;
+    }
+
+    /**
+     * Gets the bulk operation executor for this application
+     *
+     * @return the bulk operation executor
+     */
+    synchronized BulkOperationExecutor getBulkOperationExecutor() {
+        if (mBulkOperationExecutor == null) {
+            mBulkOperationExecutor = new BulkOperationExecutor(this,
+                                                               getResources().getInteger(R.integer.bulk_workers));
+        }
+        return mBulkOperationExecutor;
+    }
+
+    /**
+     * Gets the download engine for this application
+     *
+     * @return the download engine
+     */
+    synchronized DownloadEngine getDownloadEngine() {
+        if (mDownloadEngine == null) {
+            mDownloadEngine = new DownloadEngine(this, getResources().getInteger(R.integer.download_workers));
+        }
+        return mDownloadEngine;
+    }
+
+    /**
+     * Gets the delta sync engine for this application
+     *
+     * @return the delta sync engine
+     */
+    synchronized DeltaSyncEngine getDeltaSyncEngine() {
+        if (mDeltaSyncEngine == null) {
+            mDeltaSyncEngine = new DeltaSyncEngine(this);
+        }
+        return mDeltaSyncEngine;
+    }
+
+    /**
+     * Gets the search index for this application
+     *
+     * @return the search index
+     */
+    synchronized SearchIndex getSearchIndex() {
+        if (mSearchIndex == null) {
+            mSearchIndex = new SearchIndex();
+        }
+        return mSearchIndex;
+    }
+
+    /**
+     * Gets the item tree for this application, it must only be used on the ui thread
+     *
+     * @return the item tree
+     */
+    synchronized ItemTree getItemTree() {
+        if (mItemTree == null) {
+            mItemTree = new ItemTree();
+        }
+        return mItemTree;
+    }
+
+    /**
+     * Gets the subtree totals of the item tree for this application, it must only be used on the ui thread
+     *
+     * @return the storage aggregator
+     */
+    synchronized StorageAggregator getStorageAggregator() {
+        if (mStorageAggregator == null) {
+            mStorageAggregator = new StorageAggregator(getItemTree());
+        }
+        return mStorageAggregator;
+    }
+
+    /**
+     * Gets the thumbnail download scheduler for this application
+     *
+     * @return the thumbnail scheduler
+     */
+    synchronized ThumbnailScheduler getThumbnailScheduler() {
+        if (mThumbnailScheduler == null) {
+            mThumbnailScheduler = new ThumbnailScheduler(this,
+                                                         getResources().getInteger(R.integer.thumbnail_workers));
+        }
+        return mThumbnailScheduler;
+    }
+
+    /**
+     * Gets the pool of reusable bitmaps for this application
+     *
+     * @return the bitmap pool
+     */
+    synchronized BitmapPool getBitmapPool() {
+        if (mBitmapPool == null) {
+            mBitmapPool = new BitmapPool(MAX_BITMAP_POOL_SIZE);
+        }
+        return mBitmapPool;
+    }
+
+    /**
+     * Gets the thumbnail decoder for this application
+     *
+     * @return the thumbnail decoder
+     */
+    synchronized ThumbnailDecoder getThumbnailDecoder() {
+        if (mThumbnailDecoder == null) {
+            mThumbnailDecoder = new ThumbnailDecoder(getResources().getDimensionPixelSize(R.dimen.thumbnail_size),
+                                                     getBitmapPool());
+        }
+        return mThumbnailDecoder;
+    }
+
     /**
      * Gets the image cache for this application
      *
      * @return the image loader
      */
-    public synchronized LruCache<String, Bitmap> getImageCache() {
+    public synchronized ThumbnailCache getImageCache() {
         if (mImageCache == null) {
-            mImageCache = new LruCache<>(BaseApplication.MAX_IMAGE_CACHE_SIZE);
+            final int memoryBudget = (int) (Runtime.getRuntime().maxMemory() / IMAGE_CACHE_HEAP_DIVISOR);
+            mImageCache = new ThumbnailCache(new File(getCacheDir(), IMAGE_CACHE_DIRECTORY),
+                                             memoryBudget,
+                                             MAX_IMAGE_DISK_CACHE_SIZE,
+                                             getThumbnailDecoder(),
+                                             getBitmapPool());
         }
         return mImageCache;
     }
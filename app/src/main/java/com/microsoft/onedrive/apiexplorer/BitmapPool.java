@@ -0,0 +1,114 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Keeps mutable bitmaps that are no longer shown so the decoder can draw new thumbnails into them instead of
+ * allocating, bitmaps are keyed by their allocation size since any bitmap at least as large can be reused
+ */
+class BitmapPool {
+
+    /**
+     * How many times larger than requested a pooled bitmap may be and still be handed out
+     */
+    private static final int MAX_OVERSIZE = 2;
+
+    /**
+     * The maximum number of bitmap bytes to hold
+     */
+    private final long mMaxSize;
+
+    /**
+     * The pooled bitmaps, by allocation size
+     */
+    private final TreeMap<Integer, ArrayDeque<Bitmap>> mBitmaps = new TreeMap<>();
+
+    /**
+     * The number of bitmap bytes held
+     */
+    private long mSize;
+
+    /**
+     * Default constructor
+     * @param maxSize The maximum number of bitmap bytes to hold
+     */
+    BitmapPool(final long maxSize) {
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Takes a bitmap that can hold at least the given number of bytes
+     * @param byteCount The number of bytes needed
+     * @return A bitmap, or null if none is close enough in size
+     */
+    synchronized Bitmap get(final int byteCount) {
+        final Map.Entry<Integer, ArrayDeque<Bitmap>> entry = mBitmaps.ceilingEntry(byteCount);
+        if (entry == null || entry.getKey() > (long) byteCount * MAX_OVERSIZE) {
+            return null;
+        }
+        final Bitmap bitmap = entry.getValue().poll();
+        if (entry.getValue().isEmpty()) {
+            mBitmaps.remove(entry.getKey());
+        }
+        mSize -= entry.getKey();
+        return bitmap;
+    }
+
+    /**
+     * Returns a bitmap to the pool, the caller must be sure the bitmap is no longer drawn anywhere
+     * @param bitmap The bitmap
+     */
+    synchronized void put(final Bitmap bitmap) {
+        if (!bitmap.isMutable() || bitmap.isRecycled()) {
+            return;
+        }
+        final int byteCount = bitmap.getAllocationByteCount();
+        if (byteCount > mMaxSize) {
+            return;
+        }
+        while (mSize + byteCount > mMaxSize) {
+            // Drop the largest bitmaps first, they are the least likely to fit a thumbnail
+            final Map.Entry<Integer, ArrayDeque<Bitmap>> largest = mBitmaps.lastEntry();
+            largest.getValue().poll();
+            if (largest.getValue().isEmpty()) {
+                mBitmaps.remove(largest.getKey());
+            }
+            mSize -= largest.getKey();
+        }
+
+        ArrayDeque<Bitmap> bitmaps = mBitmaps.get(byteCount);
+        if (bitmaps == null) {
+            bitmaps = new ArrayDeque<>();
+            mBitmaps.put(byteCount, bitmaps);
+        }
+        bitmaps.push(bitmap);
+        mSize += byteCount;
+    }
+}
@@ -0,0 +1,426 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonObject;
+
+import com.onedrive.sdk.concurrency.AsyncMonitor;
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.extensions.IOneDriveClient;
+import com.onedrive.sdk.extensions.Item;
+import com.onedrive.sdk.extensions.ItemReference;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs the same operation over many items, keeping a bounded number of requests in flight and handing outstanding
+ * copies to the shared job monitor. Each item is its own request, the SDK has no builder for json batching so the
+ * requests are pipelined rather than batched
+ */
+class BulkOperationExecutor {
+
+    /**
+     * How long idle request threads are kept, in seconds
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The application, used to reach the client
+     */
+    private final BaseApplication mApplication;
+
+    /**
+     * Runs the requests
+     */
+    private final ThreadPoolExecutor mRequests;
+
+    /**
+     * Used to report progress on the ui thread
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The batches that are running, and the finished batches whose outcome no screen has picked up yet
+     */
+    private final List<Batch> mBatches = new ArrayList<>();
+
+    /**
+     * Default constructor
+     * @param application The application
+     * @param concurrency The number of requests in flight at the same time
+     */
+    BulkOperationExecutor(final BaseApplication application, final int concurrency) {
+        mApplication = application;
+        mRequests = new ThreadPoolExecutor(concurrency,
+                                           concurrency,
+                                           KEEP_ALIVE_SECONDS,
+                                           TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<Runnable>());
+        mRequests.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Runs an operation over a set of items
+     * @param operation The operation
+     * @param items The items
+     * @param destination The folder to copy or move into, ignored for deletes
+     * @param listener The listener notified on the ui thread, or null while no screen has the batch
+     * @return The batch, which can be used to cancel the operations that have not started
+     */
+    Batch run(final Operation operation,
+              final List<Item> items,
+              final ItemReference destination,
+              final Listener listener) {
+        final Batch batch = new Batch(items.size(), listener);
+        synchronized (mBatches) {
+            mBatches.add(batch);
+        }
+        for (final Item item : items) {
+            mRequests.execute(new Runnable() {
+                @Override
+                public void run() {
+                    if (batch.mCancelled) {
+                        batch.finishOne(false);
+                        return;
+                    }
+                    try {
+                        perform(operation, item, destination, batch);
+                    } catch (final RuntimeException e) {
+                        // Not only client exceptions, the item must be counted or the batch never completes
+                        Log.w(getClass().getSimpleName(), operation + " of " + item.name + " failed", e);
+                        batch.finishOne(false);
+                    }
+                }
+            });
+        }
+        return batch;
+    }
+
+    /**
+     * Gets the batches that are running, and the finished batches whose outcome no screen has picked up yet, so that
+     * a new screen can take them over with {@link Batch#setListener(Listener)}
+     * @return The batches
+     */
+    List<Batch> getBatches() {
+        synchronized (mBatches) {
+            return new ArrayList<>(mBatches);
+        }
+    }
+
+    /**
+     * Sends the request for one item
+     * @param operation The operation
+     * @param item The item
+     * @param destination The folder to copy or move into
+     * @param batch The batch the item belongs to
+     */
+    private void perform(final Operation operation,
+                         final Item item,
+                         final ItemReference destination,
+                         final Batch batch) {
+        final IOneDriveClient client = mApplication.getOneDriveClient();
+        switch (operation) {
+            case Delete:
+                client.getDrive().getItems(item.id).buildRequest().delete();
+                onDeleted(item.id);
+                batch.finishOne(true);
+                break;
+            case Move:
+                final Item patch = new Item();
+                patch.parentReference = destination;
+                onMoved(client.getDrive().getItems(item.id).buildRequest().update(patch).getRawObject());
+                batch.finishOne(true);
+                break;
+            default:
+                final AsyncMonitor<Item> monitor = client
+                    .getDrive()
+                    .getItems(item.id)
+                    .getCopy(item.name, destination)
+                    .buildRequest()
+                    .create();
+                batch.watchCopy(item, monitor);
+                break;
+        }
+    }
+
+    /**
+     * Drops a deleted item from the tree and the search index on the ui thread, as deleting a single item does, ahead
+     * of the progress report for it
+     * @param id The item id
+     */
+    private void onDeleted(final String id) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mApplication.getSearchIndex().remove(id);
+                mApplication.getItemTree().remove(id);
+            }
+        });
+    }
+
+    /**
+     * Files a moved item under its new folder in the tree and the search index on the ui thread, ahead of the
+     * progress report for it
+     * @param json The raw json of the moved item
+     */
+    private void onMoved(final JsonObject json) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mApplication.getItemTree().put(json);
+                mApplication.getSearchIndex().put(ItemRecord.fromJson(json));
+            }
+        });
+    }
+
+    /**
+     * The operations that can be run over many items
+     */
+    enum Operation {
+        /**
+         * Delete the items
+         */
+        Delete,
+
+        /**
+         * Copy the items into another folder
+         */
+        Copy,
+
+        /**
+         * Move the items into another folder
+         */
+        Move
+    }
+
+    /**
+     * Notified on the ui thread about a batch
+     */
+    interface Listener {
+
+        /**
+         * Called each time an item finishes
+         * @param batch The batch
+         */
+        void onProgress(final Batch batch);
+
+        /**
+         * Called once every item has finished
+         * @param batch The batch
+         */
+        void onComplete(final Batch batch);
+    }
+
+    /**
+     * The progress of one operation over a set of items
+     */
+    final class Batch {
+
+        /**
+         * The number of items
+         */
+        private final int mTotal;
+
+        /**
+         * The listener, only used on the ui thread
+         */
+        private Listener mListener;
+
+        /**
+         * If the outcome has been given to a listener, only used on the ui thread
+         */
+        private boolean mDelivered;
+
+        /**
+         * The number of items that succeeded
+         */
+        private final AtomicInteger mSucceeded = new AtomicInteger();
+
+        /**
+         * The number of items that failed or were cancelled
+         */
+        private final AtomicInteger mFailed = new AtomicInteger();
+
+        /**
+         * The copies handed to the job monitor
+         */
+        private final List<AsyncJobMonitor.Job> mCopies = new ArrayList<>();
+
+        /**
+         * The number of items that have finished either way
+         */
+        private final AtomicInteger mFinished = new AtomicInteger();
+
+        /**
+         * If the batch was cancelled
+         */
+        private volatile boolean mCancelled;
+
+        /**
+         * Default constructor
+         * @param total The number of items
+         * @param listener The listener, or null
+         */
+        private Batch(final int total, final Listener listener) {
+            mTotal = total;
+            mListener = listener;
+        }
+
+        /**
+         * Skips the items that have not been sent yet and stops watching outstanding copies, counting both as
+         * failed
+         */
+        void cancel() {
+            mCancelled = true;
+            final List<AsyncJobMonitor.Job> copies;
+            synchronized (mCopies) {
+                copies = new ArrayList<>(mCopies);
+            }
+            for (final AsyncJobMonitor.Job copy : copies) {
+                if (mApplication.getAsyncJobMonitor().stop(copy)) {
+                    finishOne(false);
+                }
+            }
+        }
+
+        /**
+         * Hands a copy to the job monitor and records its outcome once the service has finished it
+         * @param item The item being copied
+         * @param monitor The monitor of the copy
+         */
+        private void watchCopy(final Item item, final AsyncMonitor<Item> monitor) {
+            final AsyncJobMonitor.Job copy = mApplication.getAsyncJobMonitor().watch(item.name,
+                                                                                      monitor,
+                                                                                      new AsyncJobMonitor.Listener() {
+                @Override
+                public void onProgress(final AsyncJobMonitor.Job job) {
+                }
+
+                @Override
+                public void onComplete(final AsyncJobMonitor.Job job, final Item result) {
+                    finishOne(true);
+                }
+
+                @Override
+                public void onFailure(final AsyncJobMonitor.Job job, final ClientException error) {
+                    Log.w(getClass().getSimpleName(), "Copy of " + item.name + " failed", error);
+                    finishOne(false);
+                }
+            });
+            synchronized (mCopies) {
+                mCopies.add(copy);
+            }
+        }
+
+        /**
+         * The listener of the batch
+         * @return The listener, or null while no screen has the batch
+         */
+        Listener getListener() {
+            return mListener;
+        }
+
+        /**
+         * Hands the batch over to a new listener, this must be called on the ui thread. If the batch finished while
+         * no screen had it the listener is told straight away
+         * @param listener The listener, or null while no screen has the batch
+         */
+        void setListener(final Listener listener) {
+            mListener = listener;
+            if (mFinished.get() == mTotal) {
+                deliverComplete();
+            }
+        }
+
+        /**
+         * The number of items
+         * @return The number of items
+         */
+        int getTotal() {
+            return mTotal;
+        }
+
+        /**
+         * The number of items that succeeded
+         * @return The number of items
+         */
+        int getSucceeded() {
+            return mSucceeded.get();
+        }
+
+        /**
+         * The number of items that failed or were cancelled
+         * @return The number of items
+         */
+        int getFailed() {
+            return mFailed.get();
+        }
+
+        /**
+         * Records the outcome for one item and reports it
+         * @param succeeded If the item succeeded
+         */
+        private void finishOne(final boolean succeeded) {
+            if (succeeded) {
+                mSucceeded.incrementAndGet();
+            } else {
+                mFailed.incrementAndGet();
+            }
+            final boolean complete = mFinished.incrementAndGet() == mTotal;
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (complete) {
+                        deliverComplete();
+                    } else if (mListener != null) {
+                        mListener.onProgress(Batch.this);
+                    }
+                }
+            });
+        }
+
+        /**
+         * Tells the listener the batch is complete, once, the batch is kept until there is a listener to tell
+         */
+        private void deliverComplete() {
+            if (mListener == null || mDelivered) {
+                return;
+            }
+            mDelivered = true;
+            synchronized (mBatches) {
+                mBatches.remove(this);
+            }
+            mListener.onComplete(this);
+        }
+    }
+}
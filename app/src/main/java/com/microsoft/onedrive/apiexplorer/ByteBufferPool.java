@@ -0,0 +1,89 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+
+/**
+ * A bounded pool of equally sized byte buffers, used to keep transfer memory constant regardless of file size
+ */
+class ByteBufferPool {
+
+    /**
+     * The size of each buffer in this pool
+     */
+    private final int mBufferSize;
+
+    /**
+     * The maximum number of idle buffers to retain
+     */
+    private final int mMaxPooled;
+
+    /**
+     * The idle buffers
+     */
+    private final ArrayDeque<ByteBuffer> mBuffers = new ArrayDeque<>();
+
+    /**
+     * Default constructor
+     * @param bufferSize The size of each buffer in this pool
+     * @param maxPooled The maximum number of idle buffers to retain
+     */
+    ByteBufferPool(final int bufferSize, final int maxPooled) {
+        mBufferSize = bufferSize;
+        mMaxPooled = maxPooled;
+    }
+
+    /**
+     * The size of the buffers handed out by this pool
+     * @return The buffer size
+     */
+    int getBufferSize() {
+        return mBufferSize;
+    }
+
+    /**
+     * Takes a cleared buffer from the pool, allocating a new one if the pool is empty
+     * @return The buffer
+     */
+    synchronized ByteBuffer acquire() {
+        final ByteBuffer buffer = mBuffers.poll();
+        if (buffer == null) {
+            return ByteBuffer.allocate(mBufferSize);
+        }
+        buffer.clear();
+        return buffer;
+    }
+
+    /**
+     * Returns a buffer to the pool
+     * @param buffer The buffer that is no longer in use
+     */
+    synchronized void release(final ByteBuffer buffer) {
+        if (buffer.capacity() == mBufferSize && mBuffers.size() < mMaxPooled) {
+            mBuffers.push(buffer);
+        }
+    }
+}
@@ -0,0 +1,656 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.core.OneDriveErrorCodes;
+import com.onedrive.sdk.extensions.ChunkedUploadSessionDescriptor;
+import com.onedrive.sdk.extensions.IItemRequestBuilder;
+import com.onedrive.sdk.extensions.Item;
+import com.onedrive.sdk.extensions.UploadSession;
+import com.onedrive.sdk.options.Option;
+import com.onedrive.sdk.options.QueryOption;
+
+import android.content.ContentProviderClient;
+import android.net.Uri;
+import android.os.RemoteException;
+import android.util.Log;
+
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * Uploads files through an upload session, transferring fixed size chunks straight from the file channel into the
+ * connection so the file is never copied onto the heap and memory use does not grow with the size of the file
+ */
+class ChunkedUploader {
+
+    /**
+     * Chunk sizes must be a multiple of this many bytes
+     * @see <a href="https://dev.onedrive.com/items/upload_large_files.htm">Upload large files</a>
+     */
+    private static final int CHUNK_ALIGNMENT = 320 * 1024;
+
+    /**
+     * The number of aligned blocks that make up a chunk
+     */
+    private static final int BLOCKS_PER_CHUNK = 5;
+
+    /**
+     * The number of times a chunk is attempted before the upload is abandoned
+     */
+    private static final int MAX_CHUNK_ATTEMPTS = 3;
+
+    /**
+     * The query option controlling name conflicts
+     */
+    private static final String CONFLICT_BEHAVIOR = "@name.conflictBehavior";
+
+    /**
+     * The http method for sending chunks
+     */
+    private static final String PUT = "PUT";
+
+    /**
+     * The http method for closing an upload session
+     */
+    private static final String DELETE = "DELETE";
+
+    /**
+     * The endpoint name chunk uploads are recorded under
+     */
+    private static final String UPLOAD_ENDPOINT = "PUT {uploadUrl}";
+
+    /**
+     * The json property holding the outstanding ranges of an upload session
+     */
+    private static final String NEXT_EXPECTED_RANGES = "nextExpectedRanges";
+
+    /**
+     * The application, used to reach the content resolver, transfer policy and request metrics
+     */
+    private final BaseApplication mApplication;
+
+    /**
+     * Reaches the service
+     */
+    private final Connector mConnector;
+
+    /**
+     * The in flight sessions
+     */
+    private final UploadSessionStore mStore;
+
+    /**
+     * The upload urls of the sessions being sent by this process
+     */
+    private final Set<String> mActive = Collections.synchronizedSet(new HashSet<String>());
+
+    /**
+     * The connections chunks are being sent over
+     */
+    private final Set<HttpURLConnection> mConnections = Collections.synchronizedSet(new HashSet<HttpURLConnection>());
+
+    /**
+     * Default constructor
+     * @param application The application
+     */
+    ChunkedUploader(final BaseApplication application) {
+        this(application, new ServiceConnector(application));
+    }
+
+    /**
+     * Creates an uploader that reaches the service through a connector
+     * @param application The application
+     * @param connector Reaches the service
+     */
+    ChunkedUploader(final BaseApplication application, final Connector connector) {
+        mApplication = application;
+        mStore = new UploadSessionStore(application);
+        mConnector = connector;
+    }
+
+    /**
+     * Uploads a file into a folder, this blocks until the upload finishes and must not be called on the ui thread.
+     * If an earlier attempt left an upload session for the same file the upload resumes from the first byte the
+     * session is missing, so nothing the service has accepted is sent again
+     * @param parentId The id of the folder to upload into
+     * @param source The local file
+     * @param fileName The name of the file on OneDrive, the upload fails if the name is already taken
+     * @param progress Told about progress on the uploading thread, and can cancel the upload
+     * @return The uploaded item
+     * @throws ClientException If the upload failed or was cancelled
+     */
+    Item upload(final String parentId,
+                final Uri source,
+                final String fileName,
+                final Progress progress) throws ClientException {
+        UploadSessionStore.Session session = null;
+        try {
+            long offset = 0;
+            session = findSession(parentId, source, fileName);
+            if (session != null) {
+                try {
+                    offset = getNextExpectedOffset(session);
+                    Log.i(getClass().getSimpleName(), "Resuming upload of " + fileName + " from " + offset);
+                } catch (final SessionExpiredException e) {
+                    Log.i(getClass().getSimpleName(), "Upload session of " + fileName + " expired", e);
+                    mStore.remove(session);
+                    mActive.remove(session.getUploadUrl());
+                    session = null;
+                }
+            }
+            if (session == null) {
+                session = createSession(parentId, source, fileName);
+            }
+            return send(session, offset, progress);
+        } catch (final IOException | RemoteException | SecurityException e) {
+            throw uploadFailure(fileName, e);
+        } finally {
+            if (session != null) {
+                mActive.remove(session.getUploadUrl());
+            }
+        }
+    }
+
+    /**
+     * Gets the upload sessions that have not been completed, including those left over from a previous process
+     * @return The saved sessions
+     */
+    List<UploadSessionStore.Session> getPendingSessions() {
+        return mStore.getAll();
+    }
+
+    /**
+     * Drops the connections of the chunks being sent, so an upload that has been cancelled stops now instead of once
+     * its current chunk has been sent
+     */
+    void abortUploads() {
+        synchronized (mConnections) {
+            for (final HttpURLConnection connection : mConnections) {
+                connection.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Forgets every upload session, the service discards abandoned sessions once they expire
+     */
+    void forgetSessions() {
+        mStore.clear();
+    }
+
+    /**
+     * Finds an upload session left by an earlier attempt to upload the same file, and marks it as being sent
+     * @param parentId The id of the folder to upload into
+     * @param source The local file
+     * @param fileName The name of the file on OneDrive
+     * @return The session, or null if there is none that is not already being sent
+     */
+    private UploadSessionStore.Session findSession(final String parentId, final Uri source, final String fileName) {
+        for (final UploadSessionStore.Session session : mStore.getAll()) {
+            if (session.getParentId().equals(parentId)
+                    && session.getSource().equals(source)
+                    && session.getFileName().equals(fileName)
+                    && mActive.add(session.getUploadUrl())) {
+                return session;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates an upload session for a file, saves it and marks it as being sent
+     * @param parentId The id of the folder to upload into
+     * @param source The local file
+     * @param fileName The name of the file on OneDrive, the session fails if the name is already taken
+     * @return The session
+     * @throws IOException If the size of the file cannot be found
+     * @throws RemoteException Any remote process call problems
+     */
+    private UploadSessionStore.Session createSession(final String parentId, final Uri source, final String fileName)
+            throws IOException, RemoteException {
+        final long size = getFileSize(source);
+        final String uploadUrl = mConnector.createSession(parentId, fileName);
+        final UploadSessionStore.Session session = new UploadSessionStore.Session(uploadUrl,
+                                                                                  source,
+                                                                                  parentId,
+                                                                                  fileName,
+                                                                                  size);
+        mStore.save(session);
+        mActive.add(session.getUploadUrl());
+        return session;
+    }
+
+    /**
+     * Sends the remainder of a file to an upload session, the chunk size is chosen by the transfer policy when the
+     * send starts
+     * @param session The upload session
+     * @param startOffset The first byte the session is expecting
+     * @param progress Told about progress, and can cancel the upload
+     * @return The uploaded item
+     * @throws IOException If the file cannot be read or the chunks cannot be sent
+     * @throws RemoteException Any remote process call problems
+     */
+    private Item send(final UploadSessionStore.Session session,
+                      final long startOffset,
+                      final Progress progress)
+            throws IOException, RemoteException {
+        final RequestMetrics metrics = mApplication.getRequestMetrics();
+        final int chunkSize = CHUNK_ALIGNMENT * mApplication.getTransferPolicy().getUploadChunkBlocks(BLOCKS_PER_CHUNK);
+        final ContentProviderClient contentProvider = acquireContentProvider(session.getSource());
+        try {
+            final FileInputStream stream = FileContent.openFileStream(contentProvider, session.getSource());
+            try {
+                final FileChannel channel = stream.getChannel();
+                long offset = startOffset;
+                int failedAttempts = 0;
+                boolean resume = false;
+                while (true) {
+                    if (!progress.onProgress(offset, session.getSize())) {
+                        deleteSession(session);
+                        throw new ClientException("Upload of " + session.getFileName() + " was cancelled",
+                                                  null,
+                                                  OneDriveErrorCodes.GeneralException);
+                    }
+                    if (resume) {
+                        // The session may have taken the chunk whose response was lost
+                        offset = getNextExpectedOffset(session);
+                        resume = false;
+                    }
+                    if (offset >= session.getSize()) {
+                        // Nothing is left to send, a chunk would be empty and its range invalid
+                        final Item item;
+                        if (session.getSize() == 0) {
+                            item = mConnector.putEmptyFile(session.getParentId(), session.getFileName());
+                        } else {
+                            item = mConnector.getItem(session.getParentId(), session.getFileName());
+                        }
+                        mStore.remove(session);
+                        progress.onProgress(session.getSize(), session.getSize());
+                        return item;
+                    }
+
+                    final UploadBody chunk = new UploadBody(channel,
+                                                            offset,
+                                                            Math.min(chunkSize, session.getSize() - offset));
+                    final ChunkResult result;
+                    final long start = System.nanoTime();
+                    try {
+                        result = putChunk(session, chunk);
+                        metrics.recordRequest(UPLOAD_ENDPOINT, System.nanoTime() - start, chunk.getLength(), 0, null);
+                    } catch (final IOException e) {
+                        metrics.recordRequest(UPLOAD_ENDPOINT,
+                                              System.nanoTime() - start,
+                                              0,
+                                              0,
+                                              e.getClass().getSimpleName());
+                        failedAttempts++;
+                        if (failedAttempts == MAX_CHUNK_ATTEMPTS) {
+                            throw e;
+                        }
+                        metrics.recordRetry(UPLOAD_ENDPOINT);
+                        Log.w(getClass().getSimpleName(), "Chunk upload failed, asking the session where to resume", e);
+                        resume = true;
+                        continue;
+                    }
+                    failedAttempts = 0;
+
+                    if (result.mItem != null) {
+                        mStore.remove(session);
+                        progress.onProgress(session.getSize(), session.getSize());
+                        return result.mItem;
+                    }
+                    offset = result.mNextOffset;
+                }
+            } finally {
+                stream.close();
+            }
+        } finally {
+            contentProvider.release();
+        }
+    }
+
+    /**
+     * Sends a single chunk of the file
+     * @param session The upload session
+     * @param chunk The chunk of the file
+     * @return The result of sending the chunk
+     * @throws IOException If the chunk was not accepted
+     */
+    private ChunkResult putChunk(final UploadSessionStore.Session session, final UploadBody chunk)
+            throws IOException {
+        final long offset = chunk.getOffset();
+        final long length = chunk.getLength();
+        final HttpURLConnection connection = mConnector.openConnection(session.getUploadUrl());
+        mConnections.add(connection);
+        try {
+            connection.setRequestMethod(PUT);
+            connection.setDoOutput(true);
+            // A fixed length keeps the connection from buffering the body to work out its length
+            connection.setFixedLengthStreamingMode(length);
+            connection.setRequestProperty("Content-Range", String.format(Locale.ROOT,
+                                                                         "bytes %d-%d/%d",
+                                                                         offset,
+                                                                         offset + length - 1,
+                                                                         session.getSize()));
+            final OutputStream output = connection.getOutputStream();
+            try {
+                chunk.writeTo(output);
+            } finally {
+                output.close();
+            }
+
+            final int responseCode = connection.getResponseCode();
+            if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST) {
+                throw new IOException("Chunk rejected with response code " + responseCode);
+            }
+
+            final String body = ResponseBodies.read(connection.getInputStream());
+            final ChunkResult result = new ChunkResult();
+            if (responseCode == HttpURLConnection.HTTP_ACCEPTED) {
+                result.mNextOffset = parseNextExpectedOffset(new JsonParser().parse(body).getAsJsonObject(),
+                                                             session.getSize());
+            } else {
+                result.mItem = mConnector.parseItem(body);
+            }
+            return result;
+        } finally {
+            mConnections.remove(connection);
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Asks the service for the first byte an upload session is still missing
+     * @param session The upload session
+     * @return The offset to resume from, the size of the file if the session is missing nothing
+     * @throws IOException If the session could not be reached
+     */
+    private long getNextExpectedOffset(final UploadSessionStore.Session session) throws IOException {
+        final HttpURLConnection connection = mConnector.openConnection(session.getUploadUrl());
+        try {
+            final int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_NOT_FOUND) {
+                throw new SessionExpiredException();
+            }
+            if (responseCode != HttpURLConnection.HTTP_OK) {
+                throw new IOException("Upload session could not be read, response code " + responseCode);
+            }
+            final String body = ResponseBodies.read(connection.getInputStream());
+            return parseNextExpectedOffset(new JsonParser().parse(body).getAsJsonObject(), session.getSize());
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * Closes an upload session on the service and forgets it, so the service drops the bytes it holds for the session
+     * now rather than when the session expires
+     * @param session The upload session
+     */
+    private void deleteSession(final UploadSessionStore.Session session) {
+        mStore.remove(session);
+        try {
+            final HttpURLConnection connection = mConnector.openConnection(session.getUploadUrl());
+            try {
+                connection.setRequestMethod(DELETE);
+                final int responseCode = connection.getResponseCode();
+                if (responseCode >= HttpURLConnection.HTTP_BAD_REQUEST
+                        && responseCode != HttpURLConnection.HTTP_NOT_FOUND) {
+                    Log.w(getClass().getSimpleName(), "Upload session was not deleted, response code " + responseCode);
+                }
+            } finally {
+                connection.disconnect();
+            }
+        } catch (final IOException e) {
+            Log.w(getClass().getSimpleName(), "Upload session was not deleted, the service discards it on expiry", e);
+        }
+    }
+
+    /**
+     * Gets the start of the first outstanding range from an upload session response, e.g. "26-" or "26-300"
+     * @param uploadSession The upload session json
+     * @param size The size of the file
+     * @return The offset of the first missing byte, or the size of the file if no range is outstanding
+     */
+    private static long parseNextExpectedOffset(final JsonObject uploadSession, final long size) {
+        final JsonArray ranges = uploadSession.getAsJsonArray(NEXT_EXPECTED_RANGES);
+        if (ranges == null || ranges.size() == 0) {
+            return size;
+        }
+        final String range = ranges.get(0).getAsString();
+        return Long.parseLong(range.substring(0, range.indexOf('-')));
+    }
+
+    /**
+     * Gets the size of a local file
+     * @param source The local file
+     * @return The size of the file
+     * @throws IOException If the file cannot be found
+     * @throws RemoteException Any remote process call problems
+     */
+    private long getFileSize(final Uri source) throws IOException, RemoteException {
+        final ContentProviderClient contentProvider = acquireContentProvider(source);
+        try {
+            return FileContent.getFileSize(contentProvider, source);
+        } finally {
+            contentProvider.release();
+        }
+    }
+
+    /**
+     * Acquires the content provider of a local file, the caller must release it
+     * @param source The local file
+     * @return The content provider
+     * @throws FileNotFoundException If no content provider serves the file
+     */
+    private ContentProviderClient acquireContentProvider(final Uri source) throws FileNotFoundException {
+        final ContentProviderClient contentProvider = mApplication
+            .getContentResolver()
+            .acquireContentProviderClient(source);
+        if (contentProvider == null) {
+            throw new FileNotFoundException("No content provider for " + source);
+        }
+        return contentProvider;
+    }
+
+    /**
+     * Wraps a local failure so that it can be delivered to an upload callback
+     * @param fileName The name of the file that failed
+     * @param cause The local failure
+     * @return The client exception
+     */
+    private static ClientException uploadFailure(final String fileName, final Exception cause) {
+        return new ClientException("Upload of " + fileName + " failed", cause, OneDriveErrorCodes.GeneralException);
+    }
+
+    /**
+     * Told about the progress of an upload
+     */
+    interface Progress {
+
+        /**
+         * Called on the uploading thread before each chunk is sent and once the upload completes
+         * @param current The number of bytes the service has accepted
+         * @param max The size of the file
+         * @return If the upload should continue
+         */
+        boolean onProgress(long current, long max);
+    }
+
+    /**
+     * Reaches the service for an uploader, tests replace it with a stand-in for the service
+     */
+    interface Connector {
+
+        /**
+         * Creates an upload session for a file, the session fails if the name is already taken
+         * @param parentId The id of the folder to upload into
+         * @param fileName The name of the file on OneDrive
+         * @return The url the chunks are sent to
+         * @throws ClientException If the session could not be created
+         */
+        String createSession(String parentId, String fileName) throws ClientException;
+
+        /**
+         * Opens a connection to an upload session, for sending a chunk, reading or closing the session
+         * @param uploadUrl The url of the upload session
+         * @return The connection, not yet connected
+         * @throws IOException If the connection could not be opened
+         */
+        HttpURLConnection openConnection(String uploadUrl) throws IOException;
+
+        /**
+         * Gets an uploaded item, for when the response to the final chunk was lost
+         * @param parentId The id of the folder the file was uploaded into
+         * @param fileName The name of the file on OneDrive
+         * @return The item
+         * @throws ClientException If the item could not be read
+         */
+        Item getItem(String parentId, String fileName) throws ClientException;
+
+        /**
+         * Uploads an empty file in one request, since an empty file cannot be sent in chunks
+         * @param parentId The id of the folder to upload into
+         * @param fileName The name of the file on OneDrive, the upload fails if the name is already taken
+         * @return The item
+         * @throws ClientException If the file could not be uploaded
+         */
+        Item putEmptyFile(String parentId, String fileName) throws ClientException;
+
+        /**
+         * Reads the item the response to the final chunk describes
+         * @param json The response body
+         * @return The item
+         */
+        Item parseItem(String json);
+    }
+
+    /**
+     * Reaches the service through the client of the application
+     */
+    private static final class ServiceConnector implements Connector {
+
+        /**
+         * The application holding the client
+         */
+        private final BaseApplication mApplication;
+
+        /**
+         * Default constructor
+         * @param application The application holding the client
+         */
+        private ServiceConnector(final BaseApplication application) {
+            mApplication = application;
+        }
+
+        @Override
+        public String createSession(final String parentId, final String fileName) throws ClientException {
+            final Option option = new QueryOption(CONFLICT_BEHAVIOR, "fail");
+            final UploadSession uploadSession = getItemBuilder(parentId, fileName)
+                .getCreateSession(new ChunkedUploadSessionDescriptor())
+                .buildRequest(Collections.singletonList(option))
+                .post();
+            return uploadSession.uploadUrl;
+        }
+
+        @Override
+        public HttpURLConnection openConnection(final String uploadUrl) throws IOException {
+            return (HttpURLConnection) new URL(uploadUrl).openConnection();
+        }
+
+        @Override
+        public Item getItem(final String parentId, final String fileName) throws ClientException {
+            return getItemBuilder(parentId, fileName).buildRequest().get();
+        }
+
+        @Override
+        public Item putEmptyFile(final String parentId, final String fileName) throws ClientException {
+            final Option option = new QueryOption(CONFLICT_BEHAVIOR, "fail");
+            return getItemBuilder(parentId, fileName)
+                .getContent()
+                .buildRequest(Collections.singletonList(option))
+                .put(new byte[0]);
+        }
+
+        @Override
+        public Item parseItem(final String json) {
+            return mApplication.getOneDriveClient().getSerializer().deserializeObject(json, Item.class);
+        }
+
+        /**
+         * Gets the request builder of a file in a folder
+         * @param parentId The id of the folder
+         * @param fileName The name of the file
+         * @return The request builder
+         */
+        private IItemRequestBuilder getItemBuilder(final String parentId, final String fileName) {
+            return mApplication.getOneDriveClient().getDrive().getItems(parentId).getItemWithPath(fileName);
+        }
+    }
+
+    /**
+     * Thrown when the service no longer knows an upload session, the upload must start again in a new session
+     */
+    private static final class SessionExpiredException extends IOException {
+
+        /**
+         * Default constructor
+         */
+        private SessionExpiredException() {
+            super("Upload session is no longer available");
+        }
+    }
+
+    /**
+     * The outcome of sending one chunk
+     */
+    private static final class ChunkResult {
+
+        /**
+         * The completed item, set once the final chunk has been accepted
+         */
+        private Item mItem;
+
+        /**
+         * The next offset the session expects
+         */
+        private long mNextOffset;
+    }
+}
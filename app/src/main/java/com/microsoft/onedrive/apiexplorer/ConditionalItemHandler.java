@@ -0,0 +1,147 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.extensions.IItemRequest;
+import com.onedrive.sdk.extensions.IOneDriveClient;
+import com.onedrive.sdk.extensions.Item;
+import com.onedrive.sdk.http.IConnection;
+import com.onedrive.sdk.http.IHttpRequest;
+import com.onedrive.sdk.http.IStatefulResponseHandler;
+import com.onedrive.sdk.http.OneDriveServiceException;
+import com.onedrive.sdk.logger.ILogger;
+import com.onedrive.sdk.serializer.ISerializer;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Reads the response to an item GET sent with If-None-Match, the http provider does not expose the status of a
+ * response so a not modified response would otherwise be indistinguishable from an empty item
+ */
+class ConditionalItemHandler implements IStatefulResponseHandler<Item, Item> {
+
+    /**
+     * The header carrying the eTag the client already has
+     */
+    static final String IF_NONE_MATCH = "If-None-Match";
+
+    /**
+     * The status of a not modified response
+     */
+    private static final int HTTP_NOT_MODIFIED = 304;
+
+    /**
+     * The first status code that is an error
+     */
+    private static final int HTTP_CLIENT_ERROR = 400;
+
+    /**
+     * The bytes that end every header line and the header block
+     */
+    private static final int LINE_END_LENGTH = "\r\n".length();
+
+    /**
+     * The bytes between a header name and its value
+     */
+    private static final int HEADER_SEPARATOR_LENGTH = ": ".length();
+
+    /**
+     * The bytes of the status line before the status code
+     */
+    private static final int STATUS_PREFIX_LENGTH = "HTTP/1.1 304 ".length();
+
+    /**
+     * The size of the not modified response, its status line and headers, or zero if the item was sent
+     */
+    private long mNotModifiedBytes;
+
+    /**
+     * Sends an item request that may carry {@link #IF_NONE_MATCH}, a handler is used for a single request
+     * @param client The OneDrive client
+     * @param request The request
+     * @return The item, or null if the service answered not modified
+     * @throws ClientException If the request failed
+     */
+    Item send(final IOneDriveClient client, final IItemRequest request) throws ClientException {
+        return client.getHttpProvider().send(request, Item.class, null, this);
+    }
+
+    /**
+     * The size of the not modified response, which is what revalidating an unchanged item cost
+     * @return The size of the status line and headers, or zero if the service sent the item
+     */
+    long getNotModifiedBytes() {
+        return mNotModifiedBytes;
+    }
+
+    @Override
+    public void configConnection(final IConnection connection) {
+    }
+
+    @Override
+    public Item generateResult(final IHttpRequest request,
+                               final IConnection connection,
+                               final ISerializer serializer,
+                               final ILogger logger) throws Exception {
+        final int responseCode = connection.getResponseCode();
+        if (responseCode == HTTP_NOT_MODIFIED) {
+            logger.logDebug("Item not modified " + request.getRequestUrl());
+            mNotModifiedBytes = getHeaderBytes(connection);
+            return null;
+        }
+
+        if (responseCode >= HTTP_CLIENT_ERROR) {
+            // Parsed the way the http provider parses errors, so callers can tell e.g. item not found apart
+            throw OneDriveServiceException.createFromConnection(request, null, serializer, connection);
+        }
+        return serializer.deserializeObject(ResponseBodies.read(connection.getInputStream()), Item.class);
+    }
+
+    /**
+     * Measures the status line and headers of a response, the body of a not modified response is empty
+     * @param connection The connection the response arrived on
+     * @return The size in bytes, header names and values are ascii
+     * @throws IOException If the status message could not be read
+     */
+    private static long getHeaderBytes(final IConnection connection) throws IOException {
+        long bytes = STATUS_PREFIX_LENGTH + LINE_END_LENGTH;
+        final String message = connection.getResponseMessage();
+        if (message != null) {
+            bytes += message.length();
+        }
+        for (final Map.Entry<String, String> header : connection.getHeaders().entrySet()) {
+            if (header.getKey() == null) {
+                // The status line, already counted
+                continue;
+            }
+            bytes += header.getKey().length() + HEADER_SEPARATOR_LENGTH + LINE_END_LENGTH;
+            if (header.getValue() != null) {
+                bytes += header.getValue().length();
+            }
+        }
+        return bytes + LINE_END_LENGTH;
+    }
+}
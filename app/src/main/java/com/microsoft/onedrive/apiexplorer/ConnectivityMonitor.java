@@ -0,0 +1,150 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Follows the connectivity broadcasts and classifies the active network, so callers can read the state without
+ * querying the system and can be told when it changes
+ */
+class ConnectivityMonitor extends BroadcastReceiver {
+
+    /**
+     * The system connectivity manager
+     */
+    private final ConnectivityManager mConnectivityManager;
+
+    /**
+     * The listeners, notified on the ui thread
+     */
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * The class of the active network
+     */
+    private volatile NetworkClass mNetworkClass;
+
+    /**
+     * Default constructor, starts following the connectivity broadcasts
+     * @param context The context the receiver is registered with
+     */
+    ConnectivityMonitor(final Context context) {
+        mConnectivityManager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        mNetworkClass = classify();
+        context.registerReceiver(this, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+    }
+
+    @Override
+    public void onReceive(final Context context, final Intent intent) {
+        final NetworkClass networkClass = classify();
+        if (networkClass == mNetworkClass) {
+            return;
+        }
+        mNetworkClass = networkClass;
+        for (final Listener listener : mListeners) {
+            listener.onNetworkClassChanged(networkClass);
+        }
+    }
+
+    /**
+     * The class of the active network
+     * @return The network class
+     */
+    NetworkClass getNetworkClass() {
+        return mNetworkClass;
+    }
+
+    /**
+     * Starts telling a listener about changes to the network class
+     * @param listener The listener
+     */
+    void addListener(final Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Stops telling a listener about changes to the network class
+     * @param listener The listener
+     */
+    void removeListener(final Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Classifies the active network
+     * @return The network class
+     */
+    private NetworkClass classify() {
+        final NetworkInfo info = mConnectivityManager.getActiveNetworkInfo();
+        if (info == null || !info.isConnected()) {
+            return NetworkClass.Offline;
+        }
+        if (mConnectivityManager.isActiveNetworkMetered()) {
+            return NetworkClass.Metered;
+        }
+        return NetworkClass.Unmetered;
+    }
+
+    /**
+     * The kinds of network that transfers are planned around
+     */
+    enum NetworkClass {
+
+        /**
+         * No network is connected
+         */
+        Offline,
+
+        /**
+         * The network may charge for data, such as a mobile network
+         */
+        Metered,
+
+        /**
+         * The network does not charge for data, such as most Wi-Fi networks
+         */
+        Unmetered
+    }
+
+    /**
+     * Told when the class of the active network changes
+     */
+    interface Listener {
+
+        /**
+         * Called on the ui thread when the class of the active network changes
+         * @param networkClass The new network class
+         */
+        void onNetworkClassChanged(NetworkClass networkClass);
+    }
+}
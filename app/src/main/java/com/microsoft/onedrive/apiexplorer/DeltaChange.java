@@ -0,0 +1,86 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+/**
+ * A single change applied to the local item index
+ */
+final class DeltaChange {
+
+    /**
+     * The kind of change
+     */
+    private final Type mType;
+
+    /**
+     * The item after the change, or the last known state of a deleted item
+     */
+    private final ItemRecord mRecord;
+
+    /**
+     * Default constructor
+     * @param type The kind of change
+     * @param record The item after the change, or the last known state of a deleted item
+     */
+    DeltaChange(final Type type, final ItemRecord record) {
+        mType = type;
+        mRecord = record;
+    }
+
+    /**
+     * The kind of change
+     * @return The change type
+     */
+    Type getType() {
+        return mType;
+    }
+
+    /**
+     * The item after the change, or the last known state of a deleted item
+     * @return The item record
+     */
+    ItemRecord getRecord() {
+        return mRecord;
+    }
+
+    /**
+     * The kinds of change
+     */
+    enum Type {
+        /**
+         * The item was not in the index
+         */
+        Created,
+
+        /**
+         * The item was in the index and has changed
+         */
+        Updated,
+
+        /**
+         * The item was removed
+         */
+        Deleted
+    }
+}
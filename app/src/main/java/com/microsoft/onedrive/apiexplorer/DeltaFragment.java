@@ -22,32 +22,23 @@
 
 package com.microsoft.onedrive.apiexplorer;
 
-import com.google.gson.JsonElement;
-
-import com.onedrive.sdk.concurrency.ICallback;
-import com.onedrive.sdk.extensions.IDeltaCollectionPage;
+import com.onedrive.sdk.core.ClientException;
 import com.onedrive.sdk.extensions.Item;
 
-import org.json.JSONException;
-import org.json.JSONObject;
-
-import android.app.Activity;
 import android.app.Fragment;
-import android.content.Context;
-import android.content.SharedPreferences;
 import android.os.Bundle;
-import android.text.method.ScrollingMovementMethod;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.TextView;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
 import android.widget.Toast;
 
-import java.util.concurrent.atomic.AtomicInteger;
+import java.util.ArrayList;
+import java.util.List;
 
 /**
  * Shows the changes of the decedents of an item
@@ -64,16 +55,6 @@ public class DeltaFragment extends Fragment {
      */
     private static final String ARG_ITEM_NAME_ID = "itemName";
 
-    /**
-     * The max number of pages to retrieve
-     */
-    private static final int MAX_PAGE_COUNT = 5;
-
-    /**
-     * The number of pages that have been downloaded
-     */
-    private final AtomicInteger mCurrentPagesCount = new AtomicInteger(0);
-
     /**
      * The item id
      */
@@ -84,6 +65,11 @@ public class DeltaFragment extends Fragment {
      */
     private String mItemName;
 
+    /**
+     * The changes applied during the current sync
+     */
+    private ArrayAdapter<String> mAdapter;
+
     /**
      * Create a new instance of ItemFragment
      * @param item the item
@@ -102,21 +88,13 @@ public class DeltaFragment extends Fragment {
     public void onCreate(final Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
-        final BaseApplication app = (BaseApplication) getActivity().getApplication();
-        if (app.goToWifiSettingsIfDisconnected()) {
-            return;
-        }
+        mAdapter = new ArrayAdapter<>(getActivity(), android.R.layout.simple_list_item_1);
 
         if (getArguments() != null) {
             mItemId = getArguments().getString(ARG_ITEM_ID);
             mItemName  = getArguments().getString(ARG_ITEM_NAME_ID);
         }
 
-        if (getView() != null) {
-            getView().findViewById(android.R.id.progress).setVisibility(View.VISIBLE);
-            getView().findViewById(R.id.json).setVisibility(View.INVISIBLE);
-        }
-
         setHasOptionsMenu(true);
     }
 
@@ -125,90 +103,88 @@ public class DeltaFragment extends Fragment {
                                 final ViewGroup container,
                                 final Bundle savedInstanceState) {
         final View view = inflater.inflate(R.layout.fragment_json_view, container, false);
-        ((TextView)view.findViewById(R.id.json)).setMovementMethod(new ScrollingMovementMethod());
+        ((ListView) view.findViewById(android.R.id.list)).setAdapter(mAdapter);
         getActivity().setTitle(getString(R.string.delta_title, mItemName));
 
-        refresh();
+        refresh(view);
         return view;
     }
 
     /**
      * Refresh the UI
+     * @param view The root of the fragment
      */
-    private void refresh() {
-        if (getView() != null) {
-            getView().findViewById(android.R.id.progress).setVisibility(View.VISIBLE);
-            final TextView jsonView = (TextView)getView().findViewById(R.id.json);
-            jsonView.setVisibility(View.INVISIBLE);
-            jsonView.setText("");
-            mCurrentPagesCount.set(0);
-        }
-
-        final String deltaToken = getDeltaInfo().getString(mItemId, null);
-        final Activity activity = getActivity();
-        ((BaseApplication) activity.getApplication())
-            .getOneDriveClient()
-            .getDrive()
-            .getItems(mItemId)
-            .getDelta(deltaToken)
-            .buildRequest()
-            .select("id,name,deleted")
-            .get(pageHandler());
-    }
+    private void refresh(final View view) {
+        view.findViewById(android.R.id.progress).setVisibility(View.VISIBLE);
+        view.findViewById(android.R.id.list).setVisibility(View.INVISIBLE);
+        mAdapter.clear();
 
-    /**
-     * Create a handler for downloaded pages
-     * @return The callback to handle a fresh DeltaPage
-     */
-    private ICallback<IDeltaCollectionPage> pageHandler() {
-        return new DefaultCallback<IDeltaCollectionPage>(getActivity()) {
+        final BaseApplication app = (BaseApplication) getActivity().getApplication();
+        app.getDeltaSyncEngine().sync(mItemId, new DeltaSyncEngine.Listener() {
             @Override
-            public void success(final IDeltaCollectionPage page) {
-                final View view = getView();
-                if (view == null) {
+            public void onChanges(final List<DeltaChange> changes) {
+                if (getView() == null || changes.isEmpty()) {
                     return;
                 }
 
-                final View viewById = view.findViewById(R.id.json);
-                if (viewById == null) {
-                    return;
+                final List<String> lines = new ArrayList<>(changes.size());
+                for (final DeltaChange change : changes) {
+                    lines.add(describe(change));
                 }
+                mAdapter.addAll(lines);
+                showChanges();
+            }
 
-                if (mCurrentPagesCount.incrementAndGet() == MAX_PAGE_COUNT) {
-                    Toast.makeText(getActivity(), R.string.max_pages_downloaded, Toast.LENGTH_LONG).show();
+            @Override
+            public void onComplete(final int changeCount) {
+                if (getView() == null) {
                     return;
                 }
 
-                final TextView jsonView = (TextView) viewById;
-                final CharSequence originalText = jsonView.getText();
-                final StringBuilder sb = new StringBuilder(originalText);
-                for (final Item i : page.getCurrentPage()) {
-                    try {
-                        final int indentSpaces = 3;
-                        sb.append(new JSONObject(i.getRawObject().toString()).toString(indentSpaces));
-                    } catch (final JSONException ignored) {
-                        Log.e(getClass().getName(), "Unable to parse the response body to json");
-                    }
-                    sb.append("\n");
+                if (changeCount == 0) {
+                    mAdapter.add(getString(R.string.empty_delta));
                 }
+                showChanges();
+            }
 
-                if (page.getCurrentPage().size() == 0) {
-                    sb.append(getString(R.string.empty_delta));
-                }
-                jsonView.setText(sb.toString());
-                view.findViewById(android.R.id.progress).setVisibility(View.INVISIBLE);
-                jsonView.setVisibility(View.VISIBLE);
-                if (page.getNextPage() != null) {
-                    page.getNextPage()
-                        .buildRequest()
-                        .get(pageHandler());
-                }
-                final JsonElement deltaToken = page.getRawObject().get("@delta.token");
-                if (deltaToken != null) {
-                    getDeltaInfo().edit().putString(mItemId, deltaToken.getAsString()).commit();
+            @Override
+            public void onFailure(final ClientException error) {
+                if (getView() == null) {
+                    return;
                 }
+
+                getView().findViewById(android.R.id.progress).setVisibility(View.INVISIBLE);
+                new DefaultCallback<Void>(getActivity()).failure(error);
             }
-        };
+        });
+    }
+
+    /**
+     * Swaps the progress indicator for the list of changes
+     */
+    private void showChanges() {
+        getView().findViewById(android.R.id.progress).setVisibility(View.INVISIBLE);
+        getView().findViewById(android.R.id.list).setVisibility(View.VISIBLE);
+    }
+
+    /**
+     * Describes a change for the list of changes
+     * @param change The change
+     * @return The description
+     */
+    private String describe(final DeltaChange change) {
+        String name = change.getRecord().getName();
+        if (name == null) {
+            name = change.getRecord().getId();
+        }
+        switch (change.getType()) {
+            case Created:
+                return getString(R.string.delta_created, name);
+            case Updated:
+                return getString(R.string.delta_updated, name);
+            default:
+                return getString(R.string.delta_deleted, name);
+        }
     }
 
     @Override
@@ -222,7 +198,7 @@ public class DeltaFragment extends Fragment {
     public boolean onOptionsItemSelected(final MenuItem item) {
         switch (item.getItemId()) {
             case R.id.action_refresh:
-                refresh();
+                refresh(getView());
                 return true;
             case R.id.reset_token:
                 resetToken();
@@ -239,29 +215,21 @@ public class DeltaFragment extends Fragment {
      * Reset the delta token for the currently in view item
      */
     private void resetToken() {
-        getDeltaInfo().edit().putString(mItemId, null).commit();
+        ((BaseApplication) getActivity().getApplication()).getDeltaSyncEngine().reset(mItemId);
         Toast.makeText(getActivity(),
                        getString(R.string.cleared_saved_delta_token, mItemName),
                        Toast.LENGTH_LONG).show();
-        refresh();
+        refresh(getView());
     }
 
     /**
      * Reset all delta tokens
      */
     private void resetAllTokens() {
-        getDeltaInfo().edit().clear().commit();
+        ((BaseApplication) getActivity().getApplication()).getDeltaSyncEngine().resetAll();
         Toast.makeText(getActivity(),
                        getString(R.string.cleared_saved_delta_tokens),
                        Toast.LENGTH_LONG).show();
-        refresh();
-    }
-
-    /**
-     * Get the view delta preferences
-     * @return The preferences
-     */
-    private SharedPreferences getDeltaInfo() {
-        return getActivity().getSharedPreferences("delta", Context.MODE_PRIVATE);
+        refresh(getView());
     }
 }
@@ -0,0 +1,426 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.core.OneDriveErrorCodes;
+import com.onedrive.sdk.extensions.IDeltaCollectionPage;
+import com.onedrive.sdk.extensions.IDeltaRequestBuilder;
+import com.onedrive.sdk.extensions.IOneDriveClient;
+import com.onedrive.sdk.extensions.Item;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Keeps local item indexes in step with the service by consuming every page of the delta feed from the saved
+ * delta token, the index and the token are saved together once the last page has been applied
+ */
+class DeltaSyncEngine {
+
+    /**
+     * The properties requested for each changed item
+     */
+    private static final String DELTA_SELECT = "id,name,deleted,parentReference,size,file,folder,eTag";
+
+    /**
+     * The json property holding the token for the next delta request
+     */
+    private static final String DELTA_TOKEN = "@delta.token";
+
+    /**
+     * The preferences file holding the delta tokens, by item id
+     */
+    private static final String TOKEN_PREFERENCES = "delta";
+
+    /**
+     * The directory holding the index snapshots
+     */
+    private static final String INDEX_DIRECTORY = "delta";
+
+    /**
+     * The number of loaded items put into the item tree per ui thread message, so loading a large index does not
+     * hold up the ui thread
+     */
+    private static final int ITEM_TREE_BATCH_SIZE = 1000;
+
+    /**
+     * The application, used to reach the client
+     */
+    private final BaseApplication mApplication;
+
+    /**
+     * The saved delta tokens
+     */
+    private final SharedPreferences mTokens;
+
+    /**
+     * The loaded indexes, by item id
+     */
+    private final Map<String, ItemIndex> mIndexes = new HashMap<>();
+
+    /**
+     * The listeners of the syncs that are running, by item id
+     */
+    private final Map<String, Listener> mRunning = new HashMap<>();
+
+    /**
+     * Runs the syncs one at a time
+     */
+    private final ExecutorService mExecutor = Executors.newSingleThreadExecutor();
+
+    /**
+     * Used to deliver changes on the ui thread
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Default constructor
+     * @param application The application
+     */
+    DeltaSyncEngine(final BaseApplication application) {
+        mApplication = application;
+        mTokens = application.getSharedPreferences(TOKEN_PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Gets the index for the items below a folder, loading it from disk the first time. This may read from disk
+     * and must not be called on the ui thread
+     * @param itemId The folder id
+     * @return The index
+     */
+    synchronized ItemIndex getIndex(final String itemId) {
+        ItemIndex index = mIndexes.get(itemId);
+        if (index != null) {
+            return index;
+        }
+
+        final File file = getIndexFile(itemId);
+        if (file.exists()) {
+            try {
+                index = ItemIndex.readFrom(file);
+                final List<ItemRecord> records = index.getRecords();
+                mApplication.getSearchIndex().putAll(records);
+                putInItemTree(records);
+            } catch (final IOException e) {
+                Log.w(getClass().getSimpleName(), "Discarding unreadable index for " + itemId, e);
+            }
+        }
+        if (index == null) {
+            // Without the index the saved token is meaningless, start again from the beginning
+            index = new ItemIndex();
+            mTokens.edit().remove(itemId).commit();
+        }
+        mIndexes.put(itemId, index);
+        return index;
+    }
+
+    /**
+     * Starts bringing the index of a folder up to date, if a sync of the folder is already running the listener
+     * takes over from the previous one
+     * @param itemId The folder id
+     * @param listener Notified on the ui thread as each page of changes is applied
+     */
+    void sync(final String itemId, final Listener listener) {
+        synchronized (mRunning) {
+            final boolean running = mRunning.containsKey(itemId);
+            mRunning.put(itemId, listener);
+            if (running) {
+                return;
+            }
+        }
+
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    runSync(itemId);
+                } catch (final ClientException e) {
+                    if (!e.isError(OneDriveErrorCodes.ResyncRequired)) {
+                        deliverFailure(itemId, e);
+                        return;
+                    }
+                    Log.i(getClass().getSimpleName(), "Delta token expired, resynchronizing " + itemId);
+                    mTokens.edit().remove(itemId).commit();
+                    try {
+                        runSync(itemId);
+                    } catch (final ClientException resyncFailure) {
+                        deliverFailure(itemId, resyncFailure);
+                    }
+                } catch (final RuntimeException e) {
+                    deliverFailure(itemId, new ClientException("Delta sync failed for " + itemId,
+                                                               e,
+                                                               OneDriveErrorCodes.GeneralException));
+                }
+            }
+        });
+    }
+
+    /**
+     * Forgets the token and index of a folder so the next sync starts from the beginning
+     * @param itemId The folder id
+     */
+    synchronized void reset(final String itemId) {
+        mTokens.edit().remove(itemId).commit();
+        final ItemIndex index = mIndexes.remove(itemId);
+        if (index != null) {
+            index.clear();
+        }
+        getIndexFile(itemId).delete();
+    }
+
+    /**
+     * Forgets every token and index
+     */
+    synchronized void resetAll() {
+        for (final String itemId : mTokens.getAll().keySet()) {
+            getIndexFile(itemId).delete();
+        }
+        mTokens.edit().clear().commit();
+        for (final ItemIndex index : mIndexes.values()) {
+            index.clear();
+        }
+        mIndexes.clear();
+    }
+
+    /**
+     * Consumes the delta feed of a folder, this blocks until every page has been applied
+     * @param itemId The folder id
+     */
+    private void runSync(final String itemId) {
+        final IOneDriveClient client = mApplication.getOneDriveClient();
+        final ItemIndex index = getIndex(itemId);
+        final String token = mTokens.getString(itemId, null);
+        if (token == null) {
+            index.clear();
+        }
+
+        String nextToken = null;
+        int changeCount = 0;
+        IDeltaCollectionPage page = client
+            .getDrive()
+            .getItems(itemId)
+            .getDelta(token)
+            .buildRequest()
+            .select(DELTA_SELECT)
+            .get();
+        while (true) {
+            final List<JsonObject> items = new ArrayList<>(page.getCurrentPage().size());
+            for (final Item item : page.getCurrentPage()) {
+                items.add(item.getRawObject());
+            }
+            final List<DeltaChange> changes = index.apply(items);
+            changeCount += changes.size();
+            updateSearchIndex(changes);
+            deliverChanges(itemId, changes);
+
+            final JsonElement deltaToken = page.getRawObject().get(DELTA_TOKEN);
+            if (deltaToken != null) {
+                nextToken = deltaToken.getAsString();
+            }
+            final IDeltaRequestBuilder nextPage = page.getNextPage();
+            if (nextPage == null) {
+                break;
+            }
+            page = nextPage.buildRequest().get();
+        }
+
+        try {
+            index.writeTo(getIndexFile(itemId));
+            mTokens.edit().putString(itemId, nextToken).commit();
+        } catch (final IOException e) {
+            Log.e(getClass().getSimpleName(), "Unable to save the index for " + itemId, e);
+        }
+        deliverComplete(itemId, changeCount);
+    }
+
+    /**
+     * Brings the search index up to date with a page of changes
+     * @param changes The changes
+     */
+    private void updateSearchIndex(final List<DeltaChange> changes) {
+        final SearchIndex searchIndex = mApplication.getSearchIndex();
+        for (final DeltaChange change : changes) {
+            if (change.getType() == DeltaChange.Type.Deleted) {
+                searchIndex.remove(change.getRecord().getId());
+            } else {
+                searchIndex.put(change.getRecord());
+            }
+        }
+    }
+
+    /**
+     * Puts loaded items into the item tree on the ui thread, a batch at a time
+     * @param records The items
+     */
+    private void putInItemTree(final List<ItemRecord> records) {
+        for (int start = 0; start < records.size(); start += ITEM_TREE_BATCH_SIZE) {
+            final List<ItemRecord> batch = records.subList(start,
+                                                           Math.min(start + ITEM_TREE_BATCH_SIZE, records.size()));
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    final ItemTree tree = mApplication.getItemTree();
+                    tree.beginBatch();
+                    for (final ItemRecord record : batch) {
+                        tree.put(record);
+                    }
+                    tree.endBatch();
+                }
+            });
+        }
+    }
+
+    /**
+     * Brings the item tree up to date with a page of changes and hands them to the current listener
+     * @param itemId The folder id
+     * @param changes The changes
+     */
+    private void deliverChanges(final String itemId, final List<DeltaChange> changes) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                final ItemTree tree = mApplication.getItemTree();
+                tree.beginBatch();
+                for (final DeltaChange change : changes) {
+                    if (change.getType() == DeltaChange.Type.Deleted) {
+                        tree.remove(change.getRecord().getId());
+                    } else {
+                        tree.put(change.getRecord());
+                    }
+                }
+                tree.endBatch();
+
+                final Listener listener = getListener(itemId);
+                if (listener != null) {
+                    listener.onChanges(changes);
+                }
+            }
+        });
+    }
+
+    /**
+     * Tells the current listener that the sync has finished
+     * @param itemId The folder id
+     * @param changeCount The total number of changes applied
+     */
+    private void deliverComplete(final String itemId, final int changeCount) {
+        final Listener listener = finish(itemId);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onComplete(changeCount);
+            }
+        });
+    }
+
+    /**
+     * Tells the current listener that the sync has failed
+     * @param itemId The folder id
+     * @param error The failure
+     */
+    private void deliverFailure(final String itemId, final ClientException error) {
+        final Listener listener = finish(itemId);
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                listener.onFailure(error);
+            }
+        });
+    }
+
+    /**
+     * Gets the listener of a running sync
+     * @param itemId The folder id
+     * @return The listener, or null if the sync has finished
+     */
+    private Listener getListener(final String itemId) {
+        synchronized (mRunning) {
+            return mRunning.get(itemId);
+        }
+    }
+
+    /**
+     * Marks a sync as finished
+     * @param itemId The folder id
+     * @return The listener of the sync
+     */
+    private Listener finish(final String itemId) {
+        synchronized (mRunning) {
+            return mRunning.remove(itemId);
+        }
+    }
+
+    /**
+     * Gets the snapshot file for the index of a folder
+     * @param itemId The folder id
+     * @return The file
+     */
+    private File getIndexFile(final String itemId) {
+        final File directory = new File(mApplication.getFilesDir(), INDEX_DIRECTORY);
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            Log.w(getClass().getSimpleName(), "Unable to create index directory " + directory);
+        }
+        return new File(directory, Uri.encode(itemId));
+    }
+
+    /**
+     * Receives the progress of a sync
+     */
+    interface Listener {
+        /**
+         * Called on the ui thread after each page of changes has been applied
+         * @param changes The changes on the page
+         */
+        void onChanges(final List<DeltaChange> changes);
+
+        /**
+         * Called on the ui thread once every page has been applied
+         * @param changeCount The total number of changes applied
+         */
+        void onComplete(final int changeCount);
+
+        /**
+         * Called on the ui thread if the sync could not be completed
+         * @param error The failure
+         */
+        void onFailure(final ClientException error);
+    }
+}
@@ -0,0 +1,244 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.app.Fragment;
+import android.os.AsyncTask;
+import android.os.Bundle;
+import android.text.format.Formatter;
+import android.util.Log;
+import android.view.LayoutInflater;
+import android.view.Menu;
+import android.view.MenuInflater;
+import android.view.MenuItem;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.ArrayAdapter;
+import android.widget.ListView;
+import android.widget.Toast;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Shows the request timings and cache statistics collected since the application started
+ */
+public class DiagnosticsFragment extends Fragment {
+
+    /**
+     * The median
+     */
+    private static final double P50 = 50;
+
+    /**
+     * The 99th percentile
+     */
+    private static final double P99 = 99;
+
+    /**
+     * The lines of the report
+     */
+    private ArrayAdapter<String> mAdapter;
+
+    @Override
+    public void onCreate(final Bundle savedInstanceState) {
+        super.onCreate(savedInstanceState);
+        mAdapter = new ArrayAdapter<>(getActivity(), android.R.layout.simple_list_item_1);
+        setHasOptionsMenu(true);
+    }
+
+    @Override
+    public View onCreateView(final LayoutInflater inflater,
+                             final ViewGroup container,
+                             final Bundle savedInstanceState) {
+        final View view = inflater.inflate(R.layout.fragment_json_view, container, false);
+        ((ListView) view.findViewById(android.R.id.list)).setAdapter(mAdapter);
+        getActivity().setTitle(R.string.diagnostics);
+
+        refresh(view);
+        return view;
+    }
+
+    @Override
+    public void onCreateOptionsMenu(final Menu menu, final MenuInflater inflater) {
+        super.onCreateOptionsMenu(menu, inflater);
+        menu.clear();
+        inflater.inflate(R.menu.menu_diagnostics_fragment, menu);
+    }
+
+    @Override
+    public boolean onOptionsItemSelected(final MenuItem item) {
+        switch (item.getItemId()) {
+            case R.id.action_refresh:
+                refresh(getView());
+                return true;
+            case R.id.action_export_diagnostics:
+                export();
+                return true;
+            case R.id.action_clear_diagnostics:
+                ((BaseApplication) getActivity().getApplication()).getRequestMetrics().clear();
+                ((BaseApplication) getActivity().getApplication()).getFrameMonitor().clear();
+                refresh(getView());
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Refresh the UI
+     * @param view The root of the fragment
+     */
+    private void refresh(final View view) {
+        view.findViewById(android.R.id.progress).setVisibility(View.VISIBLE);
+        view.findViewById(android.R.id.list).setVisibility(View.INVISIBLE);
+
+        final BaseApplication app = (BaseApplication) getActivity().getApplication();
+        final String itemTreeReport = getItemTreeReport(app);
+        new AsyncTask<Void, Void, List<String>>() {
+            @Override
+            protected List<String> doInBackground(final Void... params) {
+                final List<String> lines = new ArrayList<>(app.getRequestMetrics().getReport());
+                lines.addAll(getCacheReport(app));
+                lines.add(itemTreeReport);
+                return lines;
+            }
+
+            @Override
+            protected void onPostExecute(final List<String> lines) {
+                if (getView() == null) {
+                    return;
+                }
+                mAdapter.clear();
+                mAdapter.addAll(lines);
+                getView().findViewById(android.R.id.progress).setVisibility(View.INVISIBLE);
+                getView().findViewById(android.R.id.list).setVisibility(View.VISIBLE);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Writes the report into the application's external files
+     */
+    private void export() {
+        final BaseApplication app = (BaseApplication) getActivity().getApplication();
+        final String itemTreeReport = getItemTreeReport(app);
+        new AsyncTask<Void, Void, File>() {
+            @Override
+            protected File doInBackground(final Void... params) {
+                File directory = app.getExternalFilesDir(null);
+                if (directory == null) {
+                    directory = app.getFilesDir();
+                }
+                final File file = new File(directory, "diagnostics-" + System.currentTimeMillis() + ".txt");
+                try {
+                    final List<String> lines = getCacheReport(app);
+                    lines.add(itemTreeReport);
+                    app.getRequestMetrics().export(file, lines);
+                    return file;
+                } catch (final IOException e) {
+                    Log.e(getClass().getSimpleName(), "Unable to export diagnostics", e);
+                    return null;
+                }
+            }
+
+            @Override
+            protected void onPostExecute(final File file) {
+                if (file == null) {
+                    Toast.makeText(app, R.string.diagnostics_export_failed, Toast.LENGTH_LONG).show();
+                    return;
+                }
+                Toast.makeText(app,
+                               app.getString(R.string.diagnostics_exported, file.getPath()),
+                               Toast.LENGTH_LONG).show();
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Describes the item tree, this must be called on the ui thread
+     * @param app The application
+     * @return The report line
+     */
+    private static String getItemTreeReport(final BaseApplication app) {
+        final ItemTree tree = app.getItemTree();
+        return app.getString(R.string.diagnostics_item_tree,
+                             tree.size(),
+                             Formatter.formatShortFileSize(app, tree.getByteCount()));
+    }
+
+    /**
+     * Describes the transfers, the request coalescing, the thumbnail cache, the decoder and the frame intervals, this
+     * may read from disk
+     * @param app The application
+     * @return The report lines
+     */
+    private static List<String> getCacheReport(final BaseApplication app) {
+        final ThumbnailCache cache = app.getImageCache();
+        final List<String> lines = new ArrayList<>();
+        final TransferPolicy policy = app.getTransferPolicy();
+        lines.add(app.getString(R.string.diagnostics_transfers,
+                                policy.getNetworkClass().name(),
+                                policy.canTransfer(),
+                                app.getTransferQueue().getQueuedCount(),
+                                app.getTransferQueue().getWaitingCount()));
+        final SearchIndex searchIndex = app.getSearchIndex();
+        lines.add(app.getString(R.string.diagnostics_search_index,
+                                searchIndex.getItemCount(),
+                                searchIndex.getTokenCount()));
+        final ItemRequestCoalescer coalescer = app.getItemRequestCoalescer();
+        lines.add(app.getString(R.string.diagnostics_coalescing,
+                                coalescer.getSentCount(),
+                                coalescer.getCoalescedCount()));
+        lines.add(app.getString(R.string.diagnostics_thumbnail_cache,
+                                cache.getMemoryHitCount(),
+                                cache.getDiskHitCount(),
+                                cache.getMissCount(),
+                                cache.getEvictionCount(),
+                                cache.getDiskEvictionCount(),
+                                Formatter.formatShortFileSize(app, cache.getMemorySize()),
+                                Formatter.formatShortFileSize(app, cache.getDiskSize())));
+        final ThumbnailDecoder decoder = app.getThumbnailDecoder();
+        final LatencyHistogram decodeTimes = decoder.getDecodeTimes();
+        lines.add(app.getString(R.string.diagnostics_thumbnail_decoding,
+                                decodeTimes.getCount(),
+                                RequestMetrics.formatMicros(decodeTimes.getValueAtPercentile(P50)),
+                                RequestMetrics.formatMicros(decodeTimes.getValueAtPercentile(P99)),
+                                RequestMetrics.formatMicros(decodeTimes.getMax()),
+                                decoder.getReusedCount(),
+                                decoder.getAllocatedCount(),
+                                Formatter.formatShortFileSize(app, decoder.getAllocatedBytes())));
+        final FrameMonitor frameMonitor = app.getFrameMonitor();
+        final LatencyHistogram frameIntervals = frameMonitor.getFrameIntervals();
+        lines.add(app.getString(R.string.diagnostics_frames,
+                                frameIntervals.getCount(),
+                                RequestMetrics.formatMicros(frameIntervals.getValueAtPercentile(P50)),
+                                RequestMetrics.formatMicros(frameIntervals.getValueAtPercentile(P99)),
+                                RequestMetrics.formatMicros(frameIntervals.getMax()),
+                                frameMonitor.getJankCount()));
+        return lines;
+    }
+}
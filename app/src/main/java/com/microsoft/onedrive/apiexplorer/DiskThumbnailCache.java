@@ -0,0 +1,339 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A size bounded, least recently used thumbnail store on disk. There is one file per item, each file starts with
+ * the tag of the item it was created from so a thumbnail for an older version of the item is discarded on read
+ */
+class DiskThumbnailCache {
+
+    /**
+     * The quality used when compressing opaque thumbnails
+     */
+    private static final int JPEG_QUALITY = 90;
+
+    /**
+     * The suffix of files still being written, left over ones are deleted when the index is built
+     */
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    /**
+     * The load factor of the index
+     */
+    private static final float LOAD_FACTOR = 0.75f;
+
+    /**
+     * The mask for the low byte of a digest
+     */
+    private static final int BYTE_MASK = 0xff;
+
+    /**
+     * The radix of the digest characters
+     */
+    private static final int HEX_RADIX = 16;
+
+    /**
+     * The directory holding the thumbnails
+     */
+    private final File mDirectory;
+
+    /**
+     * The maximum number of bytes to keep on disk
+     */
+    private final long mMaxSize;
+
+    /**
+     * The files in the cache in least to most recently used order, with their sizes
+     */
+    private final LinkedHashMap<String, Long> mEntries = new LinkedHashMap<>(0, LOAD_FACTOR, true);
+
+    /**
+     * The total size of the files in the cache
+     */
+    private long mSize;
+
+    /**
+     * If the index has been loaded from the directory
+     */
+    private boolean mLoaded;
+
+    /**
+     * The number of files removed to stay within the size budget
+     */
+    private long mEvictionCount;
+
+    /**
+     * Decodes the stored thumbnails
+     */
+    private final ThumbnailDecoder mDecoder;
+
+    /**
+     * Default constructor
+     * @param directory The directory holding the thumbnails
+     * @param maxSize The maximum number of bytes to keep on disk
+     * @param decoder Decodes the stored thumbnails
+     */
+    DiskThumbnailCache(final File directory, final long maxSize, final ThumbnailDecoder decoder) {
+        mDirectory = directory;
+        mMaxSize = maxSize;
+        mDecoder = decoder;
+    }
+
+    /**
+     * Reads a thumbnail, the lock is only held to look up and update the index so reads do not wait on each other
+     * @param itemId The item id
+     * @param tag The current tag of the item
+     * @return The thumbnail, or null if there is none for this version of the item
+     */
+    Bitmap get(final String itemId, final String tag) {
+        final String fileName = fileName(itemId);
+        synchronized (this) {
+            ensureLoaded();
+            if (mEntries.get(fileName) == null) {
+                return null;
+            }
+        }
+
+        // Files are replaced by renaming, so this reads either the old or the new thumbnail but never a mix
+        final File file = new File(mDirectory, fileName);
+        try {
+            final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (!input.readUTF().equals(tag)) {
+                    synchronized (this) {
+                        remove(fileName);
+                    }
+                    return null;
+                }
+                final Bitmap bitmap = mDecoder.decode(input);
+                if (bitmap != null) {
+                    file.setLastModified(System.currentTimeMillis());
+                }
+                return bitmap;
+            } finally {
+                input.close();
+            }
+        } catch (final IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to read cached thumbnail for " + itemId, e);
+            synchronized (this) {
+                remove(fileName);
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Checks if a thumbnail is stored without reading it
+     * @param itemId The item id
+     * @return If there is a thumbnail for any version of the item
+     */
+    synchronized boolean contains(final String itemId) {
+        ensureLoaded();
+        return mEntries.containsKey(fileName(itemId));
+    }
+
+    /**
+     * Stores a thumbnail, replacing any thumbnail for an older version of the item. The file is written outside the
+     * lock under a temporary name and renamed into place
+     * @param itemId The item id
+     * @param tag The current tag of the item
+     * @param bitmap The thumbnail
+     */
+    void put(final String itemId, final String tag, final Bitmap bitmap) {
+        final String fileName = fileName(itemId);
+        final File file = new File(mDirectory, fileName);
+        final File temporary;
+        try {
+            synchronized (this) {
+                ensureLoaded();
+            }
+            temporary = File.createTempFile(fileName, TEMPORARY_SUFFIX, mDirectory);
+        } catch (final IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to cache thumbnail for " + itemId, e);
+            return;
+        }
+        try {
+            final DataOutputStream output
+                = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporary)));
+            try {
+                output.writeUTF(tag);
+                if (bitmap.hasAlpha()) {
+                    bitmap.compress(Bitmap.CompressFormat.PNG, 0, output);
+                } else {
+                    bitmap.compress(Bitmap.CompressFormat.JPEG, JPEG_QUALITY, output);
+                }
+            } finally {
+                output.close();
+            }
+        } catch (final IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to cache thumbnail for " + itemId, e);
+            temporary.delete();
+            return;
+        }
+
+        synchronized (this) {
+            if (!temporary.renameTo(file)) {
+                Log.w(getClass().getSimpleName(), "Unable to move cached thumbnail for " + itemId + " into place");
+                temporary.delete();
+                return;
+            }
+            final Long previous = mEntries.put(fileName, file.length());
+            if (previous != null) {
+                mSize -= previous;
+            }
+            mSize += file.length();
+            trimToSize();
+        }
+    }
+
+    /**
+     * Removes every stored thumbnail, for when the account they belong to signs out
+     */
+    synchronized void clear() {
+        ensureLoaded();
+        for (final String fileName : mEntries.keySet()) {
+            new File(mDirectory, fileName).delete();
+        }
+        mEntries.clear();
+        mSize = 0;
+    }
+
+    /**
+     * The number of files removed to stay within the size budget
+     * @return The eviction count
+     */
+    synchronized long getEvictionCount() {
+        return mEvictionCount;
+    }
+
+    /**
+     * The total size of the files in the cache
+     * @return The size in bytes
+     */
+    synchronized long getSize() {
+        return mSize;
+    }
+
+    /**
+     * Removes least recently used files until the cache is within its budget
+     */
+    private void trimToSize() {
+        final Iterator<Map.Entry<String, Long>> iterator = mEntries.entrySet().iterator();
+        while (mSize > mMaxSize && iterator.hasNext()) {
+            final Map.Entry<String, Long> eldest = iterator.next();
+            iterator.remove();
+            mSize -= eldest.getValue();
+            new File(mDirectory, eldest.getKey()).delete();
+            mEvictionCount++;
+        }
+    }
+
+    /**
+     * Removes a file from the cache
+     * @param fileName The file to remove
+     */
+    private void remove(final String fileName) {
+        final Long size = mEntries.remove(fileName);
+        if (size != null) {
+            mSize -= size;
+        }
+        new File(mDirectory, fileName).delete();
+    }
+
+    /**
+     * Builds the index from the directory contents the first time the cache is used, last modified times are
+     * updated on every read so they give the least recently used order
+     */
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        if (!mDirectory.isDirectory() && !mDirectory.mkdirs()) {
+            Log.w(getClass().getSimpleName(), "Unable to create thumbnail directory " + mDirectory);
+            return;
+        }
+
+        final File[] files = mDirectory.listFiles();
+        if (files == null) {
+            return;
+        }
+        Arrays.sort(files, new Comparator<File>() {
+            @Override
+            public int compare(final File lhs, final File rhs) {
+                return Long.valueOf(lhs.lastModified()).compareTo(rhs.lastModified());
+            }
+        });
+        for (final File file : files) {
+            if (file.getName().endsWith(TEMPORARY_SUFFIX)) {
+                file.delete();
+                continue;
+            }
+            mEntries.put(file.getName(), file.length());
+            mSize += file.length();
+        }
+        trimToSize();
+    }
+
+    /**
+     * Maps an item id onto a file name that is safe for the file system
+     * @param itemId The item id
+     * @return The file name
+     */
+    private static String fileName(final String itemId) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("MD5").digest(itemId.getBytes("UTF-8"));
+            final StringBuilder sb = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                final int value = b & BYTE_MASK;
+                sb.append(Character.forDigit(value / HEX_RADIX, HEX_RADIX));
+                sb.append(Character.forDigit(value % HEX_RADIX, HEX_RADIX));
+            }
+            return sb.toString();
+        } catch (final NoSuchAlgorithmException | UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -25,55 +25,229 @@ package com.microsoft.onedrive.apiexplorer;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.Bitmap;
+import android.util.SparseArray;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
-import android.widget.ArrayAdapter;
+import android.view.accessibility.AccessibilityNodeInfo;
+import android.widget.AbsListView;
+import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
 /**
- * Array adapter for display items
+ * Adapter for the children of a folder, binding each row straight from the item tree. While it observes the tree
+ * the list is told of every change to the folder's children, whoever makes it
  */
-public class DisplayItemAdapter extends ArrayAdapter<DisplayItem> {
+public class DisplayItemAdapter extends BaseAdapter
+    implements AbsListView.RecyclerListener, ThumbnailScheduler.Listener, ItemTree.Observer {
+
+    /**
+     * The number of thumbnail keys kept before the cache of them is emptied, enough for rows scrolled back and forth
+     */
+    private static final int MAX_THUMBNAIL_KEYS = 512;
+
+    /**
+     * The context of this adapter
+     */
+    private final Context mContext;
 
     /**
      * The layout inflater
      */
     private final LayoutInflater mInflater;
 
+    /**
+     * The items to bind from
+     */
+    private final ItemTree mTree;
+
+    /**
+     * The thumbnail cache
+     */
+    private final ThumbnailCache mImageCache;
+
+    /**
+     * The scheduler for thumbnail downloads
+     */
+    private final ThumbnailScheduler mThumbnailScheduler;
+
+    /**
+     * The views currently showing an item, by item row
+     */
+    private final SparseArray<ViewHolder> mBoundRows = new SparseArray<>();
+
+    /**
+     * The memory cache keys of the thumbnails of recently bound rows, so binding a row again does not build its key
+     */
+    private final SparseArray<String> mThumbnailKeys = new SparseArray<>();
+
+    /**
+     * The row of the folder whose children are shown, or {@link ItemTree#NO_ROW} for none
+     */
+    private int mFolder = ItemTree.NO_ROW;
+
+    /**
+     * Counts the changes to the data, a row bound before the latest change is bound again
+     */
+    private int mGeneration;
+
+    /**
+     * If the folder or its children changed during a batch of changes that has not yet ended
+     */
+    private boolean mChangedInBatch;
+
     /**
      * Default constructor
      * @param context The context of this adapter
      */
     public DisplayItemAdapter(final Activity context) {
-        super(context, R.layout.display_item_resource);
+        final BaseApplication application = (BaseApplication) context.getApplication();
+        mContext = context;
         mInflater = (LayoutInflater)context.getSystemService(Context.LAYOUT_INFLATER_SERVICE);
+        mTree = application.getItemTree();
+        mImageCache = application.getImageCache();
+        mThumbnailScheduler = application.getThumbnailScheduler();
+    }
+
+    /**
+     * Shows the children of a folder
+     * @param folder The row of the folder, or {@link ItemTree#NO_ROW} to show nothing
+     */
+    void setFolder(final int folder) {
+        mFolder = folder;
+        mThumbnailKeys.clear();
+        notifyDataSetChanged();
+    }
+
+    @Override
+    public void notifyDataSetChanged() {
+        mGeneration++;
+        super.notifyDataSetChanged();
+    }
+
+    /**
+     * Tells the list before one of the folder's children changes or leaves
+     * @param row The item row
+     */
+    @Override
+    public void onItemChanging(final int row) {
+        mThumbnailKeys.remove(row);
+        notifyIfShown(row);
+    }
+
+    /**
+     * Tells the list once one of the folder's children has changed or joined
+     * @param row The item row
+     */
+    @Override
+    public void onItemChanged(final int row) {
+        mThumbnailKeys.remove(row);
+        notifyIfShown(row);
+    }
+
+    /**
+     * Shows nothing once every item is gone
+     */
+    @Override
+    public void onCleared() {
+        setFolder(ItemTree.NO_ROW);
+    }
+
+    /**
+     * Tells the list once for every change to the folder's children during the batch
+     */
+    @Override
+    public void onBatchEnded() {
+        if (mChangedInBatch) {
+            mChangedInBatch = false;
+            notifyDataSetChanged();
+        }
+    }
+
+    @Override
+    public int getCount() {
+        if (mFolder == ItemTree.NO_ROW) {
+            return 0;
+        }
+        return mTree.getChildCount(mFolder);
+    }
+
+    /**
+     * The id of the item at a position
+     * @param position The position
+     * @return The item id
+     */
+    @Override
+    public String getItem(final int position) {
+        return mTree.getId(getRow(position));
+    }
+
+    /**
+     * The name of the item at a position
+     * @param position The position
+     * @return The item name
+     */
+    String getItemName(final int position) {
+        return mTree.getName(getRow(position));
+    }
+
+    @Override
+    public boolean hasStableIds() {
+        return true;
+    }
+
+    /**
+     * Rows are never reused for another item, so the row is a stable id
+     * @param position The position
+     * @return The row of the item
+     */
+    @Override
+    public long getItemId(final int position) {
+        return getRow(position);
     }
 
     @Override
     public View getView(final int position, final View convertView, final ViewGroup parent) {
         final View view;
+        final ViewHolder holder;
         if (convertView == null) {
             view = mInflater.inflate(R.layout.display_item_resource, parent, false);
+            holder = new ViewHolder(view);
+            view.setTag(holder);
+            // The description is only built when accessibility services ask for it, not every time the row is bound
+            holder.mIcon.setAccessibilityDelegate(new View.AccessibilityDelegate() {
+                @Override
+                public void onInitializeAccessibilityNodeInfo(final View host, final AccessibilityNodeInfo info) {
+                    super.onInitializeAccessibilityNodeInfo(host, info);
+                    if (holder.mRow != ItemTree.NO_ROW) {
+                        info.setContentDescription(mContext.getString(R.string.thumbnail_description,
+                                                                      mTree.getName(holder.mRow)));
+                    }
+                }
+            });
         } else {
             view = convertView;
+            holder = (ViewHolder) view.getTag();
         }
 
-        final DisplayItem item = getItem(position);
-        item.resumeThumbnailDownload();
-
-        ((TextView)view.findViewById(android.R.id.text1)).setText(item.getItem().name);
-        ((TextView)view.findViewById(android.R.id.text2)).setText(item.getTypeFacets());
-        final ImageView imageView = (ImageView) view.findViewById(android.R.id.icon);
-        final Bitmap image = item.getImage();
-        if (image != null) {
-            imageView.setImageBitmap(image);
-        } else {
-            imageView.setImageResource(android.R.drawable.ic_menu_report_image);
+        final int row = getRow(position);
+        if (holder.mRow != row || holder.mGeneration != mGeneration) {
+            if (holder.mRow != ItemTree.NO_ROW) {
+                unbind(holder);
+            }
+            bind(holder, row);
         }
-        imageView.setContentDescription(getContext().getString(R.string.thumbnail_description, item.getItem().name));
 
+        Bitmap image = null;
+        if (holder.mThumbnailKey != null) {
+            image = mImageCache.getFromMemory(holder.mThumbnailKey);
+        }
+        showThumbnail(holder, image);
+        if (image == null && holder.mThumbnailKey != null && holder.mRequestedId == null) {
+            holder.mRequestedId = mTree.getId(row);
+            mThumbnailScheduler.request(holder.mRequestedId, mTree.getThumbnailTag(row), this);
+        }
         return view;
     }
 
@@ -81,8 +255,215 @@ public class DisplayItemAdapter extends ArrayAdapter<DisplayItem> {
      * Stop issuing requests for thumbnails contained within this Adapter
      */
     public void stopDownloadingThumbnails() {
-        for (int i = 0; i < getCount(); i++) {
-            getItem(i).cancelThumbnailDownload();
+        for (int i = 0; i < mBoundRows.size(); i++) {
+            final ViewHolder holder = mBoundRows.valueAt(i);
+            if (holder.mRequestedId != null) {
+                mThumbnailScheduler.cancel(holder.mRequestedId);
+                holder.mRequestedId = null;
+            }
+        }
+    }
+
+    /**
+     * A row scrolled off screen, its thumbnail is no longer needed
+     * @param view The row that was moved to the scrap heap
+     */
+    @Override
+    public void onMovedToScrapHeap(final View view) {
+        final ViewHolder holder = (ViewHolder) view.getTag();
+        if (holder != null && holder.mRow != ItemTree.NO_ROW) {
+            unbind(holder);
+        }
+    }
+
+    /**
+     * Only the row showing the item is updated, the rest of the list is left alone
+     * @param itemId The item id
+     */
+    @Override
+    public void onThumbnailLoaded(final String itemId) {
+        final int row = mTree.getRow(itemId);
+        if (row == ItemTree.NO_ROW) {
+            return;
+        }
+        final ViewHolder holder = mBoundRows.get(row);
+        if (holder == null || holder.mThumbnailKey == null) {
+            return;
+        }
+        holder.mRequestedId = null;
+        final Bitmap thumbnail = mImageCache.getFromMemory(holder.mThumbnailKey);
+        if (thumbnail != null) {
+            showThumbnail(holder, thumbnail);
+        }
+    }
+
+    /**
+     * Tells the list of a change to an item if the item is the folder or one of its children, or waits for the end
+     * of the batch if the change is part of one
+     * @param row The item row
+     */
+    private void notifyIfShown(final int row) {
+        if (mFolder == ItemTree.NO_ROW || (row != mFolder && mTree.getParent(row) != mFolder)) {
+            return;
+        }
+        if (mTree.isInBatch()) {
+            mChangedInBatch = true;
+        } else {
+            notifyDataSetChanged();
+        }
+    }
+
+    /**
+     * The row of the item at a position
+     * @param position The position
+     * @return The row
+     */
+    private int getRow(final int position) {
+        return mTree.getChild(mFolder, position);
+    }
+
+    /**
+     * Shows an item in a row without creating strings, the name is copied into the row's own buffer and the
+     * thumbnail key comes from the keys of recently bound rows
+     * @param holder The row
+     * @param row The item row
+     */
+    private void bind(final ViewHolder holder, final int row) {
+        holder.mRow = row;
+        holder.mGeneration = mGeneration;
+        mBoundRows.put(row, holder);
+
+        final int nameLength = mTree.getNameLength(row);
+        if (holder.mNameChars.length < nameLength) {
+            holder.mNameChars = new char[nameLength];
+        }
+        mTree.getNameChars(row, holder.mNameChars);
+        holder.mName.setText(holder.mNameChars, 0, nameLength);
+        holder.mFacets.setText(ItemTree.getFacetLabel(mTree.getFacets(row)));
+
+        holder.mThumbnailKey = null;
+        if (mTree.hasThumbnail(row)) {
+            holder.mThumbnailKey = getThumbnailKey(row);
+        }
+    }
+
+    /**
+     * Gets the memory cache key of the thumbnail of an item, building it only if the row was not bound recently
+     * @param row The item row
+     * @return The key
+     */
+    private String getThumbnailKey(final int row) {
+        String key = mThumbnailKeys.get(row);
+        if (key == null) {
+            if (mThumbnailKeys.size() >= MAX_THUMBNAIL_KEYS) {
+                mThumbnailKeys.clear();
+            }
+            key = ThumbnailCache.key(mTree.getId(row), mTree.getThumbnailTag(row));
+            mThumbnailKeys.put(row, key);
+        }
+        return key;
+    }
+
+    /**
+     * Detaches a row from the item it was showing
+     * @param holder The row
+     */
+    private void unbind(final ViewHolder holder) {
+        if (holder.mRequestedId != null) {
+            mThumbnailScheduler.cancel(holder.mRequestedId);
+            holder.mRequestedId = null;
+        }
+        if (mBoundRows.get(holder.mRow) == holder) {
+            mBoundRows.remove(holder.mRow);
+        }
+        holder.mRow = ItemTree.NO_ROW;
+        showThumbnail(holder, null);
+    }
+
+    /**
+     * Shows a thumbnail in a row, letting the cache know which bitmap the row lets go of so it can be reused
+     * @param holder The row
+     * @param thumbnail The thumbnail from the memory cache, or null to show the placeholder
+     */
+    private void showThumbnail(final ViewHolder holder, final Bitmap thumbnail) {
+        if (thumbnail != null && holder.mThumbnail == thumbnail) {
+            return;
+        }
+        if (holder.mThumbnail != null) {
+            mImageCache.onHidden(holder.mThumbnail);
+        }
+        holder.mThumbnail = thumbnail;
+        if (thumbnail == null) {
+            holder.mIcon.setImageResource(android.R.drawable.ic_menu_report_image);
+        } else {
+            mImageCache.onShown(thumbnail);
+            holder.mIcon.setImageBitmap(thumbnail);
+        }
+    }
+
+    /**
+     * The views of a row, looked up once when the row is inflated
+     */
+    private static final class ViewHolder {
+
+        /**
+         * The number of name characters to make room for at first
+         */
+        private static final int INITIAL_NAME_LENGTH = 64;
+
+        /**
+         * The item name
+         */
+        private final TextView mName;
+
+        /**
+         * The item facets
+         */
+        private final TextView mFacets;
+
+        /**
+         * The thumbnail
+         */
+        private final ImageView mIcon;
+
+        /**
+         * The characters of the name, the name view shows them rather than a copy
+         */
+        private char[] mNameChars = new char[INITIAL_NAME_LENGTH];
+
+        /**
+         * The row of the item shown, or {@link ItemTree#NO_ROW} if the row is not in use
+         */
+        private int mRow = ItemTree.NO_ROW;
+
+        /**
+         * The generation of the adapter's data the row was bound from
+         */
+        private int mGeneration;
+
+        /**
+         * The id of the item whose thumbnail was requested for the row, or null if none is outstanding
+         */
+        private String mRequestedId;
+
+        /**
+         * The key of the thumbnail in the memory cache, or null if the item has no thumbnail
+         */
+        private String mThumbnailKey;
+
+        /**
+         * The bitmap shown in the row, or null while it shows the placeholder
+         */
+        private Bitmap mThumbnail;
+
+        /**
+         * Default constructor
+         * @param view The row
+         */
+        private ViewHolder(final View view) {
+            mName = (TextView) view.findViewById(android.R.id.text1);
+            mFacets = (TextView) view.findViewById(android.R.id.text2);
+            mIcon = (ImageView) view.findViewById(android.R.id.icon);
         }
     }
 }
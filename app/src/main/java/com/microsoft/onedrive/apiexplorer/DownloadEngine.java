@@ -0,0 +1,689 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.core.OneDriveErrorCodes;
+import com.onedrive.sdk.extensions.IItemCollectionPage;
+import com.onedrive.sdk.extensions.IItemCollectionRequestBuilder;
+import com.onedrive.sdk.extensions.IOneDriveClient;
+import com.onedrive.sdk.extensions.Item;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Environment;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads files and whole folder trees into app storage with a bounded number of concurrent transfers. Partial
+ * files are preallocated and the committed offset of each is journaled, so an interrupted transfer resumes with an
+ * http range request rather than starting over
+ */
+class DownloadEngine {
+
+    /**
+     * The size of the buffer each transfer reads into
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The number of transfer buffers to keep around between files
+     */
+    private static final int MAX_POOLED_BUFFERS = 4;
+
+    /**
+     * The number of times a file is attempted before it is counted as failed
+     */
+    private static final int MAX_ATTEMPTS = 4;
+
+    /**
+     * How many bytes are written between checkpoints of the committed offset
+     */
+    private static final long CHECKPOINT_BYTES = 1024 * 1024;
+
+    /**
+     * How often progress is reported, in milliseconds
+     */
+    private static final long PROGRESS_INTERVAL_MS = 500;
+
+    /**
+     * How long idle transfer threads are kept, in seconds
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The number of milliseconds in a second
+     */
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    /**
+     * Appended to the name of a file while it is being downloaded
+     */
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    /**
+     * Separates the eTag and the offset or size of a journal entry
+     */
+    private static final char JOURNAL_SEPARATOR = '|';
+
+    /**
+     * The preferences file holding the committed offsets of partial files by partial file path, and the sizes of
+     * completed files by file path
+     */
+    private static final String JOURNAL_PREFERENCES = "downloads";
+
+    /**
+     * The json property holding the pre-authenticated download url of a file
+     */
+    private static final String DOWNLOAD_URL = "@content.downloadUrl";
+
+    /**
+     * The endpoint name file transfers are recorded under
+     */
+    private static final String DOWNLOAD_ENDPOINT = "GET {downloadUrl}";
+
+    /**
+     * The application, used to reach the client
+     */
+    private final BaseApplication mApplication;
+
+    /**
+     * The committed offsets of partial files and the sizes of completed files
+     */
+    private final SharedPreferences mJournal;
+
+    /**
+     * Walks folder trees, one at a time so that listing requests never hold a transfer slot
+     */
+    private final ExecutorService mEnumerator = Executors.newSingleThreadExecutor();
+
+    /**
+     * Runs the file transfers
+     */
+    private final ThreadPoolExecutor mTransfers;
+
+    /**
+     * The most files transferred at the same time
+     */
+    private final int mMaxConcurrency;
+
+    /**
+     * The transfer buffers
+     */
+    private final ByteBufferPool mBufferPool = new ByteBufferPool(BUFFER_SIZE, MAX_POOLED_BUFFERS);
+
+    /**
+     * Used to report progress on the ui thread
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Default constructor
+     * @param application The application
+     * @param concurrency The most files transferred at the same time, fewer are used away from unmetered networks
+     */
+    DownloadEngine(final BaseApplication application, final int concurrency) {
+        mApplication = application;
+        mMaxConcurrency = concurrency;
+        mJournal = application.getSharedPreferences(JOURNAL_PREFERENCES, Context.MODE_PRIVATE);
+        mTransfers = new ThreadPoolExecutor(concurrency,
+                                            concurrency,
+                                            KEEP_ALIVE_SECONDS,
+                                            TimeUnit.SECONDS,
+                                            new LinkedBlockingQueue<Runnable>());
+        mTransfers.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Changes the number of files transferred at the same time, running transfers are not interrupted
+     * @param concurrency The number of files
+     */
+    private synchronized void setConcurrency(final int concurrency) {
+        // The core size may never exceed the maximum size, so the order depends on the direction of the change
+        if (concurrency > mTransfers.getMaximumPoolSize()) {
+            mTransfers.setMaximumPoolSize(concurrency);
+            mTransfers.setCorePoolSize(concurrency);
+        } else {
+            mTransfers.setCorePoolSize(concurrency);
+            mTransfers.setMaximumPoolSize(concurrency);
+        }
+    }
+
+    /**
+     * Gets the directory downloads are written into
+     * @return The directory
+     */
+    File getDownloadDirectory() {
+        final File external = mApplication.getExternalFilesDir(Environment.DIRECTORY_DOWNLOADS);
+        if (external != null) {
+            return external;
+        }
+        return new File(mApplication.getFilesDir(), Environment.DIRECTORY_DOWNLOADS);
+    }
+
+    /**
+     * Downloads a file, or a folder and everything below it
+     * @param item The file or folder
+     * @param listener The listener notified on the ui thread
+     * @return The download, which can be used to cancel it
+     */
+    Download download(final Item item, final Listener listener) {
+        setConcurrency(mApplication.getTransferPolicy().getDownloadConcurrency(mMaxConcurrency));
+        final Download download = new Download(listener);
+        mEnumerator.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    enumerate(download, item, getDownloadDirectory());
+                    download.mEnumerated = true;
+                    download.checkFinished();
+                } catch (final ClientException e) {
+                    download.mCancelled = true;
+                    deliverFailure(download, e);
+                } catch (final RuntimeException e) {
+                    download.mCancelled = true;
+                    deliverFailure(download, new ClientException("Unable to list " + item.name,
+                                                                 e,
+                                                                 OneDriveErrorCodes.GeneralException));
+                }
+            }
+        });
+        mMainHandler.postDelayed(download, PROGRESS_INTERVAL_MS);
+        return download;
+    }
+
+    /**
+     * Queues the files below an item for transfer
+     * @param download The download
+     * @param item The file or folder
+     * @param directory The local directory the item belongs in
+     */
+    private void enumerate(final Download download, final Item item, final File directory) {
+        if (download.mCancelled) {
+            return;
+        }
+
+        if (item.folder == null) {
+            enqueue(download, item, new File(directory, item.name));
+            return;
+        }
+
+        final File folder = new File(directory, item.name);
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new ClientException("Unable to create " + folder,
+                                      null,
+                                      OneDriveErrorCodes.GeneralException);
+        }
+
+        final IOneDriveClient client = mApplication.getOneDriveClient();
+        IItemCollectionPage page = client.getDrive().getItems(item.id).getChildren().buildRequest().get();
+        while (true) {
+            for (final Item child : page.getCurrentPage()) {
+                enumerate(download, child, folder);
+            }
+            final IItemCollectionRequestBuilder nextPage = page.getNextPage();
+            if (nextPage == null || download.mCancelled) {
+                return;
+            }
+            page = nextPage.buildRequest().get();
+        }
+    }
+
+    /**
+     * Queues a single file for transfer
+     * @param download The download
+     * @param item The file
+     * @param target The local file
+     */
+    private void enqueue(final Download download, final Item item, final File target) {
+        download.mFilesTotal.incrementAndGet();
+        if (item.size != null) {
+            download.mBytesTotal.addAndGet(item.size);
+        }
+        mTransfers.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (transfer(download, item, target)) {
+                    download.mFilesDone.incrementAndGet();
+                } else {
+                    download.mFilesFailed.incrementAndGet();
+                }
+                download.checkFinished();
+            }
+        });
+    }
+
+    /**
+     * Transfers a file, resuming after failures until it completes or runs out of attempts
+     * @param download The download
+     * @param item The file
+     * @param target The local file
+     * @return If the file was downloaded
+     */
+    private boolean transfer(final Download download, final Item item, final File target) {
+        if (isDownloaded(item, target)) {
+            if (item.size != null) {
+                download.mBytesDone.addAndGet(item.size);
+            }
+            return true;
+        }
+
+        Item source = item;
+        boolean needsUrl = item.getRawObject() == null || !item.getRawObject().has(DOWNLOAD_URL);
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS && !download.mCancelled; attempt++) {
+            if (attempt > 1) {
+                mApplication.getRequestMetrics().recordRetry(DOWNLOAD_ENDPOINT);
+            }
+            try {
+                if (needsUrl) {
+                    source = refresh(item);
+                    needsUrl = false;
+                }
+                return fetch(download, source, target);
+            } catch (final HttpStatusException e) {
+                // The pre-authenticated url may have expired, ask for a fresh one before trying again
+                Log.w(getClass().getSimpleName(), "Download of " + item.name + " was refused", e);
+                needsUrl = true;
+            } catch (final IOException e) {
+                Log.w(getClass().getSimpleName(), "Download of " + item.name + " was interrupted", e);
+            } catch (final ClientException e) {
+                Log.w(getClass().getSimpleName(), "Unable to look up " + item.name, e);
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Gets the latest copy of an item, including a fresh download url
+     * @param item The item
+     * @return The latest copy of the item
+     */
+    private Item refresh(final Item item) {
+        return mApplication.getOneDriveClient().getDrive().getItems(item.id).buildRequest().get();
+    }
+
+    /**
+     * Downloads whatever part of a file is still missing into its partial file
+     * @param download The download
+     * @param item The file, with a download url
+     * @param target The local file
+     * @return If the file was completed, false if the download was cancelled
+     * @throws IOException If the transfer was interrupted
+     */
+    private boolean fetch(final Download download, final Item item, final File target) throws IOException {
+        final File partial = new File(target.getPath() + PARTIAL_SUFFIX);
+        final String journalKey = partial.getPath();
+        long offset = getCommittedOffset(journalKey, item, partial);
+
+        final String url = item.getRawObject().get(DOWNLOAD_URL).getAsString();
+        final long start = System.nanoTime();
+        final long startOffset = offset;
+        String error = null;
+        final HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+        try {
+            if (offset > 0) {
+                connection.setRequestProperty("Range", "bytes=" + offset + "-");
+            }
+            final int responseCode = connection.getResponseCode();
+            if (responseCode == HttpURLConnection.HTTP_OK) {
+                // The server sent the whole file, whatever was already on disk is overwritten
+                offset = 0;
+            } else if (responseCode != HttpURLConnection.HTTP_PARTIAL) {
+                mJournal.edit().remove(journalKey).apply();
+                throw new HttpStatusException(responseCode);
+            }
+
+            final RandomAccessFile file = new RandomAccessFile(partial, "rw");
+            try {
+                final ByteBuffer buffer = mBufferPool.acquire();
+                try {
+                    final InputStream input = connection.getInputStream();
+                    try {
+                        final FileChannel channel = file.getChannel();
+                        if (item.size != null && file.length() != item.size) {
+                            file.setLength(item.size);
+                        }
+
+                        long uncommitted = 0;
+                        int read;
+                        while (-1 != (read = input.read(buffer.array(), 0, buffer.capacity()))) {
+                            buffer.position(0);
+                            buffer.limit(read);
+                            while (buffer.hasRemaining()) {
+                                offset += channel.write(buffer, offset);
+                            }
+                            download.mBytesDone.addAndGet(read);
+                            uncommitted += read;
+                            if (uncommitted >= CHECKPOINT_BYTES) {
+                                channel.force(false);
+                                commitOffset(journalKey, item, offset);
+                                uncommitted = 0;
+                            }
+                            if (download.mCancelled) {
+                                return false;
+                            }
+                        }
+                    } finally {
+                        commitOffset(journalKey, item, offset);
+                        input.close();
+                    }
+                } finally {
+                    mBufferPool.release(buffer);
+                }
+            } finally {
+                file.close();
+            }
+        } catch (final IOException e) {
+            error = e.getClass().getSimpleName();
+            throw e;
+        } finally {
+            connection.disconnect();
+            mApplication.getRequestMetrics().recordRequest(DOWNLOAD_ENDPOINT,
+                                                           System.nanoTime() - start,
+                                                           0,
+                                                           Math.max(0, offset - startOffset),
+                                                           error);
+        }
+
+        if (item.size != null && offset != item.size) {
+            throw new IOException("Connection closed after " + offset + " of " + item.size + " bytes");
+        }
+        if ((target.exists() && !target.delete()) || !partial.renameTo(target)) {
+            throw new IOException("Unable to move " + partial + " into place");
+        }
+        mJournal.edit()
+            .remove(journalKey)
+            .putString(target.getPath(), String.valueOf(item.eTag) + JOURNAL_SEPARATOR + offset)
+            .apply();
+        return true;
+    }
+
+    /**
+     * Checks if a file was completed by an earlier download, so downloading a folder again only fetches what is
+     * missing or has changed
+     * @param item The file
+     * @param target The local file
+     * @return If the local file is a complete copy of this version of the file
+     */
+    private boolean isDownloaded(final Item item, final File target) {
+        final String entry = mJournal.getString(target.getPath(), null);
+        if (entry == null || !target.exists()) {
+            return false;
+        }
+        final int separator = entry.lastIndexOf(JOURNAL_SEPARATOR);
+        return entry.substring(0, separator).equals(String.valueOf(item.eTag))
+               && Long.parseLong(entry.substring(separator + 1)) == target.length();
+    }
+
+    /**
+     * Gets the offset a partial file can be resumed from
+     * @param journalKey The journal entry of the partial file
+     * @param item The file being downloaded
+     * @param partial The partial file
+     * @return The offset, or zero if the partial file is missing or from another version of the file
+     */
+    private long getCommittedOffset(final String journalKey, final Item item, final File partial) {
+        final String entry = mJournal.getString(journalKey, null);
+        if (entry == null || !partial.exists()) {
+            return 0;
+        }
+        final int separator = entry.lastIndexOf(JOURNAL_SEPARATOR);
+        if (!entry.substring(0, separator).equals(String.valueOf(item.eTag))) {
+            return 0;
+        }
+        return Math.min(Long.parseLong(entry.substring(separator + 1)), partial.length());
+    }
+
+    /**
+     * Records how much of a partial file has been written
+     * @param journalKey The journal entry of the partial file
+     * @param item The file being downloaded
+     * @param offset The number of bytes written
+     */
+    private void commitOffset(final String journalKey, final Item item, final long offset) {
+        mJournal.edit().putString(journalKey, String.valueOf(item.eTag) + JOURNAL_SEPARATOR + offset).apply();
+    }
+
+    /**
+     * Reports a failure that stopped a download
+     * @param download The download
+     * @param error The failure
+     */
+    private void deliverFailure(final Download download, final ClientException error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mMainHandler.removeCallbacks(download);
+                download.mListener.onFailure(download, error);
+            }
+        });
+    }
+
+    /**
+     * Notified on the ui thread about a download
+     */
+    interface Listener {
+
+        /**
+         * Called periodically while the download runs
+         * @param download The download
+         */
+        void onProgress(final Download download);
+
+        /**
+         * Called once every file has either been downloaded or run out of attempts
+         * @param download The download
+         */
+        void onComplete(final Download download);
+
+        /**
+         * Called if the folder tree could not be listed
+         * @param download The download
+         * @param error The failure
+         */
+        void onFailure(final Download download, final ClientException error);
+    }
+
+    /**
+     * A running download, also the periodic progress report for it
+     */
+    final class Download implements Runnable {
+
+        /**
+         * The listener
+         */
+        private final Listener mListener;
+
+        /**
+         * When the download started
+         */
+        private final long mStartTime = SystemClock.elapsedRealtime();
+
+        /**
+         * The number of files found so far
+         */
+        private final AtomicInteger mFilesTotal = new AtomicInteger();
+
+        /**
+         * The number of files downloaded
+         */
+        private final AtomicInteger mFilesDone = new AtomicInteger();
+
+        /**
+         * The number of files that could not be downloaded
+         */
+        private final AtomicInteger mFilesFailed = new AtomicInteger();
+
+        /**
+         * The size of the files found so far
+         */
+        private final AtomicLong mBytesTotal = new AtomicLong();
+
+        /**
+         * The number of bytes transferred by this download
+         */
+        private final AtomicLong mBytesDone = new AtomicLong();
+
+        /**
+         * If every file has been found
+         */
+        private volatile boolean mEnumerated;
+
+        /**
+         * If the download was cancelled
+         */
+        private volatile boolean mCancelled;
+
+        /**
+         * If the completion has been reported
+         */
+        private boolean mFinished;
+
+        /**
+         * Default constructor
+         * @param listener The listener
+         */
+        private Download(final Listener listener) {
+            mListener = listener;
+        }
+
+        /**
+         * Stops the download, partial files are kept so a later download of the same files resumes them
+         */
+        void cancel() {
+            mCancelled = true;
+        }
+
+        /**
+         * The number of files found so far
+         * @return The number of files
+         */
+        int getFilesTotal() {
+            return mFilesTotal.get();
+        }
+
+        /**
+         * The number of files downloaded
+         * @return The number of files
+         */
+        int getFilesDone() {
+            return mFilesDone.get();
+        }
+
+        /**
+         * The number of files that could not be downloaded
+         * @return The number of files
+         */
+        int getFilesFailed() {
+            return mFilesFailed.get();
+        }
+
+        /**
+         * The size of the files found so far
+         * @return The size in bytes
+         */
+        long getBytesTotal() {
+            return mBytesTotal.get();
+        }
+
+        /**
+         * The number of bytes transferred by this download, not counting resumed parts
+         * @return The number of bytes
+         */
+        long getBytesDone() {
+            return mBytesDone.get();
+        }
+
+        /**
+         * The aggregate transfer rate across every file
+         * @return The rate in bytes per second
+         */
+        long getBytesPerSecond() {
+            final long elapsed = Math.max(1, SystemClock.elapsedRealtime() - mStartTime);
+            return mBytesDone.get() * MILLIS_PER_SECOND / elapsed;
+        }
+
+        /**
+         * Reports completion once the tree has been listed and every file has finished
+         */
+        private void checkFinished() {
+            if (!mEnumerated || mFilesDone.get() + mFilesFailed.get() < mFilesTotal.get()) {
+                return;
+            }
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mFinished) {
+                        return;
+                    }
+                    mFinished = true;
+                    mMainHandler.removeCallbacks(Download.this);
+                    mListener.onComplete(Download.this);
+                }
+            });
+        }
+
+        @Override
+        public void run() {
+            if (mFinished) {
+                return;
+            }
+            mListener.onProgress(this);
+            mMainHandler.postDelayed(this, PROGRESS_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * A download url that answered with an unexpected status
+     */
+    private static final class HttpStatusException extends IOException {
+
+        /**
+         * Default constructor
+         * @param responseCode The response code
+         */
+        private HttpStatusException(final int responseCode) {
+            super("Unexpected response code " + responseCode);
+        }
+    }
+}
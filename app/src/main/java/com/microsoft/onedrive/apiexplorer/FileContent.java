@@ -29,12 +29,9 @@ import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.webkit.MimeTypeMap;
 
-import java.io.ByteArrayOutputStream;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
 
 /**
  * Methods for interacting with file contents
@@ -53,48 +50,21 @@ public final class FileContent {
     }
 
     /**
-     * Gets the full bytes for a file
+     * Opens a stream over the contents of a file, closing the stream also closes the underlying descriptor
      * @param contentProvider The content provider
      * @param data The URI for the file
-     * @return The full byte representation for the file
-     * @throws IOException Any io mishaps
-     * @throws RemoteException Any remote process call problems
-     */
-   static byte[] getFileBytes(final ContentProviderClient contentProvider, final Uri data)
-            throws IOException, RemoteException {
-       final ParcelFileDescriptor descriptor = contentProvider.openFile(data, "r");
-       if (descriptor == null) {
-           throw new RuntimeException("Unable to get the file ParcelFileDescriptor");
-       }
-
-       final int fileSize = (int) descriptor.getStatSize();
-       return getFileBytes(contentProvider, data, 0, fileSize);
-    }
-
-    /**
-     * Gets the specific offset'ed number of bytes for a file
-     * @param contentProvider The content provider
-     * @param data The URI for the file
-     * @param offset The offset start location
-     * @param size The amount of bytes to load
-     * @return The full byte representation for the file
-     * @throws IOException Any io mishaps
+     * @return The stream for the file, use {@link FileInputStream#getChannel()} for positional reads
+     * @throws FileNotFoundException If the file cannot be found
      * @throws RemoteException Any remote process call problems
      */
-    static byte[] getFileBytes(final ContentProviderClient contentProvider,
-                               final Uri data,
-                               final int offset,
-                               final int size)
-            throws IOException, RemoteException {
+    static FileInputStream openFileStream(final ContentProviderClient contentProvider, final Uri data)
+            throws FileNotFoundException, RemoteException {
         final ParcelFileDescriptor descriptor = contentProvider.openFile(data, "r");
         if (descriptor == null) {
             throw new RuntimeException("Unable to get the file ParcelFileDescriptor");
         }
 
-        final FileInputStream fis = new FileInputStream(descriptor.getFileDescriptor());
-        final ByteArrayOutputStream memorySteam = new ByteArrayOutputStream(size);
-        FileContent.copyStreamContents(offset, size, fis, memorySteam);
-        return memorySteam.toByteArray();
+        return new ParcelFileDescriptor.AutoCloseInputStream(descriptor);
     }
 
     /**
@@ -102,18 +72,22 @@ public final class FileContent {
      * @param contentProvider The content provider
      * @param data The URI to the file
      * @return The size of the file
-     * @throws FileNotFoundException If the file cannot be found
+     * @throws IOException If the file cannot be found or closed
      * @throws RemoteException Any remote process call problems
      */
-    static int getFileSize(final ContentProviderClient contentProvider,
-                           final Uri data)
-            throws FileNotFoundException, RemoteException {
+    static long getFileSize(final ContentProviderClient contentProvider,
+                            final Uri data)
+            throws IOException, RemoteException {
         final ParcelFileDescriptor descriptor = contentProvider.openFile(data, "r");
         if (descriptor == null) {
             throw new RuntimeException("Unable to get the file ParcelFileDescriptor");
         }
 
-        return (int) descriptor.getStatSize();
+        try {
+            return descriptor.getStatSize();
+        } finally {
+            descriptor.close();
+        }
     }
 
     /**
@@ -145,34 +119,4 @@ public final class FileContent {
         }
         return Uri.encode(fixedUpString);
     }
-
-    /**
-     * Copies a stream around
-     * @param offset The starting offset
-     * @param size The size to copy
-     * @param input The input source
-     * @param output The output source
-     * @return The number of bytes actually copied
-     * @throws IOException If anything went wrong
-     */
-    private static int copyStreamContents(final long offset,
-                                          final int size,
-                                          final InputStream input,
-                                          final OutputStream output)
-            throws IOException {
-        byte[] buffer = new byte[size];
-        int count = 0;
-        int n;
-
-        final long skipAmount = input.skip(offset);
-        if (skipAmount != offset) {
-            throw new RuntimeException(
-                    String.format("Unable to skip in the input stream actual %d, expected %d", skipAmount, offset));
-        }
-        while (-1 != (n = input.read(buffer))) {
-            output.write(buffer, 0, n);
-            count += n;
-        }
-        return count;
-    }
 }
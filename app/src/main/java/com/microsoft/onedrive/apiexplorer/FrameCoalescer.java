@@ -0,0 +1,103 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.view.Choreographer;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Collects ui updates posted from any thread and runs all of them together at the start of the next frame, so a
+ * burst of completions costs one pass over the ui rather than one pass each
+ */
+class FrameCoalescer implements Choreographer.FrameCallback {
+
+    /**
+     * Guards the pending updates
+     */
+    private final Object mLock = new Object();
+
+    /**
+     * The updates waiting for the next frame
+     */
+    private List<Runnable> mPending = new ArrayList<>();
+
+    /**
+     * The updates being run, swapped with the pending updates each frame so neither list is reallocated
+     */
+    private List<Runnable> mRunning = new ArrayList<>();
+
+    /**
+     * Used to reach the ui thread, where the choreographer lives
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Asks the choreographer for the next frame, this must run on the ui thread
+     */
+    private final Runnable mScheduleFrame = new Runnable() {
+        @Override
+        public void run() {
+            Choreographer.getInstance().postFrameCallback(FrameCoalescer.this);
+        }
+    };
+
+    /**
+     * If a frame has been asked for and not run yet, guarded by the lock
+     */
+    private boolean mFrameScheduled;
+
+    /**
+     * Queues an update for the next frame
+     * @param update The update, run on the ui thread
+     */
+    void post(final Runnable update) {
+        synchronized (mLock) {
+            mPending.add(update);
+            if (mFrameScheduled) {
+                return;
+            }
+            mFrameScheduled = true;
+        }
+        mMainHandler.post(mScheduleFrame);
+    }
+
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+        final List<Runnable> updates;
+        synchronized (mLock) {
+            updates = mPending;
+            mPending = mRunning;
+            mRunning = updates;
+            mFrameScheduled = false;
+        }
+        for (int i = 0; i < updates.size(); i++) {
+            updates.get(i).run();
+        }
+        updates.clear();
+    }
+}
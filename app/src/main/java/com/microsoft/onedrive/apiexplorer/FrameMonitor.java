@@ -0,0 +1,134 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.view.Choreographer;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Measures the time between frames while a list is scrolling, long gaps are frames the ui thread missed. Frames are
+ * only requested while measuring so an idle screen is not woken up every vsync
+ */
+class FrameMonitor implements Choreographer.FrameCallback {
+
+    /**
+     * A frame interval longer than this many frame periods counts as janky
+     */
+    private static final double JANK_THRESHOLD = 1.5;
+
+    /**
+     * The time between frames at the display refresh rate, in nanoseconds
+     */
+    private final long mFramePeriodNanos;
+
+    /**
+     * The frame intervals, in microseconds
+     */
+    private volatile LatencyHistogram mFrameIntervals = new LatencyHistogram();
+
+    /**
+     * The number of janky frame intervals
+     */
+    private final AtomicLong mJankCount = new AtomicLong();
+
+    /**
+     * The time of the previous frame, or zero if the monitor was just started
+     */
+    private long mLastFrameTimeNanos;
+
+    /**
+     * If frames are being measured, only used on the ui thread
+     */
+    private boolean mRunning;
+
+    /**
+     * Default constructor
+     * @param refreshRate The display refresh rate, in frames per second
+     */
+    FrameMonitor(final float refreshRate) {
+        mFramePeriodNanos = (long) (TimeUnit.SECONDS.toNanos(1) / refreshRate);
+    }
+
+    /**
+     * Starts measuring frames, this must be called on the ui thread
+     */
+    void start() {
+        if (mRunning) {
+            return;
+        }
+        mRunning = true;
+        mLastFrameTimeNanos = 0;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    /**
+     * Stops measuring frames, this must be called on the ui thread
+     */
+    void stop() {
+        if (!mRunning) {
+            return;
+        }
+        mRunning = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    /**
+     * Forgets the frames measured so far
+     */
+    void clear() {
+        mFrameIntervals = new LatencyHistogram();
+        mJankCount.set(0);
+    }
+
+    /**
+     * The frame intervals measured so far
+     * @return The frame intervals, in microseconds
+     */
+    LatencyHistogram getFrameIntervals() {
+        return mFrameIntervals;
+    }
+
+    /**
+     * The number of frame intervals longer than one and a half frame periods
+     * @return The number of janky frames
+     */
+    long getJankCount() {
+        return mJankCount.get();
+    }
+
+    @Override
+    public void doFrame(final long frameTimeNanos) {
+        if (mLastFrameTimeNanos != 0) {
+            final long interval = frameTimeNanos - mLastFrameTimeNanos;
+            mFrameIntervals.record(TimeUnit.NANOSECONDS.toMicros(interval));
+            if (interval > mFramePeriodNanos * JANK_THRESHOLD) {
+                mJankCount.incrementAndGet();
+            }
+        }
+        mLastFrameTimeNanos = frameTimeNanos;
+        Choreographer.getInstance().postFrameCallback(this);
+    }
+}
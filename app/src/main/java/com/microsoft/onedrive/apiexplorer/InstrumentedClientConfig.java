@@ -0,0 +1,82 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.authentication.IAuthenticator;
+import com.onedrive.sdk.concurrency.IExecutors;
+import com.onedrive.sdk.core.IClientConfig;
+import com.onedrive.sdk.http.IHttpProvider;
+import com.onedrive.sdk.logger.ILogger;
+import com.onedrive.sdk.serializer.ISerializer;
+
+/**
+ * A client configuration that hands out an instrumented http provider and otherwise matches another configuration
+ */
+class InstrumentedClientConfig implements IClientConfig {
+
+    /**
+     * The configuration being wrapped
+     */
+    private final IClientConfig mDelegate;
+
+    /**
+     * The instrumented http provider
+     */
+    private final IHttpProvider mHttpProvider;
+
+    /**
+     * Default constructor
+     * @param delegate The configuration being wrapped
+     * @param metrics Where request timings are recorded
+     */
+    InstrumentedClientConfig(final IClientConfig delegate, final RequestMetrics metrics) {
+        mDelegate = delegate;
+        mHttpProvider = new InstrumentedHttpProvider(delegate.getHttpProvider(), metrics);
+    }
+
+    @Override
+    public IAuthenticator getAuthenticator() {
+        return mDelegate.getAuthenticator();
+    }
+
+    @Override
+    public IHttpProvider getHttpProvider() {
+        return mHttpProvider;
+    }
+
+    @Override
+    public ILogger getLogger() {
+        return mDelegate.getLogger();
+    }
+
+    @Override
+    public ISerializer getSerializer() {
+        return mDelegate.getSerializer();
+    }
+
+    @Override
+    public IExecutors getExecutors() {
+        return mDelegate.getExecutors();
+    }
+}
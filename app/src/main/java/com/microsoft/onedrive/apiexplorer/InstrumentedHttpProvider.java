@@ -0,0 +1,154 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.concurrency.ICallback;
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.core.OneDriveErrorCodes;
+import com.onedrive.sdk.http.IHttpProvider;
+import com.onedrive.sdk.http.IHttpRequest;
+import com.onedrive.sdk.http.IStatefulResponseHandler;
+import com.onedrive.sdk.serializer.ISerializer;
+
+/**
+ * Wraps the http provider of the client to time every request it sends
+ */
+class InstrumentedHttpProvider implements IHttpProvider {
+
+    /**
+     * The provider that sends the requests
+     */
+    private final IHttpProvider mDelegate;
+
+    /**
+     * Where the timings are recorded
+     */
+    private final RequestMetrics mMetrics;
+
+    /**
+     * Default constructor
+     * @param delegate The provider that sends the requests
+     * @param metrics Where the timings are recorded
+     */
+    InstrumentedHttpProvider(final IHttpProvider delegate, final RequestMetrics metrics) {
+        mDelegate = delegate;
+        mMetrics = metrics;
+    }
+
+    @Override
+    public ISerializer getSerializer() {
+        return mDelegate.getSerializer();
+    }
+
+    @Override
+    public <Result, BodyType> void send(final IHttpRequest request,
+                                        final ICallback<Result> callback,
+                                        final Class<Result> resultClass,
+                                        final BodyType serializable) {
+        final long start = System.nanoTime();
+        mDelegate.send(request, new ICallback<Result>() {
+            @Override
+            public void success(final Result result) {
+                record(request, start, serializable, null);
+                callback.success(result);
+            }
+
+            @Override
+            public void failure(final ClientException ex) {
+                record(request, start, serializable, ex);
+                callback.failure(ex);
+            }
+        }, resultClass, serializable);
+    }
+
+    @Override
+    public <Result, BodyType> Result send(final IHttpRequest request,
+                                          final Class<Result> resultClass,
+                                          final BodyType serializable) throws ClientException {
+        final long start = System.nanoTime();
+        try {
+            final Result result = mDelegate.send(request, resultClass, serializable);
+            record(request, start, serializable, null);
+            return result;
+        } catch (final ClientException e) {
+            record(request, start, serializable, e);
+            throw e;
+        }
+    }
+
+    @Override
+    public <Result, BodyType, DeserializeType> Result send(
+            final IHttpRequest request,
+            final Class<Result> resultClass,
+            final BodyType serializable,
+            final IStatefulResponseHandler<Result, DeserializeType> handler) throws ClientException {
+        final long start = System.nanoTime();
+        try {
+            final Result result = mDelegate.send(request, resultClass, serializable, handler);
+            record(request, start, serializable, null);
+            return result;
+        } catch (final ClientException e) {
+            record(request, start, serializable, e);
+            throw e;
+        }
+    }
+
+    /**
+     * Records a finished request
+     * @param request The request
+     * @param start When the request started, from {@link System#nanoTime()}
+     * @param body The request body
+     * @param error The failure, or null if the request succeeded
+     */
+    private void record(final IHttpRequest request, final long start, final Object body, final ClientException error) {
+        final long elapsed = System.nanoTime() - start;
+        long bytesOut = 0;
+        if (body instanceof byte[]) {
+            bytesOut = ((byte[]) body).length;
+        }
+        String errorName = null;
+        if (error != null) {
+            errorName = getErrorName(error);
+        }
+        mMetrics.recordRequest(RequestMetrics.getEndpointName(request.getHttpMethod().name(), request.getRequestUrl()),
+                               elapsed,
+                               bytesOut,
+                               0,
+                               errorName);
+    }
+
+    /**
+     * Gets the name a failure is counted under
+     * @param error The failure
+     * @return The OneDrive error code, or the exception type if there is none
+     */
+    private static String getErrorName(final ClientException error) {
+        for (final OneDriveErrorCodes code : OneDriveErrorCodes.values()) {
+            if (error.isError(code)) {
+                return code.name();
+            }
+        }
+        return error.getClass().getSimpleName();
+    }
+}
@@ -22,30 +22,27 @@
 
 package com.microsoft.onedrive.apiexplorer;
 
+import com.google.gson.JsonElement;
+
 import com.onedrive.sdk.concurrency.AsyncMonitor;
 import com.onedrive.sdk.concurrency.ICallback;
-import com.onedrive.sdk.concurrency.IProgressCallback;
 import com.onedrive.sdk.core.ClientException;
-import com.onedrive.sdk.core.OneDriveErrorCodes;
 import com.onedrive.sdk.extensions.Folder;
+import com.onedrive.sdk.extensions.IItemCollectionPage;
+import com.onedrive.sdk.extensions.IItemCollectionRequestBuilder;
+import com.onedrive.sdk.extensions.IItemRequest;
 import com.onedrive.sdk.extensions.IOneDriveClient;
 import com.onedrive.sdk.extensions.Item;
+import com.onedrive.sdk.extensions.ItemCollectionRequestBuilder;
 import com.onedrive.sdk.extensions.ItemReference;
 import com.onedrive.sdk.extensions.Permission;
-import com.onedrive.sdk.options.Option;
-import com.onedrive.sdk.options.QueryOption;
-
-import org.json.JSONObject;
 
 import android.app.Activity;
 import android.app.AlertDialog;
-import android.app.DownloadManager;
 import android.app.Fragment;
 import android.app.ProgressDialog;
 import android.content.ClipData;
 import android.content.ClipboardManager;
-import android.content.ContentProviderClient;
-import android.content.ContentResolver;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -54,9 +51,13 @@ import android.net.Uri;
 import android.os.AsyncTask;
 import android.os.Bundle;
 import android.support.annotation.NonNull;
+import android.text.Editable;
 import android.text.InputType;
-import android.text.method.ScrollingMovementMethod;
+import android.text.TextWatcher;
+import android.text.format.Formatter;
 import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.view.ActionMode;
 import android.view.LayoutInflater;
 import android.view.Menu;
 import android.view.MenuInflater;
@@ -65,13 +66,17 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.AbsListView;
 import android.widget.AdapterView;
+import android.widget.ArrayAdapter;
 import android.widget.CompoundButton;
 import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.ListView;
 import android.widget.RadioButton;
 import android.widget.TextView;
 import android.widget.Toast;
 
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -111,6 +116,21 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
      */
     private static final String EXPAND_OPTIONS_FOR_CHILDREN_AND_THUMBNAILS_LIMITED = "children,thumbnails";
 
+    /**
+     * The json property for the link to the next page of expanded children
+     */
+    private static final String CHILDREN_NEXT_LINK = "children@odata.nextLink";
+
+    /**
+     * Start fetching the next page of children when the user scrolls within this many rows of the end
+     */
+    private static final int PREFETCH_ROWS = 20;
+
+    /**
+     * The most search results shown at once
+     */
+    private static final int MAX_SEARCH_RESULTS = 50;
+
     /**
      * The accepted file mime types for uploading to OneDrive
      */
@@ -121,6 +141,11 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
      */
     private static final String COPY_DESTINATION_PREF_KEY = "copy_destination";
 
+    /**
+     * The maximum of a progress percentage
+     */
+    private static final int PERCENTAGE_MAX = 100;
+
     /**
      * The item id for this item
      */
@@ -142,11 +167,119 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
      */
     private DisplayItemAdapter mAdapter;
 
+    /**
+     * The lines of the json view
+     */
+    private ArrayAdapter<String> mJsonAdapter;
+
+    /**
+     * The request for the next page of children, or null if all children have been retrieved
+     */
+    private IItemCollectionRequestBuilder mNextPage;
+
+    /**
+     * If a page of children is being retrieved
+     */
+    private final AtomicBoolean mLoadingPage = new AtomicBoolean(false);
+
     /**
      * If the current fragment should prioritize the empty view over the visualization
      */
     private final AtomicBoolean mEmpty = new AtomicBoolean(false);
 
+    /**
+     * The copy whose progress is showing, or null
+     */
+    private AsyncJobMonitor.Job mJobDialogJob;
+
+    /**
+     * Shows the progress of {@link #mJobDialogJob}, or null
+     */
+    private ProgressDialog mJobDialog;
+
+    /**
+     * Follows the copies while this fragment is resumed, it is detached from them when the fragment pauses
+     */
+    private final AsyncJobMonitor.Listener mJobListener = new AsyncJobMonitor.Listener() {
+        @Override
+        public void onProgress(final AsyncJobMonitor.Job job) {
+            showJobProgress(job);
+        }
+
+        @Override
+        public void onComplete(final AsyncJobMonitor.Job job, final Item item) {
+            if (mJobDialogJob == job) {
+                dismissJobProgress();
+            }
+            final String string = getString(R.string.copy_success_message, item.name, item.parentReference.path);
+            Toast.makeText(getActivity(), string, Toast.LENGTH_LONG).show();
+        }
+
+        @Override
+        public void onFailure(final AsyncJobMonitor.Job job, final ClientException error) {
+            if (mJobDialogJob == job) {
+                dismissJobProgress();
+            }
+            new AlertDialog.Builder(getActivity())
+                .setTitle(R.string.error_title)
+                .setMessage(error.getMessage())
+                .setNegativeButton(R.string.close, new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(final DialogInterface dialog, final int which) {
+                        dialog.dismiss();
+                    }
+                })
+                .create()
+                .show();
+        }
+    };
+
+    /**
+     * The bulk operation whose progress is showing, or null
+     */
+    private BulkOperationExecutor.Batch mBatchDialogBatch;
+
+    /**
+     * Shows the progress of {@link #mBatchDialogBatch}, or null
+     */
+    private ProgressDialog mBatchDialog;
+
+    /**
+     * Follows the bulk operations while this fragment is resumed, it is detached from them when the fragment pauses
+     */
+    private final BulkOperationExecutor.Listener mBatchListener = new BulkOperationExecutor.Listener() {
+        @Override
+        public void onProgress(final BulkOperationExecutor.Batch batch) {
+            showBatchProgress(batch);
+        }
+
+        @Override
+        public void onComplete(final BulkOperationExecutor.Batch batch) {
+            if (mBatchDialogBatch == batch) {
+                dismissBatchProgress();
+            }
+            Toast.makeText(getActivity(),
+                           getString(R.string.bulk_complete, batch.getSucceeded(), batch.getTotal(), batch.getFailed()),
+                           Toast.LENGTH_LONG).show();
+            refresh();
+        }
+    };
+
+    /**
+     * Refreshes this folder when an upload into it completes
+     */
+    private final TransferQueue.Listener mTransferListener = new TransferQueue.Listener() {
+        @Override
+        public void onJobChanged(final TransferQueue.Job job) {
+            if (job.getState() == TransferQueue.State.Complete
+                    && job.getKind() == TransferQueue.Kind.Upload
+                    && job.getItemId().equals(mItemId)
+                    && getView() != null) {
+                refresh();
+            }
+        }
+    };
+
     /**
      * Create a new instance of ItemFragment
      * @param itemId The item id to create it for
@@ -165,11 +298,7 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
         super.onCreate(savedInstanceState);
 
         mAdapter = new DisplayItemAdapter(getActivity());
-
-        final BaseApplication app = (BaseApplication) getActivity().getApplication();
-        if (app.goToWifiSettingsIfDisconnected()) {
-            return;
-        }
+        mJsonAdapter = new ArrayAdapter<>(getActivity(), R.layout.json_line);
 
         if (getArguments() != null) {
             mItemId = getArguments().getString(ARG_ITEM_ID);
@@ -191,7 +320,77 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
         final View view = inflater.inflate(R.layout.fragment_folder, container, false);
         final AbsListView mListView = (AbsListView) view.findViewById(android.R.id.list);
         mListView.setAdapter(mAdapter);
+        mListView.setRecyclerListener(mAdapter);
         mListView.setOnItemClickListener(this);
+        mListView.setChoiceMode(AbsListView.CHOICE_MODE_MULTIPLE_MODAL);
+        mListView.setMultiChoiceModeListener(new AbsListView.MultiChoiceModeListener() {
+            @Override
+            public void onItemCheckedStateChanged(final ActionMode mode,
+                                                  final int position,
+                                                  final long id,
+                                                  final boolean checked) {
+                mode.setTitle(getString(R.string.bulk_selected, mListView.getCheckedItemCount()));
+            }
+
+            @Override
+            public boolean onCreateActionMode(final ActionMode mode, final Menu menu) {
+                mode.getMenuInflater().inflate(R.menu.menu_bulk_actions, menu);
+                return true;
+            }
+
+            @Override
+            public boolean onPrepareActionMode(final ActionMode mode, final Menu menu) {
+                final boolean hasDestination = getCopyPrefs().getString(COPY_DESTINATION_PREF_KEY, null) != null;
+                menu.findItem(R.id.action_bulk_copy).setVisible(hasDestination);
+                menu.findItem(R.id.action_bulk_move).setVisible(hasDestination);
+                return true;
+            }
+
+            @Override
+            public boolean onActionItemClicked(final ActionMode mode, final MenuItem menuItem) {
+                final List<Item> selected = getCheckedItems(mListView);
+                switch (menuItem.getItemId()) {
+                    case R.id.action_bulk_delete:
+                        confirmBulkDelete(selected);
+                        break;
+                    case R.id.action_bulk_copy:
+                        runBulkOperation(BulkOperationExecutor.Operation.Copy, selected);
+                        break;
+                    case R.id.action_bulk_move:
+                        runBulkOperation(BulkOperationExecutor.Operation.Move, selected);
+                        break;
+                    default:
+                        return false;
+                }
+                mode.finish();
+                return true;
+            }
+
+            @Override
+            public void onDestroyActionMode(final ActionMode mode) {
+            }
+        });
+        mListView.setOnScrollListener(new AbsListView.OnScrollListener() {
+            @Override
+            public void onScrollStateChanged(final AbsListView view, final int scrollState) {
+                final FrameMonitor frameMonitor = ((BaseApplication) getActivity().getApplication()).getFrameMonitor();
+                if (scrollState == SCROLL_STATE_IDLE) {
+                    frameMonitor.stop();
+                } else {
+                    frameMonitor.start();
+                }
+            }
+
+            @Override
+            public void onScroll(final AbsListView view,
+                                 final int firstVisibleItem,
+                                 final int visibleItemCount,
+                                 final int totalItemCount) {
+                if (firstVisibleItem + visibleItemCount >= totalItemCount - PREFETCH_ROWS) {
+                    loadNextPage();
+                }
+            }
+        });
 
         ((RadioButton) view.findViewById(android.R.id.button1)).setOnCheckedChangeListener(
                 new CompoundButton.OnCheckedChangeListener() {
@@ -213,7 +412,7 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                     }
                 });
 
-        ((TextView)view.findViewById(R.id.json)).setMovementMethod(new ScrollingMovementMethod());
+        ((ListView) view.findViewById(R.id.json)).setAdapter(mJsonAdapter);
 
         refresh();
 
@@ -243,7 +442,6 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
             inflater.inflate(R.menu.menu_item_fragment, menu);
 
             // Assume we are a folder first
-            menu.findItem(R.id.action_download).setVisible(false);
             menu.findItem(R.id.action_copy).setVisible(false);
             configureSetCopyDestinationMenuItem(menu.findItem(R.id.action_set_copy_destination));
 
@@ -258,8 +456,8 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
             if (mItem.file != null) {
                 menu.findItem(R.id.action_create_folder).setVisible(false);
                 menu.findItem(R.id.action_upload_file).setVisible(false);
-                menu.findItem(R.id.action_download).setVisible(true);
                 menu.findItem(R.id.action_copy).setVisible(true);
+                menu.findItem(R.id.action_storage_breakdown).setVisible(false);
             }
         }
     }
@@ -304,6 +502,12 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
             case R.id.action_navigate_by_path:
                 navigateByPath(mItem);
                 return true;
+            case R.id.action_search:
+                search();
+                return true;
+            case R.id.action_storage_breakdown:
+                showStorageBreakdown(mItem);
+                return true;
             default:
                 return false;
         }
@@ -328,50 +532,21 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
         final ItemReference parentReference = new ItemReference();
         parentReference.id = getCopyPrefs().getString(COPY_DESTINATION_PREF_KEY, null);
 
-        final ProgressDialog dialog = new ProgressDialog(getActivity(), ProgressDialog.STYLE_HORIZONTAL);
-        dialog.setTitle("Copying item");
-        dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-        dialog.setMessage("Waiting for copy to complete");
-
-        final IProgressCallback<Item> progressCallback = new IProgressCallback<Item>() {
-            @Override
-            public void progress(final long current, final long max) {
-                dialog.setMax((int)current);
-                dialog.setMax((int) max);
-            }
-
-            @Override
-            public void success(final Item item) {
-                dialog.dismiss();
-                final String string = getString(R.string.copy_success_message,
-                                                item.name,
-                                                item.parentReference.path);
-                Toast.makeText(getActivity(), string, Toast.LENGTH_LONG).show();
-            }
-
-            @Override
-            public void failure(final ClientException error) {
-                dialog.dismiss();
-                new AlertDialog.Builder(getActivity())
-                    .setTitle(R.string.error_title)
-                    .setMessage(error.getMessage())
-                    .setNegativeButton(R.string.close, new DialogInterface.OnClickListener() {
-                        @Override
-                        public void onClick(final DialogInterface dialog, final int which) {
-                            dialog.dismiss();
-                        }
-                    })
-                    .create()
-                    .show();
-            }
-        };
-
         final DefaultCallback<AsyncMonitor<Item>> callback
             = new DefaultCallback<AsyncMonitor<Item>>(getActivity()) {
             @Override
             public void success(final AsyncMonitor<Item> itemAsyncMonitor) {
-                final int millisBetweenPoll = 1000;
-                itemAsyncMonitor.pollForResult(millisBetweenPoll, progressCallback);
+                // A copy started while no screen is showing is picked up by the next one that resumes
+                AsyncJobMonitor.Listener listener = null;
+                if (isResumed()) {
+                    listener = mJobListener;
+                }
+                final AsyncJobMonitor.Job job = app.getAsyncJobMonitor().watch(item.name,
+                                                                               itemAsyncMonitor,
+                                                                               listener);
+                if (isResumed()) {
+                    showJobProgress(job);
+                }
             }
         };
         oneDriveClient
@@ -380,7 +555,47 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
             .getCopy(item.name, parentReference)
             .buildRequest()
             .create(callback);
-        dialog.show();
+    }
+
+    /**
+     * Shows the progress of a copy, unless the user hid it
+     * @param job The copy
+     */
+    private void showJobProgress(final AsyncJobMonitor.Job job) {
+        if (job.isHidden()) {
+            return;
+        }
+        if (mJobDialog == null || mJobDialogJob != job) {
+            dismissJobProgress();
+            mJobDialog = new ProgressDialog(getActivity(), ProgressDialog.STYLE_HORIZONTAL);
+            mJobDialog.setTitle("Copying item");
+            mJobDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mJobDialog.setMessage("Waiting for copy to complete");
+            mJobDialog.setMax(PERCENTAGE_MAX);
+            mJobDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                                 getString(R.string.copy_hide),
+                                 new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(final DialogInterface dialogInterface, final int which) {
+                        job.hide();
+                        dismissJobProgress();
+                    }
+                });
+            mJobDialogJob = job;
+            mJobDialog.show();
+        }
+        mJobDialog.setProgress((int) job.getPercentage());
+    }
+
+    /**
+     * Closes the progress of a copy, if it is showing
+     */
+    private void dismissJobProgress() {
+        if (mJobDialog != null) {
+            mJobDialog.dismiss();
+            mJobDialog = null;
+            mJobDialogJob = null;
+        }
     }
 
     @Override
@@ -388,14 +603,82 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                             final View view, final int position,
                             final long id) {
         if (null != mListener) {
-            mListener.onFragmentInteraction((DisplayItem) mAdapter.getItem(position));
+            mListener.onFragmentInteraction(mAdapter.getItem(position));
+        }
+    }
+
+    @Override
+    public void onResume() {
+        super.onResume();
+        ((BaseApplication) getActivity().getApplication()).getTransferQueue().addListener(mTransferListener);
+        // The tree may have changed while the list was not observing it
+        ((BaseApplication) getActivity().getApplication()).getItemTree().addObserver(mAdapter);
+        mAdapter.notifyDataSetChanged();
+        // Take over the copies no screen has, including any that finished while none was showing
+        for (final AsyncJobMonitor.Job job
+            : ((BaseApplication) getActivity().getApplication()).getAsyncJobMonitor().getJobs()) {
+            if (job.getListener() == null) {
+                job.setListener(mJobListener);
+                if (job.getListener() == mJobListener) {
+                    showJobProgress(job);
+                }
+            }
+        }
+        for (final BulkOperationExecutor.Batch batch
+            : ((BaseApplication) getActivity().getApplication()).getBulkOperationExecutor().getBatches()) {
+            if (batch.getListener() == null) {
+                batch.setListener(mBatchListener);
+                if (batch.getListener() == mBatchListener) {
+                    showBatchProgress(batch);
+                }
+            }
         }
     }
 
     @Override
     public void onPause() {
         super.onPause();
+        ((BaseApplication) getActivity().getApplication()).getTransferQueue().removeListener(mTransferListener);
+        ((BaseApplication) getActivity().getApplication()).getItemTree().removeObserver(mAdapter);
+        // The copies and bulk operations carry on, the next screen to resume picks them up
+        for (final AsyncJobMonitor.Job job
+            : ((BaseApplication) getActivity().getApplication()).getAsyncJobMonitor().getJobs()) {
+            if (job.getListener() == mJobListener) {
+                job.setListener(null);
+            }
+        }
+        for (final BulkOperationExecutor.Batch batch
+            : ((BaseApplication) getActivity().getApplication()).getBulkOperationExecutor().getBatches()) {
+            if (batch.getListener() == mBatchListener) {
+                batch.setListener(null);
+            }
+        }
+        dismissJobProgress();
+        dismissBatchProgress();
         mAdapter.stopDownloadingThumbnails();
+        ((BaseApplication) getActivity().getApplication()).getFrameMonitor().stop();
+    }
+
+    /**
+     * Pretty prints the json of an item on a background thread and shows it in the json view
+     * @param item The item
+     */
+    private void showJson(final Item item) {
+        new AsyncTask<Void, Void, List<String>>() {
+            @Override
+            protected List<String> doInBackground(final Void... params) {
+                return JsonRenderer.render(item.getRawObject());
+            }
+
+            @Override
+            protected void onPostExecute(final List<String> lines) {
+                if (getView() == null || mItem != item) {
+                    return;
+                }
+                mJsonAdapter.clear();
+                mJsonAdapter.addAll(lines);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
     }
 
     /**
@@ -408,24 +691,18 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
             @Override
             public void success(final Item item) {
                 mItem = item;
+                addToSearchIndex(context, item);
                 if (getView() != null) {
                     final AbsListView mListView = (AbsListView) getView().findViewById(android.R.id.list);
                     final DisplayItemAdapter adapter = (DisplayItemAdapter)mListView.getAdapter();
-                    adapter.clear();
-
-                    String text = null;
-                    try {
-                        String rawString = item.getRawObject().toString();
-                        final JSONObject object = new JSONObject(rawString);
-                        final int intentSize = 3;
-                        text = object.toString(intentSize);
-                    } catch (final Exception e) {
-                        Log.e(getClass().getName(), "Unable to parse the response body to json");
-                    }
+                    final ItemTree tree = context.getItemTree();
+                    tree.beginBatch();
+                    final int folder = tree.put(item.getRawObject());
+                    tree.clearChildren(folder);
+                    tree.endBatch();
+                    adapter.setFolder(folder);
 
-                    if (text != null) {
-                        ((TextView) getView().findViewById(R.id.json)).setText(text);
-                    }
+                    showJson(item);
 
                     final String fragmentLabel;
                     if (mItem.parentReference != null) {
@@ -449,14 +726,17 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                         setFocus(ItemFocus.Empty, getView());
 
                     } else {
-                        for (final Item childItem : item.children.getCurrentPage()) {
-                            adapter.add(new DisplayItem(adapter,
-                                                        childItem,
-                                                        childItem.id,
-                                                        context.getImageCache()));
-                        }
+                        addChildren(item.children.getCurrentPage());
                         setFocus(ItemFocus.Visualization, getView());
                     }
+
+                    mNextPage = null;
+                    final JsonElement nextLink = item.getRawObject().get(CHILDREN_NEXT_LINK);
+                    if (nextLink != null) {
+                        mNextPage = new ItemCollectionRequestBuilder(nextLink.getAsString(),
+                                                                     context.getOneDriveClient(),
+                                                                     null);
+                    }
                     getActivity().invalidateOptionsMenu();
                 }
             }
@@ -473,13 +753,88 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
     }
 
     /**
-     * Refreshes the data for this fragment
+     * Adds a batch of children to the item tree, the adapter observing the tree notifies the views once for the
+     * whole batch
+     * @param children The children to add
+     */
+    private void addChildren(final List<Item> children) {
+        final BaseApplication application = (BaseApplication) getActivity().getApplication();
+        final ItemTree tree = application.getItemTree();
+        tree.beginBatch();
+        for (final Item childItem : children) {
+            tree.put(childItem.getRawObject());
+            addToSearchIndex(application, childItem);
+        }
+        tree.endBatch();
+    }
+
+    /**
+     * Adds an item to the search index, or updates it there
+     * @param application The application
+     * @param item The item
+     */
+    private static void addToSearchIndex(final BaseApplication application, final Item item) {
+        if (item.getRawObject() != null) {
+            application.getSearchIndex().put(ItemRecord.fromJson(item.getRawObject()));
+        }
+    }
+
+    /**
+     * Retrieves the next page of children in the background and appends it to the listing
+     */
+    private void loadNextPage() {
+        final IItemCollectionRequestBuilder nextPage = mNextPage;
+        if (nextPage == null || mItem == null || !mLoadingPage.compareAndSet(false, true)) {
+            return;
+        }
+
+        final BaseApplication app = (BaseApplication) getActivity().getApplication();
+        final Item parent = mItem;
+        nextPage.buildRequest().get(new DefaultCallback<IItemCollectionPage>(getActivity()) {
+            @Override
+            public void success(final IItemCollectionPage page) {
+                mLoadingPage.set(false);
+                if (mItem != parent || getView() == null) {
+                    return;
+                }
+
+                final int startPosition = mAdapter.getCount();
+                addChildren(page.getCurrentPage());
+                mNextPage = page.getNextPage();
+                String nextLink = null;
+                if (mNextPage != null) {
+                    nextLink = mNextPage.getRequestUrl();
+                }
+                final String storedNextLink = nextLink;
+                app.getOneDriveClient().getExecutors().performOnBackground(new Runnable() {
+                    @Override
+                    public void run() {
+                        app.getItemStore().appendChildren(parent.id,
+                                                          page.getCurrentPage(),
+                                                          startPosition,
+                                                          storedNextLink);
+                    }
+                });
+            }
+
+            @Override
+            public void failure(final ClientException error) {
+                mLoadingPage.set(false);
+                super.failure(error);
+            }
+        });
+    }
+
+    /**
+     * Refreshes the data for this fragment, the stored copy of the item is shown while the service is asked if it
+     * has changed
      */
     private void refresh() {
         if (getView() != null) {
             setFocus(ItemFocus.Progress, getView());
         }
         mItem = null;
+        mNextPage = null;
 
         final BaseApplication app = (BaseApplication) getActivity().getApplication();
         final IOneDriveClient oneDriveClient = app.getOneDriveClient();
@@ -492,17 +847,88 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
             itemId = mItemId;
         }
 
-        oneDriveClient
+        new AsyncTask<Void, Void, Item>() {
+            /**
+             * The size of the response the stored copy of the item came from
+             */
+            private long mStoredSize;
+
+            @Override
+            protected Item doInBackground(final Void... params) {
+                final Item storedItem = app.getItemStore().getItem(itemId, oneDriveClient.getSerializer());
+                if (storedItem != null) {
+                    mStoredSize = app.getItemStore().getPayloadSize(itemId);
+                }
+                return storedItem;
+            }
+
+            @Override
+            protected void onPostExecute(final Item storedItem) {
+                if (storedItem != null) {
+                    itemCallback.success(storedItem);
+                }
+                revalidate(app, itemId, storedItem, mStoredSize, itemCallback);
+            }
+        }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+    }
+
+    /**
+     * Gets the item from the service, sending the eTag of the stored copy so an unchanged item costs only a not
+     * modified response
+     * @param app The application
+     * @param itemId The id the item is requested with
+     * @param storedItem The stored copy of the item, or null if there is none
+     * @param storedSize The size of the response the stored copy came from
+     * @param itemCallback The callback that shows the item
+     */
+    private void revalidate(final BaseApplication app,
+                            final String itemId,
+                            final Item storedItem,
+                            final long storedSize,
+                            final ICallback<Item> itemCallback) {
+        final IOneDriveClient oneDriveClient = app.getOneDriveClient();
+        String eTag = null;
+        if (storedItem != null) {
+            eTag = storedItem.eTag;
+        }
+
+        final IItemRequest request = oneDriveClient
             .getDrive()
             .getItems(itemId)
             .buildRequest()
-            .expand(getExpansionOptions(oneDriveClient))
-            .get(itemCallback);
+            .expand(getExpansionOptions(oneDriveClient));
+        app.getItemRequestCoalescer().getIfNoneMatch(oneDriveClient, request, eTag, storedSize, new ICallback<Item>() {
+            @Override
+            public void success(final Item item) {
+                if (item == null) {
+                    return;
+                }
+                itemCallback.success(item);
+                oneDriveClient.getExecutors().performOnBackground(new Runnable() {
+                    @Override
+                    public void run() {
+                        app.getItemStore().putItem(itemId, item);
+                    }
+                });
+            }
+
+            @Override
+            public void failure(final ClientException error) {
+                if (storedItem != null) {
+                    Log.e(getClass().getSimpleName(), "Unable to revalidate the stored item", error);
+                    Toast.makeText(app,
+                                   app.getString(R.string.item_fragment_item_lookup_error, mItemId),
+                                   Toast.LENGTH_LONG).show();
+                    return;
+                }
+                itemCallback.failure(error);
+            }
+        });
     }
 
     /**
      * Gets the expansion options for requests on items
-     * @see {https://github.com/OneDrive/onedrive-api-docs/issues/203}
+     * @see <a href="https://github.com/OneDrive/onedrive-api-docs/issues/203">onedrive-api-docs issue 203</a>
      * @param oneDriveClient the OneDrive client
      * @return The string for expand options
      */
@@ -542,6 +968,8 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                         .delete(new DefaultCallback<Void>(application) {
                             @Override
                             public void success(final Void response) {
+                                application.getSearchIndex().remove(item.id);
+                                application.getItemTree().remove(item.id);
                                 Toast.makeText(getActivity(),
                                         application.getString(R.string.deleted_this_item,
                                                 item.name),
@@ -638,6 +1066,7 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
                     final ICallback<Item> callback = new DefaultCallback<Item>(getActivity()) {
                         @Override
                         public void success(final Item item) {
+                            addToSearchIndex((BaseApplication) activity.getApplication(), item);
                             Toast.makeText(activity,
                                               activity
                                                   .getString(R.string.renamed_item, sourceItem.name,
@@ -756,107 +1185,155 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
     @Override
     public void onActivityResult(final int requestCode, final int resultCode, final Intent data) {
         final BaseApplication application = (BaseApplication) getActivity().getApplication();
-        final IOneDriveClient oneDriveClient = application.getOneDriveClient();
 
         if (requestCode == REQUEST_CODE_SIMPLE_UPLOAD
                 && data != null
                 && data.getData() != null
                 && data.getData().getScheme().equalsIgnoreCase(SCHEME_CONTENT)) {
 
-            final ProgressDialog dialog = new ProgressDialog(getActivity());
-            dialog.setTitle(R.string.upload_in_progress_title);
-            dialog.setMessage(getString(R.string.upload_in_progress_message));
-            dialog.setIndeterminate(false);
-            dialog.setCancelable(false);
-            dialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
-            dialog.setProgressNumberFormat(getString(R.string.upload_in_progress_number_format));
-            dialog.show();
-            final AsyncTask<Void, Void, Void> uploadFile = new AsyncTask<Void, Void, Void>() {
+            final String parentId = mItemId;
+            final Uri source = data.getData();
+            new AsyncTask<Void, Void, String>() {
                 @Override
-                protected Void doInBackground(final Void... params) {
-                    try {
-                        final ContentResolver contentResolver = getActivity().getContentResolver();
-                        final ContentProviderClient contentProvider = contentResolver
-                                .acquireContentProviderClient(data.getData());
-                        final byte[] fileInMemory = FileContent.getFileBytes(contentProvider, data.getData());
-                        contentProvider.release();
-
-                        // Fix up the file name (needed for camera roll photos, etc)
-                        final String filename = FileContent.getValidFileName(contentResolver, data.getData());
-                        final Option option = new QueryOption("@name.conflictBehavior", "fail");
-                        oneDriveClient
-                            .getDrive()
-                            .getItems(mItemId)
-                            .getChildren()
-                            .byId(filename)
-                            .getContent()
-                            .buildRequest(Collections.singletonList(option))
-                            .put(fileInMemory,
-                                new IProgressCallback<Item>() {
-                                    @Override
-                                    public void success(final Item item) {
-                                        dialog.dismiss();
-                                        Toast.makeText(getActivity(),
-                                                          application
-                                                              .getString(R.string.upload_complete,
-                                                                            item.name),
-                                                          Toast.LENGTH_LONG).show();
-                                        refresh();
-                                    }
-
-                                    @Override
-                                    public void failure(final ClientException error) {
-                                        dialog.dismiss();
-                                        if (error.isError(OneDriveErrorCodes.NameAlreadyExists)) {
-                                            Toast.makeText(getActivity(),
-                                                           R.string.upload_failed_name_conflict,
-                                                           Toast.LENGTH_LONG).show();
-                                        } else {
-                                            Toast.makeText(getActivity(),
-                                                              application
-                                                                  .getString(R.string.upload_failed,
-                                                                                filename),
-                                                              Toast.LENGTH_LONG).show();
-                                        }
-                                    }
-
-                                    @Override
-                                    public void progress(final long current, final long max) {
-                                        dialog.setProgress((int) current);
-                                        dialog.setMax((int) max);
-                                    }
-                                });
-                    } catch (final Exception e) {
-                        Log.e(getClass().getSimpleName(), e.getMessage());
-                        Log.e(getClass().getSimpleName(), e.toString());
-                    }
-                    return null;
+                protected String doInBackground(final Void... params) {
+                    // Fix up the file name (needed for camera roll photos, etc), which asks the content provider
+                    return FileContent.getValidFileName(application.getContentResolver(), source);
                 }
-            };
-            uploadFile.execute();
+
+                @Override
+                protected void onPostExecute(final String filename) {
+                    application.getTransferQueue().submitUpload(parentId, source, filename);
+                    showTransferSubmitted(application, application.getTransferPolicy(), filename);
+                }
+            }.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+    }
+
+    /**
+     * Tells the user a transfer has been queued, and if it is waiting for the network
+     * @param context The context to display the message, which may outlive this fragment
+     * @param policy The policy on the current network
+     * @param name The name of the file or folder being transferred
+     */
+    private static void showTransferSubmitted(final Context context, final TransferPolicy policy, final String name) {
+        final int message;
+        if (policy.canTransfer()) {
+            message = R.string.transfer_submitted;
+        } else if (policy.getNetworkClass() == ConnectivityMonitor.NetworkClass.Offline) {
+            message = R.string.transfer_queued_offline;
+        } else {
+            message = R.string.transfer_queued_metered;
         }
+        Toast.makeText(context, context.getString(message, name), Toast.LENGTH_LONG).show();
     }
 
     /**
-     * Downloads this item
+     * Downloads this item, and everything below it for a folder
      * @param item The item to download
      */
     private void download(final Item item) {
-        final Activity activity = getActivity();
-        final DownloadManager downloadManager = (DownloadManager) activity.getSystemService(Context
-                .DOWNLOAD_SERVICE);
-        final String downloadUrl = item.getRawObject().get("@content.downloadUrl").getAsString();
-        final DownloadManager.Request request = new DownloadManager.Request(Uri.parse(downloadUrl));
-        request.setTitle(item.name);
-        request.setDescription(activity.getString(R.string.file_from_onedrive));
-        request.allowScanningByMediaScanner();
-        if (item.file != null) {
-            request.setMimeType(item.file.mimeType);
+        final BaseApplication application = (BaseApplication) getActivity().getApplication();
+        application.getTransferQueue().submitDownload(item);
+        showTransferSubmitted(getActivity(), application.getTransferPolicy(), item.name);
+    }
+
+    /**
+     * Gets the items that are checked in the list
+     * @param listView The list
+     * @return The checked items, with just the id and name the bulk operations use
+     */
+    private List<Item> getCheckedItems(final AbsListView listView) {
+        final SparseBooleanArray checked = listView.getCheckedItemPositions();
+        final List<Item> items = new ArrayList<>(checked.size());
+        for (int i = 0; i < checked.size(); i++) {
+            if (checked.valueAt(i)) {
+                final Item item = new Item();
+                item.id = mAdapter.getItem(checked.keyAt(i));
+                item.name = mAdapter.getItemName(checked.keyAt(i));
+                items.add(item);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Asks for confirmation before deleting many items
+     * @param items The items to delete
+     */
+    private void confirmBulkDelete(final List<Item> items) {
+        new AlertDialog.Builder(getActivity())
+            .setTitle(R.string.delete)
+            .setIcon(android.R.drawable.ic_delete)
+            .setMessage(getString(R.string.bulk_confirm_delete, items.size()))
+            .setPositiveButton(R.string.delete, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(final DialogInterface dialog, final int which) {
+                    runBulkOperation(BulkOperationExecutor.Operation.Delete, items);
+                }
+            })
+            .setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(final DialogInterface dialog, final int which) {
+                    dialog.cancel();
+                }
+            })
+            .create()
+            .show();
+    }
+
+    /**
+     * Runs an operation over many items with a single progress dialog for all of them
+     * @param operation The operation
+     * @param items The items
+     */
+    private void runBulkOperation(final BulkOperationExecutor.Operation operation, final List<Item> items) {
+        final BaseApplication application = (BaseApplication) getActivity().getApplication();
+        final ItemReference destination = new ItemReference();
+        destination.id = getCopyPrefs().getString(COPY_DESTINATION_PREF_KEY, null);
+
+        final BulkOperationExecutor.Batch batch = application.getBulkOperationExecutor().run(operation,
+                                                                                             items,
+                                                                                             destination,
+                                                                                             mBatchListener);
+        showBatchProgress(batch);
+    }
+
+    /**
+     * Shows the progress of a bulk operation
+     * @param batch The bulk operation
+     */
+    private void showBatchProgress(final BulkOperationExecutor.Batch batch) {
+        if (mBatchDialog == null || mBatchDialogBatch != batch) {
+            dismissBatchProgress();
+            mBatchDialog = new ProgressDialog(getActivity());
+            mBatchDialog.setTitle(getString(R.string.bulk_in_progress_title, batch.getTotal()));
+            mBatchDialog.setIndeterminate(false);
+            mBatchDialog.setCancelable(false);
+            mBatchDialog.setProgressStyle(ProgressDialog.STYLE_HORIZONTAL);
+            mBatchDialog.setMax(batch.getTotal());
+            mBatchDialog.setButton(DialogInterface.BUTTON_NEGATIVE,
+                                   getString(android.R.string.cancel),
+                                   new DialogInterface.OnClickListener() {
+                    @Override
+                    public void onClick(final DialogInterface dialogInterface, final int which) {
+                        batch.cancel();
+                    }
+                });
+            mBatchDialogBatch = batch;
+            mBatchDialog.show();
+        }
+        mBatchDialog.setProgress(batch.getSucceeded() + batch.getFailed());
+    }
+
+    /**
+     * Closes the progress of a bulk operation, if it is showing
+     */
+    private void dismissBatchProgress() {
+        if (mBatchDialog != null) {
+            mBatchDialog.dismiss();
+            mBatchDialog = null;
+            mBatchDialogBatch = null;
         }
-        request.setNotificationVisibility(DownloadManager.Request.VISIBILITY_VISIBLE_NOTIFY_COMPLETED);
-        downloadManager.enqueue(request);
-        Toast.makeText(activity, activity.getString(R.string.starting_download_message),
-                          Toast.LENGTH_LONG).show();
     }
 
     /**
@@ -914,19 +1391,170 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
             .setPositiveButton(R.string.navigate, new DialogInterface.OnClickListener() {
                 @Override
                 public void onClick(final DialogInterface dialog, final int which) {
-                    oneDriveClient
+                    final IItemRequest request = oneDriveClient
                         .getDrive()
                         .getItems(item.id)
                         .getItemWithPath(itemPath.getText().toString())
                         .buildRequest()
-                        .expand(getExpansionOptions(oneDriveClient))
-                        .get(itemCallback);
+                        .expand(getExpansionOptions(oneDriveClient));
+                    application.getItemRequestCoalescer().get(request, itemCallback);
                 }
             })
             .create()
             .show();
     }
 
+    /**
+     * Searches the names of the items seen so far, results are shown as the query is typed and picking one navigates
+     * to it
+     */
+    private void search() {
+        final BaseApplication application = (BaseApplication) getActivity().getApplication();
+        final IOneDriveClient oneDriveClient = application.getOneDriveClient();
+        final SearchIndex searchIndex = application.getSearchIndex();
+        final Activity activity = getActivity();
+
+        final EditText query = new EditText(activity);
+        query.setInputType(InputType.TYPE_CLASS_TEXT);
+        query.setHint(R.string.search_hint);
+        final ListView resultsView = new ListView(activity);
+        final ArrayAdapter<String> resultsAdapter = new ArrayAdapter<>(activity, android.R.layout.simple_list_item_1);
+        resultsView.setAdapter(resultsAdapter);
+        final LinearLayout layout = new LinearLayout(activity);
+        layout.setOrientation(LinearLayout.VERTICAL);
+        layout.addView(query);
+        layout.addView(resultsView);
+
+        final List<ItemRecord> results = new ArrayList<>();
+        query.addTextChangedListener(new TextWatcher() {
+            @Override
+            public void beforeTextChanged(final CharSequence text, final int start, final int count, final int after) {
+            }
+
+            @Override
+            public void onTextChanged(final CharSequence text, final int start, final int before, final int count) {
+            }
+
+            @Override
+            public void afterTextChanged(final Editable text) {
+                results.clear();
+                results.addAll(searchIndex.search(text.toString(), MAX_SEARCH_RESULTS));
+                resultsAdapter.clear();
+                for (final ItemRecord record : results) {
+                    resultsAdapter.add(record.getName());
+                }
+            }
+        });
+
+        final AlertDialog dialog = new AlertDialog.Builder(activity)
+            .setIcon(android.R.drawable.ic_menu_search)
+            .setTitle(activity.getString(R.string.search_title, searchIndex.getItemCount()))
+            .setView(layout)
+            .setNegativeButton(R.string.cancel, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(final DialogInterface dialog, final int which) {
+                    dialog.dismiss();
+                }
+            })
+            .create();
+
+        final DefaultCallback<Item> itemCallback = new DefaultCallback<Item>(activity) {
+            @Override
+            public void success(final Item item) {
+                navigateToFragment(ItemFragment.newInstance(item.id));
+            }
+        };
+        resultsView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
+            @Override
+            public void onItemClick(final AdapterView<?> parent, final View view, final int position, final long id) {
+                final IItemRequest request = oneDriveClient
+                    .getDrive()
+                    .getItems(results.get(position).getId())
+                    .buildRequest()
+                    .expand(getExpansionOptions(oneDriveClient));
+                application.getItemRequestCoalescer().get(request, itemCallback);
+                dialog.dismiss();
+            }
+        });
+        dialog.show();
+    }
+
+    /**
+     * Shows how much is stored below a folder, split by what the files hold. The totals cover the items seen so
+     * far, so viewing the delta of the folder first brings in everything below it
+     * @param item The folder
+     */
+    private void showStorageBreakdown(final Item item) {
+        final BaseApplication application = (BaseApplication) getActivity().getApplication();
+        final StorageAggregator aggregator = application.getStorageAggregator();
+        final ItemTree tree = application.getItemTree();
+        final Activity activity = getActivity();
+
+        final AlertDialog dialog = new AlertDialog.Builder(activity)
+            .setTitle(activity.getString(R.string.storage_breakdown_title, item.name))
+            .setMessage(activity.getString(R.string.storage_computing, tree.size()))
+            .setPositiveButton(android.R.string.ok, new DialogInterface.OnClickListener() {
+                @Override
+                public void onClick(final DialogInterface dialog, final int which) {
+                    dialog.dismiss();
+                }
+            })
+            .create();
+        final StorageAggregator.Listener listener = new StorageAggregator.Listener() {
+            @Override
+            public void onStatsReady(final SubtreeStats stats) {
+                dialog.setMessage(getStorageBreakdown(activity, stats, tree.getRow(item.id), tree.size()));
+            }
+
+            @Override
+            public void onStatsFailed(final Exception error) {
+                dialog.setMessage(activity.getString(R.string.storage_failed, error.getMessage()));
+            }
+        };
+        dialog.setOnDismissListener(new DialogInterface.OnDismissListener() {
+            @Override
+            public void onDismiss(final DialogInterface dialog) {
+                aggregator.cancel(listener);
+            }
+        });
+        dialog.show();
+        aggregator.getStats(listener);
+    }
+
+    /**
+     * Describes how much is stored below a folder
+     * @param context The context to read strings from
+     * @param stats The subtree totals
+     * @param folder The folder row
+     * @param itemCount The number of items seen so far
+     * @return The description, a line per category
+     */
+    private static String getStorageBreakdown(final Context context,
+                                              final SubtreeStats stats,
+                                              final int folder,
+                                              final int itemCount) {
+        final long totalBytes = stats.getTotalBytes(folder);
+        final StringBuilder breakdown = new StringBuilder();
+        breakdown.append(context.getString(R.string.storage_total,
+                                           Formatter.formatShortFileSize(context, totalBytes),
+                                           stats.getTotalFiles(folder),
+                                           stats.getFolders(folder)));
+        for (final SubtreeStats.Category category : SubtreeStats.Category.values()) {
+            final long bytes = stats.getBytes(folder, category);
+            long percent = 0;
+            if (totalBytes != 0) {
+                percent = bytes * PERCENTAGE_MAX / totalBytes;
+            }
+            breakdown.append('\n').append(context.getString(R.string.storage_category,
+                                                              category.name(),
+                                                              Formatter.formatShortFileSize(context, bytes),
+                                                              percent,
+                                                              stats.getFiles(folder, category)));
+        }
+        breakdown.append("\n\n").append(context.getString(R.string.storage_coverage, itemCount));
+        return breakdown.toString();
+    }
+
     /**
      * Sets the focus on one of the primary fixtures of this fragment
      *
@@ -1023,8 +1651,8 @@ public class ItemFragment extends Fragment implements AbsListView.OnItemClickLis
     public interface OnFragmentInteractionListener {
         /**
          * Action when fragments are interacted with
-         * @param item The item that was interacted with
+         * @param itemId The id of the item that was interacted with
          */
-        void onFragmentInteraction(final DisplayItem item);
+        void onFragmentInteraction(final String itemId);
     }
 }
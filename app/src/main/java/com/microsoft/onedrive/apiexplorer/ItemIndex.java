@@ -0,0 +1,177 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonObject;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The local index of the items below a folder, keyed by item id and kept current by applying delta pages
+ */
+class ItemIndex {
+
+    /**
+     * The version of the snapshot file format
+     */
+    private static final int SNAPSHOT_VERSION = 1;
+
+    /**
+     * The items, by id
+     */
+    private final HashMap<String, ItemRecord> mRecords;
+
+    /**
+     * Creates an empty index
+     */
+    ItemIndex() {
+        mRecords = new HashMap<>();
+    }
+
+    /**
+     * Creates an index with room for a known number of items
+     * @param expectedSize The number of items expected
+     */
+    private ItemIndex(final int expectedSize) {
+        mRecords = new HashMap<>(expectedSize * 2);
+    }
+
+    /**
+     * Applies a page of delta results to the index
+     * @param items The raw json of the items on the page
+     * @return The changes that were made, items that did not change are left out
+     */
+    synchronized List<DeltaChange> apply(final List<JsonObject> items) {
+        final List<DeltaChange> changes = new ArrayList<>(items.size());
+        for (final JsonObject json : items) {
+            final ItemRecord record = ItemRecord.fromJson(json);
+            if (json.has("deleted")) {
+                final ItemRecord removed = mRecords.remove(record.getId());
+                if (removed != null) {
+                    changes.add(new DeltaChange(DeltaChange.Type.Deleted, removed));
+                } else {
+                    changes.add(new DeltaChange(DeltaChange.Type.Deleted, record));
+                }
+                continue;
+            }
+
+            final ItemRecord previous = mRecords.put(record.getId(), record);
+            if (previous == null) {
+                changes.add(new DeltaChange(DeltaChange.Type.Created, record));
+            } else if (previous.getETag() == null || !previous.getETag().equals(record.getETag())) {
+                changes.add(new DeltaChange(DeltaChange.Type.Updated, record));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Looks up an item
+     * @param id The item id
+     * @return The item, or null if it is not in the index
+     */
+    synchronized ItemRecord get(final String id) {
+        return mRecords.get(id);
+    }
+
+    /**
+     * Copies out every item in the index
+     * @return The items, in no particular order
+     */
+    synchronized List<ItemRecord> getRecords() {
+        return new ArrayList<>(mRecords.values());
+    }
+
+    /**
+     * The number of items in the index
+     * @return The item count
+     */
+    synchronized int size() {
+        return mRecords.size();
+    }
+
+    /**
+     * Removes every item from the index
+     */
+    synchronized void clear() {
+        mRecords.clear();
+    }
+
+    /**
+     * Writes the index to a file, replacing the file only once the whole index has been written
+     * @param file The destination
+     * @throws IOException If the index could not be written
+     */
+    synchronized void writeTo(final File file) throws IOException {
+        final File temporary = new File(file.getPath() + ".tmp");
+        final DataOutputStream output = new DataOutputStream(
+            new BufferedOutputStream(new FileOutputStream(temporary)));
+        try {
+            output.writeInt(SNAPSHOT_VERSION);
+            output.writeInt(mRecords.size());
+            for (final ItemRecord record : mRecords.values()) {
+                record.writeTo(output);
+            }
+        } finally {
+            output.close();
+        }
+        if (!temporary.renameTo(file)) {
+            throw new IOException("Unable to replace " + file);
+        }
+    }
+
+    /**
+     * Reads an index written by {@link #writeTo(File)}
+     * @param file The source
+     * @return The index
+     * @throws IOException If the file is missing, unreadable or from an older format
+     */
+    static ItemIndex readFrom(final File file) throws IOException {
+        final DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (input.readInt() != SNAPSHOT_VERSION) {
+                throw new IOException("Unsupported index version in " + file);
+            }
+            final int count = input.readInt();
+            final ItemIndex index = new ItemIndex(count);
+            for (int i = 0; i < count; i++) {
+                final ItemRecord record = ItemRecord.readFrom(input);
+                index.mRecords.put(record.getId(), record);
+            }
+            return index;
+        } finally {
+            input.close();
+        }
+    }
+}
@@ -0,0 +1,258 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * The metadata kept for an item in the local item index, a small immutable subset of the item json
+ */
+final class ItemRecord {
+
+    /**
+     * The item id
+     */
+    private final String mId;
+
+    /**
+     * The parent item id, or null for the root of the index
+     */
+    private final String mParentId;
+
+    /**
+     * The item name
+     */
+    private final String mName;
+
+    /**
+     * The size of the item in bytes
+     */
+    private final long mSize;
+
+    /**
+     * If the item is a folder
+     */
+    private final boolean mFolder;
+
+    /**
+     * The mime type of a file, or null
+     */
+    private final String mMimeType;
+
+    /**
+     * The eTag of the item
+     */
+    private final String mETag;
+
+    /**
+     * Default constructor
+     * @param id The item id
+     * @param parentId The parent item id, or null for the root of the index
+     * @param name The item name
+     * @param size The size of the item in bytes
+     * @param folder If the item is a folder
+     * @param mimeType The mime type of a file, or null
+     * @param eTag The eTag of the item
+     */
+    ItemRecord(final String id,
+               final String parentId,
+               final String name,
+               final long size,
+               final boolean folder,
+               final String mimeType,
+               final String eTag) {
+        mId = id;
+        mParentId = parentId;
+        mName = name;
+        mSize = size;
+        mFolder = folder;
+        mMimeType = mimeType;
+        mETag = eTag;
+    }
+
+    /**
+     * Creates a record from the raw json of an item
+     * @param json The item json
+     * @return The record
+     */
+    static ItemRecord fromJson(final JsonObject json) {
+        String parentId = null;
+        final JsonElement parentReference = json.get("parentReference");
+        if (parentReference != null && parentReference.isJsonObject()) {
+            parentId = getString(parentReference.getAsJsonObject(), "id");
+        }
+
+        long size = 0;
+        final JsonElement sizeElement = json.get("size");
+        if (sizeElement != null && !sizeElement.isJsonNull()) {
+            size = sizeElement.getAsLong();
+        }
+
+        String mimeType = null;
+        final JsonElement file = json.get("file");
+        if (file != null && file.isJsonObject()) {
+            mimeType = getString(file.getAsJsonObject(), "mimeType");
+        }
+
+        return new ItemRecord(getString(json, "id"),
+                              parentId,
+                              getString(json, "name"),
+                              size,
+                              json.has("folder"),
+                              mimeType,
+                              getString(json, "eTag"));
+    }
+
+    /**
+     * Reads a record written by {@link #writeTo(DataOutput)}
+     * @param input The source
+     * @return The record
+     * @throws IOException If the record could not be read
+     */
+    static ItemRecord readFrom(final DataInput input) throws IOException {
+        return new ItemRecord(input.readUTF(),
+                              readNullable(input),
+                              readNullable(input),
+                              input.readLong(),
+                              input.readBoolean(),
+                              readNullable(input),
+                              readNullable(input));
+    }
+
+    /**
+     * Writes this record in a compact binary form
+     * @param output The destination
+     * @throws IOException If the record could not be written
+     */
+    void writeTo(final DataOutput output) throws IOException {
+        output.writeUTF(mId);
+        writeNullable(output, mParentId);
+        writeNullable(output, mName);
+        output.writeLong(mSize);
+        output.writeBoolean(mFolder);
+        writeNullable(output, mMimeType);
+        writeNullable(output, mETag);
+    }
+
+    /**
+     * The item id
+     * @return The item id
+     */
+    String getId() {
+        return mId;
+    }
+
+    /**
+     * The parent item id
+     * @return The parent item id, or null for the root of the index
+     */
+    String getParentId() {
+        return mParentId;
+    }
+
+    /**
+     * The item name
+     * @return The item name
+     */
+    String getName() {
+        return mName;
+    }
+
+    /**
+     * The size of the item
+     * @return The size in bytes
+     */
+    long getSize() {
+        return mSize;
+    }
+
+    /**
+     * If the item is a folder
+     * @return If the item is a folder
+     */
+    boolean isFolder() {
+        return mFolder;
+    }
+
+    /**
+     * The mime type of a file
+     * @return The mime type, or null
+     */
+    String getMimeType() {
+        return mMimeType;
+    }
+
+    /**
+     * The eTag of the item
+     * @return The eTag
+     */
+    String getETag() {
+        return mETag;
+    }
+
+    /**
+     * Gets a string property that may be missing or null
+     * @param json The object
+     * @param name The property name
+     * @return The value, or null
+     */
+    private static String getString(final JsonObject json, final String name) {
+        final JsonElement element = json.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        return element.getAsString();
+    }
+
+    /**
+     * Writes a string that may be null
+     * @param output The destination
+     * @param value The value
+     * @throws IOException If the value could not be written
+     */
+    private static void writeNullable(final DataOutput output, final String value) throws IOException {
+        output.writeBoolean(value != null);
+        if (value != null) {
+            output.writeUTF(value);
+        }
+    }
+
+    /**
+     * Reads a string written by {@link #writeNullable(DataOutput, String)}
+     * @param input The source
+     * @return The value, or null
+     * @throws IOException If the value could not be read
+     */
+    private static String readNullable(final DataInput input) throws IOException {
+        if (input.readBoolean()) {
+            return input.readUTF();
+        }
+        return null;
+    }
+}
@@ -0,0 +1,214 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.concurrency.ICallback;
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.extensions.IItemRequest;
+import com.onedrive.sdk.extensions.IOneDriveClient;
+import com.onedrive.sdk.extensions.Item;
+import com.onedrive.sdk.options.HeaderOption;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends item GETs so that identical requests already in flight share a single call to the service, every waiter
+ * receives the one response. Requests are identical when their urls, which include the expand and select options,
+ * and their headers match
+ */
+class ItemRequestCoalescer {
+
+    /**
+     * The callbacks waiting on each request in flight
+     */
+    private final Map<String, List<ICallback<Item>>> mInFlight = new HashMap<>();
+
+    /**
+     * Requests sent to the service
+     */
+    private final AtomicLong mSentCount = new AtomicLong();
+
+    /**
+     * Requests answered by a request already in flight
+     */
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+
+    /**
+     * Where the bandwidth saved by not modified responses is recorded
+     */
+    private final RequestMetrics mMetrics;
+
+    /**
+     * Default constructor
+     * @param metrics Where the bandwidth saved by not modified responses is recorded
+     */
+    ItemRequestCoalescer(final RequestMetrics metrics) {
+        mMetrics = metrics;
+    }
+
+    /**
+     * Gets an item, joining an identical request if one is already in flight
+     * @param request The request
+     * @param callback The callback, invoked the same way the request would invoke it
+     */
+    void get(final IItemRequest request, final ICallback<Item> callback) {
+        final String key = getKey(request);
+        if (join(key, callback)) {
+            return;
+        }
+        request.get(getFanOut(key));
+    }
+
+    /**
+     * Gets an item unless it still has the eTag of the caller's copy, joining an identical request if one is already
+     * in flight
+     * @param client The OneDrive client
+     * @param request The request
+     * @param eTag The eTag of the copy of the item the caller already has, or null to always get the item
+     * @param storedBytes The size of the response the caller's copy came from, counted as saved once for every not
+     *                    modified response rather than for every caller sharing it
+     * @param callback The callback, invoked on the foreground with null if the item has not been modified
+     */
+    void getIfNoneMatch(final IOneDriveClient client,
+                        final IItemRequest request,
+                        final String eTag,
+                        final long storedBytes,
+                        final ICallback<Item> callback) {
+        if (eTag != null) {
+            request.addHeader(ConditionalItemHandler.IF_NONE_MATCH, eTag);
+        }
+        final String key = getKey(request);
+        if (join(key, callback)) {
+            return;
+        }
+        final ICallback<Item> fanOut = getFanOut(key);
+        client.getExecutors().performOnBackground(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    final ConditionalItemHandler handler = new ConditionalItemHandler();
+                    final Item item = handler.send(client, request);
+                    if (item == null) {
+                        final String endpoint = RequestMetrics.getEndpointName(request.getHttpMethod().name(),
+                                                                               request.getRequestUrl());
+                        mMetrics.recordNotModified(endpoint,
+                                                   Math.max(0, storedBytes - handler.getNotModifiedBytes()));
+                    }
+                    client.getExecutors().performOnForeground(item, fanOut);
+                } catch (final ClientException e) {
+                    client.getExecutors().performOnForeground(e, fanOut);
+                }
+            }
+        });
+    }
+
+    /**
+     * Requests sent to the service
+     * @return The sent count
+     */
+    long getSentCount() {
+        return mSentCount.get();
+    }
+
+    /**
+     * Requests answered by a request already in flight
+     * @return The coalesced count
+     */
+    long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /**
+     * Joins an identical request already in flight, or registers a new one that the caller must send
+     * @param key The key of the request
+     * @param callback The callback
+     * @return If the request was joined
+     */
+    private boolean join(final String key, final ICallback<Item> callback) {
+        synchronized (mInFlight) {
+            final List<ICallback<Item>> waiters = mInFlight.get(key);
+            if (waiters != null) {
+                waiters.add(callback);
+                mCoalescedCount.incrementAndGet();
+                return true;
+            }
+            final List<ICallback<Item>> first = new ArrayList<>();
+            first.add(callback);
+            mInFlight.put(key, first);
+        }
+        mSentCount.incrementAndGet();
+        return false;
+    }
+
+    /**
+     * Creates the callback that hands the response of a request to everything waiting on it
+     * @param key The key of the request
+     * @return The callback
+     */
+    private ICallback<Item> getFanOut(final String key) {
+        return new ICallback<Item>() {
+            @Override
+            public void success(final Item item) {
+                for (final ICallback<Item> waiter : complete(key)) {
+                    waiter.success(item);
+                }
+            }
+
+            @Override
+            public void failure(final ClientException error) {
+                for (final ICallback<Item> waiter : complete(key)) {
+                    waiter.failure(error);
+                }
+            }
+        };
+    }
+
+    /**
+     * Removes a finished request, later identical requests go to the service again
+     * @param key The key of the request
+     * @return The callbacks that were waiting on the request
+     */
+    private List<ICallback<Item>> complete(final String key) {
+        synchronized (mInFlight) {
+            return mInFlight.remove(key);
+        }
+    }
+
+    /**
+     * Builds the key that identifies identical requests
+     * @param request The request
+     * @return The key
+     */
+    private static String getKey(final IItemRequest request) {
+        final StringBuilder key = new StringBuilder(request.getRequestUrl().toString());
+        for (final HeaderOption header : request.getHeaders()) {
+            key.append('\n').append(header.getName()).append(':').append(header.getValue());
+        }
+        return key.toString();
+    }
+}
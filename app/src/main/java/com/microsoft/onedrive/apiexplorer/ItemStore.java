@@ -0,0 +1,471 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import com.onedrive.sdk.extensions.Item;
+import com.onedrive.sdk.serializer.ISerializer;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Local store of item metadata, so folder listings can be shown before the service has responded
+ */
+class ItemStore extends SQLiteOpenHelper {
+
+    /**
+     * The database file name
+     */
+    private static final String DATABASE_NAME = "items.db";
+
+    /**
+     * The schema version, listings stored before version 2 lack the link to their next page and items stored before
+     * version 3 lack the size of their response, so both are dropped
+     */
+    private static final int DATABASE_VERSION = 3;
+
+    /**
+     * The items table, one row per item with the item's own json (children excluded). A folder's json keeps the link
+     * to the page of children after the last stored one, so a stored listing can carry on paging
+     */
+    private static final String TABLE_ITEMS = "items";
+
+    /**
+     * The aliases table, maps request ids such as "root" onto item ids
+     */
+    private static final String TABLE_ALIASES = "aliases";
+
+    /**
+     * The item id column
+     */
+    private static final String COLUMN_ID = "id";
+
+    /**
+     * The parent item id column
+     */
+    private static final String COLUMN_PARENT_ID = "parent_id";
+
+    /**
+     * The position of the item within its parent's listing
+     */
+    private static final String COLUMN_POSITION = "position";
+
+    /**
+     * The eTag column
+     */
+    private static final String COLUMN_ETAG = "etag";
+
+    /**
+     * The cTag column
+     */
+    private static final String COLUMN_CTAG = "ctag";
+
+    /**
+     * The raw json column
+     */
+    private static final String COLUMN_JSON = "json";
+
+    /**
+     * The size in bytes of the response an item was stored from, with the children that came with it. Only set on
+     * the rows of requested items, not on the rows of their children
+     */
+    private static final String COLUMN_PAYLOAD_SIZE = "payload_size";
+
+    /**
+     * The bytes around the children in a response, the property name, brackets and separating comma
+     */
+    private static final int CHILDREN_OVERHEAD = ",\"children\":[]".length();
+
+    /**
+     * The bytes of a utf-8 encoded character outside the two byte range
+     */
+    private static final int UTF8_THREE_BYTES = 3;
+
+    /**
+     * The largest character encoded in one utf-8 byte
+     */
+    private static final char UTF8_ONE_BYTE_MAX = 0x7f;
+
+    /**
+     * The largest character encoded in two utf-8 bytes
+     */
+    private static final char UTF8_TWO_BYTE_MAX = 0x7ff;
+
+    /**
+     * The alias column
+     */
+    private static final String COLUMN_ALIAS = "alias";
+
+    /**
+     * The json property for children
+     */
+    private static final String CHILDREN = "children";
+
+    /**
+     * The json property for the link to the next page of children
+     */
+    private static final String CHILDREN_NEXT_LINK = "children@odata.nextLink";
+
+    /**
+     * Default constructor
+     * @param context The context used to open the database
+     */
+    ItemStore(final Context context) {
+        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+    }
+
+    @Override
+    public void onCreate(final SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_ITEMS + " ("
+                   + COLUMN_ID + " TEXT PRIMARY KEY, "
+                   + COLUMN_PARENT_ID + " TEXT, "
+                   + COLUMN_POSITION + " INTEGER, "
+                   + COLUMN_ETAG + " TEXT, "
+                   + COLUMN_CTAG + " TEXT, "
+                   + COLUMN_PAYLOAD_SIZE + " INTEGER, "
+                   + COLUMN_JSON + " TEXT NOT NULL)");
+        db.execSQL("CREATE INDEX " + TABLE_ITEMS + "_" + COLUMN_PARENT_ID
+                   + " ON " + TABLE_ITEMS + " (" + COLUMN_PARENT_ID + ", " + COLUMN_POSITION + ")");
+        db.execSQL("CREATE TABLE " + TABLE_ALIASES + " ("
+                   + COLUMN_ALIAS + " TEXT PRIMARY KEY, "
+                   + COLUMN_ID + " TEXT NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(final SQLiteDatabase db, final int oldVersion, final int newVersion) {
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ITEMS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_ALIASES);
+        onCreate(db);
+    }
+
+    /**
+     * Reads an item and its stored children, as they were last returned by the service
+     * @param requestId The id the item was requested with
+     * @param serializer The serializer used to rebuild the item
+     * @return The item with its children, or null if the item has not been stored
+     */
+    Item getItem(final String requestId, final ISerializer serializer) {
+        final SQLiteDatabase db = getReadableDatabase();
+        final String itemId = resolveAlias(db, requestId);
+        final String itemJson = getJson(db, itemId);
+        if (itemJson == null) {
+            return null;
+        }
+
+        // Splice the children rows back into the item so that the serializer rebuilds the children page
+        final StringBuilder sb = new StringBuilder(itemJson.length());
+        sb.append(itemJson, 0, itemJson.lastIndexOf('}'));
+        sb.append(",\"").append(CHILDREN).append("\":[");
+        final Cursor cursor = db.query(TABLE_ITEMS,
+                                       new String[] {COLUMN_JSON},
+                                       COLUMN_PARENT_ID + " = ?",
+                                       new String[] {itemId},
+                                       null,
+                                       null,
+                                       COLUMN_POSITION);
+        try {
+            boolean first = true;
+            while (cursor.moveToNext()) {
+                if (!first) {
+                    sb.append(',');
+                }
+                sb.append(cursor.getString(0));
+                first = false;
+            }
+        } finally {
+            cursor.close();
+        }
+        sb.append("]}");
+        return serializer.deserializeObject(sb.toString(), Item.class);
+    }
+
+    /**
+     * Reads the size of the response an item was stored from, what the service would send again if the item had
+     * changed
+     * @param requestId The id the item was requested with
+     * @return The size in bytes, or zero if the item has not been stored
+     */
+    long getPayloadSize(final String requestId) {
+        final SQLiteDatabase db = getReadableDatabase();
+        final Cursor cursor = db.query(TABLE_ITEMS,
+                                       new String[] {COLUMN_PAYLOAD_SIZE},
+                                       COLUMN_ID + " = ?",
+                                       new String[] {resolveAlias(db, requestId)},
+                                       null,
+                                       null,
+                                       null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getLong(0);
+            }
+            return 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Saves an item and the children that came with it, replacing any children previously stored for the item. The
+     * size of the response is recorded from the json as it is written, the item's own json and its children's
+     * @param requestId The id the item was requested with
+     * @param item The item
+     */
+    void putItem(final String requestId, final Item item) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            if (!requestId.equals(item.id)) {
+                final ContentValues alias = new ContentValues();
+                alias.put(COLUMN_ALIAS, requestId);
+                alias.put(COLUMN_ID, item.id);
+                db.insertWithOnConflict(TABLE_ALIASES, null, alias, SQLiteDatabase.CONFLICT_REPLACE);
+            }
+
+            final String itemJson = copyWithoutChildren(item.getRawObject()).toString();
+            final ContentValues values = new ContentValues();
+            values.put(COLUMN_ID, item.id);
+            values.put(COLUMN_ETAG, item.eTag);
+            values.put(COLUMN_CTAG, item.cTag);
+            values.put(COLUMN_JSON, itemJson);
+            if (db.update(TABLE_ITEMS, values, COLUMN_ID + " = ?", new String[] {item.id}) == 0) {
+                db.insert(TABLE_ITEMS, null, values);
+            }
+
+            long payloadSize = getUtf8Length(itemJson);
+            db.delete(TABLE_ITEMS, COLUMN_PARENT_ID + " = ?", new String[] {item.id});
+            if (item.children != null) {
+                payloadSize += CHILDREN_OVERHEAD + insertChildren(db, item.id, item.children.getCurrentPage(), 0);
+            }
+            final ContentValues size = new ContentValues();
+            size.put(COLUMN_PAYLOAD_SIZE, payloadSize);
+            db.update(TABLE_ITEMS, size, COLUMN_ID + " = ?", new String[] {item.id});
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Adds a further page of children to the end of a stored listing
+     * @param parentId The parent item id
+     * @param children The children on the page
+     * @param startPosition The position of the first child within the listing
+     * @param nextLink The link to the page after this one, or null if this is the last page
+     */
+    void appendChildren(final String parentId,
+                        final List<Item> children,
+                        final int startPosition,
+                        final String nextLink) {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            insertChildren(db, parentId, children, startPosition);
+            final String parentJson = getJson(db, parentId);
+            if (parentJson != null) {
+                final JsonObject parent = new JsonParser().parse(parentJson).getAsJsonObject();
+                parent.remove(CHILDREN_NEXT_LINK);
+                if (nextLink != null) {
+                    parent.addProperty(CHILDREN_NEXT_LINK, nextLink);
+                }
+                final ContentValues values = new ContentValues();
+                values.put(COLUMN_JSON, parent.toString());
+                db.update(TABLE_ITEMS, values, COLUMN_ID + " = ?", new String[] {parentId});
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Inserts a run of children into the parent's listing
+     * @param db The database
+     * @param parentId The parent item id
+     * @param children The children
+     * @param startPosition The position of the first child within the listing
+     * @return The utf-8 size of the children's json, with the commas between them
+     */
+    private static long insertChildren(final SQLiteDatabase db,
+                                       final String parentId,
+                                       final List<Item> children,
+                                       final int startPosition) {
+        final SQLiteStatement insert = db.compileStatement("INSERT OR REPLACE INTO " + TABLE_ITEMS + " ("
+                                                           + COLUMN_ID + ", "
+                                                           + COLUMN_PARENT_ID + ", "
+                                                           + COLUMN_POSITION + ", "
+                                                           + COLUMN_ETAG + ", "
+                                                           + COLUMN_CTAG + ", "
+                                                           + COLUMN_JSON + ") VALUES (?, ?, ?, ?, ?, ?)");
+        long bytes = 0;
+        try {
+            int position = startPosition;
+            for (final Item child : children) {
+                if (position != startPosition) {
+                    bytes++;
+                }
+                final String json = child.getRawObject().toString();
+                bytes += getUtf8Length(json);
+                int column = 1;
+                insert.clearBindings();
+                insert.bindString(column++, child.id);
+                insert.bindString(column++, parentId);
+                insert.bindLong(column++, position);
+                bindNullable(insert, column++, child.eTag);
+                bindNullable(insert, column++, child.cTag);
+                insert.bindString(column, json);
+                insert.executeInsert();
+                position++;
+            }
+        } finally {
+            insert.close();
+        }
+        return bytes;
+    }
+
+    /**
+     * Counts the bytes of a string encoded as utf-8, without encoding it
+     * @param value The string
+     * @return The size in bytes
+     */
+    private static long getUtf8Length(final String value) {
+        long bytes = 0;
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            if (c <= UTF8_ONE_BYTE_MAX) {
+                bytes++;
+            } else if (c <= UTF8_TWO_BYTE_MAX) {
+                bytes += 2;
+            } else if (Character.isSurrogate(c)) {
+                // A surrogate pair takes four bytes, two for each half
+                bytes += 2;
+            } else {
+                bytes += UTF8_THREE_BYTES;
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * Removes every stored item, for when the account they belong to signs out
+     */
+    void clear() {
+        final SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            db.delete(TABLE_ITEMS, null, null);
+            db.delete(TABLE_ALIASES, null, null);
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Binds a string that may be null
+     * @param statement The statement
+     * @param index The 1-based parameter index
+     * @param value The value
+     */
+    private static void bindNullable(final SQLiteStatement statement, final int index, final String value) {
+        if (value == null) {
+            statement.bindNull(index);
+        } else {
+            statement.bindString(index, value);
+        }
+    }
+
+    /**
+     * Copies an item's json without its expanded children, keeping the link to the next page of children
+     * @param raw The raw json of the item
+     * @return The copy
+     */
+    private static JsonObject copyWithoutChildren(final JsonObject raw) {
+        final JsonObject copy = new JsonObject();
+        for (final Map.Entry<String, JsonElement> entry : raw.entrySet()) {
+            if (!CHILDREN.equals(entry.getKey())) {
+                copy.add(entry.getKey(), entry.getValue());
+            }
+        }
+        return copy;
+    }
+
+    /**
+     * Gets the item id for a request id
+     * @param db The database
+     * @param requestId The id the item was requested with
+     * @return The item id
+     */
+    private static String resolveAlias(final SQLiteDatabase db, final String requestId) {
+        final Cursor cursor = db.query(TABLE_ALIASES,
+                                       new String[] {COLUMN_ID},
+                                       COLUMN_ALIAS + " = ?",
+                                       new String[] {requestId},
+                                       null,
+                                       null,
+                                       null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+            return requestId;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Gets the json for a single item
+     * @param db The database
+     * @param itemId The item id
+     * @return The json, or null if the item has not been stored
+     */
+    private static String getJson(final SQLiteDatabase db, final String itemId) {
+        final Cursor cursor = db.query(TABLE_ITEMS,
+                                       new String[] {COLUMN_JSON},
+                                       COLUMN_ID + " = ?",
+                                       new String[] {itemId},
+                                       null,
+                                       null,
+                                       null);
+        try {
+            if (cursor.moveToFirst()) {
+                return cursor.getString(0);
+            }
+            return null;
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,1047 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.TimeZone;
+
+/**
+ * The metadata of every item seen so far, held column by column in primitive arrays so a whole drive fits in memory.
+ * Each item is a row number. Strings live in pools, and the children of each folder are a contiguous block of one
+ * shared array so the child at any position is found without a search.
+ *
+ * Rows are never reused, an item that is deleted is detached from its folder and keeps its row. The tree is not
+ * thread safe and must only be used on the ui thread, like the adapter that binds from it. Work on other threads
+ * reads a {@link Snapshot} instead
+ */
+final class ItemTree {
+
+    /**
+     * Returned for an item that is not in the tree, and the parent of an item that is in no folder
+     */
+    static final int NO_ROW = -1;
+
+    /**
+     * The folder facet bit
+     */
+    private static final int FACET_FOLDER = 1;
+
+    /**
+     * The file facet bit
+     */
+    private static final int FACET_FILE = FACET_FOLDER << 1;
+
+    /**
+     * The names of the facets, in bit order
+     */
+    private static final String[] FACET_NAMES = {
+        "Folder", "File", "Audio", "Image", "Photo", "SpecialFolder", "Video"
+    };
+
+    /**
+     * The json properties of the facets, in bit order
+     */
+    private static final String[] FACET_PROPERTIES = {
+        "folder", "file", "audio", "image", "photo", "specialFolder", "video"
+    };
+
+    /**
+     * Every facet bit
+     */
+    private static final int FACET_MASK = (1 << FACET_NAMES.length) - 1;
+
+    /**
+     * Set for an item with a thumbnail
+     */
+    private static final int FLAG_THUMBNAIL = 1 << FACET_NAMES.length;
+
+    /**
+     * The bits of a flags byte
+     */
+    private static final int BYTE_MASK = 0xff;
+
+    /**
+     * The label of every combination of facets, built the first time each combination is seen
+     */
+    private static final String[] FACET_LABELS = new String[FACET_MASK + 1];
+
+    /**
+     * The number of rows and child slots to make room for at first
+     */
+    private static final int INITIAL_CAPACITY = 64;
+
+    /**
+     * The number of int columns
+     */
+    private static final int INT_COLUMN_COUNT = 6;
+
+    /**
+     * The number of long columns
+     */
+    private static final int LONG_COLUMN_COUNT = 2;
+
+    /**
+     * The format of item timestamps, fractions of a second and the zone suffix are ignored
+     */
+    private static final String TIMESTAMP_FORMAT = "yyyy-MM-dd'T'HH:mm:ss";
+
+    /**
+     * The item ids, the entry of each id is its row number
+     */
+    private final StringPool mIds = new StringPool(true);
+
+    /**
+     * The item names, shared between items with the same name
+     */
+    private final StringPool mNames = new StringPool(true);
+
+    /**
+     * The versions of the items that thumbnails are cached against
+     */
+    private final StringPool mTags = new StringPool(false);
+
+    /**
+     * The mime types of files, shared between files of the same type
+     */
+    private final StringPool mMimeTypes = new StringPool(true);
+
+    /**
+     * Told about every change to the items
+     */
+    private final List<Observer> mObservers = new ArrayList<>();
+
+    /**
+     * Parses item timestamps
+     */
+    private final SimpleDateFormat mTimestampFormat = new SimpleDateFormat(TIMESTAMP_FORMAT, Locale.ROOT);
+
+    /**
+     * The row of the folder each item is listed in, or {@link #NO_ROW}
+     */
+    private int[] mParents = new int[INITIAL_CAPACITY];
+
+    /**
+     * The name pool entry of each item, or {@link StringPool#NO_ENTRY} until the item itself has been seen
+     */
+    private int[] mNameEntries = new int[INITIAL_CAPACITY];
+
+    /**
+     * The tag pool entry of each item, or {@link StringPool#NO_ENTRY}
+     */
+    private int[] mTagEntries = new int[INITIAL_CAPACITY];
+
+    /**
+     * The mime type pool entry of each item, or {@link StringPool#NO_ENTRY}
+     */
+    private int[] mMimeTypeEntries = new int[INITIAL_CAPACITY];
+
+    /**
+     * The size of each item in bytes
+     */
+    private long[] mSizes = new long[INITIAL_CAPACITY];
+
+    /**
+     * The last modification time of each item in milliseconds since the epoch, or zero if unknown
+     */
+    private long[] mModifiedTimes = new long[INITIAL_CAPACITY];
+
+    /**
+     * The facet bits of each item, with {@link #FLAG_THUMBNAIL}
+     */
+    private byte[] mFlags = new byte[INITIAL_CAPACITY];
+
+    /**
+     * Where the block of children of each item starts in {@link #mChildren}
+     */
+    private int[] mChildStarts = new int[INITIAL_CAPACITY];
+
+    /**
+     * The number of children of each item
+     */
+    private int[] mChildCounts = new int[INITIAL_CAPACITY];
+
+    /**
+     * The rows of the children of every folder, a block per folder
+     */
+    private int[] mChildren = new int[INITIAL_CAPACITY];
+
+    /**
+     * The end of the last block in {@link #mChildren}
+     */
+    private int mChildrenEnd;
+
+    /**
+     * The slots before {@link #mChildrenEnd} no block uses any more
+     */
+    private int mUnusedChildSlots;
+
+    /**
+     * Counts the changes to the items
+     */
+    private long mModificationCount;
+
+    /**
+     * The number of batches of changes that have begun and not yet ended
+     */
+    private int mBatchDepth;
+
+    /**
+     * Default constructor
+     */
+    ItemTree() {
+        mTimestampFormat.setTimeZone(TimeZone.getTimeZone("UTC"));
+    }
+
+    /**
+     * Adds an item from its json, or updates it, and lists it last in its folder if it was not listed there
+     * @param json The raw json of the item
+     * @return The row of the item, or {@link #NO_ROW} if the json has no id
+     */
+    int put(final JsonObject json) {
+        final String id = getString(json, "id");
+        if (id == null) {
+            return NO_ROW;
+        }
+        final int row = getOrAddRow(id);
+        beginChange(row);
+
+        int flags = 0;
+        for (int i = 0; i < FACET_PROPERTIES.length; i++) {
+            if (json.has(FACET_PROPERTIES[i])) {
+                flags |= 1 << i;
+            }
+        }
+        if (hasThumbnail(json)) {
+            flags |= FLAG_THUMBNAIL;
+        }
+        mFlags[row] = (byte) flags;
+
+        final JsonElement size = json.get("size");
+        if (size != null && !size.isJsonNull()) {
+            mSizes[row] = size.getAsLong();
+        }
+        final String modified = getString(json, "lastModifiedDateTime");
+        if (modified != null) {
+            mModifiedTimes[row] = parseTimestamp(modified);
+        }
+        String tag = getString(json, "cTag");
+        if (tag == null) {
+            tag = getString(json, "eTag");
+        }
+        setTag(row, tag);
+        setName(row, getString(json, "name"));
+        String mimeType = null;
+        final JsonElement file = json.get("file");
+        if (file != null && file.isJsonObject()) {
+            mimeType = getString(file.getAsJsonObject(), "mimeType");
+        }
+        setMimeType(row, mimeType);
+
+        String parentId = null;
+        final JsonElement parentReference = json.get("parentReference");
+        if (parentReference != null && parentReference.isJsonObject()) {
+            parentId = getString(parentReference.getAsJsonObject(), "id");
+        }
+        attach(row, parentId);
+        endChange(row);
+        return row;
+    }
+
+    /**
+     * Adds an item from the local delta index, or updates it. Records carry no facets beyond folder or file, no
+     * thumbnails and no cTag, so those of an item already in the tree are kept. Replacing a listing's cTag with the
+     * record's eTag would change the thumbnail cache key on every sync and throw away the cached thumbnail
+     * @param record The item
+     * @return The row of the item
+     */
+    int put(final ItemRecord record) {
+        final int row = getOrAddRow(record.getId());
+        beginChange(row);
+        int flags = (mFlags[row] & BYTE_MASK) & ~(FACET_FOLDER | FACET_FILE);
+        if (record.isFolder()) {
+            flags |= FACET_FOLDER;
+        } else {
+            flags |= FACET_FILE;
+        }
+        mFlags[row] = (byte) flags;
+        mSizes[row] = record.getSize();
+        if (mTagEntries[row] == StringPool.NO_ENTRY) {
+            setTag(row, record.getETag());
+        }
+        setName(row, record.getName());
+        setMimeType(row, record.getMimeType());
+        attach(row, record.getParentId());
+        endChange(row);
+        return row;
+    }
+
+    /**
+     * Detaches a deleted item from its folder, the item and everything below it keep their rows
+     * @param id The item id
+     */
+    void remove(final String id) {
+        final int row = getRow(id);
+        if (row != NO_ROW) {
+            beginChange(row);
+            detach(row);
+            endChange(row);
+        }
+    }
+
+    /**
+     * Detaches every child of a folder, before it is listed again
+     * @param row The folder row
+     */
+    void clearChildren(final int row) {
+        final int start = mChildStarts[row];
+        final int count = mChildCounts[row];
+        beginBatch();
+        for (int i = start; i < start + count; i++) {
+            beginChange(mChildren[i]);
+        }
+        for (int i = start; i < start + count; i++) {
+            mParents[mChildren[i]] = NO_ROW;
+        }
+        releaseChildSlots(start, count);
+        mChildCounts[row] = 0;
+        // Released slots keep their rows until the next child is added
+        for (int i = start; i < start + count; i++) {
+            endChange(mChildren[i]);
+        }
+        endBatch();
+    }
+
+    /**
+     * Starts a batch of changes, observers are still told of each change but are also told when the outermost
+     * batch ends, so views can refresh once for the whole batch. Batches nest
+     */
+    void beginBatch() {
+        mBatchDepth++;
+    }
+
+    /**
+     * Ends a batch of changes started by {@link #beginBatch()}
+     */
+    void endBatch() {
+        mBatchDepth--;
+        if (mBatchDepth == 0) {
+            for (int i = 0; i < mObservers.size(); i++) {
+                mObservers.get(i).onBatchEnded();
+            }
+        }
+    }
+
+    /**
+     * If a batch of changes is under way
+     * @return If a batch has begun and not yet ended
+     */
+    boolean isInBatch() {
+        return mBatchDepth != 0;
+    }
+
+    /**
+     * Looks up the row of an item
+     * @param id The item id
+     * @return The row, or {@link #NO_ROW} if the item is not in the tree
+     */
+    int getRow(final String id) {
+        return mIds.find(id);
+    }
+
+    /**
+     * The number of rows, every row number is below this
+     * @return The row count
+     */
+    int size() {
+        return mIds.size();
+    }
+
+    /**
+     * The number of children listed in a folder
+     * @param row The folder row
+     * @return The child count
+     */
+    int getChildCount(final int row) {
+        return mChildCounts[row];
+    }
+
+    /**
+     * The child at a position of a folder, in the order they were listed
+     * @param row The folder row
+     * @param position The position of the child
+     * @return The row of the child
+     */
+    int getChild(final int row, final int position) {
+        return mChildren[mChildStarts[row] + position];
+    }
+
+    /**
+     * The folder an item is listed in
+     * @param row The item row
+     * @return The folder row, or {@link #NO_ROW}
+     */
+    int getParent(final int row) {
+        return mParents[row];
+    }
+
+    /**
+     * The id of an item
+     * @param row The item row
+     * @return The item id
+     */
+    String getId(final int row) {
+        return mIds.get(row);
+    }
+
+    /**
+     * The name of an item
+     * @param row The item row
+     * @return The name, or an empty string for a folder known only as the parent of other items
+     */
+    String getName(final int row) {
+        if (mNameEntries[row] == StringPool.NO_ENTRY) {
+            return "";
+        }
+        return mNames.get(mNameEntries[row]);
+    }
+
+    /**
+     * The number of characters in the name of an item
+     * @param row The item row
+     * @return The name length
+     */
+    int getNameLength(final int row) {
+        if (mNameEntries[row] == StringPool.NO_ENTRY) {
+            return 0;
+        }
+        return mNames.getLength(mNameEntries[row]);
+    }
+
+    /**
+     * Copies the name of an item without creating a string
+     * @param row The item row
+     * @param destination Receives the name from its start, it must hold at least {@link #getNameLength(int)}
+     * @return The name length
+     */
+    int getNameChars(final int row, final char[] destination) {
+        if (mNameEntries[row] == StringPool.NO_ENTRY) {
+            return 0;
+        }
+        return mNames.getChars(mNameEntries[row], destination);
+    }
+
+    /**
+     * The version of an item that thumbnails are cached against
+     * @param row The item row
+     * @return The cTag of the item, or the eTag if there is no cTag, or an empty string if there is neither
+     */
+    String getThumbnailTag(final int row) {
+        if (mTagEntries[row] == StringPool.NO_ENTRY) {
+            return "";
+        }
+        return mTags.get(mTagEntries[row]);
+    }
+
+    /**
+     * If an item has a thumbnail
+     * @param row The item row
+     * @return If the item has a thumbnail
+     */
+    boolean hasThumbnail(final int row) {
+        return (mFlags[row] & FLAG_THUMBNAIL) != 0;
+    }
+
+    /**
+     * The facets of an item as bits
+     * @param row The item row
+     * @return The facet bits
+     */
+    int getFacets(final int row) {
+        return mFlags[row] & FACET_MASK;
+    }
+
+    /**
+     * If an item is a folder
+     * @param row The item row
+     * @return If the item is a folder
+     */
+    boolean isFolder(final int row) {
+        return (mFlags[row] & FACET_FOLDER) != 0;
+    }
+
+    /**
+     * The mime type of a file
+     * @param row The item row
+     * @return The mime type, or null if unknown or a folder
+     */
+    String getMimeType(final int row) {
+        if (mMimeTypeEntries[row] == StringPool.NO_ENTRY) {
+            return null;
+        }
+        return mMimeTypes.get(mMimeTypeEntries[row]);
+    }
+
+    /**
+     * The size of an item
+     * @param row The item row
+     * @return The size in bytes
+     */
+    long getSize(final int row) {
+        return mSizes[row];
+    }
+
+    /**
+     * The last modification time of an item
+     * @param row The item row
+     * @return The time in milliseconds since the epoch, or zero if unknown
+     */
+    long getModifiedTime(final int row) {
+        return mModifiedTimes[row];
+    }
+
+    /**
+     * The memory taken by the arrays of the tree
+     * @return The size in bytes
+     */
+    long getByteCount() {
+        final long rowBits = Integer.SIZE * INT_COLUMN_COUNT + Long.SIZE * LONG_COLUMN_COUNT + Byte.SIZE;
+        return mParents.length * rowBits / Byte.SIZE
+               + (long) mChildren.length * Integer.SIZE / Byte.SIZE
+               + mIds.getByteCount()
+               + mNames.getByteCount()
+               + mTags.getByteCount()
+               + mMimeTypes.getByteCount();
+    }
+
+    /**
+     * The number of changes made to the items so far
+     * @return The modification count
+     */
+    long getModificationCount() {
+        return mModificationCount;
+    }
+
+    /**
+     * Starts telling an observer about every change
+     * @param observer The observer
+     */
+    void addObserver(final Observer observer) {
+        mObservers.add(observer);
+    }
+
+    /**
+     * Stops telling an observer about changes
+     * @param observer The observer
+     */
+    void removeObserver(final Observer observer) {
+        mObservers.remove(observer);
+    }
+
+    /**
+     * Copies what work on other threads reads, the folder structure, sizes, facets and mime types
+     * @return The copy
+     */
+    Snapshot snapshot() {
+        return new Snapshot(this);
+    }
+
+    /**
+     * Removes every item
+     */
+    void clear() {
+        mIds.clear();
+        mNames.clear();
+        mTags.clear();
+        mMimeTypes.clear();
+        mParents = new int[INITIAL_CAPACITY];
+        mNameEntries = new int[INITIAL_CAPACITY];
+        mTagEntries = new int[INITIAL_CAPACITY];
+        mMimeTypeEntries = new int[INITIAL_CAPACITY];
+        mSizes = new long[INITIAL_CAPACITY];
+        mModifiedTimes = new long[INITIAL_CAPACITY];
+        mFlags = new byte[INITIAL_CAPACITY];
+        mChildStarts = new int[INITIAL_CAPACITY];
+        mChildCounts = new int[INITIAL_CAPACITY];
+        mChildren = new int[INITIAL_CAPACITY];
+        mChildrenEnd = 0;
+        mUnusedChildSlots = 0;
+        mModificationCount++;
+        for (int i = 0; i < mObservers.size(); i++) {
+            mObservers.get(i).onCleared();
+        }
+    }
+
+    /**
+     * Joins the names of a combination of facets
+     * @param facets The facet bits
+     * @return The label, shared by every item with the same facets
+     */
+    static String getFacetLabel(final int facets) {
+        String label = FACET_LABELS[facets];
+        if (label == null) {
+            final String joiner = ", ";
+            final StringBuilder sb = new StringBuilder();
+            for (int i = 0; i < FACET_NAMES.length; i++) {
+                if ((facets & (1 << i)) == 0) {
+                    continue;
+                }
+                if (sb.length() != 0) {
+                    sb.append(joiner);
+                }
+                sb.append(FACET_NAMES[i]);
+            }
+            label = sb.toString();
+            FACET_LABELS[facets] = label;
+        }
+        return label;
+    }
+
+    /**
+     * Finds the row of an item, adding an empty row if the item is new
+     * @param id The item id
+     * @return The row
+     */
+    private int getOrAddRow(final String id) {
+        final int existing = mIds.find(id);
+        if (existing != StringPool.NO_ENTRY) {
+            return existing;
+        }
+
+        final int row = mIds.add(id);
+        if (row == mParents.length) {
+            final int capacity = row * 2;
+            mParents = Arrays.copyOf(mParents, capacity);
+            mNameEntries = Arrays.copyOf(mNameEntries, capacity);
+            mTagEntries = Arrays.copyOf(mTagEntries, capacity);
+            mMimeTypeEntries = Arrays.copyOf(mMimeTypeEntries, capacity);
+            mSizes = Arrays.copyOf(mSizes, capacity);
+            mModifiedTimes = Arrays.copyOf(mModifiedTimes, capacity);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+            mChildStarts = Arrays.copyOf(mChildStarts, capacity);
+            mChildCounts = Arrays.copyOf(mChildCounts, capacity);
+        }
+        mParents[row] = NO_ROW;
+        mNameEntries[row] = StringPool.NO_ENTRY;
+        mTagEntries[row] = StringPool.NO_ENTRY;
+        mMimeTypeEntries[row] = StringPool.NO_ENTRY;
+        return row;
+    }
+
+    /**
+     * Sets the name of an item
+     * @param row The item row
+     * @param name The name, or null to leave it alone
+     */
+    private void setName(final int row, final String name) {
+        if (name != null) {
+            mNameEntries[row] = mNames.add(name);
+        }
+    }
+
+    /**
+     * Sets the mime type of an item
+     * @param row The item row
+     * @param mimeType The mime type, or null for none
+     */
+    private void setMimeType(final int row, final String mimeType) {
+        if (mimeType == null) {
+            mMimeTypeEntries[row] = StringPool.NO_ENTRY;
+        } else {
+            mMimeTypeEntries[row] = mMimeTypes.add(mimeType);
+        }
+    }
+
+    /**
+     * Tells the observers an item is about to change, while it is still where it was
+     * @param row The item row
+     */
+    private void beginChange(final int row) {
+        mModificationCount++;
+        for (int i = 0; i < mObservers.size(); i++) {
+            mObservers.get(i).onItemChanging(row);
+        }
+    }
+
+    /**
+     * Tells the observers an item has changed
+     * @param row The item row
+     */
+    private void endChange(final int row) {
+        for (int i = 0; i < mObservers.size(); i++) {
+            mObservers.get(i).onItemChanged(row);
+        }
+    }
+
+    /**
+     * Sets the version of an item, only adding to the pool when the version changes
+     * @param row The item row
+     * @param tag The version, or null to leave it alone
+     */
+    private void setTag(final int row, final String tag) {
+        if (tag == null) {
+            return;
+        }
+        final int entry = mTagEntries[row];
+        if (entry == StringPool.NO_ENTRY || !mTags.matches(entry, tag)) {
+            mTagEntries[row] = mTags.add(tag);
+        }
+    }
+
+    /**
+     * Lists an item in a folder, last if it was not already listed there
+     * @param row The item row
+     * @param parentId The folder id, or null for none
+     */
+    private void attach(final int row, final String parentId) {
+        int parent = NO_ROW;
+        if (parentId != null) {
+            parent = getOrAddRow(parentId);
+        }
+        if (mParents[row] == parent) {
+            return;
+        }
+        detach(row);
+        if (parent == NO_ROW) {
+            return;
+        }
+
+        if (mUnusedChildSlots > mChildrenEnd / 2 && mUnusedChildSlots > INITIAL_CAPACITY) {
+            compactChildren();
+        }
+        final int count = mChildCounts[parent];
+        int start = mChildStarts[parent];
+        if (count == 0 || start + count != mChildrenEnd) {
+            // The block cannot grow where it is, move it to the end
+            ensureChildCapacity(count + 1);
+            System.arraycopy(mChildren, start, mChildren, mChildrenEnd, count);
+            mUnusedChildSlots += count;
+            start = mChildrenEnd;
+            mChildStarts[parent] = start;
+            mChildrenEnd += count;
+        } else {
+            ensureChildCapacity(1);
+        }
+        mChildren[mChildrenEnd++] = row;
+        mChildCounts[parent] = count + 1;
+        mParents[row] = parent;
+    }
+
+    /**
+     * Removes an item from the block of its folder, this searches the block
+     * @param row The item row
+     */
+    private void detach(final int row) {
+        final int parent = mParents[row];
+        if (parent == NO_ROW) {
+            return;
+        }
+        final int start = mChildStarts[parent];
+        final int count = mChildCounts[parent];
+        for (int i = start; i < start + count; i++) {
+            if (mChildren[i] == row) {
+                System.arraycopy(mChildren, i + 1, mChildren, i, start + count - i - 1);
+                break;
+            }
+        }
+        releaseChildSlots(start + count - 1, 1);
+        mChildCounts[parent] = count - 1;
+        mParents[row] = NO_ROW;
+    }
+
+    /**
+     * Gives back the slots at the end of a block
+     * @param start The first slot
+     * @param count The number of slots
+     */
+    private void releaseChildSlots(final int start, final int count) {
+        if (start + count == mChildrenEnd) {
+            mChildrenEnd = start;
+        } else {
+            mUnusedChildSlots += count;
+        }
+    }
+
+    /**
+     * Makes room for more slots after {@link #mChildrenEnd}
+     * @param count The number of slots needed
+     */
+    private void ensureChildCapacity(final int count) {
+        if (mChildrenEnd + count > mChildren.length) {
+            mChildren = Arrays.copyOf(mChildren, Math.max(mChildren.length * 2, mChildrenEnd + count));
+        }
+    }
+
+    /**
+     * Moves every block to the front of a new array, leaving out the slots no block uses
+     */
+    private void compactChildren() {
+        final int used = mChildrenEnd - mUnusedChildSlots;
+        final int[] children = new int[Math.max(INITIAL_CAPACITY, used * 2)];
+        int end = 0;
+        for (int row = 0; row < size(); row++) {
+            final int count = mChildCounts[row];
+            if (count != 0) {
+                System.arraycopy(mChildren, mChildStarts[row], children, end, count);
+                mChildStarts[row] = end;
+                end += count;
+            }
+        }
+        mChildren = children;
+        mChildrenEnd = end;
+        mUnusedChildSlots = 0;
+    }
+
+    /**
+     * Parses an item timestamp
+     * @param timestamp The timestamp, like 2015-11-13T10:16:43.123Z
+     * @return The time in milliseconds since the epoch, or zero if the timestamp cannot be parsed
+     */
+    private long parseTimestamp(final String timestamp) {
+        final Date date = mTimestampFormat.parse(timestamp, new ParsePosition(0));
+        if (date == null) {
+            return 0;
+        }
+        return date.getTime();
+    }
+
+    /**
+     * If the json of an item has a small thumbnail
+     * @param json The item json
+     * @return If there is a thumbnail url
+     */
+    private static boolean hasThumbnail(final JsonObject json) {
+        final JsonElement thumbnails = json.get("thumbnails");
+        if (thumbnails == null || !thumbnails.isJsonArray()) {
+            return false;
+        }
+        final JsonArray sets = thumbnails.getAsJsonArray();
+        if (sets.size() == 0 || !sets.get(0).isJsonObject()) {
+            return false;
+        }
+        final JsonElement small = sets.get(0).getAsJsonObject().get("small");
+        return small != null && small.isJsonObject() && getString(small.getAsJsonObject(), "url") != null;
+    }
+
+    /**
+     * Reads a string property
+     * @param json The object
+     * @param name The property name
+     * @return The value, or null if it is missing or null
+     */
+    private static String getString(final JsonObject json, final String name) {
+        final JsonElement element = json.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        return element.getAsString();
+    }
+
+    /**
+     * Told about every change to the items, on the ui thread
+     */
+    interface Observer {
+
+        /**
+         * An item is about to change or move, it is still where it was
+         * @param row The item row
+         */
+        void onItemChanging(int row);
+
+        /**
+         * An item has changed or moved
+         * @param row The item row
+         */
+        void onItemChanged(int row);
+
+        /**
+         * Every item was removed
+         */
+        void onCleared();
+
+        /**
+         * The outermost batch of changes has ended
+         */
+        void onBatchEnded();
+    }
+
+    /**
+     * A copy of the folder structure, sizes, facets and mime types of the tree, which any thread may read
+     */
+    static final class Snapshot {
+
+        /**
+         * The modification count of the tree when it was copied
+         */
+        private final long mModificationCount;
+
+        /**
+         * The folder each item is listed in
+         */
+        private final int[] mParents;
+
+        /**
+         * Where the block of children of each item starts
+         */
+        private final int[] mChildStarts;
+
+        /**
+         * The number of children of each item
+         */
+        private final int[] mChildCounts;
+
+        /**
+         * The rows of the children of every folder
+         */
+        private final int[] mChildren;
+
+        /**
+         * The size of each item
+         */
+        private final long[] mSizes;
+
+        /**
+         * The facet bits of each item
+         */
+        private final byte[] mFlags;
+
+        /**
+         * The mime type entry of each item
+         */
+        private final int[] mMimeTypeEntries;
+
+        /**
+         * The mime types, by entry
+         */
+        private final String[] mMimeTypes;
+
+        /**
+         * Copies a tree
+         * @param tree The tree
+         */
+        private Snapshot(final ItemTree tree) {
+            final int size = tree.size();
+            mModificationCount = tree.mModificationCount;
+            mParents = Arrays.copyOf(tree.mParents, size);
+            mChildStarts = Arrays.copyOf(tree.mChildStarts, size);
+            mChildCounts = Arrays.copyOf(tree.mChildCounts, size);
+            mChildren = Arrays.copyOf(tree.mChildren, tree.mChildrenEnd);
+            mSizes = Arrays.copyOf(tree.mSizes, size);
+            mFlags = Arrays.copyOf(tree.mFlags, size);
+            mMimeTypeEntries = Arrays.copyOf(tree.mMimeTypeEntries, size);
+            mMimeTypes = new String[tree.mMimeTypes.size()];
+            for (int i = 0; i < mMimeTypes.length; i++) {
+                mMimeTypes[i] = tree.mMimeTypes.get(i);
+            }
+        }
+
+        /**
+         * The modification count of the tree when it was copied
+         * @return The modification count
+         */
+        long getModificationCount() {
+            return mModificationCount;
+        }
+
+        /**
+         * The number of rows
+         * @return The row count
+         */
+        int size() {
+            return mSizes.length;
+        }
+
+        /**
+         * The folder an item is listed in
+         * @param row The item row
+         * @return The folder row, or {@link #NO_ROW}
+         */
+        int getParent(final int row) {
+            return mParents[row];
+        }
+
+        /**
+         * The number of children listed in a folder
+         * @param row The folder row
+         * @return The child count
+         */
+        int getChildCount(final int row) {
+            return mChildCounts[row];
+        }
+
+        /**
+         * The child at a position of a folder
+         * @param row The folder row
+         * @param position The position of the child
+         * @return The row of the child
+         */
+        int getChild(final int row, final int position) {
+            return mChildren[mChildStarts[row] + position];
+        }
+
+        /**
+         * If an item is a folder
+         * @param row The item row
+         * @return If the item is a folder
+         */
+        boolean isFolder(final int row) {
+            return (mFlags[row] & FACET_FOLDER) != 0;
+        }
+
+        /**
+         * The size of an item
+         * @param row The item row
+         * @return The size in bytes
+         */
+        long getSize(final int row) {
+            return mSizes[row];
+        }
+
+        /**
+         * The mime type of a file as an entry of {@link #getMimeTypes()}, so work per mime type can be done once
+         * @param row The item row
+         * @return The mime type entry, or {@link StringPool#NO_ENTRY} if unknown or a folder
+         */
+        int getMimeTypeEntry(final int row) {
+            return mMimeTypeEntries[row];
+        }
+
+        /**
+         * Every mime type, by entry
+         * @return The mime types
+         */
+        String[] getMimeTypes() {
+            return mMimeTypes.clone();
+        }
+    }
+}
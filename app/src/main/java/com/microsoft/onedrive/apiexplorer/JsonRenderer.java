@@ -0,0 +1,128 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pretty prints json straight from the parsed tree into lines of text, so a large response can be shown in a list
+ * one line per row without ever building the whole document as a single string
+ */
+final class JsonRenderer {
+
+    /**
+     * The indent of each nesting level
+     */
+    private static final String INDENT = "   ";
+
+    /**
+     * Writes the tree as it was received, keeping nulls and leaving html characters alone
+     */
+    private static final Gson GSON = new GsonBuilder().serializeNulls().disableHtmlEscaping().create();
+
+    /**
+     * Default constructor
+     */
+    private JsonRenderer() {
+    }
+
+    /**
+     * Pretty prints json into lines, this is safe to call on any thread
+     * @param element The json
+     * @return The lines of the pretty printed json
+     */
+    static List<String> render(final JsonElement element) {
+        final LineWriter lines = new LineWriter();
+        final JsonWriter writer = new JsonWriter(lines);
+        writer.setIndent(INDENT);
+        GSON.toJson(element, writer);
+        lines.close();
+        return lines.mLines;
+    }
+
+    /**
+     * Splits written text into lines
+     */
+    private static final class LineWriter extends Writer {
+
+        /**
+         * The completed lines
+         */
+        private final List<String> mLines = new ArrayList<>();
+
+        /**
+         * The line being written
+         */
+        private final StringBuilder mLine = new StringBuilder();
+
+        @Override
+        public void write(final char[] buffer, final int offset, final int count) {
+            final int end = offset + count;
+            int lineStart = offset;
+            for (int i = offset; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    mLine.append(buffer, lineStart, i - lineStart);
+                    mLines.add(mLine.toString());
+                    mLine.setLength(0);
+                    lineStart = i + 1;
+                }
+            }
+            mLine.append(buffer, lineStart, end - lineStart);
+        }
+
+        @Override
+        public void write(final String text, final int offset, final int count) {
+            final int end = offset + count;
+            int lineStart = offset;
+            for (int i = offset; i < end; i++) {
+                if (text.charAt(i) == '\n') {
+                    mLine.append(text, lineStart, i);
+                    mLines.add(mLine.toString());
+                    mLine.setLength(0);
+                    lineStart = i + 1;
+                }
+            }
+            mLine.append(text, lineStart, end);
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+            if (mLine.length() != 0) {
+                mLines.add(mLine.toString());
+                mLine.setLength(0);
+            }
+        }
+    }
+}
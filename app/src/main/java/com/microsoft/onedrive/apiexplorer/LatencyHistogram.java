@@ -0,0 +1,182 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock free latency histogram with log-linear buckets, in the style of HdrHistogram. Every power of two range is
+ * split into the same number of linear sub-buckets, so any recorded value is reported within about 3% of its true
+ * value while the whole histogram stays a fixed, small array
+ */
+class LatencyHistogram {
+
+    /**
+     * The number of bits of precision kept for each value
+     */
+    private static final int SUB_BUCKET_BITS = 6;
+
+    /**
+     * The number of values below which every value has its own bucket
+     */
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    /**
+     * The number of buckets each further power of two is split into
+     */
+    private static final int HALF_SUB_BUCKET_COUNT = SUB_BUCKET_COUNT / 2;
+
+    /**
+     * The number of bits needed for the largest value that can be recorded, about 19 hours in microseconds
+     */
+    private static final int MAX_VALUE_BITS = 36;
+
+    /**
+     * The largest value that can be recorded, larger values are clamped to it
+     */
+    private static final long MAX_VALUE = (1L << MAX_VALUE_BITS) - 1;
+
+    /**
+     * The number of buckets needed to cover every value up to the maximum
+     */
+    private static final int BUCKET_COUNT = bucketIndex(MAX_VALUE) + 1;
+
+    /**
+     * The percentile of the whole distribution
+     */
+    private static final double ALL = 100;
+
+    /**
+     * The number of values in each bucket
+     */
+    private final AtomicLongArray mCounts = new AtomicLongArray(BUCKET_COUNT);
+
+    /**
+     * The number of values recorded
+     */
+    private final AtomicLong mTotalCount = new AtomicLong();
+
+    /**
+     * The sum of the values recorded
+     */
+    private final AtomicLong mTotal = new AtomicLong();
+
+    /**
+     * The largest value recorded
+     */
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Records a value
+     * @param value The value, negative values are recorded as zero
+     */
+    void record(final long value) {
+        final long clamped = Math.max(0, Math.min(MAX_VALUE, value));
+        mCounts.incrementAndGet(bucketIndex(clamped));
+        mTotalCount.incrementAndGet();
+        mTotal.addAndGet(clamped);
+        long max = mMax.get();
+        while (clamped > max && !mMax.compareAndSet(max, clamped)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * The number of values recorded
+     * @return The number of values
+     */
+    long getCount() {
+        return mTotalCount.get();
+    }
+
+    /**
+     * The mean of the values recorded
+     * @return The mean, or zero if nothing was recorded
+     */
+    long getMean() {
+        final long count = mTotalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        return mTotal.get() / count;
+    }
+
+    /**
+     * The largest value recorded
+     * @return The largest value
+     */
+    long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Gets the value below which a percentage of the recorded values fall
+     * @param percentile The percentage, between 0 and 100
+     * @return The highest value of the bucket holding the percentile, or zero if nothing was recorded
+     */
+    long getValueAtPercentile(final double percentile) {
+        final long count = mTotalCount.get();
+        if (count == 0) {
+            return 0;
+        }
+        final long target = Math.max(1, (long) Math.ceil(count * Math.min(percentile, ALL) / ALL));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += mCounts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueInBucket(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Gets the bucket that holds a value
+     * @param value The value, between zero and the maximum
+     * @return The bucket index
+     */
+    private static int bucketIndex(final long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        final int shift = (Long.SIZE - 1 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        return SUB_BUCKET_COUNT + (shift - 1) * HALF_SUB_BUCKET_COUNT
+               + (int) (value >> shift) - HALF_SUB_BUCKET_COUNT;
+    }
+
+    /**
+     * Gets the highest value that falls in a bucket
+     * @param index The bucket index
+     * @return The highest value
+     */
+    private static long highestValueInBucket(final int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        final int shift = (index - SUB_BUCKET_COUNT) / HALF_SUB_BUCKET_COUNT + 1;
+        final long subBucket = (index - SUB_BUCKET_COUNT) % HALF_SUB_BUCKET_COUNT + HALF_SUB_BUCKET_COUNT;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,308 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Collects the latency, transfer size, retries and failures of every request the application makes, grouped by
+ * endpoint. Recording only touches atomic counters so it can sit on the request path
+ */
+class RequestMetrics {
+
+    /**
+     * Stands in for item ids in endpoint names
+     */
+    private static final String ID_PLACEHOLDER = "{id}";
+
+    /**
+     * Stands in for item paths in endpoint names
+     */
+    private static final String PATH_PLACEHOLDER = "{path}";
+
+    /**
+     * The path segment followed by an item id
+     */
+    private static final String ITEMS_SEGMENT = "items";
+
+    /**
+     * The median
+     */
+    private static final double P50 = 50;
+
+    /**
+     * The 90th percentile
+     */
+    private static final double P90 = 90;
+
+    /**
+     * The 99th percentile
+     */
+    private static final double P99 = 99;
+
+    /**
+     * The statistics of each endpoint, by endpoint name
+     */
+    private final ConcurrentMap<String, Endpoint> mEndpoints = new ConcurrentHashMap<>();
+
+    /**
+     * Gets the name an url is grouped under, with ids and paths replaced by placeholders so that requests for
+     * different items share an endpoint
+     * @param method The http method
+     * @param url The request url
+     * @return The endpoint name, e.g. "GET /drive/items/{id}/children"
+     */
+    static String getEndpointName(final String method, final URL url) {
+        final StringBuilder sb = new StringBuilder(method).append(' ');
+        final String[] segments = url.getPath().split("/");
+        boolean afterItems = false;
+        for (final String segment : segments) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            sb.append('/');
+            if (afterItems) {
+                sb.append(ID_PLACEHOLDER);
+            } else if (segment.indexOf(':') >= 0) {
+                sb.append(PATH_PLACEHOLDER);
+            } else {
+                sb.append(segment);
+            }
+            afterItems = ITEMS_SEGMENT.equals(segment);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Records a finished request
+     * @param endpoint The endpoint name
+     * @param elapsedNanos How long the request took
+     * @param bytesOut The size of the request body, zero if unknown
+     * @param bytesIn The size of the response body, zero if unknown
+     * @param error The reason the request failed, or null if it succeeded
+     */
+    void recordRequest(final String endpoint,
+                       final long elapsedNanos,
+                       final long bytesOut,
+                       final long bytesIn,
+                       final String error) {
+        final Endpoint stats = getEndpoint(endpoint);
+        stats.mLatency.record(TimeUnit.NANOSECONDS.toMicros(elapsedNanos));
+        stats.mBytesOut.addAndGet(bytesOut);
+        stats.mBytesIn.addAndGet(bytesIn);
+        if (error != null) {
+            stats.mErrorCount.incrementAndGet();
+            AtomicLong count = stats.mErrors.get(error);
+            if (count == null) {
+                final AtomicLong created = new AtomicLong();
+                count = stats.mErrors.putIfAbsent(error, created);
+                if (count == null) {
+                    count = created;
+                }
+            }
+            count.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records that a request is being retried
+     * @param endpoint The endpoint name
+     */
+    void recordRetry(final String endpoint) {
+        getEndpoint(endpoint).mRetries.incrementAndGet();
+    }
+
+    /**
+     * Records a request the service answered with not modified, so the copy the client already had was used
+     * @param endpoint The endpoint name
+     * @param bytesSaved The size of the response the client's copy came from, less the not modified response
+     */
+    void recordNotModified(final String endpoint, final long bytesSaved) {
+        final Endpoint stats = getEndpoint(endpoint);
+        stats.mNotModified.incrementAndGet();
+        stats.mBytesSaved.addAndGet(bytesSaved);
+    }
+
+    /**
+     * Forgets everything recorded so far
+     */
+    void clear() {
+        mEndpoints.clear();
+    }
+
+    /**
+     * Describes the statistics of every endpoint, one line per endpoint and error
+     * @return The report lines, busiest endpoint first
+     */
+    List<String> getReport() {
+        final List<Map.Entry<String, Endpoint>> endpoints = new ArrayList<>(mEndpoints.entrySet());
+        Collections.sort(endpoints, new Comparator<Map.Entry<String, Endpoint>>() {
+            @Override
+            public int compare(final Map.Entry<String, Endpoint> lhs, final Map.Entry<String, Endpoint> rhs) {
+                return Long.valueOf(rhs.getValue().mLatency.getCount())
+                           .compareTo(lhs.getValue().mLatency.getCount());
+            }
+        });
+
+        final List<String> lines = new ArrayList<>();
+        for (final Map.Entry<String, Endpoint> entry : endpoints) {
+            final Endpoint stats = entry.getValue();
+            final LatencyHistogram latency = stats.mLatency;
+            lines.add(String.format(Locale.ROOT,
+                                    "%s%n  n=%d p50=%s p90=%s p99=%s max=%s mean=%s%n"
+                                    + "  out=%d B in=%d B retries=%d errors=%d",
+                                    entry.getKey(),
+                                    latency.getCount(),
+                                    formatMicros(latency.getValueAtPercentile(P50)),
+                                    formatMicros(latency.getValueAtPercentile(P90)),
+                                    formatMicros(latency.getValueAtPercentile(P99)),
+                                    formatMicros(latency.getMax()),
+                                    formatMicros(latency.getMean()),
+                                    stats.mBytesOut.get(),
+                                    stats.mBytesIn.get(),
+                                    stats.mRetries.get(),
+                                    stats.mErrorCount.get()));
+            if (stats.mNotModified.get() != 0) {
+                lines.add(String.format(Locale.ROOT,
+                                        "  not modified=%d saved=%d B",
+                                        stats.mNotModified.get(),
+                                        stats.mBytesSaved.get()));
+            }
+            for (final Map.Entry<String, AtomicLong> error : stats.mErrors.entrySet()) {
+                lines.add(String.format(Locale.ROOT, "  %s x%d", error.getKey(), error.getValue().get()));
+            }
+        }
+        return lines;
+    }
+
+    /**
+     * Writes the report to a file
+     * @param file The file
+     * @param extraLines Further lines appended after the endpoints
+     * @throws IOException If the file could not be written
+     */
+    void export(final File file, final List<String> extraLines) throws IOException {
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            for (final String line : getReport()) {
+                writer.write(line);
+                writer.write('\n');
+            }
+            for (final String line : extraLines) {
+                writer.write(line);
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Gets the statistics of an endpoint, creating them the first time
+     * @param endpoint The endpoint name
+     * @return The statistics
+     */
+    private Endpoint getEndpoint(final String endpoint) {
+        final Endpoint stats = mEndpoints.get(endpoint);
+        if (stats != null) {
+            return stats;
+        }
+        final Endpoint created = new Endpoint();
+        final Endpoint existing = mEndpoints.putIfAbsent(endpoint, created);
+        if (existing != null) {
+            return existing;
+        }
+        return created;
+    }
+
+    /**
+     * Formats a duration for the report
+     * @param micros The duration in microseconds
+     * @return The duration in milliseconds
+     */
+    static String formatMicros(final long micros) {
+        return String.format(Locale.ROOT, "%.1fms", micros / (double) TimeUnit.MILLISECONDS.toMicros(1));
+    }
+
+    /**
+     * The statistics of one endpoint
+     */
+    private static final class Endpoint {
+
+        /**
+         * The request latencies, in microseconds
+         */
+        private final LatencyHistogram mLatency = new LatencyHistogram();
+
+        /**
+         * The bytes sent
+         */
+        private final AtomicLong mBytesOut = new AtomicLong();
+
+        /**
+         * The bytes received
+         */
+        private final AtomicLong mBytesIn = new AtomicLong();
+
+        /**
+         * The number of retries
+         */
+        private final AtomicLong mRetries = new AtomicLong();
+
+        /**
+         * The number of requests answered with not modified
+         */
+        private final AtomicLong mNotModified = new AtomicLong();
+
+        /**
+         * The bytes not downloaded again because the service answered not modified
+         */
+        private final AtomicLong mBytesSaved = new AtomicLong();
+
+        /**
+         * The number of failed requests
+         */
+        private final AtomicLong mErrorCount = new AtomicLong();
+
+        /**
+         * The number of failures of each kind
+         */
+        private final ConcurrentMap<String, AtomicLong> mErrors = new ConcurrentHashMap<>();
+    }
+}
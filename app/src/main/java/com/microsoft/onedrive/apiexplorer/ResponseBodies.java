@@ -0,0 +1,67 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+
+/**
+ * Methods for reading the bodies of http responses
+ */
+final class ResponseBodies {
+
+    /**
+     * The size of the buffer a response body is read with
+     */
+    private static final int BUFFER_SIZE = 4096;
+
+    /**
+     * Private constructor
+     */
+    private ResponseBodies() {
+    }
+
+    /**
+     * Reads a small utf-8 response body into a string, closing the stream
+     * @param input The response stream
+     * @return The response body
+     * @throws IOException If the body could not be read
+     */
+    static String read(final InputStream input) throws IOException {
+        final Reader reader = new InputStreamReader(input, "UTF-8");
+        try {
+            final StringBuilder sb = new StringBuilder();
+            final char[] buffer = new char[BUFFER_SIZE];
+            int n;
+            while (-1 != (n = reader.read(buffer))) {
+                sb.append(buffer, 0, n);
+            }
+            return sb.toString();
+        } finally {
+            reader.close();
+        }
+    }
+}
@@ -0,0 +1,502 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An on-device index of the names of every item the application has seen, answering prefix queries without a round
+ * trip. Names are split into lower case tokens at every change between letters, digits and anything else, so
+ * "IMG_20150101.jpg" is found by "img", "2015" or "jp". Query words may also be facets: "kind:folder", "kind:file",
+ * "type:image" to match the start of the mime type, or "ext:pdf" to match the extension.
+ *
+ * The tokens are kept in a sorted map, so the items matching a prefix are a contiguous range of it and a query only
+ * looks at the tokens it matches
+ */
+class SearchIndex {
+
+    /**
+     * Separates a facet from its value in a query word
+     */
+    private static final char FACET_SEPARATOR = ':';
+
+    /**
+     * The facet matching folders or files
+     */
+    private static final String KIND_FACET = "kind";
+
+    /**
+     * The value of the kind facet for folders
+     */
+    private static final String KIND_FOLDER = "folder";
+
+    /**
+     * The value of the kind facet for files
+     */
+    private static final String KIND_FILE = "file";
+
+    /**
+     * The facet matching the start of the mime type
+     */
+    private static final String TYPE_FACET = "type";
+
+    /**
+     * The facet matching the extension
+     */
+    private static final String EXTENSION_FACET = "ext";
+
+    /**
+     * Removing more items than this at once sweeps every token rather than searching the tokens of each item
+     */
+    private static final int SWEEP_THRESHOLD = 64;
+
+    /**
+     * The items, by id
+     */
+    private final Map<String, ItemRecord> mItems = new HashMap<>();
+
+    /**
+     * The ids of the items with each token in their name
+     */
+    private final TreeMap<String, Postings> mTokens = new TreeMap<>();
+
+    /**
+     * Adds an item, or updates it if it is already indexed
+     * @param record The item
+     */
+    synchronized void put(final ItemRecord record) {
+        if (record.getId() == null || record.getName() == null) {
+            return;
+        }
+        final ItemRecord previous = mItems.put(record.getId(), record);
+        if (previous != null) {
+            if (previous.getName().equals(record.getName())) {
+                return;
+            }
+            removeTokens(previous);
+        }
+        for (final String token : tokenize(record.getName())) {
+            Postings postings = mTokens.get(token);
+            if (postings == null) {
+                postings = new Postings();
+                mTokens.put(token, postings);
+            }
+            postings.add(record.getId());
+        }
+    }
+
+    /**
+     * Adds or updates a batch of items
+     * @param records The items
+     */
+    synchronized void putAll(final Iterable<ItemRecord> records) {
+        for (final ItemRecord record : records) {
+            put(record);
+        }
+    }
+
+    /**
+     * Removes an item, and every indexed item below it
+     * @param id The item id
+     */
+    synchronized void remove(final String id) {
+        final ItemRecord record = mItems.remove(id);
+        if (record == null) {
+            return;
+        }
+        removeTokens(record);
+        if (!record.isFolder()) {
+            return;
+        }
+
+        final Set<String> folders = new HashSet<>();
+        folders.add(id);
+        final List<ItemRecord> below = new ArrayList<>();
+        final Iterator<ItemRecord> items = mItems.values().iterator();
+        while (items.hasNext()) {
+            final ItemRecord item = items.next();
+            if (isBelow(item, folders)) {
+                items.remove();
+                below.add(item);
+            }
+        }
+
+        if (below.size() <= SWEEP_THRESHOLD) {
+            for (final ItemRecord item : below) {
+                removeTokens(item);
+            }
+            return;
+        }
+        final Set<String> removed = new HashSet<>(below.size() * 2);
+        for (final ItemRecord item : below) {
+            removed.add(item.getId());
+        }
+        final Iterator<Postings> tokens = mTokens.values().iterator();
+        while (tokens.hasNext()) {
+            final Postings postings = tokens.next();
+            postings.removeAll(removed);
+            if (postings.mSize == 0) {
+                tokens.remove();
+            }
+        }
+    }
+
+    /**
+     * Finds the items matching a query
+     * @param query The words to match, every word must match the start of a token of the name or be a facet
+     * @param limit The largest number of items to return
+     * @return The matching items, ordered by the token of their name that matched the most selective query word
+     */
+    synchronized List<ItemRecord> search(final String query, final int limit) {
+        final List<String> words = new ArrayList<>();
+        final List<String[]> facets = new ArrayList<>();
+        for (final String word : query.trim().toLowerCase(Locale.ROOT).split("\\s+")) {
+            final int separator = word.indexOf(FACET_SEPARATOR);
+            if (separator > 0) {
+                facets.add(new String[] {word.substring(0, separator), word.substring(separator + 1)});
+            } else if (!word.isEmpty()) {
+                words.addAll(tokenize(word));
+            }
+        }
+
+        final List<ItemRecord> results = new ArrayList<>();
+        if (words.isEmpty()) {
+            if (facets.isEmpty()) {
+                return results;
+            }
+            for (final ItemRecord record : mItems.values()) {
+                if (results.size() == limit) {
+                    break;
+                }
+                if (matchesFacets(record, facets)) {
+                    results.add(record);
+                }
+            }
+            return results;
+        }
+
+        // Only the items matching the most selective word are looked at. Longer words are usually more selective,
+        // counting them first lets the counts of the rest stop early
+        final List<String> byLength = new ArrayList<>(words);
+        Collections.sort(byLength, new Comparator<String>() {
+            @Override
+            public int compare(final String lhs, final String rhs) {
+                return rhs.length() - lhs.length();
+            }
+        });
+        String driver = null;
+        int fewest = Integer.MAX_VALUE;
+        for (final String word : byLength) {
+            final int count = countMatches(word, fewest);
+            if (count < fewest) {
+                fewest = count;
+                driver = word;
+            }
+        }
+        words.remove(driver);
+
+        final Set<String> seen = new HashSet<>();
+        for (final Postings postings : getRange(driver).values()) {
+            for (int i = 0; i < postings.mSize && results.size() < limit; i++) {
+                final String id = postings.mIds[i];
+                if (!seen.add(id)) {
+                    continue;
+                }
+                final ItemRecord record = mItems.get(id);
+                if (matchesWords(record, words) && matchesFacets(record, facets)) {
+                    results.add(record);
+                }
+            }
+            if (results.size() == limit) {
+                break;
+            }
+        }
+        return results;
+    }
+
+    /**
+     * The number of indexed items
+     * @return The item count
+     */
+    synchronized int getItemCount() {
+        return mItems.size();
+    }
+
+    /**
+     * The number of distinct tokens
+     * @return The token count
+     */
+    synchronized int getTokenCount() {
+        return mTokens.size();
+    }
+
+    /**
+     * Removes every item
+     */
+    synchronized void clear() {
+        mItems.clear();
+        mTokens.clear();
+    }
+
+    /**
+     * The tokens starting with a prefix
+     * @param prefix The prefix
+     * @return The tokens and their postings
+     */
+    private SortedMap<String, Postings> getRange(final String prefix) {
+        return mTokens.subMap(prefix, prefix + Character.MAX_VALUE);
+    }
+
+    /**
+     * Counts the items with a token starting with a prefix, an item with several such tokens is counted for each
+     * @param prefix The prefix
+     * @param limit Counting stops once the count reaches this
+     * @return The count, or the limit if the count would be larger
+     */
+    private int countMatches(final String prefix, final int limit) {
+        int count = 0;
+        for (final Postings postings : getRange(prefix).values()) {
+            count += postings.mSize;
+            if (count >= limit) {
+                return limit;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Splits a name into lower case tokens at every change between letters, digits and anything else
+     * @param name The name
+     * @return The distinct tokens, in the order they appear
+     */
+    static List<String> tokenize(final String name) {
+        final String lower = name.toLowerCase(Locale.ROOT);
+        final List<String> tokens = new ArrayList<>();
+        int start = -1;
+        int startClass = 0;
+        for (int i = 0; i <= lower.length(); i++) {
+            int charClass = 0;
+            if (i < lower.length()) {
+                charClass = getCharClass(lower.charAt(i));
+            }
+            if (charClass != startClass) {
+                if (start >= 0) {
+                    final String token = lower.substring(start, i);
+                    if (!tokens.contains(token)) {
+                        tokens.add(token);
+                    }
+                }
+                start = -1;
+                if (charClass != 0) {
+                    start = i;
+                }
+                startClass = charClass;
+            }
+        }
+        return tokens;
+    }
+
+    /**
+     * Classifies a character for splitting names
+     * @param c The character
+     * @return 1 for letters, 2 for digits and 0 for anything else
+     */
+    private static int getCharClass(final char c) {
+        if (Character.isLetter(c)) {
+            return 1;
+        }
+        if (Character.isDigit(c)) {
+            return 2;
+        }
+        return 0;
+    }
+
+    /**
+     * Removes an item from the postings of the tokens of its name
+     * @param record The item
+     */
+    private void removeTokens(final ItemRecord record) {
+        for (final String token : tokenize(record.getName())) {
+            final Postings postings = mTokens.get(token);
+            if (postings != null && postings.remove(record.getId()) && postings.mSize == 0) {
+                mTokens.remove(token);
+            }
+        }
+    }
+
+    /**
+     * If an item is below any of a set of folders, the folders found on the way are added to the set
+     * @param record The item
+     * @param folders The folder ids
+     * @return If the item is below one of the folders
+     */
+    private boolean isBelow(final ItemRecord record, final Set<String> folders) {
+        final List<String> path = new ArrayList<>();
+        String parentId = record.getParentId();
+        while (parentId != null) {
+            if (folders.contains(parentId)) {
+                folders.addAll(path);
+                if (record.isFolder()) {
+                    folders.add(record.getId());
+                }
+                return true;
+            }
+            path.add(parentId);
+            final ItemRecord parent = mItems.get(parentId);
+            if (parent == null) {
+                return false;
+            }
+            parentId = parent.getParentId();
+        }
+        return false;
+    }
+
+    /**
+     * If every query word matches the start of a token of an item's name
+     * @param record The item
+     * @param words The query words
+     * @return If the item matches
+     */
+    private static boolean matchesWords(final ItemRecord record, final List<String> words) {
+        if (words.isEmpty()) {
+            return true;
+        }
+        final List<String> tokens = tokenize(record.getName());
+        for (final String word : words) {
+            boolean matched = false;
+            for (final String token : tokens) {
+                if (token.startsWith(word)) {
+                    matched = true;
+                    break;
+                }
+            }
+            if (!matched) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * If an item matches every facet of a query
+     * @param record The item
+     * @param facets The facets and their values
+     * @return If the item matches, items match unknown facets
+     */
+    private static boolean matchesFacets(final ItemRecord record, final List<String[]> facets) {
+        for (final String[] facet : facets) {
+            final String value = facet[1];
+            if (KIND_FACET.equals(facet[0])) {
+                if (KIND_FOLDER.equals(value) && !record.isFolder()) {
+                    return false;
+                }
+                if (KIND_FILE.equals(value) && record.isFolder()) {
+                    return false;
+                }
+            } else if (TYPE_FACET.equals(facet[0])) {
+                final String mimeType = record.getMimeType();
+                if (mimeType == null || !mimeType.toLowerCase(Locale.ROOT).startsWith(value)) {
+                    return false;
+                }
+            } else if (EXTENSION_FACET.equals(facet[0])) {
+                final String name = record.getName().toLowerCase(Locale.ROOT);
+                if (record.isFolder() || !name.endsWith("." + value)) {
+                    return false;
+                }
+            }
+        }
+        return true;
+    }
+
+    /**
+     * The ids of the items with a token in their name, in a plain array since most tokens belong to few items
+     */
+    private static final class Postings {
+
+        /**
+         * The ids, the first {@link #mSize} are in use
+         */
+        private String[] mIds = new String[1];
+
+        /**
+         * The number of ids
+         */
+        private int mSize;
+
+        /**
+         * Adds an id
+         * @param id The item id
+         */
+        private void add(final String id) {
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            mIds[mSize++] = id;
+        }
+
+        /**
+         * Removes an id
+         * @param id The item id
+         * @return If the id was present
+         */
+        private boolean remove(final String id) {
+            for (int i = 0; i < mSize; i++) {
+                if (mIds[i].equals(id)) {
+                    mSize--;
+                    mIds[i] = mIds[mSize];
+                    mIds[mSize] = null;
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * Removes a set of ids
+         * @param ids The item ids
+         */
+        private void removeAll(final Set<String> ids) {
+            int kept = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (!ids.contains(mIds[i])) {
+                    mIds[kept++] = mIds[i];
+                }
+            }
+            Arrays.fill(mIds, kept, mSize, null);
+            mSize = kept;
+        }
+    }
+}
@@ -0,0 +1,242 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the subtree totals of the item tree. The totals are added up on every core from a snapshot the first time
+ * they are asked for, and from then on kept current by each change to the tree. This must only be used on the
+ * ui thread
+ */
+class StorageAggregator implements ItemTree.Observer {
+
+    /**
+     * How long idle threads are kept, in seconds
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The tree the totals are of
+     */
+    private final ItemTree mTree;
+
+    /**
+     * The number of threads the totals are added up on
+     */
+    private final int mParallelism;
+
+    /**
+     * Adds up the totals
+     */
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Used to hand the totals over on the ui thread
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The listeners waiting for the totals
+     */
+    private final List<Listener> mWaiting = new ArrayList<>();
+
+    /**
+     * The current totals, or null until they have been added up
+     */
+    private SubtreeStats mStats;
+
+    /**
+     * If the totals are being added up
+     */
+    private boolean mComputing;
+
+    /**
+     * Default constructor
+     * @param tree The tree the totals are of
+     */
+    StorageAggregator(final ItemTree tree) {
+        mTree = tree;
+        mParallelism = Runtime.getRuntime().availableProcessors();
+        mExecutor = new ThreadPoolExecutor(mParallelism,
+                                           mParallelism,
+                                           KEEP_ALIVE_SECONDS,
+                                           TimeUnit.SECONDS,
+                                           new LinkedBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+        tree.addObserver(this);
+    }
+
+    /**
+     * Hands the totals to a listener, straight away if they are current or once they have been added up
+     * @param listener The listener
+     */
+    void getStats(final Listener listener) {
+        if (mStats != null) {
+            listener.onStatsReady(mStats);
+            return;
+        }
+        mWaiting.add(listener);
+        compute();
+    }
+
+    /**
+     * Stops waiting for the totals on behalf of a listener
+     * @param listener The listener
+     */
+    void cancel(final Listener listener) {
+        mWaiting.remove(listener);
+    }
+
+    /**
+     * If the totals are current
+     * @return If the totals are ready
+     */
+    boolean isReady() {
+        return mStats != null;
+    }
+
+    @Override
+    public void onItemChanging(final int row) {
+        if (mStats != null) {
+            mStats.onItemChanging(row);
+        }
+    }
+
+    @Override
+    public void onItemChanged(final int row) {
+        if (mStats != null) {
+            mStats.onItemChanged(row);
+        }
+    }
+
+    @Override
+    public void onCleared() {
+        mStats = null;
+    }
+
+    /**
+     * Nothing to do, the totals are kept current after every change
+     */
+    @Override
+    public void onBatchEnded() {
+    }
+
+    /**
+     * Adds up the totals from a snapshot of the tree, if the tree changed in the meantime the totals are added up
+     * again rather than being handed over stale
+     */
+    private void compute() {
+        if (mComputing) {
+            return;
+        }
+        mComputing = true;
+        final ItemTree.Snapshot snapshot = mTree.snapshot();
+        mExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    deliver(snapshot, SubtreeStats.compute(mTree, snapshot, mExecutor, mParallelism));
+                } catch (final InterruptedException e) {
+                    Log.w(getClass().getSimpleName(), "Interrupted adding up the subtree totals", e);
+                    deliverFailure(e);
+                } catch (final RuntimeException e) {
+                    Log.e(getClass().getSimpleName(), "Unable to add up the subtree totals", e);
+                    deliverFailure(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adopts the totals of a snapshot on the ui thread, if the tree is still as it was when the snapshot was taken
+     * @param snapshot The snapshot
+     * @param stats The totals
+     */
+    private void deliver(final ItemTree.Snapshot snapshot, final SubtreeStats stats) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mComputing = false;
+                if (snapshot.getModificationCount() != mTree.getModificationCount()) {
+                    if (!mWaiting.isEmpty()) {
+                        compute();
+                    }
+                    return;
+                }
+                mStats = stats;
+                final List<Listener> waiting = new ArrayList<>(mWaiting);
+                mWaiting.clear();
+                for (final Listener listener : waiting) {
+                    listener.onStatsReady(stats);
+                }
+            }
+        });
+    }
+
+    /**
+     * Tells the waiting listeners on the ui thread that the totals could not be added up, the next request tries
+     * again
+     * @param error Why the totals could not be added up
+     */
+    private void deliverFailure(final Exception error) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                mComputing = false;
+                final List<Listener> waiting = new ArrayList<>(mWaiting);
+                mWaiting.clear();
+                for (final Listener listener : waiting) {
+                    listener.onStatsFailed(error);
+                }
+            }
+        });
+    }
+
+    /**
+     * Receives the totals on the ui thread
+     */
+    interface Listener {
+
+        /**
+         * Called when the totals are current, they stay current as long as the tree is not cleared
+         * @param stats The totals
+         */
+        void onStatsReady(final SubtreeStats stats);
+
+        /**
+         * Called when the totals could not be added up
+         * @param error Why the totals could not be added up
+         */
+        void onStatsFailed(final Exception error);
+    }
+}
@@ -0,0 +1,272 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.util.Arrays;
+
+/**
+ * Holds strings back to back in one char array, so a string costs its characters and an int rather than a String and
+ * a char array of its own. Entries are never removed, and an interning pool hands out the same entry for equal
+ * strings so it doubles as a map from strings to entry numbers
+ */
+final class StringPool {
+
+    /**
+     * Returned when a string is not in the pool
+     */
+    static final int NO_ENTRY = -1;
+
+    /**
+     * The number of entries and characters to make room for at first
+     */
+    private static final int INITIAL_CAPACITY = 16;
+
+    /**
+     * The hash table is grown once it is more than this fraction full
+     */
+    private static final float MAX_LOAD = 0.5f;
+
+    /**
+     * The multiplier of {@link String#hashCode()}
+     */
+    private static final int HASH_MULTIPLIER = 31;
+
+    /**
+     * If equal strings share an entry
+     */
+    private final boolean mInterning;
+
+    /**
+     * The characters of every entry
+     */
+    private char[] mChars = new char[INITIAL_CAPACITY];
+
+    /**
+     * The number of characters in use
+     */
+    private int mCharCount;
+
+    /**
+     * Where each entry starts in {@link #mChars}, entry i ends where entry i + 1 starts
+     */
+    private int[] mStarts = new int[INITIAL_CAPACITY + 1];
+
+    /**
+     * The number of entries
+     */
+    private int mSize;
+
+    /**
+     * Open addressed hash table of entry numbers plus one, zero for an empty slot, or null when not interning
+     */
+    private int[] mTable;
+
+    /**
+     * Default constructor
+     * @param interning If equal strings share an entry
+     */
+    StringPool(final boolean interning) {
+        mInterning = interning;
+        if (interning) {
+            mTable = new int[INITIAL_CAPACITY * 2];
+        }
+    }
+
+    /**
+     * Adds a string to the pool
+     * @param value The string
+     * @return The entry number, an existing one if the pool is interning and already holds the string
+     */
+    int add(final String value) {
+        if (mInterning) {
+            final int slot = findSlot(value);
+            if (mTable[slot] != 0) {
+                return mTable[slot] - 1;
+            }
+            mTable[slot] = mSize + 1;
+        }
+
+        if (mSize + 1 == mStarts.length) {
+            mStarts = Arrays.copyOf(mStarts, mStarts.length * 2);
+        }
+        final int length = value.length();
+        if (mCharCount + length > mChars.length) {
+            mChars = Arrays.copyOf(mChars, Math.max(mChars.length * 2, mCharCount + length));
+        }
+        value.getChars(0, length, mChars, mCharCount);
+        mCharCount += length;
+        mSize++;
+        mStarts[mSize] = mCharCount;
+
+        if (mInterning && mSize > mTable.length * MAX_LOAD) {
+            rehash(mTable.length * 2);
+        }
+        return mSize - 1;
+    }
+
+    /**
+     * Looks a string up in an interning pool
+     * @param value The string
+     * @return The entry number, or {@link #NO_ENTRY} if the pool does not hold the string
+     */
+    int find(final String value) {
+        return mTable[findSlot(value)] - 1;
+    }
+
+    /**
+     * Creates a string from an entry
+     * @param entry The entry number
+     * @return The string
+     */
+    String get(final int entry) {
+        return new String(mChars, mStarts[entry], getLength(entry));
+    }
+
+    /**
+     * The number of characters in an entry
+     * @param entry The entry number
+     * @return The length
+     */
+    int getLength(final int entry) {
+        return mStarts[entry + 1] - mStarts[entry];
+    }
+
+    /**
+     * Copies the characters of an entry without creating a string
+     * @param entry The entry number
+     * @param destination Receives the characters from its start, it must hold at least {@link #getLength(int)}
+     * @return The number of characters copied
+     */
+    int getChars(final int entry, final char[] destination) {
+        final int length = getLength(entry);
+        System.arraycopy(mChars, mStarts[entry], destination, 0, length);
+        return length;
+    }
+
+    /**
+     * The number of entries
+     * @return The entry count
+     */
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * The memory taken by the arrays of the pool
+     * @return The size in bytes
+     */
+    long getByteCount() {
+        long bytes = (long) mChars.length * Character.SIZE / Byte.SIZE;
+        bytes += (long) mStarts.length * Integer.SIZE / Byte.SIZE;
+        if (mTable != null) {
+            bytes += (long) mTable.length * Integer.SIZE / Byte.SIZE;
+        }
+        return bytes;
+    }
+
+    /**
+     * Removes every entry
+     */
+    void clear() {
+        mChars = new char[INITIAL_CAPACITY];
+        mCharCount = 0;
+        mStarts = new int[INITIAL_CAPACITY + 1];
+        mSize = 0;
+        if (mInterning) {
+            mTable = new int[INITIAL_CAPACITY * 2];
+        }
+    }
+
+    /**
+     * Finds the slot of the hash table holding a string, or the empty slot where it belongs
+     * @param value The string
+     * @return The slot
+     */
+    private int findSlot(final String value) {
+        final int mask = mTable.length - 1;
+        int slot = spread(value.hashCode()) & mask;
+        while (mTable[slot] != 0 && !matches(mTable[slot] - 1, value)) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    /**
+     * If an entry holds a string
+     * @param entry The entry number
+     * @param value The string
+     * @return If the characters are the same
+     */
+    boolean matches(final int entry, final String value) {
+        final int start = mStarts[entry];
+        final int length = mStarts[entry + 1] - start;
+        if (length != value.length()) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (mChars[start + i] != value.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Works out the hash of an entry, the same as {@link String#hashCode()} of the string it holds
+     * @param entry The entry number
+     * @return The hash
+     */
+    private int hash(final int entry) {
+        int hash = 0;
+        for (int i = mStarts[entry]; i < mStarts[entry + 1]; i++) {
+            hash = HASH_MULTIPLIER * hash + mChars[i];
+        }
+        return hash;
+    }
+
+    /**
+     * Moves every entry into a larger hash table
+     * @param capacity The number of slots, a power of two
+     */
+    private void rehash(final int capacity) {
+        mTable = new int[capacity];
+        final int mask = capacity - 1;
+        for (int entry = 0; entry < mSize; entry++) {
+            int slot = spread(hash(entry)) & mask;
+            while (mTable[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mTable[slot] = entry + 1;
+        }
+    }
+
+    /**
+     * Mixes the high bits of a hash into the low bits the table uses
+     * @param hash The hash
+     * @return The mixed hash
+     */
+    private static int spread(final int hash) {
+        return hash ^ (hash >>> (Integer.SIZE / 2));
+    }
+}
@@ -0,0 +1,551 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The total size, file count and folder count below every folder of an item tree, with the files split into
+ * categories of mime type. The totals are added up once in parallel from a snapshot of the tree, then kept current
+ * as the tree changes by adjusting the folders above each changed item
+ */
+final class SubtreeStats implements ItemTree.Observer {
+
+    /**
+     * What files hold, going by their mime type
+     */
+    enum Category {
+        /**
+         * image/*
+         */
+        Images,
+
+        /**
+         * video/*
+         */
+        Videos,
+
+        /**
+         * audio/*
+         */
+        Audio,
+
+        /**
+         * text/*, pdf and office documents
+         */
+        Documents,
+
+        /**
+         * Everything else, and files of unknown type
+         */
+        Other
+    }
+
+    /**
+     * The slot of an item without totals
+     */
+    private static final int NO_SLOT = -1;
+
+    /**
+     * The categories, in order
+     */
+    private static final Category[] CATEGORIES = Category.values();
+
+    /**
+     * The number of categories
+     */
+    private static final int CATEGORY_COUNT = CATEGORIES.length;
+
+    /**
+     * The tree is split into this many subtrees per thread, so threads that finish early can take more
+     */
+    private static final int SUBTREES_PER_THREAD = 4;
+
+    /**
+     * Parts of application mime types that mark documents
+     */
+    private static final String[] DOCUMENT_MARKERS = {
+        "pdf", "msword", "ms-excel", "ms-powerpoint", "officedocument", "opendocument", "rtf",
+    };
+
+    /**
+     * The tree the totals are kept current with
+     */
+    private final ItemTree mTree;
+
+    /**
+     * The slot of each item's totals, or {@link #NO_SLOT} for files
+     */
+    private int[] mSlots;
+
+    /**
+     * The number of slots in use
+     */
+    private int mSlotCount;
+
+    /**
+     * The bytes below each slot's folder, by category, {@link #CATEGORY_COUNT} per slot
+     */
+    private long[] mBytes;
+
+    /**
+     * The files below each slot's folder, by category, {@link #CATEGORY_COUNT} per slot
+     */
+    private int[] mFiles;
+
+    /**
+     * The folders below each slot's folder
+     */
+    private int[] mFolders;
+
+    /**
+     * Creates empty totals with a slot for every folder and every item with children
+     * @param tree The tree the totals are kept current with
+     * @param snapshot The snapshot the totals are added up from
+     */
+    private SubtreeStats(final ItemTree tree, final ItemTree.Snapshot snapshot) {
+        mTree = tree;
+        mSlots = new int[snapshot.size()];
+        for (int row = 0; row < mSlots.length; row++) {
+            if (snapshot.isFolder(row) || snapshot.getChildCount(row) != 0) {
+                mSlots[row] = mSlotCount++;
+            } else {
+                mSlots[row] = NO_SLOT;
+            }
+        }
+        final int capacity = Math.max(mSlotCount, 1);
+        mBytes = new long[capacity * CATEGORY_COUNT];
+        mFiles = new int[capacity * CATEGORY_COUNT];
+        mFolders = new int[capacity];
+    }
+
+    /**
+     * Adds up the totals of every folder of a snapshot. The folders at the top are split until there are a few
+     * subtrees per thread, the subtrees are added up in parallel and the folders that were split are then added up
+     * from their children. The calling thread adds up subtrees too, so this finishes even if the executor is busy
+     * @param tree The tree the totals are kept current with once they are handed to the ui thread
+     * @param snapshot A snapshot of the tree
+     * @param executor Runs the threads that help the calling thread
+     * @param parallelism The number of threads to add up subtrees on, including the calling thread
+     * @return The totals
+     * @throws InterruptedException If the calling thread was interrupted while waiting for the others
+     */
+    static SubtreeStats compute(final ItemTree tree,
+                                final ItemTree.Snapshot snapshot,
+                                final Executor executor,
+                                final int parallelism) throws InterruptedException {
+        final SubtreeStats stats = new SubtreeStats(tree, snapshot);
+        final Category[] categories = getCategories(snapshot);
+
+        List<Integer> subtrees = new ArrayList<>();
+        for (int row = 0; row < snapshot.size(); row++) {
+            if (snapshot.getParent(row) == ItemTree.NO_ROW && stats.mSlots[row] != NO_SLOT) {
+                subtrees.add(row);
+            }
+        }
+        final List<Integer> split = new ArrayList<>();
+        while (subtrees.size() < parallelism * SUBTREES_PER_THREAD) {
+            final List<Integer> next = new ArrayList<>();
+            for (final int row : subtrees) {
+                if (!stats.hasChildFolder(snapshot, row)) {
+                    next.add(row);
+                    continue;
+                }
+                split.add(row);
+                for (int i = 0; i < snapshot.getChildCount(row); i++) {
+                    final int child = snapshot.getChild(row, i);
+                    if (stats.mSlots[child] != NO_SLOT) {
+                        next.add(child);
+                    }
+                }
+            }
+            if (next.equals(subtrees)) {
+                break;
+            }
+            subtrees = next;
+        }
+
+        final List<Integer> work = subtrees;
+        final AtomicInteger nextSubtree = new AtomicInteger();
+        final CountDownLatch finished = new CountDownLatch(work.size());
+        final AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        final Runnable worker = new Runnable() {
+            @Override
+            public void run() {
+                for (int i = nextSubtree.getAndIncrement(); i < work.size(); i = nextSubtree.getAndIncrement()) {
+                    try {
+                        stats.addUpSubtree(snapshot, categories, work.get(i));
+                    } catch (final RuntimeException e) {
+                        failure.compareAndSet(null, e);
+                    } finally {
+                        finished.countDown();
+                    }
+                }
+            }
+        };
+        for (int i = 1; i < parallelism; i++) {
+            executor.execute(worker);
+        }
+        worker.run();
+        // Waits for the subtrees other threads took, a helper that starts late finds nothing left to take
+        finished.await();
+        if (failure.get() != null) {
+            throw new IllegalStateException("Unable to add up a subtree", failure.get());
+        }
+
+        // Split folders were listed parents first, so going backwards adds up children first
+        for (int i = split.size() - 1; i >= 0; i--) {
+            stats.addUpFolder(snapshot, categories, split.get(i));
+        }
+        return stats;
+    }
+
+    /**
+     * Picks the category of a mime type
+     * @param mimeType The mime type, or null if unknown
+     * @return The category
+     */
+    static Category getCategory(final String mimeType) {
+        if (mimeType == null) {
+            return Category.Other;
+        }
+        final String lower = mimeType.toLowerCase(Locale.ROOT);
+        if (lower.startsWith("image/")) {
+            return Category.Images;
+        }
+        if (lower.startsWith("video/")) {
+            return Category.Videos;
+        }
+        if (lower.startsWith("audio/")) {
+            return Category.Audio;
+        }
+        if (lower.startsWith("text/")) {
+            return Category.Documents;
+        }
+        if (lower.startsWith("application/")) {
+            for (final String marker : DOCUMENT_MARKERS) {
+                if (lower.contains(marker)) {
+                    return Category.Documents;
+                }
+            }
+        }
+        return Category.Other;
+    }
+
+    /**
+     * The total size of the files below an item
+     * @param row The item row
+     * @return The size in bytes
+     */
+    long getTotalBytes(final int row) {
+        long total = 0;
+        for (final Category category : CATEGORIES) {
+            total += getBytes(row, category);
+        }
+        return total;
+    }
+
+    /**
+     * The number of files below an item
+     * @param row The item row
+     * @return The file count
+     */
+    int getTotalFiles(final int row) {
+        int total = 0;
+        for (final Category category : CATEGORIES) {
+            total += getFiles(row, category);
+        }
+        return total;
+    }
+
+    /**
+     * The size of the files of a category below an item
+     * @param row The item row
+     * @param category The category
+     * @return The size in bytes
+     */
+    long getBytes(final int row, final Category category) {
+        final int slot = getSlot(row);
+        if (slot == NO_SLOT) {
+            return 0;
+        }
+        return mBytes[slot * CATEGORY_COUNT + category.ordinal()];
+    }
+
+    /**
+     * The number of files of a category below an item
+     * @param row The item row
+     * @param category The category
+     * @return The file count
+     */
+    int getFiles(final int row, final Category category) {
+        final int slot = getSlot(row);
+        if (slot == NO_SLOT) {
+            return 0;
+        }
+        return mFiles[slot * CATEGORY_COUNT + category.ordinal()];
+    }
+
+    /**
+     * The number of folders below an item
+     * @param row The item row
+     * @return The folder count
+     */
+    int getFolders(final int row) {
+        final int slot = getSlot(row);
+        if (slot == NO_SLOT) {
+            return 0;
+        }
+        return mFolders[slot];
+    }
+
+    /**
+     * Takes what an item adds to its folders away from them, before it changes
+     * @param row The item row
+     */
+    @Override
+    public void onItemChanging(final int row) {
+        addToFolders(row, -1);
+    }
+
+    /**
+     * Adds what an item adds to its folders back to them, once it has changed
+     * @param row The item row
+     */
+    @Override
+    public void onItemChanged(final int row) {
+        addToFolders(row, 1);
+    }
+
+    /**
+     * Drops every total
+     */
+    @Override
+    public void onCleared() {
+        Arrays.fill(mSlots, NO_SLOT);
+        Arrays.fill(mBytes, 0);
+        Arrays.fill(mFiles, 0);
+        Arrays.fill(mFolders, 0);
+        mSlotCount = 0;
+    }
+
+    /**
+     * Nothing to do, the totals are current after every change
+     */
+    @Override
+    public void onBatchEnded() {
+    }
+
+    /**
+     * Adds up every folder below the top of a subtree, children before parents, writing only the slots of the
+     * subtree so subtrees can be added up at the same time
+     * @param snapshot The snapshot
+     * @param categories The category of each mime type entry
+     * @param top The row at the top of the subtree
+     */
+    private void addUpSubtree(final ItemTree.Snapshot snapshot, final Category[] categories, final int top) {
+        int[] folders = new int[Byte.SIZE];
+        int count = 0;
+        folders[count++] = top;
+        // Every folder is listed after its parent, so going backwards adds up children first
+        for (int i = 0; i < count; i++) {
+            final int folder = folders[i];
+            for (int j = 0; j < snapshot.getChildCount(folder); j++) {
+                final int child = snapshot.getChild(folder, j);
+                if (mSlots[child] == NO_SLOT) {
+                    continue;
+                }
+                if (count == folders.length) {
+                    folders = Arrays.copyOf(folders, count * 2);
+                }
+                folders[count++] = child;
+            }
+        }
+        for (int i = count - 1; i >= 0; i--) {
+            addUpFolder(snapshot, categories, folders[i]);
+        }
+    }
+
+    /**
+     * Adds up a folder from its children, whose totals must already be added up
+     * @param snapshot The snapshot
+     * @param categories The category of each mime type entry
+     * @param folder The folder row
+     */
+    private void addUpFolder(final ItemTree.Snapshot snapshot, final Category[] categories, final int folder) {
+        final int slot = mSlots[folder];
+        for (int i = 0; i < snapshot.getChildCount(folder); i++) {
+            final int child = snapshot.getChild(folder, i);
+            final int childSlot = mSlots[child];
+            if (childSlot != NO_SLOT) {
+                addFolder(slot, childSlot, 1);
+                continue;
+            }
+            Category category = Category.Other;
+            final int mimeTypeEntry = snapshot.getMimeTypeEntry(child);
+            if (mimeTypeEntry != StringPool.NO_ENTRY) {
+                category = categories[mimeTypeEntry];
+            }
+            addFile(slot, category, snapshot.getSize(child), 1);
+        }
+    }
+
+    /**
+     * Adds what an item contributes to every folder above it, this takes as many steps as the item is deep
+     * @param row The item row
+     * @param sign 1 to add, -1 to take away
+     */
+    private void addToFolders(final int row, final int sign) {
+        final int slot = getSlot(row);
+        final boolean folder = slot != NO_SLOT || mTree.isFolder(row);
+        Category category = null;
+        long size = 0;
+        if (!folder) {
+            category = getCategory(mTree.getMimeType(row));
+            size = mTree.getSize(row);
+        }
+
+        // A tree with a loop has no top, the walk stops once it has taken more steps than there are items
+        int steps = 0;
+        for (int parent = mTree.getParent(row);
+             parent != ItemTree.NO_ROW && steps < mTree.size();
+             parent = mTree.getParent(parent)) {
+            final int parentSlot = getOrAddSlot(parent);
+            if (!folder) {
+                addFile(parentSlot, category, size, sign);
+            } else if (slot == NO_SLOT) {
+                mFolders[parentSlot] += sign;
+            } else {
+                addFolder(parentSlot, slot, sign);
+            }
+            steps++;
+        }
+    }
+
+    /**
+     * Adds a folder and everything below it to a slot
+     * @param slot The slot to add to
+     * @param folderSlot The slot of the folder
+     * @param sign 1 to add, -1 to take away
+     */
+    private void addFolder(final int slot, final int folderSlot, final int sign) {
+        final int base = slot * CATEGORY_COUNT;
+        final int folderBase = folderSlot * CATEGORY_COUNT;
+        for (int i = 0; i < CATEGORY_COUNT; i++) {
+            mBytes[base + i] += sign * mBytes[folderBase + i];
+            mFiles[base + i] += sign * mFiles[folderBase + i];
+        }
+        mFolders[slot] += sign * (mFolders[folderSlot] + 1);
+    }
+
+    /**
+     * Adds a file to a slot
+     * @param slot The slot to add to
+     * @param category The category of the file
+     * @param size The size of the file
+     * @param sign 1 to add, -1 to take away
+     */
+    private void addFile(final int slot, final Category category, final long size, final int sign) {
+        final int index = slot * CATEGORY_COUNT + category.ordinal();
+        mBytes[index] += sign * size;
+        mFiles[index] += sign;
+    }
+
+    /**
+     * If any child of an item has totals of its own
+     * @param snapshot The snapshot
+     * @param row The item row
+     * @return If the item has a child folder
+     */
+    private boolean hasChildFolder(final ItemTree.Snapshot snapshot, final int row) {
+        for (int i = 0; i < snapshot.getChildCount(row); i++) {
+            if (mSlots[snapshot.getChild(row, i)] != NO_SLOT) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * The slot of an item
+     * @param row The item row, or {@link ItemTree#NO_ROW}
+     * @return The slot, or {@link #NO_SLOT}
+     */
+    private int getSlot(final int row) {
+        if (row == ItemTree.NO_ROW || row >= mSlots.length) {
+            return NO_SLOT;
+        }
+        return mSlots[row];
+    }
+
+    /**
+     * The slot of an item, giving it an empty one if it has none
+     * @param row The item row
+     * @return The slot
+     */
+    private int getOrAddSlot(final int row) {
+        if (row >= mSlots.length) {
+            final int length = mSlots.length;
+            mSlots = Arrays.copyOf(mSlots, Math.max(length * 2, row + 1));
+            Arrays.fill(mSlots, length, mSlots.length, NO_SLOT);
+        }
+        if (mSlots[row] != NO_SLOT) {
+            return mSlots[row];
+        }
+
+        if (mSlotCount == mFolders.length) {
+            final int capacity = mSlotCount * 2;
+            mBytes = Arrays.copyOf(mBytes, capacity * CATEGORY_COUNT);
+            mFiles = Arrays.copyOf(mFiles, capacity * CATEGORY_COUNT);
+            mFolders = Arrays.copyOf(mFolders, capacity);
+        }
+        final int slot = mSlotCount++;
+        Arrays.fill(mBytes, slot * CATEGORY_COUNT, (slot + 1) * CATEGORY_COUNT, 0);
+        Arrays.fill(mFiles, slot * CATEGORY_COUNT, (slot + 1) * CATEGORY_COUNT, 0);
+        mFolders[slot] = 0;
+        mSlots[row] = slot;
+        return slot;
+    }
+
+    /**
+     * Works out the category of every mime type of a snapshot once
+     * @param snapshot The snapshot
+     * @return The category of each mime type entry
+     */
+    private static Category[] getCategories(final ItemTree.Snapshot snapshot) {
+        final String[] mimeTypes = snapshot.getMimeTypes();
+        final Category[] categories = new Category[mimeTypes.length];
+        for (int i = 0; i < mimeTypes.length; i++) {
+            categories[i] = getCategory(mimeTypes[i]);
+        }
+        return categories;
+    }
+}
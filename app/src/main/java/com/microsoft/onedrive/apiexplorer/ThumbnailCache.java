@@ -0,0 +1,396 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.LruCache;
+
+import java.io.File;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Two tier thumbnail cache, a memory tier budgeted by bitmap bytes backed by a least recently used disk tier.
+ * Entries are keyed by item id and the item's cTag (or eTag) so a thumbnail for an older version is never returned.
+ *
+ * A bitmap evicted from memory is handed to the bitmap pool once no view shows it, views report the bitmaps they
+ * show through {@link #onShown(Bitmap)} and {@link #onHidden(Bitmap)}
+ */
+class ThumbnailCache {
+
+    /**
+     * Separates the item id from the tag in memory cache keys, item ids never contain it
+     */
+    private static final char KEY_SEPARATOR = '/';
+
+    /**
+     * The memory tier
+     */
+    private final LruCache<String, Bitmap> mMemoryCache;
+
+    /**
+     * The disk tier
+     */
+    private final DiskThumbnailCache mDiskCache;
+
+    /**
+     * Lookups answered by the memory tier
+     */
+    private final AtomicLong mMemoryHitCount = new AtomicLong();
+
+    /**
+     * Lookups answered by the disk tier
+     */
+    private final AtomicLong mDiskHitCount = new AtomicLong();
+
+    /**
+     * Lookups answered by neither tier
+     */
+    private final AtomicLong mMissCount = new AtomicLong();
+
+    /**
+     * Bitmaps evicted from the memory tier
+     */
+    private final AtomicLong mEvictionCount = new AtomicLong();
+
+    /**
+     * Receives evicted bitmaps once nothing shows them
+     */
+    private final BitmapPool mPool;
+
+    /**
+     * Used to release evicted bitmaps on the ui thread, where views pick up their bitmaps
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Writes bitmaps evicted from memory to disk, and empties the disk tier after the writes queued before it
+     */
+    private final Executor mDiskWriter;
+
+    /**
+     * The number of views showing each bitmap, only used on the ui thread
+     */
+    private final Map<Bitmap, Integer> mShown = new WeakHashMap<>();
+
+    /**
+     * The bitmaps evicted while a view showed them, pooled when the last view lets go, only used on the ui thread
+     */
+    private final Map<Bitmap, Boolean> mEvictedWhileShown = new WeakHashMap<>();
+
+    /**
+     * Set while {@link #clear()} empties the memory tier, so the bitmaps it drops are not written to disk
+     */
+    private volatile boolean mClearing;
+
+    /**
+     * Default constructor
+     * @param directory The directory for the disk tier
+     * @param memoryBudget The maximum number of bitmap bytes to keep in memory
+     * @param diskBudget The maximum number of bytes to keep on disk
+     * @param decoder Decodes the thumbnails read from disk
+     * @param pool Receives the bitmaps evicted from memory
+     */
+    ThumbnailCache(final File directory,
+                   final int memoryBudget,
+                   final long diskBudget,
+                   final ThumbnailDecoder decoder,
+                   final BitmapPool pool) {
+        this(directory, memoryBudget, diskBudget, decoder, pool, Executors.newSingleThreadExecutor());
+    }
+
+    /**
+     * Creates a cache that writes evicted bitmaps to disk on the given executor
+     * @param directory The directory for the disk tier
+     * @param memoryBudget The maximum number of bitmap bytes to keep in memory
+     * @param diskBudget The maximum number of bytes to keep on disk
+     * @param decoder Decodes the thumbnails read from disk
+     * @param pool Receives the bitmaps evicted from memory
+     * @param diskWriter Runs the disk writes of evicted bitmaps one at a time, in order
+     */
+    ThumbnailCache(final File directory,
+                   final int memoryBudget,
+                   final long diskBudget,
+                   final ThumbnailDecoder decoder,
+                   final BitmapPool pool,
+                   final Executor diskWriter) {
+        mPool = pool;
+        mDiskWriter = diskWriter;
+        mDiskCache = new DiskThumbnailCache(directory, diskBudget, decoder);
+        mMemoryCache = new LruCache<String, Bitmap>(memoryBudget) {
+            @Override
+            protected int sizeOf(final String key, final Bitmap value) {
+                return value.getAllocationByteCount();
+            }
+
+            @Override
+            protected void entryRemoved(final boolean evicted,
+                                        final String key,
+                                        final Bitmap oldValue,
+                                        final Bitmap newValue) {
+                if (!evicted) {
+                    return;
+                }
+                mEvictionCount.incrementAndGet();
+                if (mClearing) {
+                    releaseOnUiThread(oldValue);
+                    return;
+                }
+                // The eviction runs inside whichever put or get overflowed the tier, possibly on the ui thread, so
+                // compressing and writing the bitmap is left to the disk writer. The bitmap is pooled after it is
+                // written, so it cannot be drawn over while it is being compressed
+                mDiskWriter.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            spill(key, oldValue);
+                        } finally {
+                            releaseOnUiThread(oldValue);
+                        }
+                    }
+                });
+            }
+        };
+    }
+
+    /**
+     * Looks for a thumbnail in memory only, this is safe to call on the ui thread
+     * @param itemId The item id
+     * @param tag The current tag of the item
+     * @return The thumbnail, or null if it is not in memory
+     */
+    Bitmap getFromMemory(final String itemId, final String tag) {
+        return getFromMemory(key(itemId, tag));
+    }
+
+    /**
+     * Looks for a thumbnail in memory only by a key from {@link #key(String, String)}, this is safe to call on the
+     * ui thread and does not allocate
+     * @param key The key of the thumbnail
+     * @return The thumbnail, or null if it is not in memory
+     */
+    Bitmap getFromMemory(final String key) {
+        final Bitmap bitmap = mMemoryCache.get(key);
+        if (bitmap != null) {
+            mMemoryHitCount.incrementAndGet();
+        }
+        return bitmap;
+    }
+
+    /**
+     * Looks for a thumbnail in memory and then on disk, this reads from disk and must not be called on the ui thread
+     * @param itemId The item id
+     * @param tag The current tag of the item
+     * @return The thumbnail, or null if neither tier has it
+     */
+    Bitmap get(final String itemId, final String tag) {
+        final Bitmap inMemory = getFromMemory(itemId, tag);
+        if (inMemory != null) {
+            return inMemory;
+        }
+
+        final Bitmap onDisk = mDiskCache.get(itemId, tag);
+        if (onDisk != null) {
+            mDiskHitCount.incrementAndGet();
+            mMemoryCache.put(key(itemId, tag), onDisk);
+            return onDisk;
+        }
+
+        mMissCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Adds a freshly downloaded thumbnail to both tiers, this writes to disk and must not be called on the ui thread
+     * @param itemId The item id
+     * @param tag The current tag of the item
+     * @param bitmap The thumbnail
+     */
+    void put(final String itemId, final String tag, final Bitmap bitmap) {
+        mMemoryCache.put(key(itemId, tag), bitmap);
+        mDiskCache.put(itemId, tag, bitmap);
+    }
+
+    /**
+     * Records that a view shows a bitmap from this cache, this must be called on the ui thread in the same message
+     * the bitmap was looked up in, so an eviction cannot pool it in between
+     * @param bitmap The bitmap
+     */
+    void onShown(final Bitmap bitmap) {
+        final Integer count = mShown.get(bitmap);
+        if (count == null) {
+            mShown.put(bitmap, 1);
+        } else {
+            mShown.put(bitmap, count + 1);
+        }
+    }
+
+    /**
+     * Records that a view no longer shows a bitmap, this must be called on the ui thread
+     * @param bitmap The bitmap
+     */
+    void onHidden(final Bitmap bitmap) {
+        final Integer count = mShown.get(bitmap);
+        if (count == null) {
+            return;
+        }
+        if (count > 1) {
+            mShown.put(bitmap, count - 1);
+            return;
+        }
+        mShown.remove(bitmap);
+        if (mEvictedWhileShown.remove(bitmap) != null) {
+            mPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Lookups answered by the memory tier
+     * @return The memory hit count
+     */
+    long getMemoryHitCount() {
+        return mMemoryHitCount.get();
+    }
+
+    /**
+     * Removes every thumbnail from both tiers, for when the account they belong to signs out. The disk tier is
+     * emptied by the disk writer once the evicted bitmaps queued before this are written, so none of them survive
+     */
+    void clear() {
+        mClearing = true;
+        try {
+            mMemoryCache.evictAll();
+        } finally {
+            mClearing = false;
+        }
+        mDiskWriter.execute(new Runnable() {
+            @Override
+            public void run() {
+                mDiskCache.clear();
+            }
+        });
+    }
+
+    /**
+     * Lookups answered by the disk tier
+     * @return The disk hit count
+     */
+    long getDiskHitCount() {
+        return mDiskHitCount.get();
+    }
+
+    /**
+     * Lookups answered by neither tier
+     * @return The miss count
+     */
+    long getMissCount() {
+        return mMissCount.get();
+    }
+
+    /**
+     * Bitmaps evicted from the memory tier
+     * @return The memory eviction count
+     */
+    long getEvictionCount() {
+        return mEvictionCount.get();
+    }
+
+    /**
+     * Files evicted from the disk tier
+     * @return The disk eviction count
+     */
+    long getDiskEvictionCount() {
+        return mDiskCache.getEvictionCount();
+    }
+
+    /**
+     * The number of bitmap bytes held in memory
+     * @return The memory tier size
+     */
+    int getMemorySize() {
+        return mMemoryCache.size();
+    }
+
+    /**
+     * The number of bytes held on disk
+     * @return The disk tier size
+     */
+    long getDiskSize() {
+        return mDiskCache.getSize();
+    }
+
+    /**
+     * Writes a bitmap evicted from memory to disk, unless the disk tier already holds a version of the item
+     * @param key The memory tier key of the bitmap
+     * @param bitmap The evicted bitmap
+     */
+    private void spill(final String key, final Bitmap bitmap) {
+        final int separator = key.indexOf(KEY_SEPARATOR);
+        final String itemId = key.substring(0, separator);
+        if (!mDiskCache.contains(itemId)) {
+            mDiskCache.put(itemId, key.substring(separator + 1), bitmap);
+        }
+    }
+
+    /**
+     * Pools an evicted bitmap on the ui thread, a view may still show it and it is only pooled once the ui thread
+     * knows nothing does
+     * @param bitmap The evicted bitmap
+     */
+    private void releaseOnUiThread(final Bitmap bitmap) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                release(bitmap);
+            }
+        });
+    }
+
+    /**
+     * Pools an evicted bitmap if no view shows it, or once the last view showing it lets go
+     * @param bitmap The evicted bitmap
+     */
+    private void release(final Bitmap bitmap) {
+        if (mShown.containsKey(bitmap)) {
+            mEvictedWhileShown.put(bitmap, Boolean.TRUE);
+        } else {
+            mPool.put(bitmap);
+        }
+    }
+
+    /**
+     * Builds the memory tier key for a version of an item
+     * @param itemId The item id
+     * @param tag The tag of the item
+     * @return The key
+     */
+    static String key(final String itemId, final String tag) {
+        return itemId + KEY_SEPARATOR + tag;
+    }
+}
@@ -0,0 +1,243 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Decodes thumbnails at the size they are shown. The bounds are read first so the image can be subsampled, opaque
+ * jpeg images use 16 bits per pixel, and pixels are drawn into pooled bitmaps whenever one is large enough
+ */
+class ThumbnailDecoder {
+
+    /**
+     * The mime type of jpeg images, which are always opaque
+     */
+    private static final String JPEG_MIME_TYPE = "image/jpeg";
+
+    /**
+     * The bytes per pixel of an opaque bitmap
+     */
+    private static final int RGB_565_BYTES = 2;
+
+    /**
+     * The bytes per pixel of a bitmap with alpha
+     */
+    private static final int ARGB_8888_BYTES = 4;
+
+    /**
+     * The initial size of the buffer each thread reads encoded images into
+     */
+    private static final int INITIAL_BUFFER_SIZE = 16 * 1024;
+
+    /**
+     * The smallest width and height a thumbnail is decoded at, in pixels
+     */
+    private final int mTargetSize;
+
+    /**
+     * Where bitmaps are reused from
+     */
+    private final BitmapPool mPool;
+
+    /**
+     * The encoded image buffer of each thread
+     */
+    private final ThreadLocal<byte[]> mBuffers = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[INITIAL_BUFFER_SIZE];
+        }
+    };
+
+    /**
+     * How long each decode took, in microseconds
+     */
+    private final LatencyHistogram mDecodeTimes = new LatencyHistogram();
+
+    /**
+     * The number of decodes drawn into a pooled bitmap
+     */
+    private final AtomicLong mReusedCount = new AtomicLong();
+
+    /**
+     * The number of decodes that allocated a bitmap
+     */
+    private final AtomicLong mAllocatedCount = new AtomicLong();
+
+    /**
+     * The number of bitmap bytes allocated
+     */
+    private final AtomicLong mAllocatedBytes = new AtomicLong();
+
+    /**
+     * Default constructor
+     * @param targetSize The smallest width and height a thumbnail is decoded at, in pixels
+     * @param pool Where bitmaps are reused from
+     */
+    ThumbnailDecoder(final int targetSize, final BitmapPool pool) {
+        mTargetSize = targetSize;
+        mPool = pool;
+    }
+
+    /**
+     * Reads and decodes an image
+     * @param input The encoded image, which is read to the end but not closed
+     * @return The bitmap, or null if the image could not be decoded
+     * @throws IOException If the image could not be read
+     */
+    Bitmap decode(final InputStream input) throws IOException {
+        final int length = readFully(input);
+        final byte[] data = mBuffers.get();
+        final long start = System.nanoTime();
+
+        final BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(data, 0, length, options);
+        if (options.outWidth <= 0 || options.outHeight <= 0) {
+            return null;
+        }
+
+        options.inJustDecodeBounds = false;
+        options.inSampleSize = getSampleSize(options.outWidth, options.outHeight);
+        options.inMutable = true;
+        int bytesPerPixel = ARGB_8888_BYTES;
+        options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        if (JPEG_MIME_TYPE.equals(options.outMimeType)) {
+            bytesPerPixel = RGB_565_BYTES;
+            options.inPreferredConfig = Bitmap.Config.RGB_565;
+        }
+        final int width = divideRoundingUp(options.outWidth, options.inSampleSize);
+        final int height = divideRoundingUp(options.outHeight, options.inSampleSize);
+        final Bitmap pooled = mPool.get(width * height * bytesPerPixel);
+        options.inBitmap = pooled;
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+        } catch (final IllegalArgumentException e) {
+            // The pooled bitmap could not take this image after all, decode into a new one
+            options.inBitmap = null;
+            bitmap = BitmapFactory.decodeByteArray(data, 0, length, options);
+        }
+
+        if (pooled != null && bitmap == pooled) {
+            mReusedCount.incrementAndGet();
+        } else {
+            if (pooled != null) {
+                mPool.put(pooled);
+            }
+            if (bitmap != null) {
+                mAllocatedCount.incrementAndGet();
+                mAllocatedBytes.addAndGet(bitmap.getAllocationByteCount());
+            }
+        }
+        mDecodeTimes.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+        return bitmap;
+    }
+
+    /**
+     * How long each decode took
+     * @return The decode times, in microseconds
+     */
+    LatencyHistogram getDecodeTimes() {
+        return mDecodeTimes;
+    }
+
+    /**
+     * The number of decodes drawn into a pooled bitmap
+     * @return The number of decodes
+     */
+    long getReusedCount() {
+        return mReusedCount.get();
+    }
+
+    /**
+     * The number of decodes that allocated a bitmap
+     * @return The number of decodes
+     */
+    long getAllocatedCount() {
+        return mAllocatedCount.get();
+    }
+
+    /**
+     * The number of bitmap bytes allocated by decodes
+     * @return The number of bytes
+     */
+    long getAllocatedBytes() {
+        return mAllocatedBytes.get();
+    }
+
+    /**
+     * Gets the largest power of two the image can be scaled down by while staying at least the target size
+     * @param width The width of the image
+     * @param height The height of the image
+     * @return The sample size
+     */
+    private int getSampleSize(final int width, final int height) {
+        int sampleSize = 1;
+        while (width / (sampleSize * 2) >= mTargetSize && height / (sampleSize * 2) >= mTargetSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    /**
+     * Reads a stream to the end into this thread's buffer, growing it as needed
+     * @param input The stream
+     * @return The number of bytes read
+     * @throws IOException If the stream could not be read
+     */
+    private int readFully(final InputStream input) throws IOException {
+        byte[] buffer = mBuffers.get();
+        int length = 0;
+        int read;
+        while (-1 != (read = input.read(buffer, length, buffer.length - length))) {
+            length += read;
+            if (length == buffer.length) {
+                final byte[] larger = new byte[buffer.length * 2];
+                System.arraycopy(buffer, 0, larger, 0, length);
+                buffer = larger;
+                mBuffers.set(buffer);
+            }
+        }
+        return length;
+    }
+
+    /**
+     * Divides, rounding up
+     * @param value The dividend
+     * @param divisor The divisor
+     * @return The quotient rounded up
+     */
+    private static int divideRoundingUp(final int value, final int divisor) {
+        return (value + divisor - 1) / divisor;
+    }
+}
@@ -0,0 +1,302 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+import android.util.Log;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads thumbnails on a bounded pool of workers, the most recently requested thumbnail is fetched first so the
+ * rows on screen are not stuck behind rows that have already scrolled away
+ */
+class ThumbnailScheduler {
+
+    /**
+     * How long idle workers are kept alive
+     */
+    private static final long WORKER_KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The application, used to reach the client
+     */
+    private final BaseApplication mApplication;
+
+    /**
+     * The workers
+     */
+    private final ThreadPoolExecutor mExecutor;
+
+    /**
+     * Requests that are queued or running, by item id
+     */
+    private final Map<String, Request> mRequests = new HashMap<>();
+
+    /**
+     * Source of request priorities, newer requests have higher numbers
+     */
+    private final AtomicLong mSequence = new AtomicLong();
+
+    /**
+     * Where the thumbnails are downloaded from
+     */
+    private final Source mSource;
+
+    /**
+     * Default constructor
+     * @param application The application
+     * @param workerCount The number of thumbnails that can be downloaded at the same time
+     */
+    ThumbnailScheduler(final BaseApplication application, final int workerCount) {
+        this(application, workerCount, new ServiceSource(application));
+    }
+
+    /**
+     * Creates a scheduler that downloads thumbnails from a source
+     * @param application The application
+     * @param workerCount The number of thumbnails that can be downloaded at the same time
+     * @param source Where the thumbnails are downloaded from
+     */
+    ThumbnailScheduler(final BaseApplication application, final int workerCount, final Source source) {
+        mApplication = application;
+        mSource = source;
+        mExecutor = new ThreadPoolExecutor(workerCount,
+                                           workerCount,
+                                           WORKER_KEEP_ALIVE_SECONDS,
+                                           TimeUnit.SECONDS,
+                                           new PriorityBlockingQueue<Runnable>());
+        mExecutor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Requests the thumbnail for an item, if the item was already requested the pending request is moved to the
+     * front of the queue rather than being issued again
+     * @param itemId The item id
+     * @param tag The version of the item the thumbnail is cached against
+     * @param listener Notified on the ui thread when the thumbnail arrives
+     */
+    synchronized void request(final String itemId, final String tag, final Listener listener) {
+        final Request existing = mRequests.get(itemId);
+        if (existing != null) {
+            existing.mListener = listener;
+            if (mExecutor.remove(existing)) {
+                existing.mPriority = mSequence.incrementAndGet();
+                mExecutor.execute(existing);
+            }
+            return;
+        }
+
+        final Request request = new Request(itemId, tag, listener, mSequence.incrementAndGet());
+        mRequests.put(itemId, request);
+        mExecutor.execute(request);
+    }
+
+    /**
+     * Drops the request for an item if it has not started yet, a request that is already downloading is allowed to
+     * finish so the thumbnail ends up in the cache
+     * @param itemId The item id
+     */
+    synchronized void cancel(final String itemId) {
+        final Request request = mRequests.get(itemId);
+        if (request != null && mExecutor.remove(request)) {
+            mRequests.remove(itemId);
+        }
+    }
+
+    /**
+     * Marks a request as finished
+     * @param request The request
+     */
+    private synchronized void complete(final Request request) {
+        if (mRequests.get(request.mItemId) == request) {
+            mRequests.remove(request.mItemId);
+        }
+    }
+
+    /**
+     * Downloads and decodes a thumbnail
+     * @param itemId The item id
+     * @param tag The version of the item the thumbnail is cached against
+     * @return The thumbnail, or null if it could not be retrieved
+     */
+    private Bitmap download(final String itemId, final String tag) {
+        final ThumbnailCache imageCache = mApplication.getImageCache();
+        final Bitmap foundImage = imageCache.get(itemId, tag);
+        if (foundImage != null) {
+            return foundImage;
+        }
+        Log.i(getClass().getSimpleName(), "Getting thumbnail for " + itemId);
+
+        InputStream in = null;
+        try {
+            in = mSource.open(itemId);
+            final Bitmap bitmap = mApplication.getThumbnailDecoder().decode(in);
+            if (bitmap != null) {
+                imageCache.put(itemId, tag, bitmap);
+            }
+            return bitmap;
+        } catch (final Throwable e) {
+            Log.e(getClass().getSimpleName(), "Thumbnail download failure", e);
+            return null;
+        } finally {
+            if (in != null) {
+                try {
+                    in.close();
+                } catch (final IOException e) {
+                    Log.d(getClass().getSimpleName(), "Problem closing thumbnail stream", e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Notified when a requested thumbnail has been retrieved
+     */
+    interface Listener {
+        /**
+         * Called on the ui thread when a thumbnail has been retrieved, at the start of a frame together with every
+         * other thumbnail that arrived since the last frame. The thumbnail is in the memory cache, and should be
+         * taken from there since it may have been evicted and reused by the time this is called
+         * @param itemId The item id
+         */
+        void onThumbnailLoaded(final String itemId);
+    }
+
+    /**
+     * Where thumbnails are downloaded from
+     */
+    interface Source {
+        /**
+         * Opens the content of the thumbnail of an item, this blocks until the response arrives
+         * @param itemId The item id
+         * @return The encoded thumbnail
+         */
+        InputStream open(String itemId);
+    }
+
+    /**
+     * Downloads thumbnails from OneDrive, in the size the transfer policy asks for
+     */
+    private static final class ServiceSource implements Source {
+
+        /**
+         * The application holding the client
+         */
+        private final BaseApplication mApplication;
+
+        /**
+         * Default constructor
+         * @param application The application holding the client
+         */
+        private ServiceSource(final BaseApplication application) {
+            mApplication = application;
+        }
+
+        @Override
+        public InputStream open(final String itemId) {
+            return mApplication.getOneDriveClient()
+                    .getDrive()
+                    .getItems(itemId)
+                    .getThumbnails("0")
+                    .getThumbnailSize(mApplication.getTransferPolicy().getThumbnailSize())
+                    .getContent()
+                    .buildRequest()
+                    .get();
+        }
+    }
+
+    /**
+     * A queued thumbnail download, ordered so that the newest request runs first
+     */
+    private final class Request implements Runnable, Comparable<Request> {
+
+        /**
+         * The item id
+         */
+        private final String mItemId;
+
+        /**
+         * The version of the item the thumbnail is cached against
+         */
+        private final String mTag;
+
+        /**
+         * Who to notify when the thumbnail arrives
+         */
+        private volatile Listener mListener;
+
+        /**
+         * The priority of this request, higher runs first
+         */
+        private long mPriority;
+
+        /**
+         * Default constructor
+         * @param itemId The item id
+         * @param tag The version of the item the thumbnail is cached against
+         * @param listener Who to notify when the thumbnail arrives
+         * @param priority The priority of this request, higher runs first
+         */
+        Request(final String itemId, final String tag, final Listener listener, final long priority) {
+            mItemId = itemId;
+            mTag = tag;
+            mListener = listener;
+            mPriority = priority;
+        }
+
+        @Override
+        public void run() {
+            final Bitmap thumbnail = download(mItemId, mTag);
+            complete(this);
+            if (thumbnail == null) {
+                return;
+            }
+            mApplication.getFrameCoalescer().post(new Runnable() {
+                @Override
+                public void run() {
+                    mListener.onThumbnailLoaded(mItemId);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(final Request another) {
+            if (mPriority == another.mPriority) {
+                return 0;
+            }
+            if (mPriority > another.mPriority) {
+                return -1;
+            }
+            return 1;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+/**
+ * How transfers should behave on the current network, a fresh policy is taken for each transfer so changes to the
+ * network apply to the next transfer rather than being pushed into running ones
+ */
+final class TransferPolicy {
+
+    /**
+     * The thumbnail size requested on unmetered networks
+     */
+    private static final String UNMETERED_THUMBNAIL_SIZE = "medium";
+
+    /**
+     * The thumbnail size requested on other networks
+     */
+    private static final String METERED_THUMBNAIL_SIZE = "small";
+
+    /**
+     * The number of aligned blocks in an upload chunk away from unmetered networks, small chunks lose less when a
+     * mobile connection drops
+     */
+    private static final int METERED_CHUNK_BLOCKS = 1;
+
+    /**
+     * The number of files downloaded at the same time away from unmetered networks
+     */
+    private static final int METERED_CONCURRENCY = 1;
+
+    /**
+     * The class of the active network
+     */
+    private final ConnectivityMonitor.NetworkClass mNetworkClass;
+
+    /**
+     * If transfers wait for an unmetered network
+     */
+    private final boolean mWaitForUnmetered;
+
+    /**
+     * Default constructor
+     * @param networkClass The class of the active network
+     * @param waitForUnmetered If transfers wait for an unmetered network
+     */
+    TransferPolicy(final ConnectivityMonitor.NetworkClass networkClass, final boolean waitForUnmetered) {
+        mNetworkClass = networkClass;
+        mWaitForUnmetered = waitForUnmetered;
+    }
+
+    /**
+     * The class of the active network
+     * @return The network class
+     */
+    ConnectivityMonitor.NetworkClass getNetworkClass() {
+        return mNetworkClass;
+    }
+
+    /**
+     * If uploads and downloads may start now, rather than being queued until the network changes
+     * @return If transfers may start
+     */
+    boolean canTransfer() {
+        switch (mNetworkClass) {
+            case Unmetered:
+                return true;
+            case Metered:
+                return !mWaitForUnmetered;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * The thumbnail size to request
+     * @return The thumbnail size name
+     */
+    String getThumbnailSize() {
+        if (mNetworkClass == ConnectivityMonitor.NetworkClass.Unmetered) {
+            return UNMETERED_THUMBNAIL_SIZE;
+        }
+        return METERED_THUMBNAIL_SIZE;
+    }
+
+    /**
+     * The number of aligned blocks to send in each upload chunk
+     * @param maxBlocks The most blocks a chunk can hold
+     * @return The number of blocks
+     */
+    int getUploadChunkBlocks(final int maxBlocks) {
+        if (mNetworkClass == ConnectivityMonitor.NetworkClass.Unmetered) {
+            return maxBlocks;
+        }
+        return Math.min(METERED_CHUNK_BLOCKS, maxBlocks);
+    }
+
+    /**
+     * The number of files to download at the same time
+     * @param maxConcurrency The most files that may be downloaded at the same time
+     * @return The number of files
+     */
+    int getDownloadConcurrency(final int maxConcurrency) {
+        if (mNetworkClass == ConnectivityMonitor.NetworkClass.Unmetered) {
+            return maxConcurrency;
+        }
+        return Math.min(METERED_CONCURRENCY, maxConcurrency);
+    }
+}
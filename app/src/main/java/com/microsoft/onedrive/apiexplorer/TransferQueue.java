@@ -0,0 +1,775 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.core.OneDriveErrorCodes;
+import com.onedrive.sdk.extensions.Item;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The durable queue of uploads and downloads run by {@link TransferService}. Every change of a job's state is
+ * journaled before it takes effect, so after the process is killed the jobs that were running start again, and
+ * uploads continue from the last chunk the service accepted
+ */
+class TransferQueue implements ConnectivityMonitor.Listener {
+
+    /**
+     * The preferences file that journals the jobs
+     */
+    private static final String PREFERENCES_NAME = "transfer_queue";
+
+    /**
+     * The json property for the kind of transfer
+     */
+    private static final String KIND = "kind";
+
+    /**
+     * The json property for the item id, the destination folder of an upload or the item to download
+     */
+    private static final String ITEM_ID = "itemId";
+
+    /**
+     * The json property for the source uri of an upload
+     */
+    private static final String SOURCE = "source";
+
+    /**
+     * The json property for the name of the file
+     */
+    private static final String NAME = "name";
+
+    /**
+     * The json property for when the job was queued
+     */
+    private static final String QUEUED_AT = "queuedAt";
+
+    /**
+     * The json property for the state of the job
+     */
+    private static final String STATE = "state";
+
+    /**
+     * The json property for the number of failed attempts
+     */
+    private static final String ATTEMPTS = "attempts";
+
+    /**
+     * The json property for when the job is next attempted
+     */
+    private static final String NEXT_ATTEMPT_AT = "nextAttemptAt";
+
+    /**
+     * The number of attempts before a job is abandoned
+     */
+    private static final int MAX_ATTEMPTS = 5;
+
+    /**
+     * The delay before the first retry, doubled for each further retry
+     */
+    private static final long BASE_RETRY_DELAY_MS = 5 * 1000;
+
+    /**
+     * The longest delay between retries
+     */
+    private static final long MAX_RETRY_DELAY_MS = 10 * 60 * 1000;
+
+    /**
+     * The fraction the retry delay is randomly varied by, so jobs that failed together do not retry together
+     */
+    private static final double JITTER = 0.2;
+
+    /**
+     * Returned by {@link #getNextAttemptTime()} when there is nothing left to run
+     */
+    static final long NO_ATTEMPT = -1;
+
+    /**
+     * The application, used to start the service
+     */
+    private final BaseApplication mApplication;
+
+    /**
+     * The journal
+     */
+    private final SharedPreferences mPreferences;
+
+    /**
+     * The jobs by id, in the order they were queued
+     */
+    private final Map<String, Job> mJobs = new LinkedHashMap<>();
+
+    /**
+     * The ids of jobs the user cancelled while they were running
+     */
+    private final Set<String> mCancelled = new HashSet<>();
+
+    /**
+     * The listeners, notified on the ui thread
+     */
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Delivers changes to the listeners
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * Varies the retry delays
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * Default constructor, reads the journal and restarts the jobs that were running when the process stopped
+     * @param application The application
+     * @param pendingSessions The upload sessions that have not been completed, those that no job accounts for are
+     *                        adopted as jobs
+     */
+    TransferQueue(final BaseApplication application, final List<UploadSessionStore.Session> pendingSessions) {
+        mApplication = application;
+        mPreferences = application.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+
+        final JsonParser parser = new JsonParser();
+        final List<Job> jobs = new ArrayList<>();
+        for (final Map.Entry<String, ?> entry : mPreferences.getAll().entrySet()) {
+            jobs.add(Job.fromJson(entry.getKey(), parser.parse(entry.getValue().toString()).getAsJsonObject()));
+        }
+        Collections.sort(jobs, new Comparator<Job>() {
+            @Override
+            public int compare(final Job lhs, final Job rhs) {
+                return Long.valueOf(lhs.mQueuedAt).compareTo(rhs.mQueuedAt);
+            }
+        });
+
+        final SharedPreferences.Editor editor = mPreferences.edit();
+        for (final Job job : jobs) {
+            if (job.mState == State.Running) {
+                Log.i(getClass().getSimpleName(), "Restarting interrupted transfer of " + job.mName);
+                job.mState = State.Queued;
+                editor.putString(job.mId, job.toJson().toString());
+            }
+            mJobs.put(job.mId, job);
+        }
+        for (final UploadSessionStore.Session session : pendingSessions) {
+            if (!hasUpload(session)) {
+                final Job job = new Job(UUID.randomUUID().toString(),
+                                        Kind.Upload,
+                                        session.getParentId(),
+                                        session.getSource(),
+                                        session.getFileName());
+                mJobs.put(job.mId, job);
+                editor.putString(job.mId, job.toJson().toString());
+            }
+        }
+        editor.commit();
+    }
+
+    /**
+     * Queues the upload of a file into a folder
+     * @param parentId The id of the folder to upload into
+     * @param source The local file
+     * @param fileName The name of the file on OneDrive
+     */
+    void submitUpload(final String parentId, final Uri source, final String fileName) {
+        submit(new Job(UUID.randomUUID().toString(), Kind.Upload, parentId, source, fileName));
+    }
+
+    /**
+     * Queues the download of an item, and everything below it for a folder
+     * @param item The item to download
+     */
+    void submitDownload(final Item item) {
+        submit(new Job(UUID.randomUUID().toString(), Kind.Download, item.id, null, item.name));
+    }
+
+    /**
+     * Cancels a job, a running job stops at its next checkpoint
+     * @param jobId The job id
+     */
+    synchronized void cancel(final String jobId) {
+        final Job job = mJobs.get(jobId);
+        if (job == null) {
+            return;
+        }
+        if (job.mState == State.Running) {
+            mCancelled.add(jobId);
+            return;
+        }
+        finish(job, State.Cancelled);
+    }
+
+    /**
+     * Cancels every job, for when the account that queued them signs out
+     */
+    synchronized void cancelAll() {
+        for (final Job job : new ArrayList<>(mJobs.values())) {
+            cancel(job.mId);
+        }
+    }
+
+    /**
+     * If a running job has been cancelled
+     * @param jobId The job id
+     * @return If the job should stop
+     */
+    synchronized boolean isCancelled(final String jobId) {
+        return mCancelled.contains(jobId);
+    }
+
+    /**
+     * Gets a snapshot of every job that has not finished
+     * @return The jobs, in the order they were queued
+     */
+    synchronized List<Job> getJobs() {
+        final List<Job> jobs = new ArrayList<>();
+        for (final Job job : mJobs.values()) {
+            jobs.add(job.copy());
+        }
+        return jobs;
+    }
+
+    /**
+     * The number of jobs that have not finished
+     * @return The job count
+     */
+    synchronized int getQueuedCount() {
+        return mJobs.size();
+    }
+
+    /**
+     * The number of jobs waiting to be retried after a failure
+     * @return The waiting job count
+     */
+    synchronized int getWaitingCount() {
+        int waiting = 0;
+        for (final Job job : mJobs.values()) {
+            if (job.mState == State.Waiting) {
+                waiting++;
+            }
+        }
+        return waiting;
+    }
+
+    /**
+     * Starts telling a listener about changes to the jobs
+     * @param listener The listener
+     */
+    void addListener(final Listener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Stops telling a listener about changes to the jobs
+     * @param listener The listener
+     */
+    void removeListener(final Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    @Override
+    public void onNetworkClassChanged(final ConnectivityMonitor.NetworkClass networkClass) {
+        startIfAllowed();
+    }
+
+    /**
+     * Starts the service if there are jobs, a client to run them with and the transfer policy allows it
+     */
+    void startIfAllowed() {
+        if (getQueuedCount() != 0
+                && mApplication.hasOneDriveClient()
+                && mApplication.getTransferPolicy().canTransfer()) {
+            TransferService.start(mApplication);
+        }
+    }
+
+    /**
+     * Takes the oldest job that is due to run and marks it as running, for the service
+     * @return A snapshot of the job, or null if no job is due
+     */
+    synchronized Job start() {
+        final long now = System.currentTimeMillis();
+        for (final Job job : mJobs.values()) {
+            if (job.mState == State.Queued || (job.mState == State.Waiting && job.mNextAttemptAt <= now)) {
+                job.mState = State.Running;
+                job.mBytesDone = 0;
+                job.mBytesTotal = 0;
+                save(job);
+                notifyChanged(job);
+                return job.copy();
+            }
+        }
+        return null;
+    }
+
+    /**
+     * When the service should next look for a job
+     * @return The time in milliseconds since the epoch, or {@link #NO_ATTEMPT} if no job is waiting to run
+     */
+    synchronized long getNextAttemptTime() {
+        long next = NO_ATTEMPT;
+        for (final Job job : mJobs.values()) {
+            if (job.mState == State.Queued) {
+                return 0;
+            }
+            if (job.mState == State.Waiting && (next == NO_ATTEMPT || job.mNextAttemptAt < next)) {
+                next = job.mNextAttemptAt;
+            }
+        }
+        return next;
+    }
+
+    /**
+     * Records the progress of a running job, progress is not journaled since the transfers resume from what the
+     * service and the local files hold
+     * @param jobId The job id
+     * @param bytesDone The bytes transferred
+     * @param bytesTotal The total bytes to transfer, zero if not known yet
+     */
+    synchronized void progress(final String jobId, final long bytesDone, final long bytesTotal) {
+        final Job job = mJobs.get(jobId);
+        if (job != null) {
+            job.mBytesDone = bytesDone;
+            job.mBytesTotal = bytesTotal;
+            notifyChanged(job);
+        }
+    }
+
+    /**
+     * Records that a running job completed
+     * @param jobId The job id
+     */
+    synchronized void complete(final String jobId) {
+        final Job job = mJobs.get(jobId);
+        if (job != null) {
+            finish(job, State.Complete);
+        }
+    }
+
+    /**
+     * Records that a running job stopped, it is retried after a delay unless it was cancelled, has run out of
+     * attempts or failed in a way another attempt would repeat
+     * @param jobId The job id
+     * @param error The failure
+     * @return The state the job was left in, {@link State#Waiting} if it will be retried
+     */
+    synchronized State fail(final String jobId, final ClientException error) {
+        final Job job = mJobs.get(jobId);
+        if (job == null) {
+            return State.Cancelled;
+        }
+        if (mCancelled.contains(jobId)) {
+            finish(job, State.Cancelled);
+            return State.Cancelled;
+        }
+        Log.w(getClass().getSimpleName(), "Transfer of " + job.mName + " failed", error);
+        job.mAttempts++;
+        if (job.mAttempts >= MAX_ATTEMPTS || error.isError(OneDriveErrorCodes.NameAlreadyExists)) {
+            finish(job, State.Failed);
+            return State.Failed;
+        }
+        double delay = Math.min(MAX_RETRY_DELAY_MS, BASE_RETRY_DELAY_MS << (job.mAttempts - 1));
+        delay *= 1 + JITTER * (mRandom.nextDouble() * 2 - 1);
+        job.mState = State.Waiting;
+        job.mNextAttemptAt = System.currentTimeMillis() + (long) delay;
+        save(job);
+        notifyChanged(job);
+        return State.Waiting;
+    }
+
+    /**
+     * Puts a running job back in the queue without counting an attempt, for when the network went away
+     * @param jobId The job id
+     */
+    synchronized void requeue(final String jobId) {
+        final Job job = mJobs.get(jobId);
+        if (job == null) {
+            return;
+        }
+        if (mCancelled.contains(jobId)) {
+            finish(job, State.Cancelled);
+            return;
+        }
+        job.mState = State.Queued;
+        save(job);
+        notifyChanged(job);
+    }
+
+    /**
+     * Queues a new job and starts the service if it may run
+     * @param job The job
+     */
+    private void submit(final Job job) {
+        synchronized (this) {
+            mJobs.put(job.mId, job);
+            save(job);
+            notifyChanged(job);
+        }
+        startIfAllowed();
+    }
+
+    /**
+     * Removes a job that will not run again
+     * @param job The job
+     * @param state How the job finished
+     */
+    private void finish(final Job job, final State state) {
+        job.mState = state;
+        mJobs.remove(job.mId);
+        mCancelled.remove(job.mId);
+        mPreferences.edit().remove(job.mId).commit();
+        notifyChanged(job);
+    }
+
+    /**
+     * Journals a job
+     * @param job The job
+     */
+    private void save(final Job job) {
+        mPreferences.edit().putString(job.mId, job.toJson().toString()).commit();
+    }
+
+    /**
+     * If an upload job accounts for an upload session
+     * @param session The upload session
+     * @return If a job uploads the same file to the same place
+     */
+    private boolean hasUpload(final UploadSessionStore.Session session) {
+        for (final Job job : mJobs.values()) {
+            if (job.mKind == Kind.Upload
+                    && job.mItemId.equals(session.getParentId())
+                    && job.mName.equals(session.getFileName())
+                    && session.getSource().equals(job.mSource)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tells the listeners about a change to a job
+     * @param job The job
+     */
+    private void notifyChanged(final Job job) {
+        if (mListeners.isEmpty()) {
+            return;
+        }
+        final Job snapshot = job.copy();
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (final Listener listener : mListeners) {
+                    listener.onJobChanged(snapshot);
+                }
+            }
+        });
+    }
+
+    /**
+     * The kinds of transfer
+     */
+    enum Kind {
+
+        /**
+         * An upload of a local file
+         */
+        Upload,
+
+        /**
+         * A download of an item
+         */
+        Download
+    }
+
+    /**
+     * The states of a job
+     */
+    enum State {
+
+        /**
+         * Waiting for the service to run it
+         */
+        Queued,
+
+        /**
+         * Being run by the service
+         */
+        Running,
+
+        /**
+         * Waiting to be retried after a failure
+         */
+        Waiting,
+
+        /**
+         * Finished successfully
+         */
+        Complete,
+
+        /**
+         * Abandoned after running out of attempts
+         */
+        Failed,
+
+        /**
+         * Cancelled by the user
+         */
+        Cancelled
+    }
+
+    /**
+     * Told about changes to the jobs
+     */
+    interface Listener {
+
+        /**
+         * Called on the ui thread when a job changes state or makes progress
+         * @param job A snapshot of the job
+         */
+        void onJobChanged(Job job);
+    }
+
+    /**
+     * An upload or download
+     */
+    static final class Job {
+
+        /**
+         * The job id
+         */
+        private final String mId;
+
+        /**
+         * The kind of transfer
+         */
+        private final Kind mKind;
+
+        /**
+         * The destination folder of an upload or the item to download
+         */
+        private final String mItemId;
+
+        /**
+         * The local file of an upload, or null
+         */
+        private final Uri mSource;
+
+        /**
+         * The name of the file or folder
+         */
+        private final String mName;
+
+        /**
+         * When the job was queued
+         */
+        private long mQueuedAt;
+
+        /**
+         * The state of the job
+         */
+        private State mState = State.Queued;
+
+        /**
+         * The number of failed attempts
+         */
+        private int mAttempts;
+
+        /**
+         * When a waiting job is next attempted
+         */
+        private long mNextAttemptAt;
+
+        /**
+         * The bytes transferred by the current attempt
+         */
+        private long mBytesDone;
+
+        /**
+         * The total bytes to transfer, zero if not known yet
+         */
+        private long mBytesTotal;
+
+        /**
+         * Default constructor
+         * @param id The job id
+         * @param kind The kind of transfer
+         * @param itemId The destination folder of an upload or the item to download
+         * @param source The local file of an upload, or null
+         * @param name The name of the file or folder
+         */
+        private Job(final String id, final Kind kind, final String itemId, final Uri source, final String name) {
+            mId = id;
+            mKind = kind;
+            mItemId = itemId;
+            mSource = source;
+            mName = name;
+            mQueuedAt = System.currentTimeMillis();
+        }
+
+        /**
+         * Reads a journaled job
+         * @param id The job id
+         * @param json The journal entry
+         * @return The job
+         */
+        private static Job fromJson(final String id, final JsonObject json) {
+            Uri source = null;
+            final JsonElement sourceElement = json.get(SOURCE);
+            if (sourceElement != null) {
+                source = Uri.parse(sourceElement.getAsString());
+            }
+            final Job job = new Job(id,
+                                    Kind.valueOf(json.get(KIND).getAsString()),
+                                    json.get(ITEM_ID).getAsString(),
+                                    source,
+                                    json.get(NAME).getAsString());
+            job.mQueuedAt = json.get(QUEUED_AT).getAsLong();
+            if (json.has(STATE)) {
+                job.mState = State.valueOf(json.get(STATE).getAsString());
+                job.mAttempts = json.get(ATTEMPTS).getAsInt();
+                job.mNextAttemptAt = json.get(NEXT_ATTEMPT_AT).getAsLong();
+            }
+            return job;
+        }
+
+        /**
+         * Creates the journal entry of this job
+         * @return The journal entry
+         */
+        private JsonObject toJson() {
+            final JsonObject json = new JsonObject();
+            json.addProperty(KIND, mKind.name());
+            json.addProperty(ITEM_ID, mItemId);
+            if (mSource != null) {
+                json.addProperty(SOURCE, mSource.toString());
+            }
+            json.addProperty(NAME, mName);
+            json.addProperty(QUEUED_AT, mQueuedAt);
+            json.addProperty(STATE, mState.name());
+            json.addProperty(ATTEMPTS, mAttempts);
+            json.addProperty(NEXT_ATTEMPT_AT, mNextAttemptAt);
+            return json;
+        }
+
+        /**
+         * Copies this job, so a snapshot can be handed to another thread
+         * @return The copy
+         */
+        private Job copy() {
+            final Job copy = new Job(mId, mKind, mItemId, mSource, mName);
+            copy.mQueuedAt = mQueuedAt;
+            copy.mState = mState;
+            copy.mAttempts = mAttempts;
+            copy.mNextAttemptAt = mNextAttemptAt;
+            copy.mBytesDone = mBytesDone;
+            copy.mBytesTotal = mBytesTotal;
+            return copy;
+        }
+
+        /**
+         * The job id
+         * @return The job id
+         */
+        String getId() {
+            return mId;
+        }
+
+        /**
+         * The kind of transfer
+         * @return The kind
+         */
+        Kind getKind() {
+            return mKind;
+        }
+
+        /**
+         * The destination folder of an upload or the item to download
+         * @return The item id
+         */
+        String getItemId() {
+            return mItemId;
+        }
+
+        /**
+         * The local file of an upload
+         * @return The source uri, or null for a download
+         */
+        Uri getSource() {
+            return mSource;
+        }
+
+        /**
+         * The name of the file or folder
+         * @return The name
+         */
+        String getName() {
+            return mName;
+        }
+
+        /**
+         * The state of the job
+         * @return The state
+         */
+        State getState() {
+            return mState;
+        }
+
+        /**
+         * The bytes transferred by the current attempt
+         * @return The bytes done
+         */
+        long getBytesDone() {
+            return mBytesDone;
+        }
+
+        /**
+         * The total bytes to transfer
+         * @return The bytes total, zero if not known yet
+         */
+        long getBytesTotal() {
+            return mBytesTotal;
+        }
+    }
+}
@@ -0,0 +1,403 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.core.OneDriveErrorCodes;
+import com.onedrive.sdk.extensions.Item;
+
+import android.app.Notification;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+import android.widget.Toast;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Runs the jobs in the {@link TransferQueue} one at a time in the foreground, so uploads and downloads carry on
+ * when the user leaves the application, and retries failed jobs when their backoff expires
+ */
+public class TransferService extends Service {
+
+    /**
+     * The action that cancels a job
+     */
+    static final String ACTION_CANCEL = "com.microsoft.onedrive.apiexplorer.action.CANCEL_TRANSFER";
+
+    /**
+     * The extra holding the id of the job to cancel
+     */
+    static final String EXTRA_JOB_ID = "jobId";
+
+    /**
+     * The id of the progress notification
+     */
+    private static final int NOTIFICATION_ID = 1;
+
+    /**
+     * The resolution of the notification progress bar
+     */
+    private static final int PROGRESS_MAX = 1000;
+
+    /**
+     * The shortest time between notification updates
+     */
+    private static final long NOTIFICATION_INTERVAL_MS = 500;
+
+    /**
+     * How often a running download is checked for progress and cancellation
+     */
+    private static final long DOWNLOAD_POLL_INTERVAL_MS = 500;
+
+    /**
+     * Runs the jobs
+     */
+    private HandlerThread mThread;
+
+    /**
+     * Posts to the job thread
+     */
+    private Handler mHandler;
+
+    /**
+     * Posts toasts to the ui thread
+     */
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /**
+     * The latest start id, the service only stops if no start has arrived since
+     */
+    private volatile int mLastStartId;
+
+    /**
+     * When the notification was last updated
+     */
+    private long mLastNotificationAt;
+
+    /**
+     * Runs the next job that is due
+     */
+    private final Runnable mRunNext = new Runnable() {
+        @Override
+        public void run() {
+            runNext();
+        }
+    };
+
+    /**
+     * Starts the service if it is not running, and has it look for jobs
+     * @param context The context
+     */
+    static void start(final Context context) {
+        context.startService(new Intent(context, TransferService.class));
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        mThread = new HandlerThread(getClass().getSimpleName());
+        mThread.start();
+        mHandler = new Handler(mThread.getLooper());
+    }
+
+    @Override
+    public int onStartCommand(final Intent intent, final int flags, final int startId) {
+        mLastStartId = startId;
+        if (intent != null && ACTION_CANCEL.equals(intent.getAction())) {
+            getQueue().cancel(intent.getStringExtra(EXTRA_JOB_ID));
+        }
+        mHandler.removeCallbacks(mRunNext);
+        mHandler.post(mRunNext);
+        // Jobs need a signed in client, which does not survive the process, so they resume on the next sign in
+        return START_NOT_STICKY;
+    }
+
+    @Override
+    public void onDestroy() {
+        mThread.quit();
+        super.onDestroy();
+    }
+
+    @Override
+    public IBinder onBind(final Intent intent) {
+        return null;
+    }
+
+    /**
+     * Gets the application
+     * @return The application
+     */
+    private BaseApplication getBaseApplication() {
+        return (BaseApplication) getApplication();
+    }
+
+    /**
+     * Gets the transfer queue
+     * @return The transfer queue
+     */
+    private TransferQueue getQueue() {
+        return getBaseApplication().getTransferQueue();
+    }
+
+    /**
+     * Runs the next job that is due, or waits for the next retry, or stops when there is nothing left that can run
+     */
+    private void runNext() {
+        final BaseApplication application = getBaseApplication();
+        final TransferQueue queue = getQueue();
+        if (!application.hasOneDriveClient() || !application.getTransferPolicy().canTransfer()) {
+            stop();
+            return;
+        }
+
+        final TransferQueue.Job job = queue.start();
+        if (job == null) {
+            final long next = queue.getNextAttemptTime();
+            if (next == TransferQueue.NO_ATTEMPT) {
+                stop();
+                return;
+            }
+            mHandler.postDelayed(mRunNext, Math.max(0, next - System.currentTimeMillis()));
+            return;
+        }
+
+        mLastNotificationAt = 0;
+        startForeground(NOTIFICATION_ID, buildNotification(job, 0, 0));
+        try {
+            if (job.getKind() == TransferQueue.Kind.Upload) {
+                runUpload(job);
+                toast(getString(R.string.upload_complete, job.getName()));
+            } else {
+                final int files = runDownload(job);
+                toast(getString(R.string.download_complete,
+                                files,
+                                application.getDownloadEngine().getDownloadDirectory()));
+            }
+            queue.complete(job.getId());
+        } catch (final ClientException e) {
+            onJobFailed(job, e);
+        } catch (final RuntimeException e) {
+            // e.g. the client went away with a sign out, or a response could not be parsed, the job must not be
+            // left running in the journal
+            onJobFailed(job, new ClientException("Transfer of " + job.getName() + " failed",
+                                                 e,
+                                                 OneDriveErrorCodes.GeneralException));
+        }
+        mHandler.post(mRunNext);
+    }
+
+    /**
+     * Requeues a job that stopped because the network went away, otherwise records the failure so the job is retried
+     * or given up on
+     * @param job The job
+     * @param error The failure
+     */
+    private void onJobFailed(final TransferQueue.Job job, final ClientException error) {
+        final TransferQueue queue = getQueue();
+        if (!getBaseApplication().getTransferPolicy().canTransfer()) {
+            // The network went away, which is not the job's fault
+            queue.requeue(job.getId());
+        } else if (queue.fail(job.getId(), error) == TransferQueue.State.Failed) {
+            Log.e(getClass().getSimpleName(), "Giving up on " + job.getName(), error);
+            toastFailure(job, error);
+        }
+    }
+
+    /**
+     * Uploads a file, resuming the upload session of an earlier attempt
+     * @param job The job
+     * @throws ClientException If the upload failed or was cancelled
+     */
+    private void runUpload(final TransferQueue.Job job) throws ClientException {
+        getBaseApplication().getChunkedUploader().upload(job.getItemId(),
+                                                         job.getSource(),
+                                                         job.getName(),
+                                                         new ChunkedUploader.Progress() {
+            @Override
+            public boolean onProgress(final long current, final long max) {
+                onJobProgress(job, current, max);
+                return !getQueue().isCancelled(job.getId());
+            }
+        });
+    }
+
+    /**
+     * Downloads an item, and everything below it for a folder, files completed by an earlier attempt are skipped
+     * @param job The job
+     * @return The number of files downloaded
+     * @throws ClientException If any file could not be downloaded, or the download was cancelled
+     */
+    private int runDownload(final TransferQueue.Job job) throws ClientException {
+        final BaseApplication application = getBaseApplication();
+        final Item item = application.getOneDriveClient().getDrive().getItems(job.getItemId()).buildRequest().get();
+        final CountDownLatch finished = new CountDownLatch(1);
+        final AtomicReference<ClientException> failure = new AtomicReference<>();
+        final DownloadEngine.Download download = application.getDownloadEngine().download(item,
+                new DownloadEngine.Listener() {
+            @Override
+            public void onProgress(final DownloadEngine.Download download) {
+                // Progress is polled on the job thread
+            }
+
+            @Override
+            public void onComplete(final DownloadEngine.Download download) {
+                finished.countDown();
+            }
+
+            @Override
+            public void onFailure(final DownloadEngine.Download download, final ClientException error) {
+                failure.set(error);
+                finished.countDown();
+            }
+        });
+
+        try {
+            while (!finished.await(DOWNLOAD_POLL_INTERVAL_MS, TimeUnit.MILLISECONDS)) {
+                if (getQueue().isCancelled(job.getId())) {
+                    download.cancel();
+                    throw new ClientException("Download of " + job.getName() + " was cancelled",
+                                              null,
+                                              OneDriveErrorCodes.GeneralException);
+                }
+                onJobProgress(job, download.getBytesDone(), download.getBytesTotal());
+            }
+        } catch (final InterruptedException e) {
+            download.cancel();
+            throw new ClientException("Download of " + job.getName() + " was interrupted",
+                                      e,
+                                      OneDriveErrorCodes.GeneralException);
+        }
+
+        if (failure.get() != null) {
+            throw failure.get();
+        }
+        if (download.getFilesFailed() != 0) {
+            throw new ClientException(getString(R.string.download_incomplete,
+                                                download.getFilesFailed(),
+                                                download.getFilesTotal()),
+                                      null,
+                                      OneDriveErrorCodes.GeneralException);
+        }
+        return download.getFilesDone();
+    }
+
+    /**
+     * Records the progress of the running job and updates the notification, at most every
+     * {@link #NOTIFICATION_INTERVAL_MS}
+     * @param job The job
+     * @param current The bytes transferred
+     * @param max The total bytes to transfer, zero if not known yet
+     */
+    private void onJobProgress(final TransferQueue.Job job, final long current, final long max) {
+        getQueue().progress(job.getId(), current, max);
+        final long now = SystemClock.elapsedRealtime();
+        if (now - mLastNotificationAt < NOTIFICATION_INTERVAL_MS) {
+            return;
+        }
+        mLastNotificationAt = now;
+        startForeground(NOTIFICATION_ID, buildNotification(job, current, max));
+    }
+
+    /**
+     * Builds the progress notification for a job, with an action to cancel it
+     * @param job The job
+     * @param current The bytes transferred
+     * @param max The total bytes to transfer, zero if not known yet
+     * @return The notification
+     */
+    private Notification buildNotification(final TransferQueue.Job job, final long current, final long max) {
+        final Intent cancel = new Intent(this, TransferService.class)
+            .setAction(ACTION_CANCEL)
+            .putExtra(EXTRA_JOB_ID, job.getId());
+        final PendingIntent cancelIntent = PendingIntent.getService(this,
+                                                                    0,
+                                                                    cancel,
+                                                                    PendingIntent.FLAG_UPDATE_CURRENT);
+
+        final Notification.Builder builder = new Notification.Builder(this)
+            .setContentTitle(job.getName())
+            .setOngoing(true)
+            .setOnlyAlertOnce(true)
+            .addAction(android.R.drawable.ic_menu_close_clear_cancel, getString(android.R.string.cancel), cancelIntent);
+        if (job.getKind() == TransferQueue.Kind.Upload) {
+            builder.setSmallIcon(android.R.drawable.stat_sys_upload)
+                .setContentText(getString(R.string.upload_in_progress_message));
+        } else {
+            builder.setSmallIcon(android.R.drawable.stat_sys_download)
+                .setContentText(getString(R.string.download_in_progress_title));
+        }
+        if (max > 0) {
+            builder.setProgress(PROGRESS_MAX, (int) (current * PROGRESS_MAX / max), false);
+        } else {
+            builder.setProgress(0, 0, true);
+        }
+        return builder.build();
+    }
+
+    /**
+     * Tells the user a job has been given up on
+     * @param job The job
+     * @param error The last failure
+     */
+    private void toastFailure(final TransferQueue.Job job, final ClientException error) {
+        if (error.isError(OneDriveErrorCodes.NameAlreadyExists)) {
+            toast(getString(R.string.upload_failed_name_conflict));
+        } else if (job.getKind() == TransferQueue.Kind.Upload) {
+            toast(getString(R.string.upload_failed, job.getName()));
+        } else {
+            toast(getString(R.string.download_failed, job.getName()));
+        }
+    }
+
+    /**
+     * Shows a toast from the job thread
+     * @param message The message
+     */
+    private void toast(final String message) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(TransferService.this, message, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Removes the notification and stops the service, unless it has been started again since
+     */
+    private void stop() {
+        stopForeground(true);
+        stopSelf(mLastStartId);
+    }
+}
@@ -0,0 +1,98 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
+/**
+ * A range of a local file sent as a request body. The range is transferred from the file channel into the
+ * connection, so the file is never read into a buffer of the body's size, and can be sent again from the same
+ * position if the request has to be retried
+ */
+final class UploadBody {
+
+    /**
+     * The file
+     */
+    private final FileChannel mChannel;
+
+    /**
+     * The offset of the range within the file
+     */
+    private final long mOffset;
+
+    /**
+     * The length of the range
+     */
+    private final long mLength;
+
+    /**
+     * Default constructor
+     * @param channel The file, positional reads are used so the channel position is left alone
+     * @param offset The offset of the range within the file
+     * @param length The length of the range
+     */
+    UploadBody(final FileChannel channel, final long offset, final long length) {
+        mChannel = channel;
+        mOffset = offset;
+        mLength = length;
+    }
+
+    /**
+     * The offset of the range within the file
+     * @return The offset
+     */
+    long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * The length of the range
+     * @return The length in bytes
+     */
+    long getLength() {
+        return mLength;
+    }
+
+    /**
+     * Writes the range to a request body
+     * @param output The request body, this is not closed
+     * @throws IOException If the file ended before the range did, or the body could not be written
+     */
+    void writeTo(final OutputStream output) throws IOException {
+        final WritableByteChannel target = Channels.newChannel(output);
+        long sent = 0;
+        while (sent < mLength) {
+            final long transferred = mChannel.transferTo(mOffset + sent, mLength - sent, target);
+            if (transferred <= 0) {
+                throw new IOException("The file changed while it was being uploaded");
+            }
+            sent += transferred;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.Uri;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Persists in flight upload sessions so they can be resumed after the process is restarted
+ */
+class UploadSessionStore {
+
+    /**
+     * The preferences file that holds the upload sessions
+     */
+    private static final String PREFERENCES_NAME = "upload_sessions";
+
+    /**
+     * The json property for the upload url
+     */
+    private static final String UPLOAD_URL = "uploadUrl";
+
+    /**
+     * The json property for the source uri
+     */
+    private static final String SOURCE = "source";
+
+    /**
+     * The json property for the parent item id
+     */
+    private static final String PARENT_ID = "parentId";
+
+    /**
+     * The json property for the file name
+     */
+    private static final String FILE_NAME = "fileName";
+
+    /**
+     * The json property for the file size
+     */
+    private static final String SIZE = "size";
+
+    /**
+     * The backing preferences
+     */
+    private final SharedPreferences mPreferences;
+
+    /**
+     * Default constructor
+     * @param context The context used to open the preferences
+     */
+    UploadSessionStore(final Context context) {
+        mPreferences = context.getSharedPreferences(PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Records an upload session
+     * @param session The session to save
+     */
+    void save(final Session session) {
+        final JsonObject json = new JsonObject();
+        json.addProperty(UPLOAD_URL, session.getUploadUrl());
+        json.addProperty(SOURCE, session.getSource().toString());
+        json.addProperty(PARENT_ID, session.getParentId());
+        json.addProperty(FILE_NAME, session.getFileName());
+        json.addProperty(SIZE, session.getSize());
+        mPreferences.edit().putString(session.getUploadUrl(), json.toString()).commit();
+    }
+
+    /**
+     * Forgets an upload session, either because it completed or can no longer be resumed
+     * @param session The session to remove
+     */
+    void remove(final Session session) {
+        mPreferences.edit().remove(session.getUploadUrl()).commit();
+    }
+
+    /**
+     * Forgets every upload session, for when the account that created them signs out
+     */
+    void clear() {
+        mPreferences.edit().clear().commit();
+    }
+
+    /**
+     * Gets all of the upload sessions that have not been completed
+     * @return The saved sessions
+     */
+    List<Session> getAll() {
+        final List<Session> sessions = new ArrayList<>();
+        final JsonParser parser = new JsonParser();
+        for (final Object value : mPreferences.getAll().values()) {
+            final JsonObject json = parser.parse(value.toString()).getAsJsonObject();
+            sessions.add(new Session(json.get(UPLOAD_URL).getAsString(),
+                                     Uri.parse(json.get(SOURCE).getAsString()),
+                                     json.get(PARENT_ID).getAsString(),
+                                     json.get(FILE_NAME).getAsString(),
+                                     json.get(SIZE).getAsLong()));
+        }
+        return sessions;
+    }
+
+    /**
+     * An upload session created on the service for a local file
+     */
+    static final class Session {
+
+        /**
+         * The url the chunks are sent to
+         */
+        private final String mUploadUrl;
+
+        /**
+         * The local file being uploaded
+         */
+        private final Uri mSource;
+
+        /**
+         * The id of the folder being uploaded into
+         */
+        private final String mParentId;
+
+        /**
+         * The name of the file on OneDrive
+         */
+        private final String mFileName;
+
+        /**
+         * The total size of the file
+         */
+        private final long mSize;
+
+        /**
+         * Default constructor
+         * @param uploadUrl The url the chunks are sent to
+         * @param source The local file being uploaded
+         * @param parentId The id of the folder being uploaded into
+         * @param fileName The name of the file on OneDrive
+         * @param size The total size of the file
+         */
+        Session(final String uploadUrl,
+                final Uri source,
+                final String parentId,
+                final String fileName,
+                final long size) {
+            mUploadUrl = uploadUrl;
+            mSource = source;
+            mParentId = parentId;
+            mFileName = fileName;
+            mSize = size;
+        }
+
+        /**
+         * The url the chunks are sent to
+         * @return The upload url
+         */
+        String getUploadUrl() {
+            return mUploadUrl;
+        }
+
+        /**
+         * The local file being uploaded
+         * @return The source uri
+         */
+        Uri getSource() {
+            return mSource;
+        }
+
+        /**
+         * The id of the folder being uploaded into
+         * @return The parent id
+         */
+        String getParentId() {
+            return mParentId;
+        }
+
+        /**
+         * The name of the file on OneDrive
+         * @return The file name
+         */
+        String getFileName() {
+            return mFileName;
+        }
+
+        /**
+         * The total size of the file
+         * @return The size in bytes
+         */
+        long getSize() {
+            return mSize;
+        }
+    }
+}
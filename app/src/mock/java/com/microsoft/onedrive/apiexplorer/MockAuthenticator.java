@@ -0,0 +1,136 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.authentication.AccountType;
+import com.onedrive.sdk.authentication.IAccountInfo;
+import com.onedrive.sdk.authentication.IAuthenticator;
+import com.onedrive.sdk.concurrency.ICallback;
+import com.onedrive.sdk.concurrency.IExecutors;
+import com.onedrive.sdk.http.IHttpProvider;
+import com.onedrive.sdk.logger.ILogger;
+
+import android.app.Activity;
+
+/**
+ * Signs in to {@link MockOneDriveServer} without asking the user anything, the account it signs in to points the
+ * client at the stand-in's service root
+ */
+class MockAuthenticator implements IAuthenticator {
+
+    /**
+     * The account every sign in produces
+     */
+    private final IAccountInfo mAccount;
+
+    /**
+     * Delivers the results of the asynchronous calls
+     */
+    private IExecutors mExecutors;
+
+    /**
+     * If the user is signed in
+     */
+    private volatile boolean mSignedIn;
+
+    /**
+     * Default constructor
+     * @param serviceRoot The url the stand-in is reached at
+     */
+    MockAuthenticator(final String serviceRoot) {
+        mAccount = new IAccountInfo() {
+            @Override
+            public AccountType getAccountType() {
+                return AccountType.MicrosoftAccount;
+            }
+
+            @Override
+            public String getAccessToken() {
+                return "mock";
+            }
+
+            @Override
+            public String getServiceRoot() {
+                return serviceRoot;
+            }
+
+            @Override
+            public boolean isExpired() {
+                return false;
+            }
+
+            @Override
+            public void refresh() {
+            }
+        };
+    }
+
+    @Override
+    public void init(final IExecutors executors,
+                     final IHttpProvider httpProvider,
+                     final Activity activity,
+                     final ILogger logger) {
+        mExecutors = executors;
+    }
+
+    @Override
+    public void login(final String emailAddressHint, final ICallback<IAccountInfo> loginCallback) {
+        mExecutors.performOnForeground(login(emailAddressHint), loginCallback);
+    }
+
+    @Override
+    public IAccountInfo login(final String emailAddressHint) {
+        mSignedIn = true;
+        return mAccount;
+    }
+
+    @Override
+    public void loginSilent(final ICallback<IAccountInfo> loginCallback) {
+        mExecutors.performOnForeground(loginSilent(), loginCallback);
+    }
+
+    @Override
+    public IAccountInfo loginSilent() {
+        return getAccountInfo();
+    }
+
+    @Override
+    public void logout(final ICallback<Void> logoutCallback) {
+        logout();
+        mExecutors.performOnForeground((Void) null, logoutCallback);
+    }
+
+    @Override
+    public void logout() {
+        mSignedIn = false;
+    }
+
+    @Override
+    public IAccountInfo getAccountInfo() {
+        if (mSignedIn) {
+            return mAccount;
+        }
+        return null;
+    }
+}
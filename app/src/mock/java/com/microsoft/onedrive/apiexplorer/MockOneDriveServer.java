@@ -0,0 +1,993 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import android.graphics.Bitmap;
+import android.graphics.Color;
+import android.net.Uri;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An in-process stand-in for the OneDrive service, serving a {@link SyntheticDrive} over http on the loopback
+ * interface so the application can be exercised without an account, a network or the service's variance. Every
+ * response is delayed by a fixed latency, bodies are sent and received at a fixed bandwidth, and a fraction of the
+ * requests fail as if the service were unavailable.
+ *
+ * Items, folder listings with paging, delta, thumbnails, downloads with ranges and upload sessions are served.
+ * The drive is read only, uploads are accepted and then discarded, and every other request is refused as not
+ * supported
+ */
+class MockOneDriveServer {
+
+    /**
+     * The path of the api below the server address
+     */
+    private static final String API_PATH = "/v1.0";
+
+    /**
+     * The number of items on a page when the request does not say
+     */
+    private static final int DEFAULT_PAGE_SIZE = 200;
+
+    /**
+     * The number of connections served at once
+     */
+    private static final int MAX_CONNECTIONS = 16;
+
+    /**
+     * How long idle connection threads are kept, in seconds
+     */
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    /**
+     * The size of the buffer bodies are sent and received with
+     */
+    private static final int BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * The number of milliseconds in a second
+     */
+    private static final long MILLIS_PER_SECOND = 1000;
+
+    /**
+     * The status code for a range an upload session was not expecting
+     */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * The character set of the request and status lines and headers
+     */
+    private static final Charset ASCII = Charset.forName("US-ASCII");
+
+    /**
+     * The character set of json bodies
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * Matches the item requests: the item id, the path below the item, and the rest of the request path
+     */
+    private static final Pattern ITEM_PATTERN = Pattern.compile("^/drive/(?:root|items/([^/:]+))(?::/(.*?):)?(/.*)?$");
+
+    /**
+     * The group of {@link #ITEM_PATTERN} holding the rest of the request path
+     */
+    private static final int ITEM_ACTION_GROUP = 3;
+
+    /**
+     * Matches delta requests: the token
+     */
+    private static final Pattern DELTA_PATTERN = Pattern.compile("^/view\\.delta(?:\\(token='([^']*)'\\))?$");
+
+    /**
+     * Matches thumbnail requests: the size
+     */
+    private static final Pattern THUMBNAIL_PATTERN = Pattern.compile("^/thumbnails/0/([a-z]+)/content$");
+
+    /**
+     * Matches upload session requests: the session id
+     */
+    private static final Pattern UPLOAD_PATTERN = Pattern.compile("^/uploads/([^/]+)$");
+
+    /**
+     * Matches download requests: the item id
+     */
+    private static final Pattern DOWNLOAD_PATTERN = Pattern.compile("^/downloads/([^/]+)$");
+
+    /**
+     * Matches the content range of an upload chunk: the first byte, the last byte and the file size
+     */
+    private static final Pattern CONTENT_RANGE_PATTERN = Pattern.compile("^bytes (\\d+)-(\\d+)/(\\d+)$");
+
+    /**
+     * The group of {@link #CONTENT_RANGE_PATTERN} holding the file size
+     */
+    private static final int CONTENT_RANGE_SIZE_GROUP = 3;
+
+    /**
+     * Matches the range of a download: the first byte and the optional last byte
+     */
+    private static final Pattern RANGE_PATTERN = Pattern.compile("^bytes=(\\d+)-(\\d*)$");
+
+    /**
+     * The delta token given once every item has been listed, there are never changes after it
+     */
+    private static final String LATEST_TOKEN = "latest";
+
+    /**
+     * The prefix of delta tokens for the next page, followed by the position to continue from
+     */
+    private static final String NEXT_TOKEN_PREFIX = "next.";
+
+    /**
+     * The prefix of the ids given to uploaded files, which are not part of the drive
+     */
+    private static final String UPLOADED_ID_PREFIX = "UPLOAD!";
+
+    /**
+     * The query option for the page size
+     */
+    private static final String TOP = "$top";
+
+    /**
+     * The query option for where a page starts
+     */
+    private static final String SKIP_TOKEN = "$skiptoken";
+
+    /**
+     * The query option for expanded relationships
+     */
+    private static final String EXPAND = "$expand";
+
+    /**
+     * The drive
+     */
+    private final SyntheticDrive mDrive;
+
+    /**
+     * The delay before every response
+     */
+    private final long mLatencyMs;
+
+    /**
+     * The bandwidth bodies are sent and received at, zero for no limit
+     */
+    private final long mBytesPerSecond;
+
+    /**
+     * The fraction of requests that fail
+     */
+    private final float mErrorRate;
+
+    /**
+     * Decides which requests fail
+     */
+    private final Random mRandom = new Random();
+
+    /**
+     * The listening socket
+     */
+    private final ServerSocket mServerSocket;
+
+    /**
+     * Serves the connections
+     */
+    private final ThreadPoolExecutor mConnections;
+
+    /**
+     * The open upload sessions, by id
+     */
+    private final Map<String, UploadSession> mUploads = new ConcurrentHashMap<>();
+
+    /**
+     * The encoded thumbnail of each size, created when first asked for
+     */
+    private final Map<String, byte[]> mThumbnails = new ConcurrentHashMap<>();
+
+    /**
+     * The number of files uploaded, used to give them ids
+     */
+    private final AtomicLong mUploadCount = new AtomicLong();
+
+    /**
+     * Default constructor, the server starts listening straight away
+     * @param drive The drive to serve
+     * @param latencyMs The delay before every response
+     * @param bytesPerSecond The bandwidth bodies are sent and received at, zero for no limit
+     * @param errorRate The fraction of requests that fail
+     * @throws IOException If the server could not listen
+     */
+    MockOneDriveServer(final SyntheticDrive drive,
+                       final long latencyMs,
+                       final long bytesPerSecond,
+                       final float errorRate) throws IOException {
+        mDrive = drive;
+        mLatencyMs = latencyMs;
+        mBytesPerSecond = bytesPerSecond;
+        mErrorRate = errorRate;
+        mServerSocket = new ServerSocket(0, MAX_CONNECTIONS, InetAddress.getByName("127.0.0.1"));
+        mDrive.setServiceRoot("http://127.0.0.1:" + mServerSocket.getLocalPort() + API_PATH);
+        mConnections = new ThreadPoolExecutor(MAX_CONNECTIONS,
+                                              MAX_CONNECTIONS,
+                                              KEEP_ALIVE_SECONDS,
+                                              TimeUnit.SECONDS,
+                                              new LinkedBlockingQueue<Runnable>());
+        mConnections.allowCoreThreadTimeOut(true);
+
+        final Thread acceptor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, getClass().getSimpleName());
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    /**
+     * The url the service is reached at
+     * @return The service root
+     */
+    String getServiceRoot() {
+        return mDrive.getServiceRoot();
+    }
+
+    /**
+     * Accepts connections until the server is closed
+     */
+    private void accept() {
+        while (!mServerSocket.isClosed()) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                mConnections.execute(new Runnable() {
+                    @Override
+                    public void run() {
+                        serve(socket);
+                    }
+                });
+            } catch (final IOException e) {
+                Log.w(getClass().getSimpleName(), "Unable to accept a connection", e);
+            }
+        }
+    }
+
+    /**
+     * Serves the one request of a connection
+     * @param socket The connection
+     */
+    private void serve(final Socket socket) {
+        try {
+            final Exchange exchange = new Exchange(socket);
+            if (exchange.mMethod == null) {
+                return;
+            }
+            SystemClock.sleep(mLatencyMs);
+            if (mRandom.nextFloat() < mErrorRate) {
+                exchange.sendError(HttpURLConnection.HTTP_UNAVAILABLE, "serviceNotAvailable", "Injected failure");
+                return;
+            }
+            route(exchange);
+        } catch (final IOException e) {
+            Log.w(getClass().getSimpleName(), "Unable to serve a request", e);
+        } catch (final RuntimeException e) {
+            // A malformed request, the connection is closed without a response
+            Log.w(getClass().getSimpleName(), "Unable to understand a request", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (final IOException e) {
+                Log.w(getClass().getSimpleName(), "Unable to close a connection", e);
+            }
+        }
+    }
+
+    /**
+     * Sends a request to its handler
+     * @param exchange The request
+     * @throws IOException If the response could not be sent
+     */
+    private void route(final Exchange exchange) throws IOException {
+        if (!exchange.mPath.startsWith(API_PATH)) {
+            exchange.sendError(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound", "Unknown path");
+            return;
+        }
+        final String path = exchange.mPath.substring(API_PATH.length());
+
+        Matcher matcher = UPLOAD_PATTERN.matcher(path);
+        if (matcher.matches()) {
+            serveUpload(exchange, matcher.group(1));
+            return;
+        }
+        matcher = DOWNLOAD_PATTERN.matcher(path);
+        if (matcher.matches()) {
+            serveDownload(exchange, mDrive.find(matcher.group(1)));
+            return;
+        }
+        matcher = ITEM_PATTERN.matcher(path);
+        if (!matcher.matches()) {
+            sendNotSupported(exchange);
+            return;
+        }
+
+        long position = 0;
+        if (matcher.group(1) != null) {
+            position = mDrive.find(matcher.group(1));
+        }
+        final String relativePath = matcher.group(2);
+        String action = matcher.group(ITEM_ACTION_GROUP);
+        if (action == null) {
+            action = "";
+        }
+        if ("/upload.createSession".equals(action) && "POST".equals(exchange.mMethod) && relativePath != null) {
+            createUploadSession(exchange, position, relativePath);
+            return;
+        }
+        if (position >= 0 && relativePath != null) {
+            position = mDrive.find(position, relativePath);
+        }
+        if (position < 0) {
+            exchange.sendError(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound", "Item does not exist");
+            return;
+        }
+        if (!"GET".equals(exchange.mMethod)) {
+            sendNotSupported(exchange);
+            return;
+        }
+
+        final Matcher delta = DELTA_PATTERN.matcher(action);
+        final Matcher thumbnail = THUMBNAIL_PATTERN.matcher(action);
+        if (action.isEmpty()) {
+            serveItem(exchange, position);
+        } else if ("/children".equals(action)) {
+            exchange.sendJson(HttpURLConnection.HTTP_OK, getChildren(exchange, position));
+        } else if ("/content".equals(action) && !mDrive.isFolder(position)) {
+            exchange.sendRedirect(mDrive.getServiceRoot() + "/downloads/" + SyntheticDrive.getId(position));
+        } else if (delta.matches()) {
+            serveDelta(exchange, position, delta.group(1));
+        } else if (thumbnail.matches() && mDrive.isImage(position)) {
+            serveThumbnail(exchange, thumbnail.group(1));
+        } else {
+            sendNotSupported(exchange);
+        }
+    }
+
+    /**
+     * Serves an item, with the expanded relationships asked for
+     * @param exchange The request
+     * @param position The position of the item
+     * @throws IOException If the response could not be sent
+     */
+    private void serveItem(final Exchange exchange, final long position) throws IOException {
+        final String expand = exchange.getQuery(EXPAND, "");
+        final JsonObject item = mDrive.toJson(position, expand.contains("thumbnails"));
+        if (expand.contains("children") && mDrive.isFolder(position)) {
+            final JsonObject children = getChildren(exchange, position);
+            item.add("children", children.get("value"));
+            if (children.has("@odata.nextLink")) {
+                item.add("children@odata.nextLink", children.get("@odata.nextLink"));
+            }
+        }
+        exchange.sendJson(HttpURLConnection.HTTP_OK, item);
+    }
+
+    /**
+     * Builds a page of the children of a folder
+     * @param exchange The request, which may give the page size and start
+     * @param position The position of the folder
+     * @return The page json
+     */
+    private JsonObject getChildren(final Exchange exchange, final long position) {
+        final int top = Integer.parseInt(exchange.getQuery(TOP, String.valueOf(DEFAULT_PAGE_SIZE)));
+        final long skip = Long.parseLong(exchange.getQuery(SKIP_TOKEN, "0"));
+        final boolean withThumbnails = exchange.getQuery(EXPAND, "").contains("thumbnails");
+        final long childCount = mDrive.getChildCount(position);
+        final long first = mDrive.getFirstChild(position);
+        final long end = Math.min(childCount, skip + top);
+
+        final JsonArray value = new JsonArray();
+        for (long i = skip; i < end; i++) {
+            value.add(mDrive.toJson(first + i, withThumbnails));
+        }
+        final JsonObject page = new JsonObject();
+        page.add("value", value);
+        if (end < childCount) {
+            String nextLink = String.format(Locale.ROOT,
+                                            "%s/drive/items/%s/children?%s=%d&%s=%d",
+                                            mDrive.getServiceRoot(),
+                                            SyntheticDrive.getId(position),
+                                            TOP,
+                                            top,
+                                            SKIP_TOKEN,
+                                            end);
+            if (withThumbnails) {
+                nextLink += "&" + EXPAND + "=thumbnails";
+            }
+            page.addProperty("@odata.nextLink", nextLink);
+        }
+        return page;
+    }
+
+    /**
+     * Serves a page of delta, which lists every item below a folder level by level and then reports no changes
+     * @param exchange The request
+     * @param position The position of the folder
+     * @param token The token from the previous page, or null to start from the beginning
+     * @throws IOException If the response could not be sent
+     */
+    private void serveDelta(final Exchange exchange, final long position, final String token) throws IOException {
+        long next = position;
+        if (LATEST_TOKEN.equals(token)) {
+            next = -1;
+        } else if (token != null && !token.isEmpty()) {
+            next = -1;
+            if (token.startsWith(NEXT_TOKEN_PREFIX)) {
+                next = Long.parseLong(token.substring(NEXT_TOKEN_PREFIX.length()));
+            }
+            if (next < 0) {
+                exchange.sendError(HttpURLConnection.HTTP_GONE, "resyncRequired", "Unknown delta token");
+                return;
+            }
+        }
+
+        final int top = Integer.parseInt(exchange.getQuery(TOP, String.valueOf(DEFAULT_PAGE_SIZE)));
+        final JsonArray value = new JsonArray();
+        while (next >= 0 && value.size() < top) {
+            value.add(mDrive.toJson(next, false));
+            next = mDrive.getNextBelow(position, next);
+        }
+
+        final String deltaUrl = mDrive.getServiceRoot() + "/drive/items/" + SyntheticDrive.getId(position)
+                                + "/view.delta(token='%s')";
+        final JsonObject page = new JsonObject();
+        page.add("value", value);
+        if (next >= 0) {
+            final String nextToken = NEXT_TOKEN_PREFIX + next;
+            page.addProperty("@delta.token", nextToken);
+            page.addProperty("@odata.nextLink", String.format(Locale.ROOT, deltaUrl, nextToken));
+        } else {
+            page.addProperty("@delta.token", LATEST_TOKEN);
+            page.addProperty("@odata.deltaLink", String.format(Locale.ROOT, deltaUrl, LATEST_TOKEN));
+        }
+        exchange.sendJson(HttpURLConnection.HTTP_OK, page);
+    }
+
+    /**
+     * Serves a thumbnail, every image has the same thumbnail of each size
+     * @param exchange The request
+     * @param size The name of the thumbnail size
+     * @throws IOException If the response could not be sent
+     */
+    private void serveThumbnail(final Exchange exchange, final String size) throws IOException {
+        final int edge = SyntheticDrive.getThumbnailEdge(size);
+        if (edge < 0) {
+            exchange.sendError(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound", "Unknown thumbnail size");
+            return;
+        }
+        byte[] thumbnail = mThumbnails.get(size);
+        if (thumbnail == null) {
+            final Bitmap bitmap = Bitmap.createBitmap(edge, edge, Bitmap.Config.ARGB_8888);
+            bitmap.eraseColor(Color.GRAY);
+            final ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            bitmap.compress(Bitmap.CompressFormat.PNG, 0, encoded);
+            bitmap.recycle();
+            thumbnail = encoded.toByteArray();
+            mThumbnails.put(size, thumbnail);
+        }
+        exchange.sendHeaders(HttpURLConnection.HTTP_OK, "image/png", thumbnail.length);
+        exchange.writeBody(thumbnail, thumbnail.length);
+    }
+
+    /**
+     * Serves the content of a file, or the part of it asked for by a range
+     * @param exchange The request
+     * @param position The position of the file
+     * @throws IOException If the response could not be sent
+     */
+    private void serveDownload(final Exchange exchange, final long position) throws IOException {
+        if (position < 0 || mDrive.isFolder(position)) {
+            exchange.sendError(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound", "File does not exist");
+            return;
+        }
+        final long size = mDrive.getSize(position);
+        long first = 0;
+        long last = size - 1;
+        int status = HttpURLConnection.HTTP_OK;
+        final String range = exchange.mHeaders.get("range");
+        if (range != null) {
+            final Matcher matcher = RANGE_PATTERN.matcher(range);
+            if (matcher.matches()) {
+                first = Long.parseLong(matcher.group(1));
+                if (!matcher.group(2).isEmpty()) {
+                    last = Math.min(last, Long.parseLong(matcher.group(2)));
+                }
+                status = HttpURLConnection.HTTP_PARTIAL;
+                exchange.addHeader("Content-Range", String.format(Locale.ROOT, "bytes %d-%d/%d", first, last, size));
+            }
+        }
+
+        exchange.sendHeaders(status, "application/octet-stream", last - first + 1);
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long offset = first;
+        while (offset <= last) {
+            final int count = (int) Math.min(buffer.length, last - offset + 1);
+            for (int i = 0; i < count; i++) {
+                buffer[i] = SyntheticDrive.getContentByte(position, offset + i);
+            }
+            exchange.writeBody(buffer, count);
+            offset += count;
+        }
+    }
+
+    /**
+     * Opens an upload session for a new file
+     * @param exchange The request
+     * @param position The position of the folder the path starts from
+     * @param relativePath The path of the new file below the folder
+     * @throws IOException If the response could not be sent
+     */
+    private void createUploadSession(final Exchange exchange, final long position, final String relativePath)
+            throws IOException {
+        exchange.readBody();
+        final int separator = relativePath.lastIndexOf('/');
+        long parent = position;
+        if (parent >= 0 && separator >= 0) {
+            parent = mDrive.find(parent, relativePath.substring(0, separator));
+        }
+        if (parent < 0 || !mDrive.isFolder(parent)) {
+            exchange.sendError(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound", "Folder does not exist");
+            return;
+        }
+        final String id = UUID.randomUUID().toString();
+        final UploadSession session = new UploadSession(parent, relativePath.substring(separator + 1));
+        mUploads.put(id, session);
+        exchange.sendJson(HttpURLConnection.HTTP_OK, session.toJson(mDrive.getServiceRoot() + "/uploads/" + id));
+    }
+
+    /**
+     * Serves a request on an upload session: reading its state, sending a chunk or cancelling it
+     * @param exchange The request
+     * @param id The session id
+     * @throws IOException If the response could not be sent
+     */
+    private void serveUpload(final Exchange exchange, final String id) throws IOException {
+        final UploadSession session = mUploads.get(id);
+        if (session == null) {
+            exchange.readBody();
+            exchange.sendError(HttpURLConnection.HTTP_NOT_FOUND, "itemNotFound", "Upload session does not exist");
+            return;
+        }
+        if ("DELETE".equals(exchange.mMethod)) {
+            mUploads.remove(id);
+            exchange.sendHeaders(HttpURLConnection.HTTP_NO_CONTENT, null, 0);
+            return;
+        }
+        if (!"PUT".equals(exchange.mMethod)) {
+            exchange.sendJson(HttpURLConnection.HTTP_OK, session.toJson(null));
+            return;
+        }
+
+        final String contentRange = exchange.mHeaders.get("content-range");
+        final Matcher matcher = CONTENT_RANGE_PATTERN.matcher(String.valueOf(contentRange));
+        if (!matcher.matches() || Long.parseLong(matcher.group(1)) != session.mReceived) {
+            exchange.readBody();
+            exchange.sendJson(HTTP_RANGE_NOT_SATISFIABLE, session.toJson(null));
+            return;
+        }
+        final long received = exchange.readBody();
+        synchronized (session) {
+            session.mReceived += received;
+        }
+        final long size = Long.parseLong(matcher.group(CONTENT_RANGE_SIZE_GROUP));
+        if (session.mReceived < size) {
+            exchange.sendJson(HttpURLConnection.HTTP_ACCEPTED, session.toJson(null));
+            return;
+        }
+        mUploads.remove(id);
+        exchange.sendJson(HttpURLConnection.HTTP_CREATED,
+                          mDrive.toUploadedJson(UPLOADED_ID_PREFIX + mUploadCount.incrementAndGet(),
+                                                session.mParent,
+                                                session.mName,
+                                                size));
+    }
+
+    /**
+     * Refuses a request the stand-in does not serve
+     * @param exchange The request
+     * @throws IOException If the response could not be sent
+     */
+    private void sendNotSupported(final Exchange exchange) throws IOException {
+        exchange.readBody();
+        exchange.sendError(HttpURLConnection.HTTP_NOT_IMPLEMENTED,
+                           "notSupported",
+                           exchange.mMethod + " " + exchange.mPath + " is not supported by the mock service");
+    }
+
+    /**
+     * The reason phrase of a status code
+     * @param status The status code
+     * @return The reason phrase
+     */
+    private static String getReason(final int status) {
+        switch (status) {
+            case HttpURLConnection.HTTP_OK:
+                return "OK";
+            case HttpURLConnection.HTTP_CREATED:
+                return "Created";
+            case HttpURLConnection.HTTP_ACCEPTED:
+                return "Accepted";
+            case HttpURLConnection.HTTP_NO_CONTENT:
+                return "No Content";
+            case HttpURLConnection.HTTP_PARTIAL:
+                return "Partial Content";
+            case HttpURLConnection.HTTP_MOVED_TEMP:
+                return "Found";
+            case HttpURLConnection.HTTP_NOT_FOUND:
+                return "Not Found";
+            case HttpURLConnection.HTTP_GONE:
+                return "Gone";
+            case HTTP_RANGE_NOT_SATISFIABLE:
+                return "Requested Range Not Satisfiable";
+            case HttpURLConnection.HTTP_NOT_IMPLEMENTED:
+                return "Not Implemented";
+            case HttpURLConnection.HTTP_UNAVAILABLE:
+                return "Service Unavailable";
+            default:
+                return "Unknown";
+        }
+    }
+
+    /**
+     * An open upload session
+     */
+    private static final class UploadSession {
+
+        /**
+         * The position of the folder the file is uploaded into
+         */
+        private final long mParent;
+
+        /**
+         * The name of the file
+         */
+        private final String mName;
+
+        /**
+         * The number of bytes received
+         */
+        private long mReceived;
+
+        /**
+         * Default constructor
+         * @param parent The position of the folder the file is uploaded into
+         * @param name The name of the file
+         */
+        private UploadSession(final long parent, final String name) {
+            mParent = parent;
+            mName = name;
+        }
+
+        /**
+         * Builds the json describing the session
+         * @param uploadUrl The session url, or null to leave it out
+         * @return The session json
+         */
+        private synchronized JsonObject toJson(final String uploadUrl) {
+            final JsonObject json = new JsonObject();
+            if (uploadUrl != null) {
+                json.addProperty("uploadUrl", uploadUrl);
+            }
+            json.addProperty("expirationDateTime", "2099-01-01T00:00:00.000Z");
+            final JsonArray ranges = new JsonArray();
+            ranges.add(new JsonPrimitive(mReceived + "-"));
+            json.add("nextExpectedRanges", ranges);
+            return json;
+        }
+    }
+
+    /**
+     * One request and its response, with bodies sent and received at the server's bandwidth
+     */
+    private final class Exchange {
+
+        /**
+         * The request method, or null if the connection closed before a request arrived
+         */
+        private final String mMethod;
+
+        /**
+         * The decoded request path
+         */
+        private final String mPath;
+
+        /**
+         * The decoded query options
+         */
+        private final Map<String, String> mQuery = new HashMap<>();
+
+        /**
+         * The request headers, with lower case names
+         */
+        private final Map<String, String> mHeaders = new HashMap<>();
+
+        /**
+         * The response headers added before the status is sent
+         */
+        private final StringBuilder mResponseHeaders = new StringBuilder();
+
+        /**
+         * The request stream
+         */
+        private final InputStream mInput;
+
+        /**
+         * The response stream
+         */
+        private final OutputStream mOutput;
+
+        /**
+         * When the first body byte was sent or received
+         */
+        private long mBodyStart;
+
+        /**
+         * The number of body bytes sent and received
+         */
+        private long mBodyBytes;
+
+        /**
+         * Reads the request line and headers of a connection
+         * @param socket The connection
+         * @throws IOException If the request could not be read
+         */
+        private Exchange(final Socket socket) throws IOException {
+            mInput = new BufferedInputStream(socket.getInputStream());
+            mOutput = socket.getOutputStream();
+
+            final String requestLine = readLine();
+            if (requestLine == null || requestLine.isEmpty()) {
+                mMethod = null;
+                mPath = null;
+                return;
+            }
+            final String[] parts = requestLine.split(" ");
+            mMethod = parts[0];
+            String target = parts[1];
+            final int queryStart = target.indexOf('?');
+            if (queryStart >= 0) {
+                for (final String option : target.substring(queryStart + 1).split("&")) {
+                    final int equals = option.indexOf('=');
+                    if (equals > 0) {
+                        mQuery.put(Uri.decode(option.substring(0, equals)), Uri.decode(option.substring(equals + 1)));
+                    }
+                }
+                target = target.substring(0, queryStart);
+            }
+            mPath = Uri.decode(target);
+
+            String header = readLine();
+            while (header != null && !header.isEmpty()) {
+                final int colon = header.indexOf(':');
+                if (colon > 0) {
+                    mHeaders.put(header.substring(0, colon).trim().toLowerCase(Locale.ROOT),
+                                 header.substring(colon + 1).trim());
+                }
+                header = readLine();
+            }
+        }
+
+        /**
+         * Gets a query option
+         * @param name The option name
+         * @param fallback The value if the option is missing
+         * @return The value
+         */
+        private String getQuery(final String name, final String fallback) {
+            final String value = mQuery.get(name);
+            if (value == null) {
+                return fallback;
+            }
+            return value;
+        }
+
+        /**
+         * Reads and discards the request body
+         * @return The number of body bytes
+         * @throws IOException If the body could not be read
+         */
+        private long readBody() throws IOException {
+            final String contentLength = mHeaders.get("content-length");
+            if (contentLength == null) {
+                return 0;
+            }
+            final long length = Long.parseLong(contentLength);
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            long read = 0;
+            while (read < length) {
+                final int n = mInput.read(buffer, 0, (int) Math.min(buffer.length, length - read));
+                if (n == -1) {
+                    throw new IOException("Request body ended after " + read + " of " + length + " bytes");
+                }
+                read += n;
+                throttle(n);
+            }
+            return read;
+        }
+
+        /**
+         * Adds a header to the response
+         * @param name The header name
+         * @param value The header value
+         */
+        private void addHeader(final String name, final String value) {
+            mResponseHeaders.append(name).append(": ").append(value).append("\r\n");
+        }
+
+        /**
+         * Sends the status line and headers
+         * @param status The status code
+         * @param contentType The type of the body, or null if there is none
+         * @param contentLength The length of the body
+         * @throws IOException If the response could not be sent
+         */
+        private void sendHeaders(final int status, final String contentType, final long contentLength)
+                throws IOException {
+            final StringBuilder head = new StringBuilder();
+            head.append("HTTP/1.1 ").append(status).append(' ').append(getReason(status)).append("\r\n");
+            if (contentType != null) {
+                head.append("Content-Type: ").append(contentType).append("\r\n");
+            }
+            head.append("Content-Length: ").append(contentLength).append("\r\n");
+            head.append("Connection: close\r\n");
+            head.append(mResponseHeaders);
+            head.append("\r\n");
+            mOutput.write(head.toString().getBytes(ASCII));
+        }
+
+        /**
+         * Sends part of the response body
+         * @param buffer The body bytes
+         * @param count The number of bytes to send
+         * @throws IOException If the body could not be sent
+         */
+        private void writeBody(final byte[] buffer, final int count) throws IOException {
+            int offset = 0;
+            while (offset < count) {
+                final int slice = Math.min(BUFFER_SIZE, count - offset);
+                mOutput.write(buffer, offset, slice);
+                offset += slice;
+                throttle(slice);
+            }
+        }
+
+        /**
+         * Sends a json response
+         * @param status The status code
+         * @param json The body
+         * @throws IOException If the response could not be sent
+         */
+        private void sendJson(final int status, final JsonObject json) throws IOException {
+            final byte[] body = json.toString().getBytes(UTF_8);
+            sendHeaders(status, "application/json", body.length);
+            writeBody(body, body.length);
+        }
+
+        /**
+         * Sends an error response in the service's format
+         * @param status The status code
+         * @param code The error code
+         * @param message The error message
+         * @throws IOException If the response could not be sent
+         */
+        private void sendError(final int status, final String code, final String message) throws IOException {
+            final JsonObject error = new JsonObject();
+            error.addProperty("code", code);
+            error.addProperty("message", message);
+            final JsonObject json = new JsonObject();
+            json.add("error", error);
+            if (status == HttpURLConnection.HTTP_UNAVAILABLE) {
+                addHeader("Retry-After", "1");
+            }
+            sendJson(status, json);
+        }
+
+        /**
+         * Sends a redirect
+         * @param location The url to go to instead
+         * @throws IOException If the response could not be sent
+         */
+        private void sendRedirect(final String location) throws IOException {
+            addHeader("Location", location);
+            sendHeaders(HttpURLConnection.HTTP_MOVED_TEMP, null, 0);
+        }
+
+        /**
+         * Waits as long as the bandwidth limit needs after body bytes were sent or received
+         * @param count The number of bytes just sent or received
+         */
+        private void throttle(final int count) {
+            if (mBytesPerSecond <= 0) {
+                return;
+            }
+            final long now = SystemClock.elapsedRealtime();
+            if (mBodyBytes == 0) {
+                mBodyStart = now;
+            }
+            mBodyBytes += count;
+            final long due = mBodyStart + mBodyBytes * MILLIS_PER_SECOND / mBytesPerSecond;
+            if (due > now) {
+                SystemClock.sleep(due - now);
+            }
+        }
+
+        /**
+         * Reads a line of the request head
+         * @return The line without its terminator, or null if the stream ended first
+         * @throws IOException If the line could not be read
+         */
+        private String readLine() throws IOException {
+            final ByteArrayOutputStream line = new ByteArrayOutputStream();
+            int b;
+            while ((b = mInput.read()) != -1) {
+                if (b == '\n') {
+                    final byte[] bytes = line.toByteArray();
+                    int length = bytes.length;
+                    if (length > 0 && bytes[length - 1] == '\r') {
+                        length--;
+                    }
+                    return new String(bytes, 0, length, ASCII);
+                }
+                line.write(b);
+            }
+            return null;
+        }
+    }
+}
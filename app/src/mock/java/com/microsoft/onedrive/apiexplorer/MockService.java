@@ -0,0 +1,58 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.authentication.IAuthenticator;
+
+import java.io.IOException;
+
+/**
+ * Starts the stand-in for the service in mock builds, {@link BaseApplication} reaches this class by name since it
+ * only exists in the mock build type
+ */
+final class MockService {
+
+    /**
+     * Not instantiated
+     */
+    private MockService() {
+    }
+
+    /**
+     * Starts a stand-in for the service, its drive and behaviour come from the build configuration
+     * @return An authenticator that signs in to the stand-in
+     */
+    static IAuthenticator createAuthenticator() {
+        final MockOneDriveServer server;
+        try {
+            server = new MockOneDriveServer(new SyntheticDrive(BuildConfig.MOCK_ITEM_COUNT, BuildConfig.MOCK_FAN_OUT),
+                                            BuildConfig.MOCK_LATENCY_MS,
+                                            BuildConfig.MOCK_BYTES_PER_SECOND,
+                                            BuildConfig.MOCK_ERROR_RATE);
+        } catch (final IOException e) {
+            throw new IllegalStateException("Unable to start the mock service", e);
+        }
+        return new MockAuthenticator(server.getServiceRoot());
+    }
+}
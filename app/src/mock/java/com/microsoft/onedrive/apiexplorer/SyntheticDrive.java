@@ -0,0 +1,469 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.Locale;
+
+/**
+ * A drive of generated items for {@link MockOneDriveServer}. The items form a complete tree with a fixed number of
+ * children per folder, laid out by position like a heap: the children of item i are items i * fanOut + 1 to
+ * i * fanOut + fanOut. Every property of an item is computed from its position, so a drive of millions of items
+ * takes no memory
+ */
+final class SyntheticDrive {
+
+    /**
+     * The prefix of every item id
+     */
+    private static final String ID_PREFIX = "MOCK!";
+
+    /**
+     * The id of the drive
+     */
+    private static final String DRIVE_ID = "0000000000000000";
+
+    /**
+     * The name of folders, followed by their position
+     */
+    private static final String FOLDER_NAME = "Folder ";
+
+    /**
+     * The name of files, followed by their position and extension
+     */
+    private static final String FILE_NAME = "File ";
+
+    /**
+     * The time every item claims to have been created and modified
+     */
+    private static final String TIMESTAMP = "2015-11-13T10:16:43.123Z";
+
+    /**
+     * The largest generated file size
+     */
+    private static final long MAX_FILE_SIZE = 16 * 1024 * 1024;
+
+    /**
+     * The extensions and mime types of generated files
+     */
+    private static final String[][] FILE_TYPES = {
+        {"jpg", "image/jpeg"},
+        {"png", "image/png"},
+        {"docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"},
+        {"pdf", "application/pdf"},
+        {"mp4", "video/mp4"},
+        {"txt", "text/plain"},
+    };
+
+    /**
+     * The thumbnail sizes of images and their edge lengths
+     */
+    private static final Object[][] THUMBNAIL_SIZES = {
+        {"small", 96},
+        {"medium", 176},
+        {"large", 800},
+    };
+
+    /**
+     * Mixes a position into well spread bits, the finalizer of the SplitMix64 generator
+     */
+    private static final long MIX_MULTIPLIER_1 = 0xbf58476d1ce4e5b9L;
+
+    /**
+     * The second multiplier of the mix
+     */
+    private static final long MIX_MULTIPLIER_2 = 0x94d049bb133111ebL;
+
+    /**
+     * The shifts of the mix
+     */
+    private static final int[] MIX_SHIFTS = {30, 27, 31};
+
+    /**
+     * The number of items, including the root
+     */
+    private final long mItemCount;
+
+    /**
+     * The number of children of every folder, except those at the edge of the tree
+     */
+    private final int mFanOut;
+
+    /**
+     * The url the service is reached at, used for links in the responses
+     */
+    private String mServiceRoot;
+
+    /**
+     * Default constructor
+     * @param itemCount The number of items, including the root
+     * @param fanOut The number of children of every folder
+     */
+    SyntheticDrive(final long itemCount, final int fanOut) {
+        mItemCount = itemCount;
+        mFanOut = fanOut;
+    }
+
+    /**
+     * Sets the url the service is reached at
+     * @param serviceRoot The service root
+     */
+    void setServiceRoot(final String serviceRoot) {
+        mServiceRoot = serviceRoot;
+    }
+
+    /**
+     * The url the service is reached at
+     * @return The service root
+     */
+    String getServiceRoot() {
+        return mServiceRoot;
+    }
+
+    /**
+     * Looks up an item by id
+     * @param id The item id
+     * @return The position of the item, or -1 if there is no such item
+     */
+    long find(final String id) {
+        if (!id.startsWith(ID_PREFIX)) {
+            return -1;
+        }
+        try {
+            final long position = Long.parseLong(id.substring(ID_PREFIX.length()));
+            if (position < 0 || position >= mItemCount) {
+                return -1;
+            }
+            return position;
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Looks up an item by its path below another item
+     * @param position The position of the item the path starts from
+     * @param path The path, with segments separated by '/'
+     * @return The position of the item, or -1 if there is no such item
+     */
+    long find(final long position, final String path) {
+        long current = position;
+        for (final String segment : path.split("/")) {
+            if (segment.isEmpty()) {
+                continue;
+            }
+            final long child = parsePosition(segment);
+            if (child < 0 || child >= mItemCount || getParent(child) != current || !getName(child).equals(segment)) {
+                return -1;
+            }
+            current = child;
+        }
+        return current;
+    }
+
+    /**
+     * If an item is a folder, every item with children is a folder and so is the root
+     * @param position The position of the item
+     * @return If the item is a folder
+     */
+    boolean isFolder(final long position) {
+        return position == 0 || getFirstChild(position) < mItemCount;
+    }
+
+    /**
+     * The number of children of an item
+     * @param position The position of the item
+     * @return The child count
+     */
+    long getChildCount(final long position) {
+        final long first = getFirstChild(position);
+        if (first >= mItemCount) {
+            return 0;
+        }
+        return Math.min(mItemCount, first + mFanOut) - first;
+    }
+
+    /**
+     * The position of the first child of an item
+     * @param position The position of the item
+     * @return The position of the first child, which is past the end of the drive for files
+     */
+    long getFirstChild(final long position) {
+        return position * mFanOut + 1;
+    }
+
+    /**
+     * The position of the parent of an item
+     * @param position The position of the item
+     * @return The position of the parent, or -1 for the root
+     */
+    long getParent(final long position) {
+        if (position == 0) {
+            return -1;
+        }
+        return (position - 1) / mFanOut;
+    }
+
+    /**
+     * The position after an item when the items below a folder are listed level by level
+     * @param root The position of the folder
+     * @param position The position of an item below the folder, or the folder itself
+     * @return The position of the next item, or -1 if this was the last
+     */
+    long getNextBelow(final long root, final long position) {
+        long first = root;
+        long last = root;
+        while (first < mItemCount) {
+            if (position >= first && position <= last) {
+                if (position < last) {
+                    return position + 1;
+                }
+                final long nextFirst = getFirstChild(first);
+                if (nextFirst >= mItemCount) {
+                    return -1;
+                }
+                return nextFirst;
+            }
+            first = getFirstChild(first);
+            last = Math.min(mItemCount - 1, getFirstChild(last) + mFanOut - 1);
+        }
+        return -1;
+    }
+
+    /**
+     * The size of a file
+     * @param position The position of the file
+     * @return The size in bytes, zero for folders
+     */
+    long getSize(final long position) {
+        if (isFolder(position)) {
+            return 0;
+        }
+        return (mix(position) >>> 1) % MAX_FILE_SIZE;
+    }
+
+    /**
+     * A byte of the content of a file, so content can be produced without being stored
+     * @param position The position of the file
+     * @param offset The offset of the byte within the file
+     * @return The byte
+     */
+    static byte getContentByte(final long position, final long offset) {
+        return (byte) (position ^ offset);
+    }
+
+    /**
+     * The item id of an item
+     * @param position The position of the item
+     * @return The item id
+     */
+    static String getId(final long position) {
+        return ID_PREFIX + position;
+    }
+
+    /**
+     * The name of an item
+     * @param position The position of the item
+     * @return The name
+     */
+    String getName(final long position) {
+        if (position == 0) {
+            return "root";
+        }
+        if (isFolder(position)) {
+            return FOLDER_NAME + position;
+        }
+        return FILE_NAME + position + "." + getFileType(position)[0];
+    }
+
+    /**
+     * Builds the json of an item
+     * @param position The position of the item
+     * @param withThumbnails If image files should include their thumbnails
+     * @return The item json
+     */
+    JsonObject toJson(final long position, final boolean withThumbnails) {
+        final String id = getId(position);
+        final JsonObject item = new JsonObject();
+        item.addProperty("id", id);
+        item.addProperty("name", getName(position));
+        item.addProperty("eTag", "\"{" + id + "},1\"");
+        item.addProperty("cTag", "\"c:{" + id + "},1\"");
+        item.addProperty("size", getSize(position));
+        item.addProperty("createdDateTime", TIMESTAMP);
+        item.addProperty("lastModifiedDateTime", TIMESTAMP);
+        item.addProperty("webUrl", mServiceRoot + "/drive/items/" + id);
+
+        final long parent = getParent(position);
+        if (parent >= 0) {
+            final JsonObject parentReference = new JsonObject();
+            parentReference.addProperty("driveId", DRIVE_ID);
+            parentReference.addProperty("id", getId(parent));
+            item.add("parentReference", parentReference);
+        }
+
+        if (isFolder(position)) {
+            final JsonObject folder = new JsonObject();
+            folder.addProperty("childCount", getChildCount(position));
+            item.add("folder", folder);
+            return item;
+        }
+
+        final String[] type = getFileType(position);
+        final JsonObject file = new JsonObject();
+        file.addProperty("mimeType", type[1]);
+        item.add("file", file);
+        item.addProperty("@content.downloadUrl", mServiceRoot + "/downloads/" + id);
+        if (isImage(position)) {
+            item.add("image", new JsonObject());
+            if (withThumbnails) {
+                item.add("thumbnails", getThumbnails(id));
+            }
+        }
+        return item;
+    }
+
+    /**
+     * Builds the json of an item created by an upload, which is not added to the drive
+     * @param id The id given to the item
+     * @param parent The position of the folder it was uploaded into
+     * @param name The name of the item
+     * @param size The size of the item
+     * @return The item json
+     */
+    JsonObject toUploadedJson(final String id, final long parent, final String name, final long size) {
+        final JsonObject item = new JsonObject();
+        item.addProperty("id", id);
+        item.addProperty("name", name);
+        item.addProperty("eTag", "\"{" + id + "},1\"");
+        item.addProperty("size", size);
+        item.addProperty("createdDateTime", TIMESTAMP);
+        item.addProperty("lastModifiedDateTime", TIMESTAMP);
+        final JsonObject parentReference = new JsonObject();
+        parentReference.addProperty("driveId", DRIVE_ID);
+        parentReference.addProperty("id", getId(parent));
+        item.add("parentReference", parentReference);
+        item.add("file", new JsonObject());
+        return item;
+    }
+
+    /**
+     * If a file is an image, which has thumbnails
+     * @param position The position of the file
+     * @return If the file is an image
+     */
+    boolean isImage(final long position) {
+        return !isFolder(position) && getFileType(position)[1].startsWith("image/");
+    }
+
+    /**
+     * The edge length of a thumbnail size
+     * @param size The name of the size
+     * @return The edge length in pixels, or -1 if there is no such size
+     */
+    static int getThumbnailEdge(final String size) {
+        for (final Object[] thumbnailSize : THUMBNAIL_SIZES) {
+            if (thumbnailSize[0].equals(size)) {
+                return (Integer) thumbnailSize[1];
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Builds the thumbnail sets of an image
+     * @param id The item id
+     * @return The thumbnail sets
+     */
+    private JsonArray getThumbnails(final String id) {
+        final JsonObject set = new JsonObject();
+        set.addProperty("id", "0");
+        for (final Object[] thumbnailSize : THUMBNAIL_SIZES) {
+            final JsonObject thumbnail = new JsonObject();
+            thumbnail.addProperty("width", (Integer) thumbnailSize[1]);
+            thumbnail.addProperty("height", (Integer) thumbnailSize[1]);
+            thumbnail.addProperty("url", String.format(Locale.ROOT,
+                                                       "%s/drive/items/%s/thumbnails/0/%s/content",
+                                                       mServiceRoot,
+                                                       id,
+                                                       thumbnailSize[0]));
+            set.add((String) thumbnailSize[0], thumbnail);
+        }
+        final JsonArray sets = new JsonArray();
+        sets.add(set);
+        return sets;
+    }
+
+    /**
+     * The extension and mime type of a file
+     * @param position The position of the file
+     * @return The extension and mime type
+     */
+    private static String[] getFileType(final long position) {
+        return FILE_TYPES[(int) ((mix(position) >>> 1) % FILE_TYPES.length)];
+    }
+
+    /**
+     * Reads the position out of a generated name
+     * @param name The name
+     * @return The position, or -1 if the name was not generated
+     */
+    private static long parsePosition(final String name) {
+        int start = -1;
+        if (name.startsWith(FOLDER_NAME)) {
+            start = FOLDER_NAME.length();
+        } else if (name.startsWith(FILE_NAME)) {
+            start = FILE_NAME.length();
+        }
+        if (start < 0) {
+            return -1;
+        }
+        int end = start;
+        while (end < name.length() && Character.isDigit(name.charAt(end))) {
+            end++;
+        }
+        if (end == start) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(name.substring(start, end));
+        } catch (final NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Spreads the bits of a position
+     * @param position The position
+     * @return The mixed bits
+     */
+    private static long mix(final long position) {
+        long z = position;
+        z = (z ^ (z >>> MIX_SHIFTS[0])) * MIX_MULTIPLIER_1;
+        z = (z ^ (z >>> MIX_SHIFTS[1])) * MIX_MULTIPLIER_2;
+        return z ^ (z >>> MIX_SHIFTS[2]);
+    }
+}
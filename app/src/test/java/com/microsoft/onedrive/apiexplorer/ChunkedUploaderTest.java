@@ -0,0 +1,353 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.extensions.Item;
+
+import android.net.Uri;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * Runs the uploader against a stand-in for the upload session endpoints, checking that sessions are created and
+ * resumed where the service says, that lost responses are recovered from without sending a byte twice, and that
+ * memory use does not grow with the size of the file
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.KITKAT)
+public final class ChunkedUploaderTest {
+
+    /**
+     * The folder uploaded into
+     */
+    private static final String PARENT_ID = "parent";
+
+    /**
+     * The name of the uploaded file
+     */
+    private static final String FILE_NAME = "file.bin";
+
+    /**
+     * The size of the uploaded file, several chunks and a partial one at any chunk size
+     */
+    private static final int FILE_SIZE = 5 * 1000 * 1000;
+
+    /**
+     * How much of the file an earlier attempt sent, in the middle of a chunk so the resume point cannot be guessed
+     */
+    private static final int RESUME_OFFSET = 1000 * 1000;
+
+    /**
+     * The size of the file the memory use is measured with, sparse so it takes no disk space
+     */
+    private static final long LARGE_FILE_SIZE = 64L * 1024 * 1024;
+
+    /**
+     * The most the uploading thread may allocate per chunk, less than the smallest chunk so copying a chunk onto the
+     * heap would be caught
+     */
+    private static final long MAX_ALLOCATED_PER_CHUNK = 256 * 1024;
+
+    /**
+     * Seeds the file contents
+     */
+    private static final long SEED = 42;
+
+    /**
+     * The directory of the local files
+     */
+    private File mDirectory;
+
+    /**
+     * The stand-in for the service
+     */
+    private StubUploadServer mServer;
+
+    /**
+     * The uploader under test
+     */
+    private ChunkedUploader mUploader;
+
+    /**
+     * Serves a new directory of local files and starts the stand-in for the service
+     * @throws IOException If either could not be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("uploads", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+        StubFileProvider.register(mDirectory);
+        mServer = new StubUploadServer();
+        mUploader = new ChunkedUploader((BaseApplication) RuntimeEnvironment.application, mServer);
+    }
+
+    /**
+     * Stops the stand-in for the service and deletes the local files
+     */
+    @After
+    public void tearDown() {
+        mServer.close();
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    /**
+     * A new upload creates one session, sends the chunks in order and returns the item of the final response
+     * @throws IOException If the file could not be written
+     */
+    @Test
+    public void uploadSendsEveryByteOnceInOrder() throws IOException {
+        final byte[] contents = writeFile(FILE_NAME, FILE_SIZE);
+
+        final Item item = mUploader.upload(PARENT_ID, getUri(FILE_NAME), FILE_NAME, new RecordingProgress());
+
+        assertEquals(FILE_NAME, item.name);
+        assertEquals(Long.valueOf(FILE_SIZE), item.size);
+        assertEquals(1, mServer.getSessionCount());
+        final List<Long> starts = mServer.getChunkStarts();
+        assertEquals(Long.valueOf(0), starts.get(0));
+        for (int i = 1; i < starts.size(); i++) {
+            assertTrue(starts.get(i) > starts.get(i - 1));
+        }
+        assertReceived(contents);
+        assertTrue(mUploader.getPendingSessions().isEmpty());
+    }
+
+    /**
+     * A session left by an earlier attempt is read for the first byte it is missing, and only the rest is sent
+     * @throws IOException If the file could not be written
+     */
+    @Test
+    public void uploadResumesFromNextExpectedRanges() throws IOException {
+        final byte[] contents = writeFile(FILE_NAME, FILE_SIZE);
+        final Uri source = getUri(FILE_NAME);
+        final String uploadUrl = mServer.createSession(PARENT_ID, FILE_NAME);
+        mServer.preload(uploadUrl, Arrays.copyOf(contents, RESUME_OFFSET), FILE_SIZE);
+        new UploadSessionStore(RuntimeEnvironment.application)
+            .save(new UploadSessionStore.Session(uploadUrl, source, PARENT_ID, FILE_NAME, FILE_SIZE));
+
+        final RecordingProgress progress = new RecordingProgress();
+        final Item item = mUploader.upload(PARENT_ID, source, FILE_NAME, progress);
+
+        assertEquals(FILE_NAME, item.name);
+        assertEquals(1, mServer.getSessionCount());
+        assertEquals(1, mServer.getStatusRequests());
+        assertEquals(Long.valueOf(RESUME_OFFSET), mServer.getChunkStarts().get(0));
+        assertEquals(RESUME_OFFSET, progress.mFirst);
+        assertReceived(contents);
+    }
+
+    /**
+     * When the response to a chunk the service took is lost, the upload carries on from where the session says
+     * rather than sending the chunk again
+     * @throws IOException If the file could not be written
+     */
+    @Test
+    public void uploadRecoversFromLostChunkResponse() throws IOException {
+        final byte[] contents = writeFile(FILE_NAME, FILE_SIZE);
+        mServer.dropResponseToChunk(1);
+
+        final Item item = mUploader.upload(PARENT_ID, getUri(FILE_NAME), FILE_NAME, new RecordingProgress());
+
+        assertEquals(FILE_NAME, item.name);
+        assertEquals(1, mServer.getStatusRequests());
+        assertReceived(contents);
+    }
+
+    /**
+     * When the response to the final chunk is lost the session has nothing left to take, so the item is read rather
+     * than an empty chunk being sent
+     * @throws IOException If the file could not be written
+     */
+    @Test
+    public void uploadFinishesWhenFinalResponseIsLost() throws IOException {
+        final byte[] contents = writeFile(FILE_NAME, FILE_SIZE);
+        mServer.dropFinalResponse();
+
+        final Item item = mUploader.upload(PARENT_ID, getUri(FILE_NAME), FILE_NAME, new RecordingProgress());
+
+        assertEquals(FILE_NAME, item.name);
+        assertEquals(Long.valueOf(FILE_SIZE), item.size);
+        assertEquals(1, mServer.getStatusRequests());
+        assertReceived(contents);
+        assertTrue(mUploader.getPendingSessions().isEmpty());
+    }
+
+    /**
+     * An empty file is put in one request since it has no range to send
+     * @throws IOException If the file could not be written
+     */
+    @Test
+    public void emptyFileIsPutWithoutChunks() throws IOException {
+        writeFile(FILE_NAME, 0);
+
+        final Item item = mUploader.upload(PARENT_ID, getUri(FILE_NAME), FILE_NAME, new RecordingProgress());
+
+        assertEquals(FILE_NAME, item.name);
+        assertEquals(Long.valueOf(0), item.size);
+        assertTrue(mServer.getChunkStarts().isEmpty());
+    }
+
+    /**
+     * Cancelling closes the session on the service as well as forgetting it locally
+     * @throws IOException If the file could not be written
+     */
+    @Test
+    public void cancelDeletesUploadSession() throws IOException {
+        writeFile(FILE_NAME, FILE_SIZE);
+        try {
+            mUploader.upload(PARENT_ID, getUri(FILE_NAME), FILE_NAME, new ChunkedUploader.Progress() {
+                @Override
+                public boolean onProgress(final long current, final long max) {
+                    return current == 0;
+                }
+            });
+            fail("The cancelled upload completed");
+        } catch (final ClientException e) {
+            assertTrue(mServer.isDeleted(FILE_NAME));
+            assertEquals(1, mServer.getChunkStarts().size());
+            assertTrue(mUploader.getPendingSessions().isEmpty());
+        }
+    }
+
+    /**
+     * Each chunk costs the uploading thread less than the chunk itself, so neither the file nor a chunk is copied
+     * onto the heap
+     * @throws IOException If the file could not be written
+     */
+    @Test
+    public void uploadAllocatesLessThanAChunkPerChunk() throws IOException {
+        // Warm up the uploader and connection classes so their one-off allocations are not counted
+        writeFile("warmup.bin", FILE_SIZE);
+        mUploader.upload(PARENT_ID, getUri("warmup.bin"), "warmup.bin", new RecordingProgress());
+        final int warmupChunks = mServer.getChunkStarts().size();
+
+        final File file = new File(mDirectory, FILE_NAME);
+        final RandomAccessFile sparse = new RandomAccessFile(file, "rw");
+        try {
+            sparse.setLength(LARGE_FILE_SIZE);
+        } finally {
+            sparse.close();
+        }
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        mUploader.upload(PARENT_ID, getUri(FILE_NAME), FILE_NAME, new RecordingProgress());
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+
+        final int chunks = mServer.getChunkStarts().size() - warmupChunks;
+        assertEquals(LARGE_FILE_SIZE, mServer.getReceivedBytes(FILE_NAME));
+        assertEquals(0, mServer.getResentBytes());
+        assertTrue("Allocated " + allocated + " bytes for " + chunks + " chunks",
+                   allocated / chunks < MAX_ALLOCATED_PER_CHUNK);
+    }
+
+    /**
+     * Checks the service holds exactly the file, with no byte sent twice
+     * @param contents The file contents
+     */
+    private void assertReceived(final byte[] contents) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(contents, 0, contents.length);
+        assertEquals(contents.length, mServer.getReceivedBytes(FILE_NAME));
+        assertEquals(checksum.getValue(), mServer.getChecksum(FILE_NAME));
+        assertEquals(0, mServer.getResentBytes());
+    }
+
+    /**
+     * Writes a local file of random bytes
+     * @param name The name of the file
+     * @param size The size of the file
+     * @return The file contents
+     * @throws IOException If the file could not be written
+     */
+    private byte[] writeFile(final String name, final int size) throws IOException {
+        final byte[] contents = new byte[size];
+        new Random(SEED).nextBytes(contents);
+        final FileOutputStream output = new FileOutputStream(new File(mDirectory, name));
+        try {
+            output.write(contents);
+        } finally {
+            output.close();
+        }
+        return contents;
+    }
+
+    /**
+     * Gets the content uri of a local file
+     * @param name The name of the file
+     * @return The content uri
+     */
+    private Uri getUri(final String name) {
+        return StubFileProvider.getUri(new File(mDirectory, name));
+    }
+
+    /**
+     * Remembers the first progress report, and never cancels
+     */
+    private static final class RecordingProgress implements ChunkedUploader.Progress {
+
+        /**
+         * The bytes the service held when the upload started sending, or -1 before the first report
+         */
+        private long mFirst = -1;
+
+        @Override
+        public boolean onProgress(final long current, final long max) {
+            if (mFirst == -1) {
+                mFirst = current;
+            }
+            return true;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.app.Activity;
+import android.os.Build;
+import android.view.View;
+import android.widget.ListView;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.Robolectric;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Scrolls through a folder of {@link #ROWS} items with a screen's worth of recycled rows and reports the bytes each
+ * bind allocates once the rows are inflated. The single line text views wrap every text they are given, so a bind
+ * is never free of allocation, but nothing the adapter allocates may depend on the item: a row with a long name must
+ * cost no more than a row with a short one
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.KITKAT)
+public final class DisplayItemAdapterTest {
+
+    /**
+     * The number of items in each folder
+     */
+    private static final int ROWS = 10000;
+
+    /**
+     * The number of rows on screen, each one is recycled for the row that scrolls into view next
+     */
+    private static final int VISIBLE_ROWS = 12;
+
+    /**
+     * The length of the names in the folder of short names
+     */
+    private static final int SHORT_NAME_LENGTH = 8;
+
+    /**
+     * The length of the names in the folder of long names
+     */
+    private static final int LONG_NAME_LENGTH = 200;
+
+    /**
+     * How many more bytes a long name row may allocate than a short name row, half of what the extra characters
+     * alone would take if the bind made a string of the name
+     */
+    private static final long NAME_GROWTH_BUDGET = LONG_NAME_LENGTH - SHORT_NAME_LENGTH;
+
+    /**
+     * The eTag of every item
+     */
+    private static final String ETAG = "etag";
+
+    /**
+     * The activity the adapter inflates rows for
+     */
+    private Activity mActivity;
+
+    /**
+     * The tree the adapter binds from
+     */
+    private ItemTree mTree;
+
+    /**
+     * The list the rows are inflated into
+     */
+    private ListView mList;
+
+    /**
+     * Creates an activity and fills the tree with a folder of short names and a folder of long names
+     */
+    @Before
+    public void setUp() {
+        mActivity = Robolectric.setupActivity(Activity.class);
+        mTree = ((BaseApplication) mActivity.getApplication()).getItemTree();
+        mList = new ListView(mActivity);
+        fillFolder(SHORT_NAME_LENGTH);
+        fillFolder(LONG_NAME_LENGTH);
+    }
+
+    /**
+     * Binding a row allocates the same whatever the length of the item's name, so the name is never copied into a
+     * string on the way to the view
+     */
+    @Test
+    public void bindAllocationDoesNotGrowWithName() {
+        final long shortNames = measureBind(SHORT_NAME_LENGTH);
+        final long longNames = measureBind(LONG_NAME_LENGTH);
+
+        assertTrue(String.format(Locale.ROOT,
+                                 "A bind allocates %d bytes with %d character names, %d with %d character names",
+                                 longNames,
+                                 LONG_NAME_LENGTH,
+                                 shortNames,
+                                 SHORT_NAME_LENGTH),
+                   longNames - shortNames < NAME_GROWTH_BUDGET);
+    }
+
+    /**
+     * Every row of the folder is bound with its own name
+     */
+    @Test
+    public void bindShowsEveryRow() {
+        final DisplayItemAdapter adapter = newAdapter(SHORT_NAME_LENGTH);
+        final View[] views = new View[VISIBLE_ROWS];
+        scroll(adapter, views);
+
+        assertEquals(ROWS, adapter.getCount());
+        for (int position = 0; position < ROWS; position++) {
+            assertEquals(getName(SHORT_NAME_LENGTH, mTree.getId(mTree.getChild(getFolder(SHORT_NAME_LENGTH),
+                                                                               position))),
+                         adapter.getItemName(position));
+        }
+    }
+
+    /**
+     * Scrolls through a folder once to inflate the rows, then again while counting the bytes the binds allocate
+     * @param nameLength The length of the names in the folder
+     * @return The bytes allocated per bind
+     */
+    private long measureBind(final int nameLength) {
+        final DisplayItemAdapter adapter = newAdapter(nameLength);
+        final View[] views = new View[VISIBLE_ROWS];
+        scroll(adapter, views);
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        scroll(adapter, views);
+        final long perBind = (threads.getThreadAllocatedBytes(thread) - before) / ROWS;
+
+        System.out.println(String.format(Locale.ROOT,
+                                         "%d rows, %d character names: %d bytes per bind",
+                                         ROWS,
+                                         nameLength,
+                                         perBind));
+        return perBind;
+    }
+
+    /**
+     * Binds every row of the folder in order, handing each view back to the adapter before it is reused the way
+     * the list's recycler does
+     * @param adapter The adapter
+     * @param views The rows on screen, null until inflated
+     */
+    private void scroll(final DisplayItemAdapter adapter, final View[] views) {
+        for (int position = 0; position < adapter.getCount(); position++) {
+            final int slot = position % views.length;
+            if (views[slot] != null) {
+                adapter.onMovedToScrapHeap(views[slot]);
+            }
+            views[slot] = adapter.getView(position, views[slot], mList);
+        }
+    }
+
+    /**
+     * Creates an adapter showing one of the folders
+     * @param nameLength The length of the names in the folder
+     * @return The adapter
+     */
+    private DisplayItemAdapter newAdapter(final int nameLength) {
+        final DisplayItemAdapter adapter = new DisplayItemAdapter(mActivity);
+        adapter.setFolder(getFolder(nameLength));
+        return adapter;
+    }
+
+    /**
+     * Adds a folder of {@link #ROWS} files whose names are all the same length
+     * @param nameLength The length of the names
+     */
+    private void fillFolder(final int nameLength) {
+        final String folderId = "folder" + nameLength;
+        mTree.put(new ItemRecord(folderId, null, folderId, 0, true, null, ETAG));
+        for (int i = 0; i < ROWS; i++) {
+            final String id = folderId + "!" + i;
+            mTree.put(new ItemRecord(id, folderId, getName(nameLength, id), i, false, "text/plain", ETAG));
+        }
+    }
+
+    /**
+     * Gets the row of one of the folders
+     * @param nameLength The length of the names in the folder
+     * @return The folder row
+     */
+    private int getFolder(final int nameLength) {
+        return mTree.getRow("folder" + nameLength);
+    }
+
+    /**
+     * Builds the name of an item, the id padded to a fixed length
+     * @param nameLength The length of the name
+     * @param id The item id
+     * @return The name
+     */
+    private static String getName(final int nameLength, final String id) {
+        final char[] name = new char[nameLength];
+        Arrays.fill(name, 'n');
+        id.getChars(0, Math.min(id.length(), nameLength), name, 0);
+        return new String(name);
+    }
+}
@@ -0,0 +1,347 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonObject;
+
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.extensions.Item;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Downloads a file from a local stand-in for the download url that drops the connection part way through the body,
+ * checking each attempt resumes with a range request and the downloaded file is identical to the served one
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.KITKAT)
+public final class DownloadEngineTest {
+
+    /**
+     * The name of the downloaded file
+     */
+    private static final String FILE_NAME = "download.bin";
+
+    /**
+     * The path the file is served under
+     */
+    private static final String FILE_PATH = "/content/" + FILE_NAME;
+
+    /**
+     * The size of the served file
+     */
+    private static final int FILE_SIZE = 3 * 1000 * 1000;
+
+    /**
+     * Where the first response is cut off
+     */
+    private static final long FIRST_DROP = 700 * 1000;
+
+    /**
+     * Where the second response is cut off
+     */
+    private static final long SECOND_DROP = 1500 * 1000;
+
+    /**
+     * Where the third response is cut off
+     */
+    private static final long THIRD_DROP = 2900 * 1000;
+
+    /**
+     * The status of a whole file
+     */
+    private static final int HTTP_OK = 200;
+
+    /**
+     * The status of part of a file
+     */
+    private static final int HTTP_PARTIAL = 206;
+
+    /**
+     * The longest a download may take before the test gives up, in milliseconds
+     */
+    private static final long TIMEOUT_MS = 30 * 1000;
+
+    /**
+     * How often the test checks if the download finished, in milliseconds
+     */
+    private static final long POLL_INTERVAL_MS = 20;
+
+    /**
+     * Seeds the file contents
+     */
+    private static final long SEED = 11;
+
+    /**
+     * The served file
+     */
+    private final byte[] mContents = new byte[FILE_SIZE];
+
+    /**
+     * The offsets at which the next responses are cut off, one per response
+     */
+    private final Queue<Long> mDrops = new LinkedList<>();
+
+    /**
+     * The range header of each request, null for a request without one
+     */
+    private final List<String> mRanges = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * If the server answers range requests with the whole file, as a server without range support does
+     */
+    private volatile boolean mIgnoreRange;
+
+    /**
+     * The stand-in for the download url
+     */
+    private HttpServer mServer;
+
+    /**
+     * The engine under test
+     */
+    private DownloadEngine mEngine;
+
+    /**
+     * Starts serving the file
+     * @throws IOException If the server could not be started
+     */
+    @Before
+    public void setUp() throws IOException {
+        new Random(SEED).nextBytes(mContents);
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext(FILE_PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+        mEngine = new DownloadEngine((BaseApplication) RuntimeEnvironment.application, 1);
+        delete(getTarget());
+        delete(new File(getTarget().getPath() + ".part"));
+    }
+
+    /**
+     * Stops serving the file and deletes the download
+     */
+    @After
+    public void tearDown() {
+        mServer.stop(0);
+        delete(getTarget());
+    }
+
+    /**
+     * A connection dropped part way through is resumed from the first missing byte with a range request
+     * @throws IOException If the downloaded file could not be read
+     */
+    @Test
+    public void droppedConnectionResumesWithRange() throws IOException {
+        mDrops.add(FIRST_DROP);
+
+        final DownloadEngine.Download download = downloadAndWait();
+
+        assertEquals(1, download.getFilesDone());
+        assertEquals(Arrays.asList(null, "bytes=" + FIRST_DROP + "-"), mRanges);
+        assertDownloaded();
+    }
+
+    /**
+     * Each attempt after a dropped connection resumes where the previous one stopped, never fetching a byte twice
+     * @throws IOException If the downloaded file could not be read
+     */
+    @Test
+    public void repeatedDropsEachResumeWhereTheLastStopped() throws IOException {
+        mDrops.add(FIRST_DROP);
+        mDrops.add(SECOND_DROP);
+        mDrops.add(THIRD_DROP);
+
+        final DownloadEngine.Download download = downloadAndWait();
+
+        assertEquals(1, download.getFilesDone());
+        assertEquals(Arrays.asList(null,
+                                   "bytes=" + FIRST_DROP + "-",
+                                   "bytes=" + SECOND_DROP + "-",
+                                   "bytes=" + THIRD_DROP + "-"),
+                     mRanges);
+        assertEquals(FILE_SIZE, download.getBytesDone());
+        assertDownloaded();
+    }
+
+    /**
+     * A server that answers a range request with the whole file overwrites the partial file from the start
+     * @throws IOException If the downloaded file could not be read
+     */
+    @Test
+    public void wholeFileResponseReplacesPartialFile() throws IOException {
+        mDrops.add(FIRST_DROP);
+        mIgnoreRange = true;
+
+        final DownloadEngine.Download download = downloadAndWait();
+
+        assertEquals(1, download.getFilesDone());
+        assertEquals(2, mRanges.size());
+        assertDownloaded();
+    }
+
+    /**
+     * Downloads the served file and waits for the transfer to finish
+     * @return The download
+     */
+    private DownloadEngine.Download downloadAndWait() {
+        final JsonObject json = new JsonObject();
+        json.addProperty("@content.downloadUrl",
+                         "http://127.0.0.1:" + mServer.getAddress().getPort() + FILE_PATH);
+        final Item item = new Item();
+        item.id = FILE_NAME;
+        item.name = FILE_NAME;
+        item.eTag = "etag";
+        item.size = (long) FILE_SIZE;
+        item.setRawObject(null, json);
+
+        final DownloadEngine.Download download = mEngine.download(item, new DownloadEngine.Listener() {
+            @Override
+            public void onProgress(final DownloadEngine.Download download) {
+            }
+
+            @Override
+            public void onComplete(final DownloadEngine.Download download) {
+            }
+
+            @Override
+            public void onFailure(final DownloadEngine.Download download, final ClientException error) {
+            }
+        });
+
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (download.getFilesTotal() == 0
+               || download.getFilesDone() + download.getFilesFailed() < download.getFilesTotal()) {
+            assertTrue("The download did not finish", System.currentTimeMillis() < deadline);
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (final InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return download;
+    }
+
+    /**
+     * Checks the downloaded file is identical to the served one, and no partial file is left
+     * @throws IOException If the downloaded file could not be read
+     */
+    private void assertDownloaded() throws IOException {
+        final File target = getTarget();
+        final byte[] downloaded = new byte[(int) target.length()];
+        final RandomAccessFile file = new RandomAccessFile(target, "r");
+        try {
+            file.readFully(downloaded);
+        } finally {
+            file.close();
+        }
+        assertArrayEquals(mContents, downloaded);
+        assertFalse(new File(target.getPath() + ".part").exists());
+    }
+
+    /**
+     * Answers a request for the file, from the requested offset, cutting the body off at the next drop point
+     * @param exchange The request
+     * @throws IOException If the response could not be written
+     */
+    private void serve(final HttpExchange exchange) throws IOException {
+        final String range = exchange.getRequestHeaders().getFirst("Range");
+        mRanges.add(range);
+        long start = 0;
+        if (range != null && !mIgnoreRange) {
+            // e.g. "bytes=700000-"
+            start = Long.parseLong(range.substring(range.indexOf('=') + 1, range.indexOf('-')));
+            exchange.getResponseHeaders().set("Content-Range",
+                                              "bytes " + start + "-" + (FILE_SIZE - 1) + "/" + FILE_SIZE);
+            exchange.sendResponseHeaders(HTTP_PARTIAL, FILE_SIZE - start);
+        } else {
+            exchange.sendResponseHeaders(HTTP_OK, FILE_SIZE);
+        }
+
+        long end = FILE_SIZE;
+        final Long drop = mDrops.poll();
+        if (drop != null) {
+            end = drop;
+        }
+        final OutputStream output = exchange.getResponseBody();
+        output.write(mContents, (int) start, (int) (end - start));
+        // Closing the exchange short of the declared length drops the connection
+        output.flush();
+    }
+
+    /**
+     * Gets the local file the download is written to
+     * @return The local file
+     */
+    private File getTarget() {
+        return new File(mEngine.getDownloadDirectory(), FILE_NAME);
+    }
+
+    /**
+     * Deletes a file if it exists
+     * @param file The file
+     */
+    private static void delete(final File file) {
+        if (file.exists()) {
+            assertTrue(file.delete());
+        }
+    }
+}
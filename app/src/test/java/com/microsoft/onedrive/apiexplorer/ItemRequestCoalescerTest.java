@@ -0,0 +1,241 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.concurrency.ICallback;
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.core.OneDriveErrorCodes;
+import com.onedrive.sdk.extensions.IItemRequest;
+import com.onedrive.sdk.extensions.Item;
+import com.onedrive.sdk.options.HeaderOption;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks that identical item requests in flight at the same time share one call to the service
+ */
+public final class ItemRequestCoalescerTest {
+
+    /**
+     * The number of callers asking for the same item at once
+     */
+    private static final int CALLERS = 32;
+
+    /**
+     * How long to wait for the callers, in seconds
+     */
+    private static final long TIMEOUT_SECONDS = 10;
+
+    /**
+     * The url every request is for
+     */
+    private static final String URL = "https://api.onedrive.com/v1.0/drive/items/root?expand=children";
+
+    /**
+     * The coalescer under test
+     */
+    private ItemRequestCoalescer mCoalescer;
+
+    /**
+     * The calls that reached the service, by the callback the service would answer
+     */
+    private final List<ICallback<Item>> mCalls = Collections.synchronizedList(new ArrayList<ICallback<Item>>());
+
+    /**
+     * Creates the coalescer
+     */
+    @Before
+    public void setUp() {
+        mCoalescer = new ItemRequestCoalescer(new RequestMetrics());
+    }
+
+    /**
+     * Concurrent identical requests produce one call, and every caller gets its response
+     * @throws InterruptedException If the test was interrupted
+     */
+    @Test
+    public void concurrentIdenticalRequestsProduceOneCall() throws InterruptedException {
+        final CountDownLatch start = new CountDownLatch(1);
+        final CountDownLatch sent = new CountDownLatch(CALLERS);
+        final Recorder recorder = new Recorder(CALLERS);
+        for (int i = 0; i < CALLERS; i++) {
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        start.await();
+                        mCoalescer.get(newRequest(), recorder);
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        sent.countDown();
+                    }
+                }
+            }).start();
+        }
+        start.countDown();
+        assertTrue(sent.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+        assertEquals(1, mCalls.size());
+        assertEquals(1, mCoalescer.getSentCount());
+        assertEquals(CALLERS - 1, mCoalescer.getCoalescedCount());
+
+        final Item item = new Item();
+        mCalls.get(0).success(item);
+        assertTrue(recorder.mDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+        assertEquals(CALLERS, recorder.mItems.size());
+        for (final Item received : recorder.mItems) {
+            assertSame(item, received);
+        }
+    }
+
+    /**
+     * A request made after the previous one was answered goes to the service again
+     */
+    @Test
+    public void laterRequestIsSentAgain() {
+        final Recorder recorder = new Recorder(2);
+        mCoalescer.get(newRequest(), recorder);
+        mCalls.get(0).success(new Item());
+        mCoalescer.get(newRequest(), recorder);
+
+        assertEquals(2, mCalls.size());
+        assertEquals(0, mCoalescer.getCoalescedCount());
+    }
+
+    /**
+     * Requests with different headers are not shared
+     */
+    @Test
+    public void differentHeadersAreNotShared() {
+        final Recorder recorder = new Recorder(2);
+        mCoalescer.get(newRequest(), recorder);
+        final IItemRequest conditional = newRequest();
+        conditional.addHeader(ConditionalItemHandler.IF_NONE_MATCH, "etag");
+        mCoalescer.get(conditional, recorder);
+
+        assertEquals(2, mCalls.size());
+    }
+
+    /**
+     * A failure reaches every caller waiting on the request
+     */
+    @Test
+    public void failureReachesEveryCaller() {
+        final Recorder recorder = new Recorder(2);
+        mCoalescer.get(newRequest(), recorder);
+        mCoalescer.get(newRequest(), recorder);
+        mCalls.get(0).failure(new ClientException("failed", null, OneDriveErrorCodes.GeneralException));
+
+        assertEquals(1, mCalls.size());
+        assertEquals(2, recorder.mFailures.get());
+    }
+
+    /**
+     * Creates a request for {@link #URL} that records its calls to the service instead of sending them
+     * @return The request
+     */
+    private IItemRequest newRequest() {
+        final List<HeaderOption> headers = new ArrayList<>();
+        return (IItemRequest) Proxy.newProxyInstance(IItemRequest.class.getClassLoader(),
+                                                     new Class<?>[] {IItemRequest.class},
+                                                     new InvocationHandler() {
+            @Override
+            @SuppressWarnings("unchecked")
+            public Object invoke(final Object proxy, final Method method, final Object[] args) throws Exception {
+                switch (method.getName()) {
+                    case "getRequestUrl":
+                        return new URL(URL);
+                    case "getHeaders":
+                        return headers;
+                    case "addHeader":
+                        headers.add(new HeaderOption((String) args[0], (String) args[1]));
+                        return null;
+                    case "get":
+                        mCalls.add((ICallback<Item>) args[0]);
+                        return null;
+                    default:
+                        throw new UnsupportedOperationException(method.getName());
+                }
+            }
+        });
+    }
+
+    /**
+     * Records what the callers received
+     */
+    private static final class Recorder implements ICallback<Item> {
+
+        /**
+         * The items received
+         */
+        private final List<Item> mItems = Collections.synchronizedList(new ArrayList<Item>());
+
+        /**
+         * The failures received
+         */
+        private final AtomicInteger mFailures = new AtomicInteger();
+
+        /**
+         * Counts down once for every item or failure received
+         */
+        private final CountDownLatch mDone;
+
+        /**
+         * Default constructor
+         * @param callers The number of callers
+         */
+        private Recorder(final int callers) {
+            mDone = new CountDownLatch(callers);
+        }
+
+        @Override
+        public void success(final Item item) {
+            mItems.add(item);
+            mDone.countDown();
+        }
+
+        @Override
+        public void failure(final ClientException error) {
+            mFailures.incrementAndGet();
+            mDone.countDown();
+        }
+    }
+}
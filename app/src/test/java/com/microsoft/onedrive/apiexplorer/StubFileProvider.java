@@ -0,0 +1,119 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.content.ContentProvider;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.ParcelFileDescriptor;
+
+import org.robolectric.shadows.ShadowContentResolver;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+
+/**
+ * Serves the files of a local directory as content uris, the way the document picker hands files to the uploader
+ */
+final class StubFileProvider extends ContentProvider {
+
+    /**
+     * The authority the files are served under
+     */
+    private static final String AUTHORITY = "com.microsoft.onedrive.apiexplorer.test.files";
+
+    /**
+     * The directory of the files
+     */
+    private final File mDirectory;
+
+    /**
+     * Default constructor
+     * @param directory The directory of the files
+     */
+    private StubFileProvider(final File directory) {
+        mDirectory = directory;
+    }
+
+    /**
+     * Serves the files of a directory to the content resolver of the test application
+     * @param directory The directory of the files
+     */
+    static void register(final File directory) {
+        ShadowContentResolver.registerProvider(AUTHORITY, new StubFileProvider(directory));
+    }
+
+    /**
+     * Gets the content uri of a file in the served directory
+     * @param file The file
+     * @return The content uri
+     */
+    static Uri getUri(final File file) {
+        return new Uri.Builder().scheme("content").authority(AUTHORITY).appendPath(file.getName()).build();
+    }
+
+    @Override
+    public boolean onCreate() {
+        return true;
+    }
+
+    @Override
+    public ParcelFileDescriptor openFile(final Uri uri, final String mode) throws FileNotFoundException {
+        return ParcelFileDescriptor.open(new File(mDirectory, uri.getLastPathSegment()),
+                                         ParcelFileDescriptor.MODE_READ_ONLY);
+    }
+
+    @Override
+    public Cursor query(final Uri uri,
+                        final String[] projection,
+                        final String selection,
+                        final String[] selectionArgs,
+                        final String sortOrder) {
+        return null;
+    }
+
+    @Override
+    public String getType(final Uri uri) {
+        return null;
+    }
+
+    @Override
+    public Uri insert(final Uri uri, final ContentValues values) {
+        return null;
+    }
+
+    @Override
+    public int delete(final Uri uri, final String selection, final String[] selectionArgs) {
+        return 0;
+    }
+
+    @Override
+    public int update(final Uri uri,
+                      final ContentValues values,
+                      final String selection,
+                      final String[] selectionArgs) {
+        return 0;
+    }
+}
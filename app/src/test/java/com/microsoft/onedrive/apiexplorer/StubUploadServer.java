@@ -0,0 +1,487 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonPrimitive;
+
+import com.onedrive.sdk.core.ClientException;
+import com.onedrive.sdk.core.OneDriveErrorCodes;
+import com.onedrive.sdk.extensions.Item;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * A stand-in for the upload session endpoints of the service on a local port, which the uploader reaches as its
+ * connector. Like the service it only takes a chunk that starts at the first byte a session is missing, and it counts
+ * the bytes of any chunk that repeats a range it already holds
+ */
+final class StubUploadServer implements ChunkedUploader.Connector {
+
+    /**
+     * The path upload sessions are served under
+     */
+    private static final String SESSION_PATH = "/upload/";
+
+    /**
+     * The status of a read session
+     */
+    private static final int HTTP_OK = 200;
+
+    /**
+     * The status of the chunk that completes a session
+     */
+    private static final int HTTP_CREATED = 201;
+
+    /**
+     * The status of an accepted chunk
+     */
+    private static final int HTTP_ACCEPTED = 202;
+
+    /**
+     * The status of a deleted session
+     */
+    private static final int HTTP_NO_CONTENT = 204;
+
+    /**
+     * The status of an unknown request
+     */
+    private static final int HTTP_BAD_REQUEST = 400;
+
+    /**
+     * The status of an unknown or deleted session
+     */
+    private static final int HTTP_NOT_FOUND = 404;
+
+    /**
+     * The status of a chunk that does not start at the first missing byte
+     */
+    private static final int HTTP_RANGE_NOT_SATISFIABLE = 416;
+
+    /**
+     * The status written when no response should be sent
+     */
+    private static final int NO_RESPONSE = -1;
+
+    /**
+     * The size of the buffer chunk bodies are read with
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The charset of the response bodies
+     */
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /**
+     * The http server
+     */
+    private final HttpServer mServer;
+
+    /**
+     * The sessions by upload url path
+     */
+    private final Map<String, Session> mSessions = new HashMap<>();
+
+    /**
+     * The offsets of the chunks that were taken, in the order they arrived
+     */
+    private final List<Long> mChunkStarts = new ArrayList<>();
+
+    /**
+     * The number of bytes sent again for ranges a session already held
+     */
+    private long mResentBytes;
+
+    /**
+     * The number of session reads
+     */
+    private int mStatusRequests;
+
+    /**
+     * The index of the taken chunk whose response is dropped, or -1
+     */
+    private int mDropResponseToChunk = -1;
+
+    /**
+     * If the response to the chunk that completes a session is dropped
+     */
+    private boolean mDropFinalResponse;
+
+    /**
+     * Starts serving on a free local port
+     * @throws IOException If the server could not be started
+     */
+    StubUploadServer() throws IOException {
+        mServer = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        mServer.createContext(SESSION_PATH, new HttpHandler() {
+            @Override
+            public void handle(final HttpExchange exchange) throws IOException {
+                try {
+                    serve(exchange);
+                } finally {
+                    exchange.close();
+                }
+            }
+        });
+        mServer.start();
+    }
+
+    /**
+     * Stops serving
+     */
+    void close() {
+        mServer.stop(0);
+    }
+
+    @Override
+    public synchronized String createSession(final String parentId, final String fileName) {
+        final String path = SESSION_PATH + mSessions.size();
+        mSessions.put(path, new Session(parentId, fileName));
+        return "http://127.0.0.1:" + mServer.getAddress().getPort() + path;
+    }
+
+    @Override
+    public HttpURLConnection openConnection(final String uploadUrl) throws IOException {
+        return (HttpURLConnection) new URL(uploadUrl).openConnection();
+    }
+
+    @Override
+    public synchronized Item getItem(final String parentId, final String fileName) {
+        for (final Session session : mSessions.values()) {
+            if (session.mParentId.equals(parentId) && session.mFileName.equals(fileName) && session.isComplete()) {
+                return parseItem(session.toItem().toString());
+            }
+        }
+        throw new ClientException("No item named " + fileName, null, OneDriveErrorCodes.ItemNotFound);
+    }
+
+    @Override
+    public synchronized Item putEmptyFile(final String parentId, final String fileName) {
+        final Session session = new Session(parentId, fileName);
+        session.mSize = 0;
+        mSessions.put(SESSION_PATH + mSessions.size(), session);
+        return parseItem(session.toItem().toString());
+    }
+
+    @Override
+    public Item parseItem(final String json) {
+        return new Gson().fromJson(json, Item.class);
+    }
+
+    /**
+     * Takes the start of a file into a session, as if an earlier attempt had sent it
+     * @param uploadUrl The url of the session
+     * @param head The first bytes of the file
+     * @param size The size of the file
+     */
+    synchronized void preload(final String uploadUrl, final byte[] head, final long size) {
+        final Session session = mSessions.get(uploadUrl.substring(uploadUrl.indexOf(SESSION_PATH)));
+        session.mSize = size;
+        session.mChecksum.update(head, 0, head.length);
+        session.mNextExpected = head.length;
+    }
+
+    /**
+     * Takes a chunk but drops the connection instead of answering, as if the response was lost
+     * @param index The index of the taken chunk, counted from zero across every session
+     */
+    synchronized void dropResponseToChunk(final int index) {
+        mDropResponseToChunk = index;
+    }
+
+    /**
+     * Takes the chunk that completes a session but drops the connection instead of answering
+     */
+    synchronized void dropFinalResponse() {
+        mDropFinalResponse = true;
+    }
+
+    /**
+     * The number of sessions created
+     * @return The session count
+     */
+    synchronized int getSessionCount() {
+        return mSessions.size();
+    }
+
+    /**
+     * The offsets of the chunks that were taken, in the order they arrived
+     * @return The chunk offsets
+     */
+    synchronized List<Long> getChunkStarts() {
+        return new ArrayList<>(mChunkStarts);
+    }
+
+    /**
+     * The number of bytes sent again for ranges a session already held
+     * @return The resent bytes
+     */
+    synchronized long getResentBytes() {
+        return mResentBytes;
+    }
+
+    /**
+     * The number of times a session was read to find where to resume
+     * @return The session reads
+     */
+    synchronized int getStatusRequests() {
+        return mStatusRequests;
+    }
+
+    /**
+     * The checksum of the bytes taken for a file, in file order
+     * @param fileName The name of the file
+     * @return The checksum of the latest session for the file
+     */
+    synchronized long getChecksum(final String fileName) {
+        return getLatestSession(fileName).mChecksum.getValue();
+    }
+
+    /**
+     * The number of bytes taken for a file
+     * @param fileName The name of the file
+     * @return The bytes the latest session for the file holds
+     */
+    synchronized long getReceivedBytes(final String fileName) {
+        return getLatestSession(fileName).mNextExpected;
+    }
+
+    /**
+     * If the latest session for a file was deleted
+     * @param fileName The name of the file
+     * @return If the session was deleted
+     */
+    synchronized boolean isDeleted(final String fileName) {
+        return getLatestSession(fileName).mDeleted;
+    }
+
+    /**
+     * Gets the most recently created session for a file
+     * @param fileName The name of the file
+     * @return The session
+     */
+    private Session getLatestSession(final String fileName) {
+        Session latest = null;
+        for (int i = 0; i < mSessions.size(); i++) {
+            final Session session = mSessions.get(SESSION_PATH + i);
+            if (session.mFileName.equals(fileName)) {
+                latest = session;
+            }
+        }
+        if (latest == null) {
+            throw new IllegalArgumentException("No session for " + fileName);
+        }
+        return latest;
+    }
+
+    /**
+     * Answers a request to a session
+     * @param exchange The request
+     * @throws IOException If the request could not be read or answered
+     */
+    private void serve(final HttpExchange exchange) throws IOException {
+        final String method = exchange.getRequestMethod();
+        final int status;
+        String body = null;
+        synchronized (this) {
+            final Session session = mSessions.get(exchange.getRequestURI().getPath());
+            if (session == null || session.mDeleted) {
+                status = HTTP_NOT_FOUND;
+            } else if ("PUT".equals(method)) {
+                status = takeChunk(exchange, session);
+                if (status == HTTP_CREATED) {
+                    body = session.toItem().toString();
+                } else if (status == HTTP_ACCEPTED) {
+                    body = session.toStatus().toString();
+                }
+            } else if ("GET".equals(method)) {
+                mStatusRequests++;
+                status = HTTP_OK;
+                body = session.toStatus().toString();
+            } else if ("DELETE".equals(method)) {
+                session.mDeleted = true;
+                status = HTTP_NO_CONTENT;
+            } else {
+                status = HTTP_BAD_REQUEST;
+            }
+        }
+        if (status == NO_RESPONSE) {
+            return;
+        }
+        if (body == null) {
+            exchange.sendResponseHeaders(status, -1);
+            return;
+        }
+        final byte[] bytes = body.getBytes(UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        final OutputStream output = exchange.getResponseBody();
+        output.write(bytes);
+        output.close();
+    }
+
+    /**
+     * Reads a chunk, taking it only if it starts at the first byte the session is missing
+     * @param exchange The request
+     * @param session The session
+     * @return The status to answer with, or {@link #NO_RESPONSE} if the response is dropped
+     * @throws IOException If the chunk could not be read
+     */
+    private int takeChunk(final HttpExchange exchange, final Session session) throws IOException {
+        // e.g. "bytes 0-327679/1048576"
+        final String range = exchange.getRequestHeaders().getFirst("Content-Range");
+        final int startAt = range.indexOf(' ') + 1;
+        final int endAt = range.indexOf('-', startAt) + 1;
+        final int sizeAt = range.indexOf('/', endAt) + 1;
+        final long start = Long.parseLong(range.substring(startAt, endAt - 1));
+        final long end = Long.parseLong(range.substring(endAt, sizeAt - 1));
+        session.mSize = Long.parseLong(range.substring(sizeAt));
+
+        final boolean taken = start == session.mNextExpected;
+        if (start < session.mNextExpected) {
+            mResentBytes += Math.min(end + 1, session.mNextExpected) - start;
+        }
+        final InputStream input = exchange.getRequestBody();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        int read = input.read(buffer);
+        while (read >= 0) {
+            if (taken) {
+                session.mChecksum.update(buffer, 0, read);
+            }
+            read = input.read(buffer);
+        }
+        if (!taken) {
+            return HTTP_RANGE_NOT_SATISFIABLE;
+        }
+
+        session.mNextExpected = end + 1;
+        mChunkStarts.add(start);
+        if (mChunkStarts.size() - 1 == mDropResponseToChunk || (session.isComplete() && mDropFinalResponse)) {
+            mDropResponseToChunk = -1;
+            mDropFinalResponse = false;
+            return NO_RESPONSE;
+        }
+        if (session.isComplete()) {
+            return HTTP_CREATED;
+        }
+        return HTTP_ACCEPTED;
+    }
+
+    /**
+     * An upload session
+     */
+    private static final class Session {
+
+        /**
+         * The id of the folder being uploaded into
+         */
+        private final String mParentId;
+
+        /**
+         * The name of the file
+         */
+        private final String mFileName;
+
+        /**
+         * The checksum of the bytes taken, in file order
+         */
+        private final CRC32 mChecksum = new CRC32();
+
+        /**
+         * The size of the file, -1 until the first chunk says
+         */
+        private long mSize = -1;
+
+        /**
+         * The first byte the session is missing
+         */
+        private long mNextExpected;
+
+        /**
+         * If the session was deleted
+         */
+        private boolean mDeleted;
+
+        /**
+         * Default constructor
+         * @param parentId The id of the folder being uploaded into
+         * @param fileName The name of the file
+         */
+        private Session(final String parentId, final String fileName) {
+            mParentId = parentId;
+            mFileName = fileName;
+        }
+
+        /**
+         * If every byte of the file has been taken
+         * @return If the session is complete
+         */
+        private boolean isComplete() {
+            return mNextExpected == mSize;
+        }
+
+        /**
+         * Describes the outstanding range of the session
+         * @return The upload session json
+         */
+        private JsonObject toStatus() {
+            final JsonArray ranges = new JsonArray();
+            if (!isComplete()) {
+                ranges.add(new JsonPrimitive(mNextExpected + "-"));
+            }
+            final JsonObject json = new JsonObject();
+            json.add("nextExpectedRanges", ranges);
+            return json;
+        }
+
+        /**
+         * Describes the uploaded item
+         * @return The item json
+         */
+        private JsonObject toItem() {
+            final JsonObject json = new JsonObject();
+            json.addProperty("id", mParentId + "!" + mFileName);
+            json.addProperty("name", mFileName);
+            json.addProperty("size", mSize);
+            return json;
+        }
+    }
+}
@@ -0,0 +1,444 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.graphics.Bitmap;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Checks the eviction order and invalidation of both thumbnail tiers, and counts the decodes and allocations of
+ * reading {@link #THUMBNAIL_COUNT} thumbnails back from disk
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.KITKAT)
+public final class ThumbnailCacheTest {
+
+    /**
+     * The edge of the test bitmaps, in pixels
+     */
+    private static final int EDGE = 8;
+
+    /**
+     * The number of thumbnails each tier has room for
+     */
+    private static final int CAPACITY = 3;
+
+    /**
+     * The tag of the first version of every item
+     */
+    private static final String TAG = "ctag1";
+
+    /**
+     * The tag of the second version of every item
+     */
+    private static final String CHANGED_TAG = "ctag2";
+
+    /**
+     * The number of thumbnails read back from disk
+     */
+    private static final int THUMBNAIL_COUNT = 1000;
+
+    /**
+     * The number of thumbnails the memory tier has room for while reading them back from disk
+     */
+    private static final int MEMORY_CAPACITY = 100;
+
+    /**
+     * The bytes per pixel of the test bitmaps
+     */
+    private static final int ARGB_8888_BYTES = 4;
+
+    /**
+     * The disk writes queued by the caches under test, run when the test says so
+     */
+    private final Queue<Runnable> mDiskWrites = new ArrayDeque<>();
+
+    /**
+     * Queues the disk writes of the caches under test
+     */
+    private final Executor mDiskWriter = new Executor() {
+        @Override
+        public void execute(final Runnable command) {
+            mDiskWrites.add(command);
+        }
+    };
+
+    /**
+     * The directory of the disk tier
+     */
+    private File mDirectory;
+
+    /**
+     * Creates an empty directory for the disk tier
+     * @throws IOException If the directory could not be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        mDirectory = File.createTempFile("thumbnails", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+    }
+
+    /**
+     * Deletes the directory of the disk tier
+     */
+    @After
+    public void tearDown() {
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    /**
+     * The disk tier drops the least recently read thumbnail first once it is over budget
+     */
+    @Test
+    public void diskEvictsLeastRecentlyUsed() {
+        final DiskThumbnailCache cache = newDiskCache();
+        cache.put("a", TAG, newBitmap());
+        cache.put("b", TAG, newBitmap());
+        cache.put("c", TAG, newBitmap());
+        assertNotNull(cache.get("a", TAG));
+        cache.put("d", TAG, newBitmap());
+
+        assertTrue(cache.contains("a"));
+        assertFalse(cache.contains("b"));
+        assertTrue(cache.contains("c"));
+        assertTrue(cache.contains("d"));
+        assertEquals(1, cache.getEvictionCount());
+        assertEquals(CAPACITY * getFileSize(), cache.getSize());
+    }
+
+    /**
+     * A thumbnail stored for an older version of an item is dropped when the item is read with its new tag
+     */
+    @Test
+    public void diskDropsThumbnailOfOlderVersion() {
+        final DiskThumbnailCache cache = newDiskCache();
+        cache.put("a", TAG, newBitmap());
+
+        assertNull(cache.get("a", CHANGED_TAG));
+        assertFalse(cache.contains("a"));
+        assertEquals(0, cache.getSize());
+
+        cache.put("a", CHANGED_TAG, newBitmap());
+        assertNotNull(cache.get("a", CHANGED_TAG));
+    }
+
+    /**
+     * The memory tier drops the least recently used bitmap first, and the dropped bitmap is still found on disk
+     */
+    @Test
+    public void memoryEvictsLeastRecentlyUsedToDisk() {
+        final ThumbnailCache cache = newThumbnailCache();
+        final Bitmap a = newBitmap();
+        final Bitmap c = newBitmap();
+        cache.put("a", TAG, a);
+        cache.put("b", TAG, newBitmap());
+        cache.put("c", TAG, c);
+        assertSame(a, cache.getFromMemory("a", TAG));
+        cache.put("d", TAG, newBitmap());
+
+        assertSame(a, cache.getFromMemory("a", TAG));
+        assertNull(cache.getFromMemory("b", TAG));
+        assertSame(c, cache.getFromMemory("c", TAG));
+        assertEquals(1, cache.getEvictionCount());
+
+        assertNotNull(cache.get("b", TAG));
+        assertEquals(1, cache.getDiskHitCount());
+    }
+
+    /**
+     * An evicted bitmap is written to disk by the disk writer rather than inside the eviction, and it is only pooled
+     * once it has been written
+     */
+    @Test
+    public void memoryEvictionSpillsOnDiskWriter() {
+        final int byteCount = newBitmap().getAllocationByteCount();
+        final BitmapPool pool = new BitmapPool(CAPACITY * byteCount);
+        final ThumbnailCache cache = new ThumbnailCache(mDirectory,
+                                                        CAPACITY * byteCount,
+                                                        getFileSize(),
+                                                        new TestDecoder(),
+                                                        pool,
+                                                        mDiskWriter);
+        final Bitmap a = newBitmap();
+        cache.put("a", TAG, a);
+        cache.put("b", TAG, newBitmap());
+        cache.put("c", TAG, newBitmap());
+        // The disk tier only has room for one thumbnail, so it no longer holds a when a leaves memory
+        cache.put("d", TAG, newBitmap());
+
+        assertEquals(1, mDiskWrites.size());
+        assertNull(pool.get(byteCount));
+
+        runDiskWrites();
+        assertSame(a, pool.get(byteCount));
+        assertNotNull(cache.get("a", TAG));
+        assertEquals(1, cache.getDiskHitCount());
+    }
+
+    /**
+     * Clearing empties the disk tier after the writes already queued, so an evicted bitmap is not left behind
+     */
+    @Test
+    public void clearRunsAfterQueuedSpills() {
+        final ThumbnailCache cache = new ThumbnailCache(mDirectory,
+                                                        CAPACITY * newBitmap().getAllocationByteCount(),
+                                                        getFileSize(),
+                                                        new TestDecoder(),
+                                                        new BitmapPool(0),
+                                                        mDiskWriter);
+        for (final String id : new String[] {"a", "b", "c", "d"}) {
+            cache.put(id, TAG, newBitmap());
+        }
+        cache.clear();
+        runDiskWrites();
+
+        assertEquals(0, cache.getDiskSize());
+        assertEquals(0, cache.getMemorySize());
+    }
+
+    /**
+     * Reads {@link #THUMBNAIL_COUNT} thumbnails back from disk through a memory tier with room for a fraction of
+     * them. Each is decoded once, and once the memory tier is full every decode draws into a bitmap evicted earlier,
+     * so the number of bitmaps allocated stays at what the memory tier holds. Prints the decodes and the bytes
+     * allocated per thumbnail
+     */
+    @Test
+    public void thumbnailsReadFromDiskReusePooledBitmaps() {
+        final int byteCount = newBitmap().getAllocationByteCount();
+        final BitmapPool pool = new BitmapPool(MEMORY_CAPACITY * byteCount);
+        final CountingDecoder decoder = new CountingDecoder(pool);
+        final DiskThumbnailCache disk = new DiskThumbnailCache(mDirectory, Long.MAX_VALUE, decoder);
+        for (int i = 0; i < THUMBNAIL_COUNT; i++) {
+            disk.put(getId(i), TAG, newBitmap());
+        }
+        final ThumbnailCache cache = new ThumbnailCache(mDirectory,
+                                                        MEMORY_CAPACITY * byteCount,
+                                                        Long.MAX_VALUE,
+                                                        decoder,
+                                                        pool,
+                                                        mDiskWriter);
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < THUMBNAIL_COUNT; i++) {
+            assertNotNull(cache.get(getId(i), TAG));
+            runDiskWrites();
+        }
+        final long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        System.out.println(String.format(Locale.ROOT,
+                                         "%d thumbnails: %d decodes, %d bitmaps allocated, %d bytes per thumbnail",
+                                         THUMBNAIL_COUNT,
+                                         decoder.mDecodeCount,
+                                         decoder.mAllocatedCount,
+                                         allocated / THUMBNAIL_COUNT));
+
+        assertEquals(THUMBNAIL_COUNT, decoder.mDecodeCount);
+        assertEquals(THUMBNAIL_COUNT, cache.getDiskHitCount());
+        assertTrue(decoder.mAllocatedCount + " bitmaps allocated", decoder.mAllocatedCount <= MEMORY_CAPACITY + 1);
+
+        // The most recent thumbnails are still in memory, reading them again decodes nothing
+        for (int i = THUMBNAIL_COUNT - MEMORY_CAPACITY; i < THUMBNAIL_COUNT; i++) {
+            assertNotNull(cache.get(getId(i), TAG));
+        }
+        assertEquals(THUMBNAIL_COUNT, decoder.mDecodeCount);
+    }
+
+    /**
+     * A new version of an item misses both tiers, so its thumbnail is downloaded again
+     */
+    @Test
+    public void newVersionMissesBothTiers() {
+        final ThumbnailCache cache = newThumbnailCache();
+        cache.put("a", TAG, newBitmap());
+
+        assertNull(cache.getFromMemory("a", CHANGED_TAG));
+        assertNull(cache.get("a", CHANGED_TAG));
+        assertEquals(1, cache.getMissCount());
+        assertEquals(0, cache.getDiskSize());
+    }
+
+    /**
+     * Runs the disk writes queued so far, in order
+     */
+    private void runDiskWrites() {
+        Runnable write;
+        while ((write = mDiskWrites.poll()) != null) {
+            write.run();
+        }
+    }
+
+    /**
+     * Gets the id of a numbered item
+     * @param index The number of the item
+     * @return The item id
+     */
+    private static String getId(final int index) {
+        return "item" + index;
+    }
+
+    /**
+     * Creates a disk cache with room for {@link #CAPACITY} thumbnails
+     * @return The cache
+     */
+    private DiskThumbnailCache newDiskCache() {
+        return new DiskThumbnailCache(mDirectory, CAPACITY * getFileSize(), new TestDecoder());
+    }
+
+    /**
+     * Creates a two tier cache with room for {@link #CAPACITY} thumbnails in each tier
+     * @return The cache
+     */
+    private ThumbnailCache newThumbnailCache() {
+        return new ThumbnailCache(mDirectory,
+                                  CAPACITY * newBitmap().getAllocationByteCount(),
+                                  CAPACITY * getFileSize(),
+                                  new TestDecoder(),
+                                  new BitmapPool(0),
+                                  mDiskWriter);
+    }
+
+    /**
+     * Measures the size of one stored thumbnail, every test thumbnail has the same size
+     * @return The size in bytes
+     */
+    private static long getFileSize() {
+        try {
+            final File directory = File.createTempFile("probe", "");
+            assertTrue(directory.delete());
+            final DiskThumbnailCache probe = new DiskThumbnailCache(directory, Long.MAX_VALUE, new TestDecoder());
+            probe.put("probe", TAG, newBitmap());
+            final long size = probe.getSize();
+            probe.clear();
+            directory.delete();
+            return size;
+        } catch (final IOException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Creates a test bitmap
+     * @return The bitmap
+     */
+    private static Bitmap newBitmap() {
+        return Bitmap.createBitmap(EDGE, EDGE, Bitmap.Config.ARGB_8888);
+    }
+
+    /**
+     * Decodes any stored thumbnail into a new bitmap, the test bitmaps do not need their pixels back
+     */
+    private static final class TestDecoder extends ThumbnailDecoder {
+
+        /**
+         * Default constructor
+         */
+        private TestDecoder() {
+            super(EDGE, new BitmapPool(0));
+        }
+
+        @Override
+        Bitmap decode(final InputStream input) throws IOException {
+            if (input.read() < 0) {
+                return null;
+            }
+            return newBitmap();
+        }
+    }
+
+    /**
+     * Decodes any stored thumbnail into a pooled bitmap when there is one, the way the real decoder draws into
+     * pooled bitmaps, and counts the decodes and the bitmaps it had to allocate
+     */
+    private static final class CountingDecoder extends ThumbnailDecoder {
+
+        /**
+         * Where bitmaps are reused from
+         */
+        private final BitmapPool mPool;
+
+        /**
+         * The number of thumbnails decoded
+         */
+        private int mDecodeCount;
+
+        /**
+         * The number of decodes that found no pooled bitmap
+         */
+        private int mAllocatedCount;
+
+        /**
+         * Default constructor
+         * @param pool Where bitmaps are reused from
+         */
+        private CountingDecoder(final BitmapPool pool) {
+            super(EDGE, pool);
+            mPool = pool;
+        }
+
+        @Override
+        Bitmap decode(final InputStream input) throws IOException {
+            if (input.read() < 0) {
+                return null;
+            }
+            mDecodeCount++;
+            final Bitmap pooled = mPool.get(EDGE * EDGE * ARGB_8888_BYTES);
+            if (pooled != null) {
+                return pooled;
+            }
+            mAllocatedCount++;
+            return newBitmap();
+        }
+    }
+}
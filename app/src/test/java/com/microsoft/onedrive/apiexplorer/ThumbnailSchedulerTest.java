@@ -0,0 +1,265 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import android.os.Build;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Flings through a synthetic folder of {@link #FOLDER_SIZE} items and measures how long after the list stops the first
+ * thumbnail on screen is downloaded, against a source that takes {@link #FETCH_MS} per thumbnail
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.KITKAT)
+public final class ThumbnailSchedulerTest {
+
+    /**
+     * The number of items in the folder
+     */
+    private static final int FOLDER_SIZE = 5000;
+
+    /**
+     * The number of rows on screen
+     */
+    private static final int VISIBLE_ROWS = 10;
+
+    /**
+     * How long the source takes to answer, in milliseconds
+     */
+    private static final long FETCH_MS = 2;
+
+    /**
+     * The longest the visible thumbnails may take before the test gives up, in milliseconds
+     */
+    private static final long TIMEOUT_MS = 60 * 1000;
+
+    /**
+     * How often the test checks if the visible thumbnails arrived, in milliseconds
+     */
+    private static final long POLL_INTERVAL_MS = 5;
+
+    /**
+     * The version tag of every item
+     */
+    private static final String TAG = "ctag";
+
+    /**
+     * The ids of the thumbnails the source was asked for, in order
+     */
+    private final List<String> mFetched = Collections.synchronizedList(new ArrayList<String>());
+
+    /**
+     * When each thumbnail was fetched, from {@link System#nanoTime()}, by item id
+     */
+    private final Map<String, Long> mFetchTimes = new ConcurrentHashMap<>();
+
+    /**
+     * The number of thumbnails that can be downloaded at the same time
+     */
+    private int mWorkers;
+
+    /**
+     * The scheduler under test
+     */
+    private ThumbnailScheduler mScheduler;
+
+    /**
+     * Creates a scheduler with the application's number of workers over a source that records every fetch
+     */
+    @Before
+    public void setUp() {
+        final BaseApplication application = (BaseApplication) RuntimeEnvironment.application;
+        mWorkers = application.getResources().getInteger(R.integer.thumbnail_workers);
+        mScheduler = new ThumbnailScheduler(application, mWorkers, new ThumbnailScheduler.Source() {
+            @Override
+            public InputStream open(final String itemId) {
+                mFetchTimes.put(itemId, System.nanoTime());
+                mFetched.add(itemId);
+                try {
+                    Thread.sleep(FETCH_MS);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new ByteArrayInputStream(new byte[0]);
+            }
+        });
+    }
+
+    /**
+     * Rows that scroll away are cancelled as they are recycled, so once the list stops only the rows on screen are
+     * fetched, apart from downloads that had already started
+     */
+    @Test
+    public void flingWithRecycledRowsFetchesOnlyVisibleRows() {
+        final long stopped = fling(true);
+        final int before = waitForVisibleRows();
+        report("recycled rows", stopped);
+
+        final List<String> after = getFetchedSince(before);
+        assertTrue("Scrolled away rows fetched after the fling: " + after,
+                   after.size() <= VISIBLE_ROWS + mWorkers);
+        assertTrue(after.containsAll(getVisibleIds()));
+    }
+
+    /**
+     * Without cancellation every row stays queued, the rows on screen were requested last so they still run ahead of
+     * the thousands of rows that scrolled away
+     */
+    @Test
+    public void flingWithoutRecyclingFetchesVisibleRowsFirst() {
+        final long stopped = fling(false);
+        final int before = waitForVisibleRows();
+        report("no recycling", stopped);
+
+        final List<String> after = getFetchedSince(before);
+        final Set<String> firstFetched = new HashSet<>(after.subList(0, Math.min(after.size(),
+                                                                                 VISIBLE_ROWS + mWorkers)));
+        assertTrue("Visible rows waited behind scrolled away rows: " + after,
+                   firstFetched.containsAll(getVisibleIds()));
+
+        for (int row = 0; row < FOLDER_SIZE; row++) {
+            mScheduler.cancel(getId(row));
+        }
+    }
+
+    /**
+     * Requests the thumbnail of every row from the top of the folder to the bottom, as the list binds them while
+     * flinging
+     * @param recycle If rows that scroll off screen cancel their request
+     * @return When the list stopped, from {@link System#nanoTime()}
+     */
+    private long fling(final boolean recycle) {
+        final ThumbnailScheduler.Listener listener = new ThumbnailScheduler.Listener() {
+            @Override
+            public void onThumbnailLoaded(final String itemId) {
+                assertTrue(mFetchTimes.containsKey(itemId));
+            }
+        };
+        for (int row = 0; row < FOLDER_SIZE; row++) {
+            mScheduler.request(getId(row), TAG, listener);
+            if (recycle && row >= VISIBLE_ROWS) {
+                mScheduler.cancel(getId(row - VISIBLE_ROWS));
+            }
+        }
+        return System.nanoTime();
+    }
+
+    /**
+     * Waits until every row on screen has been fetched
+     * @return The number of thumbnails fetched when the list stopped
+     */
+    private int waitForVisibleRows() {
+        final int before = mFetched.size();
+        final Set<String> visible = getVisibleIds();
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!new HashSet<>(getFetchedSince(0)).containsAll(visible)) {
+            assertTrue("The visible thumbnails were not fetched", System.currentTimeMillis() < deadline);
+            try {
+                Thread.sleep(POLL_INTERVAL_MS);
+            } catch (final InterruptedException e) {
+                throw new AssertionError(e);
+            }
+        }
+        return before;
+    }
+
+    /**
+     * Prints how long after the list stopped the first and the last visible thumbnail were fetched
+     * @param scenario The name of the scenario
+     * @param stopped When the list stopped, from {@link System#nanoTime()}
+     */
+    private void report(final String scenario, final long stopped) {
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (final String id : getVisibleIds()) {
+            final long fetched = mFetchTimes.get(id);
+            first = Math.min(first, fetched);
+            last = Math.max(last, fetched);
+        }
+        System.out.println(String.format(Locale.ROOT,
+                                         "%s, %d items: first visible thumbnail after %d us, all %d after %d us, "
+                                         + "%d fetched in total",
+                                         scenario,
+                                         FOLDER_SIZE,
+                                         TimeUnit.NANOSECONDS.toMicros(Math.max(0, first - stopped)),
+                                         VISIBLE_ROWS,
+                                         TimeUnit.NANOSECONDS.toMicros(Math.max(0, last - stopped)),
+                                         mFetched.size()));
+        final List<String> fetched = getFetchedSince(0);
+        assertEquals("A thumbnail was fetched twice", fetched.size(), new HashSet<>(fetched).size());
+    }
+
+    /**
+     * Gets the thumbnails fetched from a point on
+     * @param from The index of the first fetch
+     * @return The item ids, in the order they were fetched
+     */
+    private List<String> getFetchedSince(final int from) {
+        synchronized (mFetched) {
+            return new ArrayList<>(mFetched.subList(from, mFetched.size()));
+        }
+    }
+
+    /**
+     * Gets the ids of the rows on screen once the list has reached the bottom of the folder
+     * @return The item ids
+     */
+    private static Set<String> getVisibleIds() {
+        final Set<String> ids = new HashSet<>();
+        for (int row = FOLDER_SIZE - VISIBLE_ROWS; row < FOLDER_SIZE; row++) {
+            ids.add(getId(row));
+        }
+        return ids;
+    }
+
+    /**
+     * Gets the id of the item in a row
+     * @param row The row
+     * @return The item id
+     */
+    private static String getId(final int row) {
+        return "item" + row;
+    }
+}
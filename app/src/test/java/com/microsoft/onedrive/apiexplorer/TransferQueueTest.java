@@ -0,0 +1,322 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.onedrive.sdk.extensions.Item;
+
+import android.net.Uri;
+import android.os.Build;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricGradleTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Kills an upload part way through and starts the queue and uploader again from what a new process would find, the
+ * journal and the saved upload sessions, checking the upload picks up where the service says without resending
+ */
+@RunWith(RobolectricGradleTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = Build.VERSION_CODES.KITKAT)
+public final class TransferQueueTest {
+
+    /**
+     * The folder uploaded into
+     */
+    private static final String PARENT_ID = "parent";
+
+    /**
+     * The name of the uploaded file
+     */
+    private static final String FILE_NAME = "file.bin";
+
+    /**
+     * The size of the uploaded file, several chunks at any chunk size
+     */
+    private static final int FILE_SIZE = 8 * 1000 * 1000;
+
+    /**
+     * The number of chunks sent before the process is killed
+     */
+    private static final int CHUNKS_BEFORE_KILL = 2;
+
+    /**
+     * Seeds the file contents
+     */
+    private static final long SEED = 7;
+
+    /**
+     * The application
+     */
+    private BaseApplication mApplication;
+
+    /**
+     * The directory of the local files
+     */
+    private File mDirectory;
+
+    /**
+     * The stand-in for the service
+     */
+    private StubUploadServer mServer;
+
+    /**
+     * Starts every test with an empty journal, no upload sessions, a served directory of local files and a stand-in
+     * for the service
+     * @throws IOException If the directory or the stand-in could not be created
+     */
+    @Before
+    public void setUp() throws IOException {
+        mApplication = (BaseApplication) RuntimeEnvironment.application;
+        new TransferQueue(mApplication, Collections.<UploadSessionStore.Session>emptyList()).cancelAll();
+        new UploadSessionStore(mApplication).clear();
+        mDirectory = File.createTempFile("uploads", "");
+        assertTrue(mDirectory.delete() && mDirectory.mkdir());
+        StubFileProvider.register(mDirectory);
+        mServer = new StubUploadServer();
+    }
+
+    /**
+     * Stops the stand-in for the service and deletes the local files
+     */
+    @After
+    public void tearDown() {
+        mServer.close();
+        final File[] files = mDirectory.listFiles();
+        if (files != null) {
+            for (final File file : files) {
+                file.delete();
+            }
+        }
+        mDirectory.delete();
+    }
+
+    /**
+     * An upload killed between two chunks is queued again under the same id, and the next process sends only the
+     * bytes the service is missing
+     * @throws IOException If the file could not be written
+     */
+    @Test
+    public void uploadKilledBetweenChunksResumesWithoutResending() throws IOException {
+        final byte[] contents = writeFile();
+        final TransferQueue.Job killed = runUntilKilled();
+        final long held = mServer.getReceivedBytes(FILE_NAME);
+        assertTrue(held > 0 && held < FILE_SIZE);
+
+        restartAndFinish(killed);
+
+        assertEquals(Long.valueOf(held), mServer.getChunkStarts().get(CHUNKS_BEFORE_KILL));
+        assertReceivedOnce(contents);
+    }
+
+    /**
+     * An upload killed after the service took a chunk but before the response arrived resumes from the range the
+     * session reports, not from the last chunk the process knew had been taken
+     * @throws IOException If the file could not be written
+     */
+    @Test
+    public void uploadKilledWithResponseInFlightResumesAtNextExpectedRange() throws IOException {
+        final byte[] contents = writeFile();
+        mServer.dropResponseToChunk(CHUNKS_BEFORE_KILL - 1);
+        final TransferQueue.Job killed = runUntilKilled();
+        final List<Long> sent = mServer.getChunkStarts();
+        assertEquals(CHUNKS_BEFORE_KILL, sent.size());
+        final long held = mServer.getReceivedBytes(FILE_NAME);
+
+        restartAndFinish(killed);
+
+        final List<Long> starts = mServer.getChunkStarts();
+        assertTrue(starts.get(CHUNKS_BEFORE_KILL) > sent.get(CHUNKS_BEFORE_KILL - 1));
+        assertEquals(Long.valueOf(held), starts.get(CHUNKS_BEFORE_KILL));
+        assertReceivedOnce(contents);
+    }
+
+    /**
+     * An upload session with no journaled job, left by a process that stopped between the two writes, is adopted
+     * as a new upload job
+     */
+    @Test
+    public void orphanedSessionIsAdoptedAfterRestart() {
+        final Uri source = StubFileProvider.getUri(new File(mDirectory, FILE_NAME));
+        final String uploadUrl = mServer.createSession(PARENT_ID, FILE_NAME);
+        new UploadSessionStore(mApplication)
+            .save(new UploadSessionStore.Session(uploadUrl, source, PARENT_ID, FILE_NAME, FILE_SIZE));
+
+        final List<TransferQueue.Job> jobs = newQueue().getJobs();
+        assertEquals(1, jobs.size());
+        final TransferQueue.Job job = jobs.get(0);
+        assertEquals(TransferQueue.Kind.Upload, job.getKind());
+        assertEquals(PARENT_ID, job.getItemId());
+        assertEquals(FILE_NAME, job.getName());
+        assertEquals(source, job.getSource());
+        assertEquals(TransferQueue.State.Queued, job.getState());
+
+        assertEquals(1, newQueue().getJobs().size());
+    }
+
+    /**
+     * A transfer that completed before the process stopped is not run again
+     */
+    @Test
+    public void completedJobIsNotRestored() {
+        final TransferQueue queue = newQueue();
+        queue.submitUpload(PARENT_ID, StubFileProvider.getUri(new File(mDirectory, FILE_NAME)), FILE_NAME);
+        final TransferQueue.Job running = queue.start();
+        assertNotNull(running);
+        queue.complete(running.getId());
+
+        assertTrue(newQueue().getJobs().isEmpty());
+    }
+
+    /**
+     * Queues an upload of the file and runs it until the process is killed, after {@link #CHUNKS_BEFORE_KILL}
+     * chunks have been sent
+     * @return The job that was running when the process was killed
+     */
+    private TransferQueue.Job runUntilKilled() {
+        final TransferQueue queue = newQueue();
+        queue.submitUpload(PARENT_ID, StubFileProvider.getUri(new File(mDirectory, FILE_NAME)), FILE_NAME);
+        final TransferQueue.Job running = queue.start();
+        assertNotNull(running);
+        boolean killed = false;
+        try {
+            new ChunkedUploader(mApplication, mServer).upload(running.getItemId(),
+                                                              running.getSource(),
+                                                              running.getName(),
+                                                              new ChunkedUploader.Progress() {
+                /**
+                 * The number of chunks the uploader has started
+                 */
+                private int mChunks;
+
+                @Override
+                public boolean onProgress(final long current, final long max) {
+                    if (mChunks == CHUNKS_BEFORE_KILL) {
+                        throw new ProcessKilledException();
+                    }
+                    mChunks++;
+                    queue.progress(running.getId(), current, max);
+                    return true;
+                }
+            });
+        } catch (final ProcessKilledException e) {
+            // Nothing after this point ran, the journal still has the job running
+            killed = true;
+        }
+        assertTrue("The upload outlived its process", killed);
+        return running;
+    }
+
+    /**
+     * Starts the queue and uploader again from the journal and saved sessions, and runs the interrupted job to the
+     * end
+     * @param killed The job that was running when the process was killed
+     */
+    private void restartAndFinish(final TransferQueue.Job killed) {
+        final TransferQueue queue = newQueue();
+        final List<TransferQueue.Job> jobs = queue.getJobs();
+        assertEquals(1, jobs.size());
+        assertEquals(killed.getId(), jobs.get(0).getId());
+        assertEquals(TransferQueue.State.Queued, jobs.get(0).getState());
+
+        final TransferQueue.Job resumed = queue.start();
+        assertNotNull(resumed);
+        assertEquals(killed.getId(), resumed.getId());
+        final Item item = new ChunkedUploader(mApplication, mServer).upload(resumed.getItemId(),
+                                                                            resumed.getSource(),
+                                                                            resumed.getName(),
+                                                                            new ChunkedUploader.Progress() {
+            @Override
+            public boolean onProgress(final long current, final long max) {
+                return true;
+            }
+        });
+        queue.complete(resumed.getId());
+
+        assertEquals(FILE_NAME, item.name);
+        assertTrue(newQueue().getJobs().isEmpty());
+        assertTrue(new UploadSessionStore(mApplication).getAll().isEmpty());
+    }
+
+    /**
+     * Checks the service holds exactly the file in the one session it created, asked once where to resume and with
+     * no byte sent twice
+     * @param contents The file contents
+     */
+    private void assertReceivedOnce(final byte[] contents) {
+        final CRC32 checksum = new CRC32();
+        checksum.update(contents, 0, contents.length);
+        assertEquals(1, mServer.getSessionCount());
+        assertEquals(1, mServer.getStatusRequests());
+        assertEquals(0, mServer.getResentBytes());
+        assertEquals(contents.length, mServer.getReceivedBytes(FILE_NAME));
+        assertEquals(checksum.getValue(), mServer.getChecksum(FILE_NAME));
+    }
+
+    /**
+     * Writes the local file of random bytes
+     * @return The file contents
+     * @throws IOException If the file could not be written
+     */
+    private byte[] writeFile() throws IOException {
+        final byte[] contents = new byte[FILE_SIZE];
+        new Random(SEED).nextBytes(contents);
+        final FileOutputStream output = new FileOutputStream(new File(mDirectory, FILE_NAME));
+        try {
+            output.write(contents);
+        } finally {
+            output.close();
+        }
+        return contents;
+    }
+
+    /**
+     * Creates a queue as the application does when its process starts
+     * @return The queue, read from the journal and the saved upload sessions
+     */
+    private TransferQueue newQueue() {
+        return new TransferQueue(mApplication, new UploadSessionStore(mApplication).getAll());
+    }
+
+    /**
+     * Stands for the process being killed, nothing on the uploading thread runs after it
+     */
+    private static final class ProcessKilledException extends RuntimeException {
+    }
+}
@@ -0,0 +1,116 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonObject;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+
+/**
+ * Measures applying delta pages to the local item index, for the first sync of a folder, for a sync where everything
+ * changed and for a sync where nothing did
+ */
+@State(Scope.Thread)
+public class DeltaPageBenchmark {
+
+    /**
+     * One item in this many is deleted by the changed page
+     */
+    private static final int DELETE_INTERVAL = 10;
+
+    /**
+     * The number of items on a page
+     */
+    @Param({"200", "1000"})
+    private int mPageSize;
+
+    /**
+     * The page of the first sync
+     */
+    private List<JsonObject> mInitialPage;
+
+    /**
+     * A page that updates every item and deletes some
+     */
+    private List<JsonObject> mChangedPage;
+
+    /**
+     * The index the pages are applied to
+     */
+    private ItemIndex mIndex;
+
+    /**
+     * Builds the pages
+     */
+    @Setup
+    public void setUp() {
+        mInitialPage = SyntheticItems.page(mPageSize, 1, 0);
+        mChangedPage = SyntheticItems.page(mPageSize, 2, DELETE_INTERVAL);
+    }
+
+    /**
+     * Fills the index with the first sync before each iteration
+     */
+    @Setup(Level.Iteration)
+    public void fillIndex() {
+        mIndex = new ItemIndex();
+        mIndex.apply(mInitialPage);
+    }
+
+    /**
+     * Applies the first sync to an empty index
+     * @return The changes
+     */
+    @Benchmark
+    public List<DeltaChange> applyToEmptyIndex() {
+        return new ItemIndex().apply(mInitialPage);
+    }
+
+    /**
+     * Applies a page where nothing changed
+     * @return The changes
+     */
+    @Benchmark
+    public List<DeltaChange> applyUnchanged() {
+        return mIndex.apply(mInitialPage);
+    }
+
+    /**
+     * Applies a page that updates every item and deletes some, the index alternates between the two versions
+     * @return The changes
+     */
+    @Benchmark
+    public List<DeltaChange> applyChanged() {
+        final List<DeltaChange> changes = mIndex.apply(mChangedPage);
+        mIndex.apply(mInitialPage);
+        return changes;
+    }
+}
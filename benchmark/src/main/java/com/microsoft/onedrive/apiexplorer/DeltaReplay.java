@@ -0,0 +1,253 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a recorded delta feed through the steps a sync runs for each page: the local item index, the search index
+ * and the item tree, then saves the index. Reports the throughput, the bytes allocated per change and the heap the
+ * three structures retain, which the delta page benchmark cannot show. Run it with the gradle task of the same name
+ */
+public final class DeltaReplay {
+
+    /**
+     * The number of changes in the synthetic recording when none is given
+     */
+    private static final int DEFAULT_CHANGE_COUNT = 100000;
+
+    /**
+     * The number of items on each page of the feed, the service's page size for delta requests
+     */
+    private static final int PAGE_SIZE = 200;
+
+    /**
+     * One item in this many is deleted by the second half of the synthetic recording
+     */
+    private static final int DELETE_INTERVAL = 10;
+
+    /**
+     * The number of collections run before reading the heap, to let finalization and reference processing settle
+     */
+    private static final int GC_PASSES = 5;
+
+    /**
+     * The number of bytes in a kilobyte
+     */
+    private static final int BYTES_PER_KILOBYTE = 1024;
+
+    /**
+     * The local item index
+     */
+    private final ItemIndex mIndex = new ItemIndex();
+
+    /**
+     * The search index
+     */
+    private final SearchIndex mSearchIndex = new SearchIndex();
+
+    /**
+     * The item tree
+     */
+    private final ItemTree mTree = new ItemTree();
+
+    /**
+     * The number of changes the pages produced
+     */
+    private int mChangeCount;
+
+    /**
+     * Private constructor
+     */
+    private DeltaReplay() {
+    }
+
+    /**
+     * Replays a feed and prints what it cost
+     * @param args The number of changes to synthesize, or a recorded feed with the raw json of one item per line
+     * @throws IOException If the recording could not be read or the index could not be saved
+     */
+    public static void main(final String[] args) throws IOException {
+        final List<JsonObject> feed;
+        if (args.length > 0 && new File(args[0]).isFile()) {
+            feed = readRecording(new File(args[0]));
+        } else {
+            int changeCount = DEFAULT_CHANGE_COUNT;
+            if (args.length > 0) {
+                changeCount = Integer.parseInt(args[0]);
+            }
+            feed = synthesize(changeCount);
+        }
+
+        final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean)
+            ManagementFactory.getThreadMXBean();
+        final long thread = Thread.currentThread().getId();
+        final long heapBefore = getUsedHeap();
+        final DeltaReplay replay = new DeltaReplay();
+
+        final long allocatedBefore = threads.getThreadAllocatedBytes(thread);
+        final long start = System.nanoTime();
+        for (int page = 0; page < feed.size(); page += PAGE_SIZE) {
+            replay.applyPage(feed.subList(page, Math.min(page + PAGE_SIZE, feed.size())));
+        }
+        final long applied = System.nanoTime();
+        final File indexFile = File.createTempFile("index", ".bin");
+        replay.mIndex.writeTo(indexFile);
+        final long saved = System.nanoTime();
+        final long allocated = threads.getThreadAllocatedBytes(thread) - allocatedBefore;
+
+        final long retained = getUsedHeap() - heapBefore;
+        report(feed.size(), replay, applied - start, saved - applied, allocated, retained, indexFile.length());
+        if (!indexFile.delete()) {
+            indexFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Applies one page the way the sync engine does, the index first and then the search index and the tree with
+     * the changes it reports
+     * @param items The raw json of the items on the page
+     */
+    private void applyPage(final List<JsonObject> items) {
+        final List<DeltaChange> changes = mIndex.apply(items);
+        mChangeCount += changes.size();
+        for (final DeltaChange change : changes) {
+            if (change.getType() == DeltaChange.Type.Deleted) {
+                mSearchIndex.remove(change.getRecord().getId());
+            } else {
+                mSearchIndex.put(change.getRecord());
+            }
+        }
+
+        mTree.beginBatch();
+        for (final DeltaChange change : changes) {
+            if (change.getType() == DeltaChange.Type.Deleted) {
+                mTree.remove(change.getRecord().getId());
+            } else {
+                mTree.put(change.getRecord());
+            }
+        }
+        mTree.endBatch();
+    }
+
+    /**
+     * Builds a recording of a first sync of half the changes followed by a sync that updates every item and deletes
+     * some
+     * @param changeCount The number of items in the recording
+     * @return The raw json of the items, in feed order
+     */
+    private static List<JsonObject> synthesize(final int changeCount) {
+        final int itemCount = changeCount / 2;
+        final List<JsonObject> feed = new ArrayList<>(changeCount);
+        feed.addAll(SyntheticItems.page(itemCount, 1, 0));
+        feed.addAll(SyntheticItems.page(changeCount - itemCount, 2, DELETE_INTERVAL));
+        return feed;
+    }
+
+    /**
+     * Reads a recorded feed
+     * @param file The recording, with the raw json of one item per line as the service returned them
+     * @return The raw json of the items, in feed order
+     * @throws IOException If the recording could not be read
+     */
+    private static List<JsonObject> readRecording(final File file) throws IOException {
+        final List<JsonObject> feed = new ArrayList<>();
+        final JsonParser parser = new JsonParser();
+        final BufferedReader reader
+            = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charset.forName("UTF-8")));
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (!line.trim().isEmpty()) {
+                    feed.add(parser.parse(line).getAsJsonObject());
+                }
+            }
+        } finally {
+            reader.close();
+        }
+        return feed;
+    }
+
+    /**
+     * Prints the cost of a replay
+     * @param itemCount The number of items in the feed
+     * @param replay The replay
+     * @param applyNanos How long applying the pages took
+     * @param saveNanos How long saving the index took
+     * @param allocated The bytes allocated while applying the pages and saving the index
+     * @param retained The bytes the index, the search index and the tree retain
+     * @param indexBytes The size of the saved index
+     */
+    private static void report(final int itemCount,
+                               final DeltaReplay replay,
+                               final long applyNanos,
+                               final long saveNanos,
+                               final long allocated,
+                               final long retained,
+                               final long indexBytes) {
+        final long applyMillis = Math.max(1, TimeUnit.NANOSECONDS.toMillis(applyNanos));
+        System.out.println(String.format(Locale.ROOT,
+                                         "items=%d changes=%d apply=%dms changes/s=%d save=%dms",
+                                         itemCount,
+                                         replay.mChangeCount,
+                                         applyMillis,
+                                         replay.mChangeCount * TimeUnit.SECONDS.toMillis(1) / applyMillis,
+                                         TimeUnit.NANOSECONDS.toMillis(saveNanos)));
+        System.out.println(String.format(Locale.ROOT,
+                                         "allocated=%dKB bytes/change=%d",
+                                         allocated / BYTES_PER_KILOBYTE,
+                                         allocated / Math.max(1, replay.mChangeCount)));
+        System.out.println(String.format(Locale.ROOT,
+                                         "indexed=%d retained=%dKB bytes/item=%d saved index=%dKB",
+                                         replay.mIndex.size(),
+                                         retained / BYTES_PER_KILOBYTE,
+                                         retained / Math.max(1, replay.mIndex.size()),
+                                         indexBytes / BYTES_PER_KILOBYTE));
+    }
+
+    /**
+     * Collects garbage and reads how much of the heap is in use
+     * @return The used heap in bytes
+     */
+    private static long getUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < GC_PASSES; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,166 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures filling the item tree with a whole drive, binding a folder's rows from it and looking up children
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ItemTreeBenchmark {
+
+    /**
+     * The longest name a bound row makes room for
+     */
+    private static final int MAX_NAME_LENGTH = 256;
+
+    /**
+     * The number of items in the drive
+     */
+    @Param({"100000", "1000000"})
+    private int mItemCount;
+
+    /**
+     * The items of the drive
+     */
+    private List<ItemRecord> mRecords;
+
+    /**
+     * The tree of every item
+     */
+    private ItemTree mTree;
+
+    /**
+     * The row of a folder with a full page of children
+     */
+    private int mFolder;
+
+    /**
+     * The folder the moved item is moved to
+     */
+    private ItemRecord mMovedAway;
+
+    /**
+     * The moved item where it started
+     */
+    private ItemRecord mMovedBack;
+
+    /**
+     * Receives the names of bound rows
+     */
+    private final char[] mNameChars = new char[MAX_NAME_LENGTH];
+
+    /**
+     * The position of the next child looked up
+     */
+    private int mPosition;
+
+    /**
+     * Builds the drive and its tree
+     */
+    @Setup
+    public void setUp() {
+        mRecords = SyntheticItems.tree(mItemCount);
+        mTree = new ItemTree();
+        for (final ItemRecord record : mRecords) {
+            mTree.put(record);
+        }
+        mFolder = mTree.getRow(mRecords.get(0).getId());
+
+        mMovedBack = mRecords.get(1);
+        mMovedAway = new ItemRecord(mMovedBack.getId(),
+                                    mRecords.get(mItemCount / 2).getId(),
+                                    mMovedBack.getName(),
+                                    mMovedBack.getSize(),
+                                    mMovedBack.isFolder(),
+                                    mMovedBack.getMimeType(),
+                                    mMovedBack.getETag());
+    }
+
+    /**
+     * Puts every item of the drive into an empty tree
+     * @return The tree
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ItemTree build() {
+        final ItemTree tree = new ItemTree();
+        for (final ItemRecord record : mRecords) {
+            tree.put(record);
+        }
+        return tree;
+    }
+
+    /**
+     * Reads what the adapter binds for every child of a folder
+     * @return A value depending on everything read
+     */
+    @Benchmark
+    public long bindFolder() {
+        long checksum = 0;
+        final int count = mTree.getChildCount(mFolder);
+        for (int position = 0; position < count; position++) {
+            final int row = mTree.getChild(mFolder, position);
+            checksum += mTree.getNameChars(row, mNameChars);
+            checksum += mTree.getFacets(row);
+            checksum += mTree.getSize(row);
+        }
+        return checksum;
+    }
+
+    /**
+     * Looks up the child at a position of a folder
+     * @return The row of the child
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public int getChild() {
+        mPosition = (mPosition + 1) % mTree.getChildCount(mFolder);
+        return mTree.getChild(mFolder, mPosition);
+    }
+
+    /**
+     * Moves an item to another folder and back, as a delta page does for a moved item
+     * @return The tree
+     */
+    @Benchmark
+    public ItemTree moveItem() {
+        mTree.put(mMovedAway);
+        mTree.put(mMovedBack);
+        return mTree;
+    }
+}
@@ -0,0 +1,131 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Reports the heap the item tree takes per item, beside the same items held as records in a map the way the delta
+ * index holds them. Run it with the gradle task of the same name
+ */
+public final class ItemTreeFootprint {
+
+    /**
+     * The number of items when none is given
+     */
+    private static final int DEFAULT_ITEM_COUNT = 1000000;
+
+    /**
+     * The number of collections run before reading the heap, to let finalization and reference processing settle
+     */
+    private static final int GC_PASSES = 5;
+
+    /**
+     * The number of bytes in a kilobyte
+     */
+    private static final int BYTES_PER_KILOBYTE = 1024;
+
+    /**
+     * Private constructor
+     */
+    private ItemTreeFootprint() {
+    }
+
+    /**
+     * Fills a tree and a map of records with a synthetic drive and prints the heap each retains per item
+     * @param args The number of items, optionally
+     */
+    public static void main(final String[] args) {
+        int itemCount = DEFAULT_ITEM_COUNT;
+        if (args.length > 0) {
+            itemCount = Integer.parseInt(args[0]);
+        }
+
+        measureTree(itemCount);
+        measureRecords(itemCount);
+    }
+
+    /**
+     * Fills a tree and prints the heap it retains, the tree is garbage once this returns
+     * @param itemCount The number of items
+     */
+    private static void measureTree(final int itemCount) {
+        final long before = getUsedHeap();
+        final ItemTree tree = new ItemTree();
+        final Random random = SyntheticItems.newRandom();
+        for (int i = 0; i < itemCount; i++) {
+            tree.put(SyntheticItems.treeRecord(random, i));
+        }
+        // Read the heap before the tree is last used, so it cannot be collected first
+        final long retained = getUsedHeap() - before;
+        report("tree", tree.size(), retained);
+        System.out.println(String.format(Locale.ROOT, "tree arrays=%dKB", tree.getByteCount() / BYTES_PER_KILOBYTE));
+    }
+
+    /**
+     * Fills a map of records and prints the heap it retains, the map is garbage once this returns
+     * @param itemCount The number of items
+     */
+    private static void measureRecords(final int itemCount) {
+        final long before = getUsedHeap();
+        final Map<String, ItemRecord> records = new HashMap<>();
+        final Random random = SyntheticItems.newRandom();
+        for (int i = 0; i < itemCount; i++) {
+            final ItemRecord record = SyntheticItems.treeRecord(random, i);
+            records.put(record.getId(), record);
+        }
+        final long retained = getUsedHeap() - before;
+        report("records", records.size(), retained);
+    }
+
+    /**
+     * Prints the heap retained by a structure
+     * @param name The structure
+     * @param itemCount The number of items it holds
+     * @param retained The bytes it retains
+     */
+    private static void report(final String name, final int itemCount, final long retained) {
+        System.out.println(String.format(Locale.ROOT,
+                                         "%s items=%d retained=%dKB bytes/item=%d",
+                                         name,
+                                         itemCount,
+                                         retained / BYTES_PER_KILOBYTE,
+                                         retained / itemCount));
+    }
+
+    /**
+     * Collects garbage and reads how much of the heap is in use
+     * @return The used heap in bytes
+     */
+    private static long getUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < GC_PASSES; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
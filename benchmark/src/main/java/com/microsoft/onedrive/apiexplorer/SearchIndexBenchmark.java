@@ -0,0 +1,153 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures building the search index over a whole drive and answering the queries typed into the search dialog
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class SearchIndexBenchmark {
+
+    /**
+     * The number of results the search dialog asks for
+     */
+    private static final int LIMIT = 50;
+
+    /**
+     * The number of items in the drive
+     */
+    @Param({"100000", "500000"})
+    private int mItemCount;
+
+    /**
+     * The items of the drive
+     */
+    private List<ItemRecord> mRecords;
+
+    /**
+     * The index of every item
+     */
+    private SearchIndex mIndex;
+
+    /**
+     * The item renamed back and forth
+     */
+    private ItemRecord mRenamed;
+
+    /**
+     * The same item with its other name
+     */
+    private ItemRecord mOriginal;
+
+    /**
+     * Builds the drive and its index
+     */
+    @Setup
+    public void setUp() {
+        mRecords = SyntheticItems.tree(mItemCount);
+        mIndex = new SearchIndex();
+        mIndex.putAll(mRecords);
+        mOriginal = mRecords.get(mRecords.size() - 1);
+        mRenamed = new ItemRecord(mOriginal.getId(),
+                                  mOriginal.getParentId(),
+                                  "Renamed " + mOriginal.getName(),
+                                  mOriginal.getSize(),
+                                  mOriginal.isFolder(),
+                                  mOriginal.getMimeType(),
+                                  mOriginal.getETag());
+    }
+
+    /**
+     * Indexes every item of the drive
+     * @return The index
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public SearchIndex build() {
+        final SearchIndex index = new SearchIndex();
+        index.putAll(mRecords);
+        return index;
+    }
+
+    /**
+     * Searches for a short prefix matching many items, as after the first letters typed
+     * @return The results
+     */
+    @Benchmark
+    public List<ItemRecord> searchShortPrefix() {
+        return mIndex.search("ho", LIMIT);
+    }
+
+    /**
+     * Searches for two words that each match many items but rarely together
+     * @return The results
+     */
+    @Benchmark
+    public List<ItemRecord> searchTwoWords() {
+        return mIndex.search("wedding recei", LIMIT);
+    }
+
+    /**
+     * Searches for a word narrowed by a facet
+     * @return The results
+     */
+    @Benchmark
+    public List<ItemRecord> searchWithFacet() {
+        return mIndex.search("beach type:image", LIMIT);
+    }
+
+    /**
+     * Searches for a word that matches nothing
+     * @return The results
+     */
+    @Benchmark
+    public List<ItemRecord> searchMiss() {
+        return mIndex.search("zebra", LIMIT);
+    }
+
+    /**
+     * Renames an item and renames it back, as a listing or delta page does after a rename
+     * @return The index
+     */
+    @Benchmark
+    public SearchIndex rename() {
+        mIndex.put(mRenamed);
+        mIndex.put(mOriginal);
+        return mIndex;
+    }
+}
@@ -0,0 +1,93 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Reports the heap the search index takes per item, which the benchmarks cannot measure since they report
+ * allocation rather than retained size. Run it with the gradle task of the same name
+ */
+public final class SearchIndexFootprint {
+
+    /**
+     * The number of items indexed when none is given
+     */
+    private static final int DEFAULT_ITEM_COUNT = 500000;
+
+    /**
+     * The number of collections run before reading the heap, to let finalization and reference processing settle
+     */
+    private static final int GC_PASSES = 5;
+
+    /**
+     * The number of bytes in a kilobyte
+     */
+    private static final int BYTES_PER_KILOBYTE = 1024;
+
+    /**
+     * Private constructor
+     */
+    private SearchIndexFootprint() {
+    }
+
+    /**
+     * Indexes a synthetic drive and prints the heap retained per item
+     * @param args The number of items, optionally
+     */
+    public static void main(final String[] args) {
+        int itemCount = DEFAULT_ITEM_COUNT;
+        if (args.length > 0) {
+            itemCount = Integer.parseInt(args[0]);
+        }
+
+        final long before = getUsedHeap();
+        final SearchIndex index = new SearchIndex();
+        final Random random = SyntheticItems.newRandom();
+        for (int i = 0; i < itemCount; i++) {
+            index.put(SyntheticItems.treeRecord(random, i));
+        }
+        final long retained = getUsedHeap() - before;
+
+        System.out.println(String.format(Locale.ROOT,
+                                         "items=%d tokens=%d retained=%dKB bytes/item=%d",
+                                         index.getItemCount(),
+                                         index.getTokenCount(),
+                                         retained / BYTES_PER_KILOBYTE,
+                                         retained / index.getItemCount()));
+    }
+
+    /**
+     * Collects garbage and reads how much of the heap is in use
+     * @return The used heap in bytes
+     */
+    private static long getUsedHeap() {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < GC_PASSES; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,156 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures adding up the subtree totals of a whole drive on one thread and on every core, and keeping them current
+ * as an item moves
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class SubtreeStatsBenchmark {
+
+    /**
+     * The number of items in the drive
+     */
+    @Param({"100000", "1000000"})
+    private int mItemCount;
+
+    /**
+     * The tree of every item
+     */
+    private ItemTree mTree;
+
+    /**
+     * A snapshot of the tree
+     */
+    private ItemTree.Snapshot mSnapshot;
+
+    /**
+     * Runs the helper threads
+     */
+    private ExecutorService mExecutor;
+
+    /**
+     * The folder the moved item is moved to
+     */
+    private ItemRecord mMovedAway;
+
+    /**
+     * The moved item where it started
+     */
+    private ItemRecord mMovedBack;
+
+    /**
+     * Builds the drive, its tree and totals kept current with the tree
+     * @throws InterruptedException If interrupted while adding up the totals
+     */
+    @Setup
+    public void setUp() throws InterruptedException {
+        final List<ItemRecord> records = SyntheticItems.tree(mItemCount);
+        mTree = new ItemTree();
+        for (final ItemRecord record : records) {
+            mTree.put(record);
+        }
+        mSnapshot = mTree.snapshot();
+        final int processors = Runtime.getRuntime().availableProcessors();
+        mExecutor = Executors.newFixedThreadPool(processors);
+        mTree.addObserver(SubtreeStats.compute(mTree, mSnapshot, mExecutor, processors));
+
+        // A deep folder, so the move walks up a few levels
+        mMovedBack = records.get(records.size() - 1);
+        mMovedAway = new ItemRecord(mMovedBack.getId(),
+                                    records.get(records.size() / 2).getParentId(),
+                                    mMovedBack.getName(),
+                                    mMovedBack.getSize(),
+                                    mMovedBack.isFolder(),
+                                    mMovedBack.getMimeType(),
+                                    mMovedBack.getETag());
+    }
+
+    /**
+     * Stops the helper threads
+     */
+    @TearDown
+    public void tearDown() {
+        mExecutor.shutdown();
+    }
+
+    /**
+     * Adds up the totals on the calling thread alone
+     * @return The totals
+     * @throws InterruptedException Never, there are no other threads
+     */
+    @Benchmark
+    public SubtreeStats computeOnOneThread() throws InterruptedException {
+        return SubtreeStats.compute(mTree, mSnapshot, mExecutor, 1);
+    }
+
+    /**
+     * Adds up the totals on every core
+     * @return The totals
+     * @throws InterruptedException If interrupted while waiting for the helper threads
+     */
+    @Benchmark
+    public SubtreeStats computeOnEveryCore() throws InterruptedException {
+        return SubtreeStats.compute(mTree, mSnapshot, mExecutor, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Takes a snapshot to add up totals from
+     * @return The snapshot
+     */
+    @Benchmark
+    public ItemTree.Snapshot snapshot() {
+        return mTree.snapshot();
+    }
+
+    /**
+     * Moves an item to another folder and back with the totals kept current, as a delta page does for a moved item
+     * @return The tree
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    public ItemTree moveItem() {
+        mTree.put(mMovedAway);
+        mTree.put(mMovedBack);
+        return mTree;
+    }
+}
@@ -0,0 +1,237 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Builds item json shaped like the service's responses, from a fixed seed so every run sees the same items
+ */
+final class SyntheticItems {
+
+    /**
+     * The seed of the generated content
+     */
+    private static final long SEED = 0x0d21e;
+
+    /**
+     * One item in this many is a folder
+     */
+    private static final int FOLDER_INTERVAL = 8;
+
+    /**
+     * The largest generated file size
+     */
+    private static final int MAX_FILE_SIZE = 64 * 1024 * 1024;
+
+    /**
+     * The largest number of children given to a folder
+     */
+    private static final int MAX_CHILD_COUNT = 500;
+
+    /**
+     * The id of the folder the generated items belong to
+     */
+    private static final String PARENT_ID = "ROOT!101";
+
+    /**
+     * The number of items in each folder of a generated tree
+     */
+    private static final int TREE_FAN_OUT = 64;
+
+    /**
+     * The words generated names are made of
+     */
+    private static final String[] WORDS = {
+        "Annual", "Report", "Holiday", "Beach", "Invoice", "Budget", "Draft", "Final", "Family", "Photos",
+        "Meeting", "Notes", "Project", "Plan", "Summer", "Winter", "Receipt", "Contract", "Scan", "Backup",
+        "Presentation", "Slides", "Recipe", "Wedding", "Birthday", "Trip", "Screenshot", "Resume", "Letter", "Music",
+    };
+
+    /**
+     * The extensions and mime types of generated files
+     */
+    private static final String[][] FILE_TYPES = {
+        {"jpg", "image/jpeg"},
+        {"png", "image/png"},
+        {"docx", "application/vnd.openxmlformats-officedocument.wordprocessingml.document"},
+        {"pdf", "application/pdf"},
+        {"mp4", "video/mp4"},
+        {"txt", "text/plain"},
+    };
+
+    /**
+     * Private constructor
+     */
+    private SyntheticItems() {
+    }
+
+    /**
+     * Creates a source of generated content that produces the same content on every run
+     * @return The source
+     */
+    static Random newRandom() {
+        return new Random(SEED);
+    }
+
+    /**
+     * Builds the items of a delta page
+     * @param count The number of items
+     * @param version The version of the items, items of another version have the same ids but different eTags
+     * @param deleteInterval Every item at a multiple of this position is marked deleted, zero for none
+     * @return The raw json of the items
+     */
+    static List<JsonObject> page(final int count, final int version, final int deleteInterval) {
+        final Random random = new Random(SEED);
+        final List<JsonObject> items = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            final JsonObject item = item(random, i, version);
+            if (deleteInterval != 0 && i % deleteInterval == 0) {
+                item.add("deleted", new JsonObject());
+            }
+            items.add(item);
+        }
+        return items;
+    }
+
+    /**
+     * Builds a folder with its children expanded, like the response behind the json view
+     * @param childCount The number of children
+     * @return The raw json of the folder
+     */
+    static JsonObject folderWithChildren(final int childCount) {
+        final Random random = new Random(SEED);
+        final JsonObject folder = item(random, 0, 1);
+        final JsonArray children = new JsonArray();
+        for (int i = 1; i <= childCount; i++) {
+            children.add(item(random, i, 1));
+        }
+        folder.add("children", children);
+        return folder;
+    }
+
+    /**
+     * Builds the records of a tree of items with varied names, like the contents of a whole drive
+     * @param count The number of items
+     * @return The records, every folder comes before the items in it
+     */
+    static List<ItemRecord> tree(final int count) {
+        final Random random = newRandom();
+        final List<ItemRecord> records = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            records.add(treeRecord(random, i));
+        }
+        return records;
+    }
+
+    /**
+     * Builds one record of a tree, the first item is the root and the items after it fill folders in turn
+     * @param random The source of the generated content, called in order of position
+     * @param index The position of the item, which decides its id and parent
+     * @return The record
+     */
+    static ItemRecord treeRecord(final Random random, final int index) {
+        String parentId = null;
+        if (index != 0) {
+            parentId = treeId(((index - 1) / TREE_FAN_OUT) * FOLDER_INTERVAL);
+        }
+        final String words = WORDS[random.nextInt(WORDS.length)] + " " + WORDS[random.nextInt(WORDS.length)];
+        final String id = treeId(index);
+        final String eTag = "aRDoxNjs" + id + ".1";
+        if (index % FOLDER_INTERVAL == 0) {
+            return new ItemRecord(id, parentId, words + " " + index, 0, true, null, eTag);
+        }
+        final String[] type = FILE_TYPES[random.nextInt(FILE_TYPES.length)];
+        return new ItemRecord(id,
+                              parentId,
+                              words + " " + index + "." + type[0],
+                              random.nextInt(MAX_FILE_SIZE),
+                              false,
+                              type[1],
+                              eTag);
+    }
+
+    /**
+     * The id of an item of a tree
+     * @param index The position of the item
+     * @return The id
+     */
+    private static String treeId(final int index) {
+        return String.format(Locale.ROOT, "%016X!%d", SEED, index);
+    }
+
+    /**
+     * Builds a single file or folder
+     * @param random The source of the generated content
+     * @param index The position of the item, which decides its id
+     * @param version The version of the item
+     * @return The raw json of the item
+     */
+    private static JsonObject item(final Random random, final int index, final int version) {
+        final String id = String.format(Locale.ROOT, "%016X!%d", SEED, index);
+        final JsonObject item = new JsonObject();
+        item.addProperty("id", id);
+        item.addProperty("eTag", String.format(Locale.ROOT, "aRDoxNjs%s.%d", id, version));
+        item.addProperty("cTag", String.format(Locale.ROOT, "adDoxNjs%s.%d", id, version));
+        item.addProperty("createdDateTime", "2015-11-13T10:16:43.123Z");
+        item.addProperty("lastModifiedDateTime", "2015-11-13T10:16:43.123Z");
+        item.addProperty("webUrl", "https://onedrive.live.com/redir?resid=" + id);
+
+        final JsonObject user = new JsonObject();
+        user.addProperty("displayName", "Synthetic User");
+        user.addProperty("id", "0000000000000101");
+        final JsonObject identity = new JsonObject();
+        identity.add("user", user);
+        item.add("createdBy", identity);
+        item.add("lastModifiedBy", identity);
+
+        final JsonObject parentReference = new JsonObject();
+        parentReference.addProperty("driveId", "0000000000000101");
+        parentReference.addProperty("id", PARENT_ID);
+        parentReference.addProperty("path", "/drive/root:");
+        item.add("parentReference", parentReference);
+
+        if (index % FOLDER_INTERVAL == 0) {
+            item.addProperty("name", "Folder " + index);
+            item.addProperty("size", random.nextInt(MAX_FILE_SIZE));
+            final JsonObject folder = new JsonObject();
+            folder.addProperty("childCount", random.nextInt(MAX_CHILD_COUNT));
+            item.add("folder", folder);
+        } else {
+            final String[] type = FILE_TYPES[random.nextInt(FILE_TYPES.length)];
+            item.addProperty("name", "File " + index + "." + type[0]);
+            item.addProperty("size", random.nextInt(MAX_FILE_SIZE));
+            final JsonObject file = new JsonObject();
+            file.addProperty("mimeType", type[1]);
+            item.add("file", file);
+        }
+        return item;
+    }
+}
@@ -0,0 +1,162 @@
+// ------------------------------------------------------------------------------
+// Copyright (c) 2015 Microsoft Corporation
+// 
+// Permission is hereby granted, free of charge, to any person obtaining a copy
+// of this software and associated documentation files (the "Software"), to deal
+// in the Software without restriction, including without limitation the rights
+// to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+// copies of the Software, and to permit persons to whom the Software is
+// furnished to do so, subject to the following conditions:
+// 
+// The above copyright notice and this permission notice shall be included in
+// all copies or substantial portions of the Software.
+// 
+// THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+// IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+// FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+// AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+// LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+// OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+// THE SOFTWARE.
+// ------------------------------------------------------------------------------
+
+
+package com.microsoft.onedrive.apiexplorer;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Random;
+
+/**
+ * Measures sending a chunk of a local file as a request body, through {@link UploadBody} and through the two heap
+ * copying approaches it replaced
+ */
+@State(Scope.Thread)
+public class UploadBodyBenchmark {
+
+    /**
+     * The size of the buffer the byte array stream approach read with
+     */
+    private static final int STREAM_BUFFER_SIZE = 4096;
+
+    /**
+     * The size of the chunk
+     */
+    @Param({"327680", "1638400"})
+    private int mChunkSize;
+
+    /**
+     * The local file, one chunk long
+     */
+    private File mFile;
+
+    /**
+     * The open file
+     */
+    private FileInputStream mStream;
+
+    /**
+     * The reused chunk buffer of the pooled buffer approach
+     */
+    private ByteBuffer mBuffer;
+
+    /**
+     * Writes the local file
+     * @throws IOException If the file could not be written
+     */
+    @Setup
+    public void setUp() throws IOException {
+        final byte[] content = new byte[mChunkSize];
+        new Random(mChunkSize).nextBytes(content);
+        mFile = File.createTempFile("upload", ".bin");
+        final OutputStream output = new FileOutputStream(mFile);
+        try {
+            output.write(content);
+        } finally {
+            output.close();
+        }
+        mStream = new FileInputStream(mFile);
+        mBuffer = ByteBuffer.allocate(mChunkSize);
+    }
+
+    /**
+     * Removes the local file
+     * @throws IOException If the file could not be closed
+     */
+    @TearDown
+    public void tearDown() throws IOException {
+        mStream.close();
+        if (!mFile.delete()) {
+            mFile.deleteOnExit();
+        }
+    }
+
+    /**
+     * Transfers the chunk from the file channel, as uploads do now
+     * @return The bytes sent
+     * @throws IOException If the file could not be read
+     */
+    @Benchmark
+    public long uploadBody() throws IOException {
+        final DiscardingOutputStream output = new DiscardingOutputStream();
+        new UploadBody(mStream.getChannel(), 0, mChunkSize).writeTo(output);
+        return output.getCount();
+    }
+
+    /**
+     * Reads the chunk into a reused heap buffer and writes its array, as chunked uploads did at first
+     * @return The bytes sent
+     * @throws IOException If the file could not be read
+     */
+    @Benchmark
+    public long pooledBuffer() throws IOException {
+        final FileChannel channel = mStream.getChannel();
+        mBuffer.clear();
+        int n = 0;
+        while (mBuffer.hasRemaining() && n != -1) {
+            n = channel.read(mBuffer, mBuffer.position());
+        }
+        mBuffer.flip();
+        final DiscardingOutputStream output = new DiscardingOutputStream();
+        output.write(mBuffer.array(), mBuffer.arrayOffset(), mBuffer.remaining());
+        return output.getCount();
+    }
+
+    /**
+     * Copies the file through a byte array stream into a new array and writes that, as whole file uploads did
+     * @return The bytes sent
+     * @throws IOException If the file could not be read
+     */
+    @Benchmark
+    public long byteArrayStream() throws IOException {
+        final InputStream input = new FileInputStream(mFile);
+        final ByteArrayOutputStream copy = new ByteArrayOutputStream();
+        try {
+            final byte[] buffer = new byte[STREAM_BUFFER_SIZE];
+            int n;
+            while (-1 != (n = input.read(buffer))) {
+                copy.write(buffer, 0, n);
+            }
+        } finally {
+            input.close();
+        }
+        final byte[] bytes = copy.toByteArray();
+        final DiscardingOutputStream output = new DiscardingOutputStream();
+        output.write(bytes, 0, bytes.length);
+        return output.getCount();
+    }
+}